@@ -12,7 +12,6 @@ package com.wealdtech.services;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.collect.Iterables;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import com.wealdtech.Application;
@@ -21,8 +20,6 @@ import com.wealdtech.datastore.repositories.ApplicationRepositoryPostgreSqlImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.sql.PreparedStatement;
-
 /**
  * Application service using PostgreSQL as a backend
  */
@@ -32,41 +29,31 @@ public class ApplicationServicePostgreSqlImpl extends WObjectServicePostgreSqlIm
 
   private static final TypeReference<Application> APPLICATION_TYPE_REFERENCE = new TypeReference<Application>() {};
 
+  // Applications are obtained on every request, so are cached
+  private final WObjectServiceCachingPostgreSqlImpl<Application> cache;
+
   @Inject
   public ApplicationServicePostgreSqlImpl(final ApplicationRepositoryPostgreSqlImpl repository, @Named("dbmapper") final ObjectMapper mapper)
   {
     super(repository, mapper, "application");
+    cache = new WObjectServiceCachingPostgreSqlImpl<>(this, repository, "application");
   }
 
   @Override
   public void create(final Application application)
   {
-    super.add(application);
+    cache.add(application);
   }
 
   @Override
   public Application obtain(final WID<Application> appId)
   {
-    return Iterables.getFirst(obtain(APPLICATION_TYPE_REFERENCE, new WObjectServiceCallbackPostgreSqlImpl()
-    {
-      @Override
-      public String getConditions()
-      {
-        return "d @> ?";
-      }
-
-      @Override
-      public void setConditionValues(final PreparedStatement stmt)
-      {
-        int index = 1;
-        setJson(stmt, index++, "{\"_id\":\"" + appId.toString() + "\"}");
-      }
-    }), null);
+    return cache.obtainItem(APPLICATION_TYPE_REFERENCE, appId);
   }
 
   @Override
   public void remove(final Application application)
   {
-    super.remove(application.getId());
+    cache.remove(application.getId());
   }
 }
@@ -27,7 +27,9 @@ public class Application extends WObject<Application> implements Comparable<Appl
 {
   private static final Logger LOG = LoggerFactory.getLogger(Application.class);
 
+  @WObjectKey
   private static final String NAME = "name";
+  @WObjectKey
   private static final String OWNER_ID = "ownerid";
 
   @JsonCreator
@@ -51,13 +53,13 @@ public class Application extends WObject<Application> implements Comparable<Appl
   @JsonIgnore
   public String getName()
   {
-    return get(NAME, String.class).get();
+    return ApplicationAccessors.getName(this).get();
   }
 
   @JsonIgnore
   public String getOwnerId()
   {
-    return get(OWNER_ID, String.class).get();
+    return ApplicationAccessors.getOwnerId(this).get();
   }
 
   public static class Builder<P extends Builder<P>> extends WObject.Builder<Application, P>
@@ -38,7 +38,7 @@ public class PasswordAuthenticator implements Authenticator
       {
         if (Objects.equal(method.getType(), PasswordAuthenticationMethod.PASSWORD_AUTHENTICATION))
         {
-          final PasswordAuthenticationMethod passwordMethod = WObject.recast(method, PasswordAuthenticationMethod.class);
+          final PasswordAuthenticationMethod passwordMethod = WObject.recastShared(method, PasswordAuthenticationMethod.class);
           if (Hash.matches(passwordCredentials.getPassword(), passwordMethod.getPassword()))
           {
             scope = method.getScope();
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.benchmarks;
+
+import com.google.common.collect.ImmutableSet;
+import com.wealdtech.Email;
+import com.wealdtech.User;
+import com.wealdtech.WID;
+import com.wealdtech.authentication.AuthenticationMethod;
+import com.wealdtech.authentication.AuthorisationScope;
+import com.wealdtech.authentication.TokenAuthenticationMethod;
+import com.wealdtech.chat.Message;
+import com.wealdtech.chat.MessageScope;
+import com.wealdtech.chat.Topic;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+/**
+ * Realistic documents for use in benchmarks
+ */
+public class Documents
+{
+  /**
+   * Create a user
+   *
+   * @param index a number to make the user unique
+   * @param emails the number of email addresses the user has
+   *
+   * @return the user
+   */
+  public static User user(final int index, final int emails)
+  {
+    final ImmutableSet.Builder<Email> emailsB = ImmutableSet.builder();
+    for (int i = 0; i < emails; i++)
+    {
+      emailsB.add(Email.builder().address("user" + index + "." + i + "@example.com").primary(i == 0).verified(true).build());
+    }
+    final ImmutableSet<AuthenticationMethod> authenticationMethods =
+        ImmutableSet.<AuthenticationMethod>of(TokenAuthenticationMethod.builder()
+                                                                       .token("token" + index)
+                                                                       .scope(AuthorisationScope.FULL)
+                                                                       .build());
+    return User.builder()
+               .id(WID.<User>fromLong((long)index))
+               .name("Test user " + index)
+               .emails(emailsB.build())
+               .authenticationMethods(authenticationMethods)
+               .build();
+  }
+
+  /**
+   * Create a message
+   *
+   * @param index a number to make the message unique
+   * @param recipients the number of users to whom the message is addressed
+   *
+   * @return the message
+   */
+  public static Message message(final int index, final int recipients)
+  {
+    final ImmutableSet.Builder<WID<User>> toB = ImmutableSet.builder();
+    for (int i = 0; i < recipients; i++)
+    {
+      toB.add(WID.<User>fromLong((long)(index + i + 1)));
+    }
+    return Message.builder()
+                  .id(WID.<Message>fromLong((long)index))
+                  .from(WID.<User>fromLong((long)index))
+                  .scope(MessageScope.GROUP)
+                  .to(toB.build())
+                  .timestamp(new DateTime(1420070400000L + index * 1000L, DateTimeZone.UTC))
+                  .text("This is test message number " + index)
+                  .build();
+  }
+
+  /**
+   * Create a topic
+   *
+   * @param index a number to make the topic unique
+   * @param participants the number of users participating in the topic
+   *
+   * @return the topic
+   */
+  public static Topic topic(final int index, final int participants)
+  {
+    final ImmutableSet.Builder<WID<User>> participantsB = ImmutableSet.builder();
+    for (int i = 0; i < participants; i++)
+    {
+      participantsB.add(WID.<User>fromLong((long)(index + i)));
+    }
+    return Topic.builder()
+                .id(WID.<Topic>fromLong((long)index))
+                .name("Test topic " + index)
+                .ownerIds(ImmutableSet.of(WID.<User>fromLong((long)index)))
+                .participantIds(participantsB.build())
+                .build();
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.benchmarks;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.collect.ImmutableSet;
+import com.wealdtech.User;
+import com.wealdtech.WID;
+import com.wealdtech.authentication.AuthenticationMethod;
+import com.wealdtech.chat.Topic;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the generic typed lookup of values with the generated accessors used by the getters of opted-in classes
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WObjectAccessorBenchmark
+{
+  private static final TypeReference<ImmutableSet<WID<User>>> PARTICIPANT_IDS_TYPEREF =
+      new TypeReference<ImmutableSet<WID<User>>>() {};
+  private static final TypeReference<ImmutableSet<AuthenticationMethod>> AUTHENTICATION_METHODS_TYPEREF =
+      new TypeReference<ImmutableSet<AuthenticationMethod>>() {};
+
+  private Topic topic;
+  private User user;
+
+  @Setup
+  public void setUp()
+  {
+    topic = Documents.topic(1, 10);
+    user = Documents.user(1, 3);
+  }
+
+  @Benchmark
+  public Object genericParticipantIds()
+  {
+    return topic.get("participantids", PARTICIPANT_IDS_TYPEREF).get();
+  }
+
+  @Benchmark
+  public Object generatedParticipantIds()
+  {
+    return topic.getParticipantIds();
+  }
+
+  @Benchmark
+  public Object genericName()
+  {
+    return topic.get("name", String.class).get();
+  }
+
+  @Benchmark
+  public Object generatedName()
+  {
+    return topic.getName();
+  }
+
+  @Benchmark
+  public Object genericAuthenticationMethods()
+  {
+    return user.get("authenticationmethods", AUTHENTICATION_METHODS_TYPEREF).get();
+  }
+
+  @Benchmark
+  public Object generatedAuthenticationMethods()
+  {
+    return user.getAuthenticationMethods();
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.benchmarks;
+
+import com.wealdtech.User;
+import com.wealdtech.chat.Topic;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copy-and-modify of typical documents through their builders, as carried out when a single field of a stored object is updated
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WObjectBuilderBenchmark
+{
+  private User user;
+  private Topic topic;
+
+  @Setup
+  public void setUp()
+  {
+    user = Documents.user(1, 3);
+    topic = Documents.topic(1, 20);
+  }
+
+  @Benchmark
+  public User modifyUser()
+  {
+    return User.builder(user).name("Renamed user").build();
+  }
+
+  @Benchmark
+  public Topic modifyTopic()
+  {
+    return Topic.builder(topic).name("Renamed topic").build();
+  }
+}
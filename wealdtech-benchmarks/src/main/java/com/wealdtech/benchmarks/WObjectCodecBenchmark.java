@@ -0,0 +1,106 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.benchmarks;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.wealdtech.User;
+import com.wealdtech.chat.Message;
+import com.wealdtech.jackson.Codec;
+import com.wealdtech.jackson.WealdMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the speed of the available encodings for typical documents: a single user and a batch of messages.  Run this class
+ * directly to print the encoded sizes
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WObjectCodecBenchmark
+{
+  private static final TypeReference<ImmutableList<Message>> MESSAGES_TYPEREF = new TypeReference<ImmutableList<Message>>() {};
+
+  @Param({"JSON", "SMILE"})
+  public Codec codec;
+
+  private ObjectMapper mapper;
+
+  private User user;
+  private byte[] userBytes;
+  private ImmutableList<Message> messages;
+  private byte[] messagesBytes;
+
+  @Setup
+  public void setUp() throws IOException
+  {
+    mapper = WealdMapper.getServerMapper(codec);
+    user = Documents.user(1, 3);
+    userBytes = mapper.writeValueAsBytes(user);
+    messages = messages();
+    messagesBytes = mapper.writeValueAsBytes(messages);
+  }
+
+  private static ImmutableList<Message> messages()
+  {
+    final ImmutableList.Builder<Message> messagesB = ImmutableList.builder();
+    for (int i = 0; i < 100; i++)
+    {
+      messagesB.add(Documents.message(i, 3));
+    }
+    return messagesB.build();
+  }
+
+  @Benchmark
+  public byte[] serializeUser() throws IOException
+  {
+    return mapper.writeValueAsBytes(user);
+  }
+
+  @Benchmark
+  public User deserializeUser() throws IOException
+  {
+    return mapper.readValue(userBytes, User.class);
+  }
+
+  @Benchmark
+  public byte[] serializeMessages() throws IOException
+  {
+    return mapper.writeValueAsBytes(messages);
+  }
+
+  @Benchmark
+  public ImmutableList<Message> deserializeMessages() throws IOException
+  {
+    return mapper.readValue(messagesBytes, MESSAGES_TYPEREF);
+  }
+
+  public static void main(final String[] args) throws IOException
+  {
+    final User user = Documents.user(1, 3);
+    final ImmutableList<Message> messages = messages();
+    for (final Codec codec : Codec.values())
+    {
+      final ObjectMapper mapper = WealdMapper.getServerMapper(codec);
+      System.out.println(String.format("%-6s user %5d bytes, 100 messages %6d bytes",
+                                       codec,
+                                       mapper.writeValueAsBytes(user).length,
+                                       mapper.writeValueAsBytes(messages).length));
+    }
+  }
+}
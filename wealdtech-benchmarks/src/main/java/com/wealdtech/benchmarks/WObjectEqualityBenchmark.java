@@ -0,0 +1,124 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.wealdtech.User;
+import com.wealdtech.WObject;
+import com.wealdtech.WObjectEquivalence;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare structural hashing and equality of WObjects with hashing and comparing their serialized forms, over large sets of users
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WObjectEqualityBenchmark
+{
+  @Param({"1000", "10000"})
+  public int users;
+
+  private ObjectMapper mapper;
+  private WObjectEquivalence equivalence;
+
+  // Two sets of equivalent users; one created natively and one deserialized from the first
+  private ImmutableList<User> natives;
+  private ImmutableList<User> deserialized;
+  private ImmutableSet<User> nativeSet;
+  private ImmutableSet<User> deserializedSet;
+
+  @Setup
+  public void setUp()
+  {
+    mapper = WObject.getObjectMapper();
+    equivalence = new WObjectEquivalence(mapper);
+
+    final ImmutableList.Builder<User> nativesB = ImmutableList.builder();
+    final ImmutableList.Builder<User> deserializedB = ImmutableList.builder();
+    for (int i = 0; i < users; i++)
+    {
+      final User user = Documents.user(i, 2);
+      nativesB.add(user);
+      deserializedB.add(WObject.deserialize(WObject.serialize(user), User.class));
+    }
+    natives = nativesB.build();
+    deserialized = deserializedB.build();
+    nativeSet = ImmutableSet.copyOf(natives);
+    deserializedSet = ImmutableSet.copyOf(deserialized);
+  }
+
+  @Benchmark
+  public int serializedHash() throws JsonProcessingException
+  {
+    int result = 0;
+    for (final User user : natives)
+    {
+      result += mapper.writeValueAsString(user.getData()).hashCode();
+    }
+    return result;
+  }
+
+  @Benchmark
+  public int structuralHash()
+  {
+    int result = 0;
+    for (final User user : natives)
+    {
+      result += equivalence.hash(user.getAllData());
+    }
+    return result;
+  }
+
+  @Benchmark
+  public int serializedCompare() throws JsonProcessingException
+  {
+    int result = 0;
+    for (int i = 0; i < users; i++)
+    {
+      result += mapper.writeValueAsString(natives.get(i).getData())
+                      .compareTo(mapper.writeValueAsString(deserialized.get(i).getData()));
+    }
+    return result;
+  }
+
+  @Benchmark
+  public int structuralCompare()
+  {
+    int result = 0;
+    for (int i = 0; i < users; i++)
+    {
+      result += natives.get(i).compareTo(deserialized.get(i));
+    }
+    return result;
+  }
+
+  @Benchmark
+  public ImmutableSet<User> buildSet()
+  {
+    return ImmutableSet.copyOf(deserialized);
+  }
+
+  @Benchmark
+  public int setDifference()
+  {
+    return Sets.difference(nativeSet, deserializedSet).size();
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.benchmarks;
+
+import com.wealdtech.WObject;
+
+/**
+ * Measure the heap retained by typical documents.  This is not a JMH benchmark: it builds a large number of documents, holds on to
+ * them and reports the growth in used heap per document.  For stable results run with a fixed heap, for example
+ * {@code -Xms2g -Xmx2g}
+ */
+public class WObjectFootprint
+{
+  private static final int COUNT = 100000;
+
+  private interface Factory
+  {
+    WObject<?> create(int index);
+  }
+
+  public static void main(final String[] args)
+  {
+    report("User (1 email)", new Factory()
+    {
+      @Override
+      public WObject<?> create(final int index)
+      {
+        return Documents.user(index, 1);
+      }
+    });
+    report("User (3 emails)", new Factory()
+    {
+      @Override
+      public WObject<?> create(final int index)
+      {
+        return Documents.user(index, 3);
+      }
+    });
+    report("Message (1 recipient)", new Factory()
+    {
+      @Override
+      public WObject<?> create(final int index)
+      {
+        return Documents.message(index, 1);
+      }
+    });
+    report("Message (5 recipients)", new Factory()
+    {
+      @Override
+      public WObject<?> create(final int index)
+      {
+        return Documents.message(index, 5);
+      }
+    });
+    report("Topic (5 participants)", new Factory()
+    {
+      @Override
+      public WObject<?> create(final int index)
+      {
+        return Documents.topic(index, 5);
+      }
+    });
+  }
+
+  private static void report(final String name, final Factory factory)
+  {
+    // Warm up so that shapes, type information and the like are not counted against the documents
+    for (int i = 0; i < 1000; i++)
+    {
+      factory.create(i);
+    }
+
+    final long before = usedHeap();
+    final WObject<?>[] documents = new WObject<?>[COUNT];
+    for (int i = 0; i < COUNT; i++)
+    {
+      documents[i] = factory.create(i);
+    }
+    final long after = usedHeap();
+
+    // Keep the documents reachable until measurement is complete
+    if (documents[COUNT - 1] == null)
+    {
+      throw new IllegalStateException();
+    }
+    System.out.println(String.format("%-24s %8d bytes/document", name, (after - before) / COUNT));
+  }
+
+  private static long usedHeap()
+  {
+    final Runtime runtime = Runtime.getRuntime();
+    long used = Long.MAX_VALUE;
+    // Collection is only a request, so keep going until the figure settles
+    for (int i = 0; i < 10; i++)
+    {
+      System.gc();
+      try
+      {
+        Thread.sleep(50);
+      }
+      catch (final InterruptedException ie)
+      {
+        Thread.currentThread().interrupt();
+      }
+      used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+    }
+    return used;
+  }
+}
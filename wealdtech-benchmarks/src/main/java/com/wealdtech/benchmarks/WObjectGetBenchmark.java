@@ -0,0 +1,105 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.benchmarks;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.wealdtech.GenericWObject;
+import com.wealdtech.WID;
+import com.wealdtech.WObject;
+import com.wealdtech.WObjectConverter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare conversion of raw WObject values to typed values through the JSON string round-trip that WObject used to carry out
+ * with direct conversion through {@link WObjectConverter}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WObjectGetBenchmark
+{
+  private static final TypeReference<ImmutableSet<WID<GenericWObject>>> IDS_TYPEREF =
+      new TypeReference<ImmutableSet<WID<GenericWObject>>>() {};
+  private static final TypeReference<ImmutableSet<GenericWObject>> OBJS_TYPEREF =
+      new TypeReference<ImmutableSet<GenericWObject>>() {};
+
+  private ObjectMapper mapper;
+  private WObjectConverter converter;
+
+  // Raw values as they are held in a WObject after deserialization
+  private ImmutableList<String> ids;
+  private ImmutableList<ImmutableMap<String, Object>> objs;
+  private Integer count;
+
+  @Setup
+  public void setUp()
+  {
+    mapper = WObject.getObjectMapper();
+    converter = new WObjectConverter(mapper);
+
+    final ImmutableList.Builder<String> idsB = ImmutableList.builder();
+    final ImmutableList.Builder<ImmutableMap<String, Object>> objsB = ImmutableList.builder();
+    for (int i = 0; i < 10; i++)
+    {
+      idsB.add(WID.generate().toString());
+      objsB.add(ImmutableMap.<String, Object>of("address", "user" + i + "@example.com", "primary", i == 0, "verified", true));
+    }
+    ids = idsB.build();
+    objs = objsB.build();
+    count = 1234;
+  }
+
+  @Benchmark
+  public Object stringIds() throws IOException
+  {
+    return mapper.readValue(mapper.writeValueAsString(ids), IDS_TYPEREF);
+  }
+
+  @Benchmark
+  public Object convertIds() throws IOException
+  {
+    return converter.convert(ids, converter.target(IDS_TYPEREF.getType()));
+  }
+
+  @Benchmark
+  public Object stringObjs() throws IOException
+  {
+    return mapper.readValue(mapper.writeValueAsString(objs), OBJS_TYPEREF);
+  }
+
+  @Benchmark
+  public Object convertObjs() throws IOException
+  {
+    return converter.convert(objs, converter.target(OBJS_TYPEREF.getType()));
+  }
+
+  @Benchmark
+  public Object stringLong() throws IOException
+  {
+    return mapper.readValue(mapper.writeValueAsString(count), Long.class);
+  }
+
+  @Benchmark
+  public Object convertLong() throws IOException
+  {
+    return converter.convert(count, converter.target(Long.class));
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.benchmarks;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.wealdtech.GenericWObject;
+import com.wealdtech.User;
+import com.wealdtech.WObject;
+import com.wealdtech.chat.Message;
+import com.wealdtech.chat.Topic;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The core operations of the WObject model on each of the main document types, at several sizes.  The size is the number of
+ * entries in the document's collection: email addresses for users, recipients for messages and participants for topics.
+ * <p/>
+ * This is the benchmark to track between commits; run it through the {@code jmhResults} task to obtain allocation rates and a
+ * results file
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WObjectModelBenchmark
+{
+  private static final TypeReference<Map<String, Object>> DATA_TYPEREF = new TypeReference<Map<String, Object>>() {};
+
+  public enum Document
+  {
+    USER
+    {
+      @Override
+      WObject<?> create(final int size){ return Documents.user(1, size); }
+
+      @Override
+      WObject<?> construct(final Map<String, Object> data){ return new User(data); }
+
+      @Override
+      WObject<?> modify(final WObject<?> obj){ return User.builder((User)obj).name("Renamed user").build(); }
+
+      @Override
+      Object get(final WObject<?> obj){ return ((User)obj).getEmails(); }
+    },
+    MESSAGE
+    {
+      @Override
+      WObject<?> create(final int size){ return Documents.message(1, size); }
+
+      @Override
+      WObject<?> construct(final Map<String, Object> data){ return new Message(data); }
+
+      @Override
+      WObject<?> modify(final WObject<?> obj){ return Message.builder((Message)obj).text("Edited message").build(); }
+
+      @Override
+      Object get(final WObject<?> obj){ return ((Message)obj).getTo(); }
+    },
+    TOPIC
+    {
+      @Override
+      WObject<?> create(final int size){ return Documents.topic(1, size); }
+
+      @Override
+      WObject<?> construct(final Map<String, Object> data){ return new Topic(data); }
+
+      @Override
+      WObject<?> modify(final WObject<?> obj){ return Topic.builder((Topic)obj).name("Renamed topic").build(); }
+
+      @Override
+      Object get(final WObject<?> obj){ return ((Topic)obj).getParticipantIds(); }
+    };
+
+    abstract WObject<?> create(int size);
+
+    abstract WObject<?> construct(Map<String, Object> data);
+
+    abstract WObject<?> modify(WObject<?> obj);
+
+    abstract Object get(WObject<?> obj);
+  }
+
+  @Param({"USER", "MESSAGE", "TOPIC"})
+  public Document document;
+
+  @Param({"1", "10", "100"})
+  public int size;
+
+  private WObject<?> obj;
+  private WObject<?> copy;
+  private Map<String, Object> data;
+  private String json;
+
+  @Setup
+  public void setUp() throws IOException
+  {
+    obj = document.create(size);
+    // An equal object which shares nothing with the original, as would be the case for one read separately from the database
+    copy = document.create(size);
+    json = WObject.serialize(obj);
+    // Data as it is passed to the constructor when deserializing
+    data = WObject.getObjectMapper().readValue(json, DATA_TYPEREF);
+  }
+
+  @Benchmark
+  public Object construct()
+  {
+    return document.construct(data);
+  }
+
+  @Benchmark
+  public Object build()
+  {
+    return document.modify(obj);
+  }
+
+  @Benchmark
+  public Object get()
+  {
+    return document.get(obj);
+  }
+
+  @Benchmark
+  public String toStringObject()
+  {
+    return obj.toString();
+  }
+
+  @Benchmark
+  public int hashCodeObject()
+  {
+    return obj.hashCode();
+  }
+
+  @Benchmark
+  public boolean equalsObject()
+  {
+    return obj.equals(copy);
+  }
+
+  @Benchmark
+  public String serialize()
+  {
+    return WObject.serialize(obj);
+  }
+
+  @Benchmark
+  public Object deserialize()
+  {
+    return WObject.deserialize(json, obj.getClass());
+  }
+
+  @Benchmark
+  public Object recast()
+  {
+    return WObject.recast(obj, GenericWObject.class);
+  }
+}
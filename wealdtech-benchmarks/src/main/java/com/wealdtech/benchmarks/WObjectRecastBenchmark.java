@@ -0,0 +1,63 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.benchmarks;
+
+import com.wealdtech.User;
+import com.wealdtech.WObject;
+import com.wealdtech.authentication.AuthenticationMethod;
+import com.wealdtech.authentication.TokenAuthenticationMethod;
+import com.wealdtech.jackson.WealdMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recasting of an authentication method as read from the datastore to its concrete class, as carried out for every authenticated
+ * request.  The reflective benchmark shows the cost of creating the object through reflection for comparison
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WObjectRecastBenchmark
+{
+  private AuthenticationMethod authenticationMethod;
+
+  @Setup
+  public void setUp() throws IOException
+  {
+    final String userJson = WealdMapper.getServerMapper().writeValueAsString(Documents.user(1, 1));
+    final User user = WealdMapper.getServerMapper().readValue(userJson, User.class);
+    authenticationMethod = user.getAuthenticationMethods().iterator().next();
+  }
+
+  @Benchmark
+  public TokenAuthenticationMethod reflective() throws ReflectiveOperationException
+  {
+    return TokenAuthenticationMethod.class.getConstructor(Map.class).newInstance(authenticationMethod.getAllData());
+  }
+
+  @Benchmark
+  public TokenAuthenticationMethod recast()
+  {
+    return WObject.recast(authenticationMethod, TokenAuthenticationMethod.class);
+  }
+
+  @Benchmark
+  public TokenAuthenticationMethod recastShared()
+  {
+    return WObject.recastShared(authenticationMethod, TokenAuthenticationMethod.class);
+  }
+}
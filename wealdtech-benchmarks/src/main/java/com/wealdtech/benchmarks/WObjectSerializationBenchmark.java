@@ -0,0 +1,74 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wealdtech.User;
+import com.wealdtech.chat.Message;
+import com.wealdtech.jackson.WealdMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization and deserialization of typical documents with the server mapper, as carried out on every datastore read and every
+ * HTTP response.  Run with {@code -prof gc} to see allocation rates
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WObjectSerializationBenchmark
+{
+  private ObjectMapper mapper;
+
+  private User user;
+  private String userJson;
+  private Message message;
+  private String messageJson;
+
+  @Setup
+  public void setUp() throws IOException
+  {
+    mapper = WealdMapper.getServerMapper();
+    user = Documents.user(1, 3);
+    userJson = mapper.writeValueAsString(user);
+    message = Documents.message(1, 5);
+    messageJson = mapper.writeValueAsString(message);
+  }
+
+  @Benchmark
+  public String serializeUser() throws IOException
+  {
+    return mapper.writeValueAsString(user);
+  }
+
+  @Benchmark
+  public User deserializeUser() throws IOException
+  {
+    return mapper.readValue(userJson, User.class);
+  }
+
+  @Benchmark
+  public String serializeMessage() throws IOException
+  {
+    return mapper.writeValueAsString(message);
+  }
+
+  @Benchmark
+  public Message deserializeMessage() throws IOException
+  {
+    return mapper.readValue(messageJson, Message.class);
+  }
+}
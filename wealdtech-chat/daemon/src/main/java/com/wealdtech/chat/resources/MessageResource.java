@@ -11,6 +11,7 @@
 package com.wealdtech.chat.resources;
 
 import com.codahale.metrics.annotation.Timed;
+import com.fasterxml.jackson.jaxrs.smile.SmileMediaTypes;
 import com.google.common.collect.ImmutableList;
 import com.google.inject.Inject;
 import com.wealdtech.Application;
@@ -50,7 +51,7 @@ public class MessageResource
   @Timed
   @GET
   @Path("{messageid: [A-Za-z0-9]+}")
-  @Produces({MediaType.APPLICATION_JSON, ChatMediaType.V1_JSON})
+  @Produces({MediaType.APPLICATION_JSON, ChatMediaType.V1_JSON, SmileMediaTypes.APPLICATION_JACKSON_SMILE})
   public Message obtainMessage(@Context final Application app,
                                @Context final User user,
                             @PathParam("topicid") final WID<Topic> topicId,
@@ -64,7 +65,7 @@ public class MessageResource
    */
   @Timed
   @GET
-  @Produces({MediaType.APPLICATION_JSON, ChatMediaType.V1_JSON})
+  @Produces({MediaType.APPLICATION_JSON, ChatMediaType.V1_JSON, SmileMediaTypes.APPLICATION_JACKSON_SMILE})
   public ImmutableList<Message> obtainMessagesSince(@Context final Application app,
                                                     @Context final User user,
                                                     @PathParam("topicid") final WID<Topic> topicId,
@@ -80,7 +81,7 @@ public class MessageResource
    */
   @Timed
   @POST
-  @Consumes({MediaType.APPLICATION_JSON, ChatMediaType.V1_JSON})
+  @Consumes({MediaType.APPLICATION_JSON, ChatMediaType.V1_JSON, SmileMediaTypes.APPLICATION_JACKSON_SMILE})
   public void createMessage(@Context final Application app,
                             @Context final User user,
                             @PathParam("topicid") final WID<Topic> topicId, final Message message)
@@ -10,6 +10,8 @@
 
 package com.wealdtech.chat.events;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.wealdtech.WID;
 import com.wealdtech.Application;
 import com.wealdtech.chat.Message;
@@ -29,7 +31,11 @@ public class MessageEvent extends AbstractEvent<Message>
     CREATED
   }
 
-  public MessageEvent(final Type type, final WID<Application> appId, final WID<Topic> topicId, final Message message)
+  @JsonCreator
+  public MessageEvent(@JsonProperty("type") final Type type,
+                      @JsonProperty("appid") final WID<Application> appId,
+                      @JsonProperty("topicid") final WID<Topic> topicId,
+                      @JsonProperty("body") final Message message)
   {
     super(type, message);
     this.appId = appId;
@@ -42,11 +48,13 @@ public class MessageEvent extends AbstractEvent<Message>
     return (Type)super.getType();
   }
 
+  @JsonProperty("appid")
   public WID<Application> getAppId()
   {
     return appId;
   }
 
+  @JsonProperty("topicid")
   public WID<Topic> getTopicId()
   {
     return topicId;
@@ -57,6 +57,11 @@ public class MessageListener
   @AllowConcurrentEvents
   public void messageEvent(final MessageEvent event)
   {
+    if (event.isRemote())
+    {
+      // The process which created the message handles its notifications
+      return;
+    }
     switch (event.getType())
     {
       case CREATED:
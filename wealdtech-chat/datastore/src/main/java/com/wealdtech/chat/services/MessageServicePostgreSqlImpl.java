@@ -20,8 +20,11 @@ import com.wealdtech.Application;
 import com.wealdtech.User;
 import com.wealdtech.WID;
 import com.wealdtech.chat.Message;
+import com.wealdtech.chat.MessageScope;
 import com.wealdtech.chat.Topic;
 import com.wealdtech.repositories.PostgreSqlRepository;
+import com.wealdtech.services.PostgreSqlIndex;
+import com.wealdtech.services.PostgreSqlPromotedField;
 import com.wealdtech.services.WObjectServiceCallbackPostgreSqlImpl;
 import com.wealdtech.services.WObjectServicePostgreSqlImpl;
 import org.joda.time.DateTime;
@@ -40,12 +43,36 @@ public class MessageServicePostgreSqlImpl extends WObjectServicePostgreSqlImpl<M
 
   private static final TypeReference<Message> MESSAGE_TYPE_REFERENCE = new TypeReference<Message>() {};
 
+  // Messages are always obtained within a topic, and sometimes by their sender or recipient
+  private static final ImmutableList<PostgreSqlPromotedField> PROMOTED_FIELDS =
+      ImmutableList.of(PostgreSqlPromotedField.text("appid", ChatDatastoreConstants.APP_ID),
+                       PostgreSqlPromotedField.text("topicid", ChatDatastoreConstants.TOPIC_ID),
+                       PostgreSqlPromotedField.text("fromid", "from"),
+                       PostgreSqlPromotedField.text("scope", "scope"));
+
+  private static final ImmutableList<PostgreSqlIndex> INDEXES =
+      ImmutableList.of(PostgreSqlIndex.btree("topic", "appid", "topicid"),
+                       PostgreSqlIndex.btree("from", "fromid"),
+                       PostgreSqlIndex.jsonPath("to", "d->'to'"));
+
   @Inject
   public MessageServicePostgreSqlImpl(final PostgreSqlRepository repository, @Named("dbmapper") final ObjectMapper mapper)
   {
     super(repository, mapper, "message");
   }
 
+  @Override
+  protected ImmutableList<PostgreSqlPromotedField> getPromotedFields()
+  {
+    return PROMOTED_FIELDS;
+  }
+
+  @Override
+  protected ImmutableList<PostgreSqlIndex> getIndexes()
+  {
+    return INDEXES;
+  }
+
   @Override
   public void create(final Application app, final User user, final Topic topic, final Message message)
   {
@@ -55,23 +82,41 @@ public class MessageServicePostgreSqlImpl extends WObjectServicePostgreSqlImpl<M
     super.add(messageToCreate);
   }
 
+  /**
+   * Obtain a listing of messages.  Clients poll for these, so a listing which is behind the primary by the replicas' lag is
+   * only a moment out of date, and listings are read from a replica if one is available.  Messages obtained by ID are read from
+   * the primary, as clients ask for them as soon as they hear that they exist
+   */
+  private ImmutableList<Message> obtainListing(final WObjectServiceCallbackPostgreSqlImpl cb)
+  {
+    final PostgreSqlRepository.ReadScope scope = PostgreSqlRepository.replicaReads();
+    try
+    {
+      return obtain(MESSAGE_TYPE_REFERENCE, cb);
+    }
+    finally
+    {
+      scope.close();
+    }
+  }
+
   @Override
   public ImmutableList<Message> obtain(final Application app, final User user, final Topic topic)
   {
-    return obtain(MESSAGE_TYPE_REFERENCE, new WObjectServiceCallbackPostgreSqlImpl()
+    return obtainListing(new WObjectServiceCallbackPostgreSqlImpl()
     {
       @Override
       public String getConditions()
       {
-        return "d @> ? AND d @> ?";
+        return "appid = ? AND topicid = ?";
       }
 
       @Override
       public void setConditionValues(final PreparedStatement stmt)
       {
         int index = 1;
-        setJson(stmt, index++, "{\"" + ChatDatastoreConstants.APP_ID + "\":\"" + app.getId().toString() + "\"}");
-        setJson(stmt, index++, "{\"" + ChatDatastoreConstants.TOPIC_ID + "\":\"" + topic.getId().toString() + "\"}");
+        setWID(stmt, index++, app.getId());
+        setWID(stmt, index++, topic.getId());
       }
     });
   }
@@ -85,16 +130,17 @@ public class MessageServicePostgreSqlImpl extends WObjectServicePostgreSqlImpl<M
       @Override
       public String getConditions()
       {
-        return "d @> ? AND d @> ? AND d @> ?";
+        return KEY_CONDITION + " AND appid = ? AND topicid = ?";
       }
 
       @Override
       public void setConditionValues(final PreparedStatement stmt)
       {
         int index = 1;
-        setJson(stmt, index++, "{\"" + ChatDatastoreConstants.APP_ID + "\":\"" + app.getId().toString() + "\"}");
-        setJson(stmt, index++, "{\"" + ChatDatastoreConstants.TOPIC_ID + "\":\"" + topic.getId().toString() + "\"}");
-        setJson(stmt, index++, "{\"_id\":\"" + messageId.toString() + "\"}");
+        setKey(stmt, index, messageId);
+        index += 2;
+        setWID(stmt, index++, app.getId());
+        setWID(stmt, index++, topic.getId());
       }
     }), null);
   }
@@ -102,21 +148,21 @@ public class MessageServicePostgreSqlImpl extends WObjectServicePostgreSqlImpl<M
   @Override
   public ImmutableList<Message> obtainFrom(final Application app, final User user, final Topic topic, @Nullable DateTime since)
   {
-    return obtain(MESSAGE_TYPE_REFERENCE, new WObjectServiceCallbackPostgreSqlImpl()
+    return obtainListing(new WObjectServiceCallbackPostgreSqlImpl()
     {
       @Override
       public String getConditions()
       {
-        return "d @> ? AND d @> ? AND d @> ?";
+        return "appid = ? AND topicid = ? AND fromid = ?";
       }
 
       @Override
       public void setConditionValues(final PreparedStatement stmt)
       {
         int index = 1;
-        setJson(stmt, index++, "{\"appid\":\"" + app.getId().toString() + "\"}");
-        setJson(stmt, index++, "{\"topicid\":\"" + topic.getId().toString() + "\"}");
-        setJson(stmt, index++, "{\"from\":\"" + user.getId().toString() + "\"}");
+        setWID(stmt, index++, app.getId());
+        setWID(stmt, index++, topic.getId());
+        setWID(stmt, index++, user.getId());
       }
     });
   }
@@ -124,21 +170,22 @@ public class MessageServicePostgreSqlImpl extends WObjectServicePostgreSqlImpl<M
   @Override
   public ImmutableList<Message> obtainTo(final Application app, final User user, final Topic topic, @Nullable final DateTime since)
   {
-    return obtain(MESSAGE_TYPE_REFERENCE, new WObjectServiceCallbackPostgreSqlImpl()
+    return obtainListing(new WObjectServiceCallbackPostgreSqlImpl()
     {
       @Override
       public String getConditions()
       {
-        return "d @> ? AND d @> ? AND (d @> '{\"scope\":\"Everyone\"}' OR d @> ?)";
+        return "appid = ? AND topicid = ? AND (scope = ? OR d->'to' @> ?)";
       }
 
       @Override
       public void setConditionValues(final PreparedStatement stmt)
       {
         int index = 1;
-        setJson(stmt, index++, "{\"appid\":\"" + app.getId().toString() + "\"}");
-        setJson(stmt, index++, "{\"topicid\":\"" + topic.getId().toString() + "\"}");
-        setJson(stmt, index++, "{\"to\":[\"" + user.getId().toString() + "\"]}");
+        setWID(stmt, index++, app.getId());
+        setWID(stmt, index++, topic.getId());
+        setString(stmt, index++, MessageScope.EVERYONE.toString());
+        setJson(stmt, index++, "[\"" + user.getId().toString() + "\"]");
       }
     });
   }
@@ -13,6 +13,7 @@ package com.wealdtech.chat.services;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
@@ -22,6 +23,8 @@ import com.wealdtech.chat.Subscription;
 import com.wealdtech.chat.Topic;
 import com.wealdtech.User;
 import com.wealdtech.repositories.PostgreSqlRepository;
+import com.wealdtech.services.PostgreSqlIndex;
+import com.wealdtech.services.PostgreSqlPromotedField;
 import com.wealdtech.services.WObjectServiceCallbackPostgreSqlImpl;
 import com.wealdtech.services.WObjectServicePostgreSqlImpl;
 import org.slf4j.Logger;
@@ -38,6 +41,15 @@ public class SubscriptionServicePostgreSqlImpl extends WObjectServicePostgreSqlI
 
   private static final TypeReference<Subscription> SUBSCRIPTION_TYPE_REFERENCE = new TypeReference<Subscription>(){};
 
+  // Subscriptions are always obtained within a topic, and sometimes for specific users
+  private static final ImmutableList<PostgreSqlPromotedField> PROMOTED_FIELDS =
+      ImmutableList.of(PostgreSqlPromotedField.text("appid", ChatDatastoreConstants.APP_ID),
+                       PostgreSqlPromotedField.text("topicid", ChatDatastoreConstants.TOPIC_ID),
+                       PostgreSqlPromotedField.text("userid", "user"));
+
+  private static final ImmutableList<PostgreSqlIndex> INDEXES =
+      ImmutableList.of(PostgreSqlIndex.btree("topic", "appid", "topicid", "userid"));
+
   @Inject
   public SubscriptionServicePostgreSqlImpl(final PostgreSqlRepository repository,
                                            @Named("dbmapper") final ObjectMapper mapper)
@@ -45,6 +57,18 @@ public class SubscriptionServicePostgreSqlImpl extends WObjectServicePostgreSqlI
     super(repository, mapper, "subscription");
   }
 
+  @Override
+  protected ImmutableList<PostgreSqlPromotedField> getPromotedFields()
+  {
+    return PROMOTED_FIELDS;
+  }
+
+  @Override
+  protected ImmutableList<PostgreSqlIndex> getIndexes()
+  {
+    return INDEXES;
+  }
+
   @Override
   public ImmutableSet<Subscription> obtain(final WID<Application> appId, final WID<Topic> topicId)
   {
@@ -53,14 +77,14 @@ public class SubscriptionServicePostgreSqlImpl extends WObjectServicePostgreSqlI
       @Override
       public String getConditions()
       {
-        return "d @> ? AND d @> ?";
+        return "appid = ? AND topicid = ?";
       }
 
       @Override
       public void setConditionValues(final PreparedStatement stmt)
       {
-        setJson(stmt, 1, "{\"" + ChatDatastoreConstants.APP_ID + "\":\"" + appId.toString() + "\"}");
-        setJson(stmt, 2, "{\"" + ChatDatastoreConstants.TOPIC_ID + "\":\"" + topicId.toString() + "\"}");
+        setWID(stmt, 1, appId);
+        setWID(stmt, 2, topicId);
       }
     }));
   }
@@ -73,14 +97,14 @@ public class SubscriptionServicePostgreSqlImpl extends WObjectServicePostgreSqlI
       @Override
       public String getConditions()
       {
-        return "d @> ? AND d @> ? AND jsonb_exists_any(d->'user', ?)";
+        return "appid = ? AND topicid = ? AND userid = ANY(?)";
       }
 
       @Override
       public void setConditionValues(final PreparedStatement stmt)
       {
-        setJson(stmt, 1, "{\"" + ChatDatastoreConstants.APP_ID + "\":\"" + appId.toString() + "\"}");
-        setJson(stmt, 2, "{\"" + ChatDatastoreConstants.TOPIC_ID + "\":\"" + topicId.toString() + "\"}");
+        setWID(stmt, 1, appId);
+        setWID(stmt, 2, topicId);
         setWIDArray(stmt, 3, userIds);
       }
     }));
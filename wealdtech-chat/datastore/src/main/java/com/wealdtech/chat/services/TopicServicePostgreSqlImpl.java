@@ -12,7 +12,7 @@ package com.wealdtech.chat.services;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.collect.Iterables;
+import com.google.common.base.Objects;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import com.wealdtech.ServerError;
@@ -20,13 +20,12 @@ import com.wealdtech.WID;
 import com.wealdtech.Application;
 import com.wealdtech.chat.Topic;
 import com.wealdtech.repositories.PostgreSqlRepository;
-import com.wealdtech.services.WObjectServiceCallbackPostgreSqlImpl;
+import com.wealdtech.services.WObjectServiceCachingPostgreSqlImpl;
 import com.wealdtech.services.WObjectServicePostgreSqlImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
-import java.sql.PreparedStatement;
 
 /**
  * Topic service using PostgreSQL as a backend
@@ -36,11 +35,16 @@ public class TopicServicePostgreSqlImpl extends WObjectServicePostgreSqlImpl<Top
   private static final Logger LOG = LoggerFactory.getLogger(TopicServicePostgreSqlImpl.class);
 
   private static final TypeReference<Topic> TOPIC_TYPE_REFERENCE = new TypeReference<Topic>() {};
+  private static final TypeReference<WID<Application>> APP_ID_TYPE_REFERENCE = new TypeReference<WID<Application>>() {};
+
+  // Topics are obtained for every message which is sent or read, so are cached
+  private final WObjectServiceCachingPostgreSqlImpl<Topic> cache;
 
   @Inject
   public TopicServicePostgreSqlImpl(final PostgreSqlRepository repository, @Named("dbmapper") final ObjectMapper mapper)
   {
     super(repository, mapper, "topic");
+    cache = new WObjectServiceCachingPostgreSqlImpl<>(this, repository, "topic");
   }
 
   @Override
@@ -48,7 +52,7 @@ public class TopicServicePostgreSqlImpl extends WObjectServicePostgreSqlImpl<Top
   {
     // Add the application ID to the topic before creating it
     final Topic topicToCreate = Topic.builder(topic).data(ChatDatastoreConstants.APP_ID, app.getId()).build();
-    super.add(topicToCreate);
+    cache.add(topicToCreate);
   }
 
   @Override
@@ -61,22 +65,13 @@ public class TopicServicePostgreSqlImpl extends WObjectServicePostgreSqlImpl<Top
   @Nullable
   public Topic obtain(final Application app, final WID<Topic> topicId)
   {
-    return Iterables.getFirst(obtain(TOPIC_TYPE_REFERENCE, new WObjectServiceCallbackPostgreSqlImpl()
+    final Topic topic = cache.obtainItem(TOPIC_TYPE_REFERENCE, topicId);
+    // Topics are only visible to the application which created them
+    if (topic == null || !Objects.equal(topic.get(ChatDatastoreConstants.APP_ID, APP_ID_TYPE_REFERENCE).orNull(), app.getId()))
     {
-      @Override
-      public String getConditions()
-      {
-        return "d @> ? AND d @> ?";
-      }
-
-      @Override
-      public void setConditionValues(final PreparedStatement stmt)
-      {
-        int index = 1;
-        setJson(stmt, index++, "{\"" + ChatDatastoreConstants.APP_ID + "\":\"" + app.getId().toString() + "\"}");
-        setJson(stmt, index++, "{\"_id\":\"" + topicId.toString() + "\"}");
-      }
-    }), null);
+      return null;
+    }
+    return topic;
   }
 
   @Override
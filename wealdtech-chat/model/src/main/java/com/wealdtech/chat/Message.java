@@ -12,11 +12,11 @@ package com.wealdtech.chat;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnore;
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.common.collect.ImmutableSet;
 import com.wealdtech.DataError;
 import com.wealdtech.User;
 import com.wealdtech.WID;
+import com.wealdtech.WObjectKey;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,10 +30,15 @@ public class Message extends ChatObject<Message> implements Comparable<Message>
 {
   private static final Logger LOG = LoggerFactory.getLogger(Message.class);
 
+  @WObjectKey
   private static final String FROM = "from";
+  @WObjectKey
   private static final String SCOPE = "scope";
+  @WObjectKey
   private static final String TIMESTAMP = "timestamp";
+  @WObjectKey
   private static final String TO = "to";
+  @WObjectKey
   private static final String TEXT = "text";
 
   @JsonCreator
@@ -90,36 +95,34 @@ public class Message extends ChatObject<Message> implements Comparable<Message>
     }
   }
 
-  private static final TypeReference<WID<User>> FROM_TYPE_REF = new TypeReference<WID<User>>(){};
   @JsonIgnore
   public WID<User> getFrom()
   {
-    return get(FROM, FROM_TYPE_REF).get();
+    return MessageAccessors.getFrom(this).get();
   }
 
   @JsonIgnore
   public MessageScope getScope()
   {
-    return get(SCOPE, MessageScope.class).get();
+    return MessageAccessors.getScope(this).get();
   }
 
   @JsonIgnore
   public DateTime getTimestamp()
   {
-    return get(TIMESTAMP, DateTime.class).get();
+    return MessageAccessors.getTimestamp(this).get();
   }
 
-  private static final TypeReference<ImmutableSet<WID<User>>> TO_TYPE_REF = new TypeReference<ImmutableSet<WID<User>>>(){};
   @JsonIgnore
   public ImmutableSet<WID<User>> getTo()
   {
-    return get(TO, TO_TYPE_REF).or(ImmutableSet.<WID<User>>of());
+    return MessageAccessors.getTo(this).or(ImmutableSet.<WID<User>>of());
   }
 
   @JsonIgnore
   public String getText()
   {
-    return get(TEXT, String.class).get();
+    return MessageAccessors.getText(this).get();
   }
 
   @Override
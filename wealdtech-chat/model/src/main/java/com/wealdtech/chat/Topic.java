@@ -12,12 +12,12 @@ package com.wealdtech.chat;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnore;
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.common.collect.ImmutableSet;
 import com.wealdtech.DataError;
 import com.wealdtech.User;
 import com.wealdtech.WID;
 import com.wealdtech.WObject;
+import com.wealdtech.WObjectKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,8 +31,11 @@ public class Topic extends ChatObject<Topic> implements Comparable<Topic>
 {
   private static final Logger LOG = LoggerFactory.getLogger(Topic.class);
 
+  @WObjectKey
   private static final String NAME = "name";
+  @WObjectKey
   private static final String OWNER_IDS = "ownerids";
+  @WObjectKey
   private static final String PARTICIPANT_IDS = "participantids";
 
   @JsonCreator
@@ -60,26 +63,22 @@ public class Topic extends ChatObject<Topic> implements Comparable<Topic>
     }
   }
 
-  private static final TypeReference<ImmutableSet<WID<User>>> OWNER_IDS_TYPEREF = new TypeReference<ImmutableSet<WID<User>>>() {};
-
   @JsonIgnore
   public ImmutableSet<WID<User>> getOwnerIds()
   {
-    return get(OWNER_IDS, OWNER_IDS_TYPEREF).get();
+    return TopicAccessors.getOwnerIds(this).get();
   }
 
-  private static final TypeReference<ImmutableSet<WID<User>>> PARTICIPANT_IDS_TYPEREF = new TypeReference<ImmutableSet<WID<User>>>() {};
-
   @JsonIgnore
   public ImmutableSet<WID<User>> getParticipantIds()
   {
-    return get(PARTICIPANT_IDS, PARTICIPANT_IDS_TYPEREF).get();
+    return TopicAccessors.getParticipantIds(this).get();
   }
 
   @JsonIgnore
   public String getName()
   {
-    return get(NAME, String.class).get();
+    return TopicAccessors.getName(this).get();
   }
 
   public static class Builder<P extends Builder<P>> extends WObject.Builder<Topic, P>
@@ -10,6 +10,7 @@
 
 package com.wealdtech.events;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.wealdtech.WObject;
 
 /**
@@ -19,6 +20,7 @@ public abstract class AbstractEvent<T extends WObject<?>>
 {
   private Enum type;
   private T body;
+  private boolean remote = false;
 
   protected AbstractEvent(final Enum type, final T body)
   {
@@ -35,4 +37,18 @@ public abstract class AbstractEvent<T extends WObject<?>>
   {
     return body;
   }
+
+  /**
+   * @return {@code true} if the event was posted by another process and passed on to this one
+   */
+  @JsonIgnore
+  public boolean isRemote()
+  {
+    return remote;
+  }
+
+  void setRemote()
+  {
+    this.remote = true;
+  }
 }
@@ -0,0 +1,455 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.events;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import com.wealdtech.ServerError;
+import com.wealdtech.datastore.PostgreSqlNotificationListener;
+import com.wealdtech.jackson.WealdMapper;
+import com.wealdtech.repositories.PostgreSqlRepository;
+import com.wealdtech.services.WObjectServicePostgreSqlImpl;
+import com.wealdtech.utils.WealdMetrics;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static com.wealdtech.Preconditions.checkState;
+
+/**
+ * Passes events between the event buses of processes which share a PostgreSQL datastore.
+ * <p/>
+ * Events of the selected types which are posted locally are serialised and sent as notifications on a shared channel.  Events
+ * which are received from other processes are posted on the local event bus, marked as remote so that subscribers which act
+ * on behalf of the whole cluster can leave them to the process which posted them.  A process ignores its own notifications.
+ * <p/>
+ * Notifications are limited to 8000 bytes, so larger events are written to an outbox table and the notification carries a
+ * reference to them.  Events are sent in batches, one transaction per batch, and received in batches by polling.
+ * <p/>
+ * Delivery is best effort: events which are sent while a process is not listening are not seen by that process
+ */
+public class PostgreSqlEventBridge
+{
+  private static final Logger LOG = LoggerFactory.getLogger(PostgreSqlEventBridge.class);
+
+  static final long POLL_INTERVAL_MS = 100;
+
+  private static final int MAX_PAYLOAD = 7900;
+  private static final int MAX_BATCH = 100;
+  private static final int MAX_QUEUED = 10000;
+
+  private static final String NODE = "node";
+  private static final String TYPE = "type";
+  private static final String EVENT = "event";
+  private static final String OUTBOX = "outbox";
+
+  private static final String NOTIFY_SQL = "SELECT pg_notify(?, ?)";
+  // Outbox entries only need to last long enough for every listening process to read them
+  private static final String CREATE_OUTBOX_SQL =
+      "CREATE TABLE IF NOT EXISTS TABLENAME(i BIGSERIAL PRIMARY KEY, t TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT now(), d JSONB NOT NULL)";
+  private static final String INSERT_OUTBOX_SQL = "INSERT INTO TABLENAME(d) VALUES(?::jsonb) RETURNING i";
+  private static final String PURGE_OUTBOX_SQL = "DELETE FROM TABLENAME WHERE t < now() - interval '10 minutes'";
+  private static final String OBTAIN_OUTBOX_SQL = "SELECT i, d FROM TABLENAME WHERE i = ANY(?)";
+
+  private final EventBus eventBus;
+  private final PostgreSqlRepository repository;
+  private final ObjectMapper mapper;
+  private final String channel;
+  private final String outboxTable;
+  private final ImmutableMap<String, Class<? extends AbstractEvent<?>>> types;
+  // Identifies this process's notifications
+  private final String node = UUID.randomUUID().toString();
+
+  private final BlockingQueue<AbstractEvent<?>> queue = new LinkedBlockingQueue<>(MAX_QUEUED);
+  private final Listener listener;
+  private final Thread sender;
+  private volatile boolean running = false;
+
+  private final Meter sent;
+  private final Meter received;
+  private final Meter outboxed;
+  private final Meter dropped;
+
+  /**
+   * @param eventBus the local event bus
+   * @param repository the repository through which events are passed
+   * @param channel the name of the channel on which events are passed; this must be the same for all processes which share events
+   * @param types the types of event to pass between processes.  These must be serialisable by Jackson
+   */
+  public PostgreSqlEventBridge(final EventBus eventBus,
+                               final PostgreSqlRepository repository,
+                               final String channel,
+                               final ImmutableSet<Class<? extends AbstractEvent<?>>> types)
+  {
+    checkState(eventBus != null, "Event bridge requires an event bus");
+    checkState(repository != null, "Event bridge requires a repository");
+    checkState(channel != null && channel.matches("[a-z][a-z0-9_]*"), "Event channel must be a lower-case identifier");
+    checkState(types != null && !types.isEmpty(), "Event bridge requires at least one type of event");
+    this.eventBus = eventBus;
+    this.repository = repository;
+    this.mapper = WealdMapper.getServerMapper();
+    this.channel = channel;
+    this.outboxTable = "t_" + channel + "_outbox";
+
+    final ImmutableMap.Builder<String, Class<? extends AbstractEvent<?>>> typesB = ImmutableMap.builder();
+    for (final Class<? extends AbstractEvent<?>> type : types)
+    {
+      typesB.put(type.getName(), type);
+    }
+    this.types = typesB.build();
+
+    final MetricRegistry registry = WealdMetrics.getMetricRegistry();
+    this.sent = registry.meter(MetricRegistry.name(PostgreSqlEventBridge.class, channel, "sent"));
+    this.received = registry.meter(MetricRegistry.name(PostgreSqlEventBridge.class, channel, "received"));
+    this.outboxed = registry.meter(MetricRegistry.name(PostgreSqlEventBridge.class, channel, "outboxed"));
+    this.dropped = registry.meter(MetricRegistry.name(PostgreSqlEventBridge.class, channel, "dropped"));
+
+    this.listener = new Listener();
+    this.sender = new Thread(new Sender(), "events-" + channel);
+    this.sender.setDaemon(true);
+  }
+
+  /**
+   * Start passing events.  This creates the outbox table if required
+   */
+  public void start()
+  {
+    Connection conn = null;
+    try
+    {
+      conn = repository.getConnection();
+      try (Statement stmt = conn.createStatement())
+      {
+        stmt.execute(sql(CREATE_OUTBOX_SQL));
+      }
+    }
+    catch (final SQLException se)
+    {
+      throw new ServerError("Failed to create event outbox", se);
+    }
+    finally
+    {
+      WObjectServicePostgreSqlImpl.closeConnection(conn);
+    }
+
+    running = true;
+    sender.start();
+    listener.start("events-listener-" + channel);
+    eventBus.register(this);
+  }
+
+  /**
+   * Stop passing events.  Events which have been posted but not yet sent are discarded
+   */
+  public void stop()
+  {
+    eventBus.unregister(this);
+    running = false;
+    sender.interrupt();
+    listener.stop();
+  }
+
+  /**
+   * @return {@code true} if events from other processes are being received
+   */
+  public boolean isListening()
+  {
+    return listener.isListening();
+  }
+
+  @Subscribe
+  @AllowConcurrentEvents
+  public void event(final AbstractEvent<?> event)
+  {
+    if (event.isRemote() || !types.containsKey(event.getClass().getName()))
+    {
+      return;
+    }
+    if (!queue.offer(event))
+    {
+      dropped.mark();
+      LOG.warn("Event queue for {} is full; dropping {}", channel, event.getClass().getSimpleName());
+    }
+  }
+
+  private String sql(final String template)
+  {
+    return template.replace("TABLENAME", outboxTable);
+  }
+
+  /**
+   * Send a batch of events in a single transaction, so that they are delivered together
+   */
+  private void send(final List<AbstractEvent<?>> events)
+  {
+    final List<String> payloads = Lists.newArrayListWithCapacity(events.size());
+    for (final AbstractEvent<?> event : events)
+    {
+      try
+      {
+        final ObjectNode envelope = mapper.createObjectNode();
+        envelope.put(NODE, node);
+        envelope.put(TYPE, event.getClass().getName());
+        envelope.set(EVENT, mapper.valueToTree(event));
+        payloads.add(mapper.writeValueAsString(envelope));
+      }
+      catch (final IOException | IllegalArgumentException e)
+      {
+        dropped.mark();
+        LOG.error("Failed to serialise {} for {}: ", event.getClass().getSimpleName(), channel, e);
+      }
+    }
+    if (payloads.isEmpty())
+    {
+      return;
+    }
+
+    Connection conn = null;
+    try
+    {
+      conn = repository.getConnection();
+      conn.setAutoCommit(false);
+      boolean purge = false;
+      try (PreparedStatement notifyStmt = conn.prepareStatement(NOTIFY_SQL))
+      {
+        for (final String payload : payloads)
+        {
+          if (payload.getBytes(Charsets.UTF_8).length <= MAX_PAYLOAD)
+          {
+            notify(notifyStmt, payload);
+          }
+          else
+          {
+            final ObjectNode reference = mapper.createObjectNode();
+            reference.put(NODE, node);
+            reference.put(OUTBOX, writeOutbox(conn, payload));
+            notify(notifyStmt, mapper.writeValueAsString(reference));
+            outboxed.mark();
+            purge = true;
+          }
+        }
+      }
+      if (purge)
+      {
+        try (Statement stmt = conn.createStatement())
+        {
+          stmt.execute(sql(PURGE_OUTBOX_SQL));
+        }
+      }
+      conn.commit();
+      sent.mark(payloads.size());
+    }
+    catch (final SQLException | IOException e)
+    {
+      dropped.mark(payloads.size());
+      LOG.warn("Failed to send {} events on {}: ", payloads.size(), channel, e);
+    }
+    finally
+    {
+      WObjectServicePostgreSqlImpl.closeTransaction(conn);
+    }
+  }
+
+  private void notify(final PreparedStatement stmt, final String payload) throws SQLException
+  {
+    stmt.setString(1, channel);
+    stmt.setString(2, payload);
+    stmt.execute();
+  }
+
+  private long writeOutbox(final Connection conn, final String payload) throws SQLException
+  {
+    try (PreparedStatement stmt = conn.prepareStatement(sql(INSERT_OUTBOX_SQL)))
+    {
+      stmt.setString(1, payload);
+      try (ResultSet rs = stmt.executeQuery())
+      {
+        rs.next();
+        return rs.getLong(1);
+      }
+    }
+  }
+
+  /**
+   * Read the outbox entries referred to by a batch of notifications
+   */
+  private Map<Long, JsonNode> readOutbox(final Connection conn, final List<Long> ids) throws SQLException
+  {
+    final Map<Long, JsonNode> entries = Maps.newHashMapWithExpectedSize(ids.size());
+    try (PreparedStatement stmt = conn.prepareStatement(sql(OBTAIN_OUTBOX_SQL)))
+    {
+      stmt.setArray(1, conn.createArrayOf("bigint", ids.toArray()));
+      try (ResultSet rs = stmt.executeQuery())
+      {
+        while (rs.next())
+        {
+          final JsonNode entry = parse(rs.getString(2));
+          if (entry != null)
+          {
+            entries.put(rs.getLong(1), entry);
+          }
+        }
+      }
+    }
+    return entries;
+  }
+
+  @Nullable
+  private JsonNode parse(final String payload)
+  {
+    try
+    {
+      return mapper.readTree(payload);
+    }
+    catch (final IOException ioe)
+    {
+      LOG.warn("Ignoring malformed event on {}: ", channel, ioe);
+      return null;
+    }
+  }
+
+  private void post(final JsonNode envelope)
+  {
+    final Class<? extends AbstractEvent<?>> type = types.get(envelope.path(TYPE).asText());
+    if (type == null)
+    {
+      LOG.warn("Ignoring event of unknown type {} on {}", envelope.path(TYPE).asText(), channel);
+      return;
+    }
+    final AbstractEvent<?> event;
+    try
+    {
+      event = mapper.treeToValue(envelope.path(EVENT), type);
+    }
+    catch (final IOException ioe)
+    {
+      LOG.warn("Ignoring unreadable {} on {}: ", type.getSimpleName(), channel, ioe);
+      return;
+    }
+    event.setRemote();
+    received.mark();
+    eventBus.post(event);
+  }
+
+  /**
+   * Sends events posted locally in batches
+   */
+  private class Sender implements Runnable
+  {
+    @Override
+    public void run()
+    {
+      final List<AbstractEvent<?>> batch = Lists.newArrayListWithCapacity(MAX_BATCH);
+      while (running)
+      {
+        try
+        {
+          batch.add(queue.take());
+        }
+        catch (final InterruptedException ie)
+        {
+          break;
+        }
+        queue.drainTo(batch, MAX_BATCH - 1);
+        send(batch);
+        batch.clear();
+      }
+    }
+  }
+
+  /**
+   * Receives events from other processes
+   */
+  private class Listener extends PostgreSqlNotificationListener
+  {
+    private Listener()
+    {
+      super(repository, channel, POLL_INTERVAL_MS);
+    }
+
+    @Override
+    protected void connected()
+    {
+      LOG.debug("Receiving events on {}", channel);
+    }
+
+    @Override
+    protected void disconnected()
+    {
+      // Events sent while we reconnect are lost
+    }
+
+    @Override
+    protected void received(final Connection conn, final ImmutableList<PGNotification> notifications) throws SQLException
+    {
+      // Keep the order in which events were sent, filling in those held in the outbox afterwards
+      final List<JsonNode> envelopes = Lists.newArrayListWithCapacity(notifications.size());
+      final List<Long> outboxIds = Lists.newArrayList();
+      for (final PGNotification notification : notifications)
+      {
+        final JsonNode envelope = parse(notification.getParameter());
+        if (envelope == null || node.equals(envelope.path(NODE).asText()))
+        {
+          continue;
+        }
+        if (envelope.has(OUTBOX))
+        {
+          outboxIds.add(envelope.path(OUTBOX).asLong());
+        }
+        envelopes.add(envelope);
+      }
+
+      final Map<Long, JsonNode> outbox = outboxIds.isEmpty() ? ImmutableMap.<Long, JsonNode>of() : readOutbox(conn, outboxIds);
+      for (final JsonNode envelope : envelopes)
+      {
+        if (envelope.has(OUTBOX))
+        {
+          final JsonNode entry = outbox.get(envelope.path(OUTBOX).asLong());
+          if (entry == null)
+          {
+            LOG.warn("Event {} on {} is no longer in the outbox", envelope.path(OUTBOX).asLong(), channel);
+            continue;
+          }
+          post(entry);
+        }
+        else
+        {
+          post(envelope);
+        }
+      }
+    }
+  }
+}
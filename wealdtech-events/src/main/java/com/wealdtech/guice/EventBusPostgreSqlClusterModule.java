@@ -0,0 +1,73 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.guice;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.eventbus.EventBus;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.wealdtech.events.AbstractEvent;
+import com.wealdtech.events.PostgreSqlEventBridge;
+import com.wealdtech.repositories.PostgreSqlRepository;
+
+/**
+ * An asynchronous event bus whose events of the given types are also posted on the event buses of other processes which
+ * share the same PostgreSQL datastore.  Requires a binding for {@link PostgreSqlRepository}
+ */
+public class EventBusPostgreSqlClusterModule extends AbstractModule
+{
+  private final String channel;
+  private final ImmutableSet<Class<? extends AbstractEvent<?>>> types;
+
+  /**
+   * @param channel the name of the channel on which events are shared
+   * @param types the types of event to share
+   */
+  public EventBusPostgreSqlClusterModule(final String channel, final ImmutableSet<Class<? extends AbstractEvent<?>>> types)
+  {
+    this.channel = channel;
+    this.types = types;
+  }
+
+  @Override
+  protected void configure()
+  {
+    install(new EventBusAsynchronousModule());
+    bind(PostgreSqlEventBridge.class).toProvider(new BridgeProvider(channel, types)).asEagerSingleton();
+  }
+
+  private static class BridgeProvider implements Provider<PostgreSqlEventBridge>
+  {
+    private final String channel;
+    private final ImmutableSet<Class<? extends AbstractEvent<?>>> types;
+
+    @Inject
+    private EventBus eventBus;
+
+    @Inject
+    private PostgreSqlRepository repository;
+
+    private BridgeProvider(final String channel, final ImmutableSet<Class<? extends AbstractEvent<?>>> types)
+    {
+      this.channel = channel;
+      this.types = types;
+    }
+
+    @Override
+    public PostgreSqlEventBridge get()
+    {
+      final PostgreSqlEventBridge bridge = new PostgreSqlEventBridge(eventBus, repository, channel, types);
+      bridge.start();
+      return bridge;
+    }
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.events;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import com.wealdtech.WID;
+import com.wealdtech.WObject;
+import com.wealdtech.datastore.config.PostgreSqlConfiguration;
+import com.wealdtech.repositories.PostgreSqlRepository;
+import com.wealdtech.utils.WealdMetrics;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+/**
+ * Test for passing events between processes.  Each bridge stands in for a separate process
+ */
+public class PostgreSqlEventBridgeTest
+{
+  private static final String CHANNEL = "testevents";
+
+  private EventBus eventBus1, eventBus2;
+  private PostgreSqlEventBridge bridge1, bridge2;
+  private Collector collector1, collector2;
+
+  public static class TestWObject extends WObject<TestWObject>
+  {
+    @JsonCreator
+    public TestWObject(final Map<String, Object> data)
+    {
+      super(data);
+    }
+
+    public static class Builder<P extends Builder<P>> extends WObject.Builder<TestWObject, P>
+    {
+      public TestWObject build()
+      {
+        return new TestWObject(ImmutableMap.copyOf(data));
+      }
+    }
+    public static Builder<?> builder() { return new Builder(); }
+  }
+
+  public static class TestEvent extends AbstractEvent<TestWObject>
+  {
+    public enum Type
+    {
+      TEST
+    }
+
+    @JsonCreator
+    public TestEvent(@JsonProperty("type") final Type type, @JsonProperty("body") final TestWObject body)
+    {
+      super(type, body);
+    }
+  }
+
+  public static class Collector
+  {
+    private final BlockingQueue<TestEvent> local = new LinkedBlockingQueue<>();
+    private final BlockingQueue<TestEvent> remote = new LinkedBlockingQueue<>();
+
+    @Subscribe
+    public void event(final TestEvent event)
+    {
+      (event.isRemote() ? remote : local).add(event);
+    }
+  }
+
+  @BeforeClass
+  public void setUp() throws InterruptedException
+  {
+    final PostgreSqlRepository repository =
+        new PostgreSqlRepository(new PostgreSqlConfiguration("localhost", 5432, "test", "test", "test", null, null, null));
+    final ImmutableSet<Class<? extends AbstractEvent<?>>> types = ImmutableSet.<Class<? extends AbstractEvent<?>>>of(TestEvent.class);
+
+    eventBus1 = new EventBus();
+    collector1 = new Collector();
+    eventBus1.register(collector1);
+    bridge1 = new PostgreSqlEventBridge(eventBus1, repository, CHANNEL, types);
+    bridge1.start();
+
+    eventBus2 = new EventBus();
+    collector2 = new Collector();
+    eventBus2.register(collector2);
+    bridge2 = new PostgreSqlEventBridge(eventBus2, repository, CHANNEL, types);
+    bridge2.start();
+
+    for (int i = 0; i < 50 && !(bridge1.isListening() && bridge2.isListening()); i++)
+    {
+      Thread.sleep(100);
+    }
+    assertTrue(bridge1.isListening());
+    assertTrue(bridge2.isListening());
+  }
+
+  @AfterClass
+  public void tearDown()
+  {
+    if (bridge1 != null)
+    {
+      bridge1.stop();
+    }
+    if (bridge2 != null)
+    {
+      bridge2.stop();
+    }
+  }
+
+  @BeforeMethod
+  public void clear()
+  {
+    collector1.local.clear();
+    collector1.remote.clear();
+    collector2.local.clear();
+    collector2.remote.clear();
+  }
+
+  @Test
+  public void testEvent() throws InterruptedException
+  {
+    final TestEvent event = new TestEvent(TestEvent.Type.TEST,
+                                          TestWObject.builder().id(WID.<TestWObject>generate()).data("val", "small").build());
+    eventBus1.post(event);
+
+    // Seen locally as posted
+    assertSame(collector1.local.poll(), event);
+
+    // Seen remotely as a copy
+    final TestEvent received = collector2.remote.poll(5, TimeUnit.SECONDS);
+    assertNotNull(received);
+    assertTrue(received.isRemote());
+    assertEquals(received.getType(), TestEvent.Type.TEST);
+    assertEquals(received.getBody(), event.getBody());
+    assertTrue(collector2.local.isEmpty());
+
+    // Neither the sender's own notification nor the receiver's remote copy come back to the sender
+    Thread.sleep(PostgreSqlEventBridge.POLL_INTERVAL_MS * 5);
+    assertTrue(collector1.remote.isEmpty());
+    assertTrue(collector2.remote.isEmpty());
+  }
+
+  @Test
+  public void testOutboxedEvent() throws InterruptedException
+  {
+    final Meter outboxed = WealdMetrics.getMetricRegistry().meter(MetricRegistry.name(PostgreSqlEventBridge.class, CHANNEL, "outboxed"));
+    final long priorOutboxed = outboxed.getCount();
+
+    // Too large for a notification
+    final TestEvent event = new TestEvent(TestEvent.Type.TEST,
+                                          TestWObject.builder()
+                                                     .id(WID.<TestWObject>generate())
+                                                     .data("val", Strings.repeat("x", 10000))
+                                                     .build());
+    eventBus2.post(event);
+
+    final TestEvent received = collector1.remote.poll(5, TimeUnit.SECONDS);
+    assertNotNull(received);
+    assertTrue(received.isRemote());
+    assertEquals(received.getBody(), event.getBody());
+    assertEquals(outboxed.getCount(), priorOutboxed + 1);
+
+    Thread.sleep(PostgreSqlEventBridge.POLL_INTERVAL_MS * 5);
+    assertTrue(collector2.remote.isEmpty());
+    assertTrue(collector1.remote.isEmpty());
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.jackson;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+
+/**
+ * Encodings available to object mappers.
+ * <p/>
+ * JSON is the default and should be used for anything that leaves our own systems.  Smile is a binary encoding of the same data
+ * model; it is smaller and faster to read and write than JSON, and is intended for internal hops such as cache entries, event
+ * payloads and calls between daemons.  Field names and short string values are written once and back-referenced thereafter, so
+ * repeated keys such as {@code _id} cost a single byte after their first appearance.
+ */
+public enum Codec
+{
+  JSON("application/json"),
+  SMILE("application/x-jackson-smile");
+
+  private final String mediaType;
+
+  Codec(final String mediaType)
+  {
+    this.mediaType = mediaType;
+  }
+
+  /**
+   * @return the media type for content in this encoding
+   */
+  public String getMediaType()
+  {
+    return mediaType;
+  }
+
+  /**
+   * Create a factory for parsers and generators of this encoding
+   *
+   * @return a new factory
+   */
+  public JsonFactory createFactory()
+  {
+    switch (this)
+    {
+      case SMILE:
+        return new SmileFactory().configure(SmileGenerator.Feature.CHECK_SHARED_NAMES, true)
+                                 .configure(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES, true);
+      default:
+        return new JsonFactory();
+    }
+  }
+}
@@ -70,6 +70,17 @@ public class ObjectMapperConfiguration
     this.factory = Optional.fromNullable(factory);
   }
 
+  /**
+   * Set the parsing factory to that for a given encoding.
+   *
+   * @param codec
+   *          the encoding
+   */
+  public void setCodec(final Codec codec)
+  {
+    this.factory = Optional.of(codec.createFactory());
+  }
+
   /**
    * Get the (optional) parsing factory.
    *
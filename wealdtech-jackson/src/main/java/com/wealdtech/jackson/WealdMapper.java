@@ -16,36 +16,44 @@ import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 
+import java.util.EnumMap;
+import java.util.Map;
+
 /**
  * Provide Jackson object mappers with Weald settings. This provides two object mappers, one for clients (which will be sending REST
  * requests to servers) and one for servers (which will be receiving REST requests from clients). Please ensure that you use the
  * appropriate mapper, otherwise bad things will happen.
  * <p/>
  * If you are unsure which one you should be using, use the client mapper.
+ * <p/>
+ * Each mapper is available in all of the encodings defined by {@link Codec}.  Mappers for different encodings have the same
+ * configuration, so an object written in one encoding and read in another will be the same.
  */
 public enum WealdMapper
 {
   INSTANCE;
-  private static final transient ObjectMapper CLIENT_MAPPER;
-  private static final transient ObjectMapper SERVER_MAPPER;
+  private static final transient Map<Codec, ObjectMapper> CLIENT_MAPPERS = new EnumMap<>(Codec.class);
+  private static final transient Map<Codec, ObjectMapper> SERVER_MAPPERS = new EnumMap<>(Codec.class);
 
   static
   {
-    ObjectMapperConfiguration clientConfiguration = new ObjectMapperConfiguration();
-    clientConfiguration.setSerializationInclusion(JsonInclude.Include.NON_NULL);
-    CLIENT_MAPPER = new ObjectMapperFactory().build(clientConfiguration)
-                                             .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY)
-                                             .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
-                                             .disable(SerializationFeature.WRITE_DATE_KEYS_AS_TIMESTAMPS)
-                                             .enable(SerializationFeature.WRITE_BIGDECIMAL_AS_PLAIN);
+    for (final Codec codec : Codec.values())
+    {
+      CLIENT_MAPPERS.put(codec, build(JsonInclude.Include.NON_NULL, codec));
+      SERVER_MAPPERS.put(codec, build(JsonInclude.Include.NON_EMPTY, codec));
+    }
+  }
 
-    ObjectMapperConfiguration serverConfiguration = new ObjectMapperConfiguration();
-    serverConfiguration.setSerializationInclusion(JsonInclude.Include.NON_EMPTY);
-    SERVER_MAPPER = new ObjectMapperFactory().build(serverConfiguration)
-                                             .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY)
-                                             .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
-                                             .disable(SerializationFeature.WRITE_DATE_KEYS_AS_TIMESTAMPS)
-                                             .enable(SerializationFeature.WRITE_BIGDECIMAL_AS_PLAIN);
+  private static ObjectMapper build(final JsonInclude.Include inclusion, final Codec codec)
+  {
+    ObjectMapperConfiguration configuration = new ObjectMapperConfiguration();
+    configuration.setSerializationInclusion(inclusion);
+    configuration.setCodec(codec);
+    return new ObjectMapperFactory().build(configuration)
+                                    .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY)
+                                    .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                                    .disable(SerializationFeature.WRITE_DATE_KEYS_AS_TIMESTAMPS)
+                                    .enable(SerializationFeature.WRITE_BIGDECIMAL_AS_PLAIN);
   }
 
   /**
@@ -56,7 +64,19 @@ public enum WealdMapper
    */
   public static ObjectMapper getMapper()
   {
-    return CLIENT_MAPPER;
+    return CLIENT_MAPPERS.get(Codec.JSON);
+  }
+
+  /**
+   * Obtain a client ObjectMapper with Weald settings for a given encoding. Note that this returns a shared instance so the
+   * configuration should not be altered.
+   *
+   * @param codec the encoding
+   * @return An ObjectMapper.
+   */
+  public static ObjectMapper getMapper(final Codec codec)
+  {
+    return CLIENT_MAPPERS.get(codec);
   }
 
   /**
@@ -67,6 +87,18 @@ public enum WealdMapper
    */
   public static ObjectMapper getServerMapper()
   {
-    return SERVER_MAPPER;
+    return SERVER_MAPPERS.get(Codec.JSON);
+  }
+
+  /**
+   * Obtain a server ObjectMapper with Weald settings for a given encoding. Note that this returns a shared instance so the
+   * configuration should not be altered.
+   *
+   * @param codec the encoding
+   * @return An ObjectMapper.
+   */
+  public static ObjectMapper getServerMapper(final Codec codec)
+  {
+    return SERVER_MAPPERS.get(codec);
   }
 }
@@ -12,6 +12,7 @@ package com.wealdtech.jersey.guice;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
+import com.fasterxml.jackson.jaxrs.smile.JacksonSmileProvider;
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.collect.Collections2;
@@ -26,6 +27,8 @@ import com.sun.jersey.api.json.JSONConfiguration;
 import com.sun.jersey.guice.spi.container.servlet.GuiceContainer;
 import com.sun.jersey.spi.container.ContainerRequestFilter;
 import com.sun.jersey.spi.container.ContainerResponseFilter;
+import com.wealdtech.jackson.Codec;
+import com.wealdtech.jackson.WealdMapper;
 import org.slf4j.bridge.SLF4JBridgeHandler;
 
 import java.util.Collection;
@@ -103,4 +106,15 @@ public class JerseyServletModule extends ServletModule
   {
     return new JacksonJsonProvider(mapper);
   }
+
+  /**
+   * Provide binary Smile encoding alongside JSON.  Jersey picks the encoding from the request's Content-Type and Accept headers, so
+   * clients which do not ask for Smile continue to receive JSON
+   */
+  @Provides
+  @Singleton
+  JacksonSmileProvider jacksonSmileProvider()
+  {
+    return new JacksonSmileProvider(WealdMapper.getServerMapper(Codec.SMILE));
+  }
 }
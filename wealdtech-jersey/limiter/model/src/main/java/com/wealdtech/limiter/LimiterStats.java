@@ -13,6 +13,7 @@ package com.wealdtech.limiter;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.wealdtech.WObject;
+import com.wealdtech.WObjectKey;
 
 import java.util.Map;
 
@@ -23,8 +24,11 @@ import static com.wealdtech.Preconditions.checkState;
  */
 public class LimiterStats extends WObject<LimiterStats>
 {
+  @WObjectKey
   private static final String TIMESTAMP = "timestamp";
+  @WObjectKey
   private static final String KEY = "key";
+  @WObjectKey
   private static final String REQUESTS = "requests";
 
   @JsonCreator
@@ -42,13 +46,13 @@ public class LimiterStats extends WObject<LimiterStats>
   }
 
   @JsonIgnore
-  public Long getTimestamp() { return get(TIMESTAMP, Long.class).get(); }
+  public Long getTimestamp() { return LimiterStatsAccessors.getTimestamp(this).get(); }
 
   @JsonIgnore
-  public String getKey() { return get(KEY, String.class).get(); }
+  public String getKey() { return LimiterStatsAccessors.getKey(this).get(); }
 
   @JsonIgnore
-  public Long getRequests() { return get(REQUESTS, Long.class).get(); }
+  public Long getRequests() { return LimiterStatsAccessors.getRequests(this).get(); }
 
   public static class Builder<P extends Builder<P>> extends WObject.Builder<LimiterStats, P>
   {
@@ -15,6 +15,7 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wealdtech.jackson.Codec;
 import com.wealdtech.jackson.WealdMapper;
 import retrofit.converter.ConversionException;
 import retrofit.converter.Converter;
@@ -23,21 +24,29 @@ import retrofit.mime.TypedInput;
 import retrofit.mime.TypedOutput;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Type;
 
 /**
- * Convert JSON responses to objects using Jackson rather than retrofit's default of gson
+ * Convert JSON responses to objects using Jackson rather than retrofit's default of gson.  Other encodings supported by Jackson can
+ * be selected for calls between our own services; note that in this case the client should also send an {@code Accept} header
+ * for the encoding's media type so that responses come back in the same encoding
  */
 public class JacksonRetrofitConverter implements Converter
 {
-  private static final String MIME_TYPE = "application/json; charset=UTF-8";
+  private static final String JSON_MIME_TYPE = "application/json; charset=UTF-8";
 
   private final ObjectMapper mapper;
+  private final String mimeType;
 
   public JacksonRetrofitConverter()
   {
-    this.mapper = WealdMapper.getMapper();
+    this(Codec.JSON);
+  }
+
+  public JacksonRetrofitConverter(final Codec codec)
+  {
+    this.mapper = WealdMapper.getMapper(codec);
+    this.mimeType = codec == Codec.JSON ? JSON_MIME_TYPE : codec.getMediaType();
   }
 
   @Override
@@ -67,17 +76,13 @@ public class JacksonRetrofitConverter implements Converter
   {
     try
     {
-      final String json = mapper.writeValueAsString(object);
-      return new TypedByteArray(MIME_TYPE, json.getBytes("UTF-8"));
+      // Jackson writes JSON as UTF-8
+      return new TypedByteArray(mimeType, mapper.writeValueAsBytes(object));
     }
     catch (JsonProcessingException e)
     {
       throw new AssertionError(e);
     }
-    catch (final UnsupportedEncodingException e)
-    {
-      throw new AssertionError(e);
-    }
   }
 
 }
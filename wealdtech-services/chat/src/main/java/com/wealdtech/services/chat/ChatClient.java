@@ -15,6 +15,7 @@ import com.wealdtech.ServerError;
 import com.wealdtech.WID;
 import com.wealdtech.chat.Message;
 import com.wealdtech.chat.Topic;
+import com.wealdtech.jackson.Codec;
 import com.wealdtech.retrofit.JacksonRetrofitConverter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,13 +40,25 @@ public class ChatClient
   @Inject
   public ChatClient(final String appId, final String username, final String password)
   {
-    final Converter converter = new JacksonRetrofitConverter();
+    this(appId, username, password, Codec.JSON);
+  }
+
+  /**
+   * Create a client which talks to the chat service in a given encoding.  Binary encodings are smaller and faster than JSON
+   */
+  public ChatClient(final String appId, final String username, final String password, final Codec codec)
+  {
+    final Converter converter = new JacksonRetrofitConverter(codec);
     final RequestInterceptor authenticationInterceptor = new RequestInterceptor()
     {
       @Override
       public void intercept(RequestFacade request)
       {
         request.addHeader("Application-ID", appId);
+        if (codec != Codec.JSON)
+        {
+          request.addHeader("Accept", codec.getMediaType());
+        }
         try
         {
           request.addHeader("Authorization",
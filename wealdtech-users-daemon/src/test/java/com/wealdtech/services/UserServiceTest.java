@@ -98,4 +98,44 @@ public class UserServiceTest
     }
   }
 
+  @Test()
+  public void testUpdate()
+  {
+    final String testName = new Object() {}.getClass().getEnclosingMethod().getName() + "_" + salt;
+    User user = null;
+    try
+    {
+      user = User.builder()
+                 .id(WID.<User>generate())
+                 .name(testName)
+                 .emails(ImmutableSet.of(Email.builder()
+                                              .address("test2" + salt + "@test.wealdtech.com")
+                                              .primary(true)
+                                              .verified(true)
+                                              .build()))
+                 .authenticationMethods(ImmutableSet.of(PasswordAuthenticationMethod.builder()
+                                                                                    .scope(AuthorisationScope.FULL)
+                                                                                    .password("test")
+                                                                                    .build()))
+                 .build();
+
+      userService.create(user);
+      // Ensure that the user is cached before it is updated
+      assertEquals(User.serialize(userService.obtain(user.getId())), User.serialize(user));
+
+      final User updatedUser = User.builder(user).name(testName + "_updated").build();
+      userService.update(user, updatedUser);
+      user = updatedUser;
+
+      final User dbUser = userService.obtain(user.getId());
+      assertEquals(User.serialize(dbUser), User.serialize(updatedUser));
+    }
+    finally
+    {
+      if (user != null)
+      {
+        userService.remove(user);
+      }
+    }
+  }
 }
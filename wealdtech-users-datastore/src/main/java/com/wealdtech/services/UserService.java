@@ -68,6 +68,12 @@ public interface UserService
    */
   ImmutableSet<User> obtainAll();
 
+  /**
+   * Obtain all users, reading them as they are iterated over rather than holding them all in memory.
+   * @return an iterator over all users; it must be closed if it is not exhausted
+   */
+  WObjectIterator<User> iterateAll();
+
   /**
    * Remove a user
    * @param user the user to remove
@@ -16,6 +16,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Objects;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
@@ -23,6 +24,7 @@ import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import com.wealdtech.*;
 import com.wealdtech.authentication.*;
+import com.wealdtech.repositories.PostgreSqlRepository;
 import com.wealdtech.repositories.UserRepositoryPostgreSqlImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,10 +46,35 @@ public class UserServicePostgreSqlImpl extends WObjectServicePostgreSqlImpl<User
 
   private static final TypeReference<User> USER_TYPE_REFERENCE = new TypeReference<User>() {};
 
+  // Users are found by their email addresses, which are matched regardless of case, and by their authentication tokens
+  private static final ImmutableList<PostgreSqlPromotedField> PROMOTED_FIELDS =
+      ImmutableList.of(PostgreSqlPromotedField.of("emailaddresses", "TEXT[]",
+                                                  "ARRAY(SELECT lower(e->>'address') FROM jsonb_array_elements(d->'emails') AS e)"));
+
+  private static final ImmutableList<PostgreSqlIndex> INDEXES =
+      ImmutableList.of(PostgreSqlIndex.gin("emailaddresses", "emailaddresses"),
+                       PostgreSqlIndex.jsonPath("authenticationmethods", "d->'authenticationmethods'"));
+
+  // Users are obtained by their ID on every authenticated request, so are cached
+  private final WObjectServiceCachingPostgreSqlImpl<User> cache;
+
   @Inject
   public UserServicePostgreSqlImpl(final UserRepositoryPostgreSqlImpl repository, @Named("dbmapper") final ObjectMapper mapper)
   {
     super(repository, mapper, "user");
+    cache = new WObjectServiceCachingPostgreSqlImpl<>(this, repository, "user");
+  }
+
+  @Override
+  protected ImmutableList<PostgreSqlPromotedField> getPromotedFields()
+  {
+    return PROMOTED_FIELDS;
+  }
+
+  @Override
+  protected ImmutableList<PostgreSqlIndex> getIndexes()
+  {
+    return INDEXES;
   }
 
   @Override
@@ -72,7 +99,7 @@ public class UserServicePostgreSqlImpl extends WObjectServicePostgreSqlImpl<User
       }
     }
 
-    add(user);
+    cache.add(user);
 
     rationaliseIdentities(null, user);
   }
@@ -177,54 +204,46 @@ public class UserServicePostgreSqlImpl extends WObjectServicePostgreSqlImpl<User
   @Override
   public User obtain(final WID<User> id)
   {
-    return Iterables.getFirst(obtain(USER_TYPE_REFERENCE, new WObjectServiceCallbackPostgreSqlImpl()
-    {
-      @Override
-      public String getConditions()
-      {
-        return "d @> ?";
-      }
-
-      @Override
-      public void setConditionValues(final PreparedStatement stmt)
-      {
-        int index = 1;
-        setJson(stmt, index++, "{\"_id\":\"" + id.toString() + "\"}");
-      }
-    }), null);
+    return cache.obtainItem(USER_TYPE_REFERENCE, id);
   }
 
   @Override
   public ImmutableSet<User> obtain(final ImmutableCollection<WID<User>> ids)
   {
-    return ImmutableSet.copyOf(obtain(USER_TYPE_REFERENCE, new WObjectServiceCallbackPostgreSqlImpl()
+    // Users are obtained in bulk to fan out notifications, which can tolerate a slightly out-of-date view, so read from a replica
+    final PostgreSqlRepository.ReadScope scope = PostgreSqlRepository.replicaReads();
+    try
     {
-      @Override
-      public String getConditions()
+      return ImmutableSet.copyOf(obtain(USER_TYPE_REFERENCE, new WObjectServiceCallbackPostgreSqlImpl()
       {
-        return "d ->>'_id' = ANY(?)";
-      }
+        @Override
+        public String getConditions()
+        {
+          return KEYS_CONDITION;
+        }
 
-      @Override
-      public void setConditionValues(final PreparedStatement stmt)
-      {
-        int index = 1;
-        setWIDArray(stmt, index++, ids);
-      }
-    }));
+        @Override
+        public void setConditionValues(final PreparedStatement stmt)
+        {
+          setKeys(stmt, 1, ids);
+        }
+      }));
+    }
+    finally
+    {
+      scope.close();
+    }
   }
 
   @Override
   public User obtain(final String emailAddress)
   {
-    // PERF this is very inefficient as it pulls the entire user table.  Fix the CTE?
-    return Iterables.getFirst(query(USER_TYPE_REFERENCE, new WObjectServiceCallbackPostgreSqlImpl()
+    return Iterables.getFirst(obtain(USER_TYPE_REFERENCE, new WObjectServiceCallbackPostgreSqlImpl()
     {
       @Override
-      public String getQuery()
+      public String getConditions()
       {
-        return "WITH emails AS (SELECT d, (jsonb_array_elements(d->'emails')->>'address')::CITEXT AS email FROM t_user)\n" +
-               "SELECT d FROM emails WHERE email = ?::CITEXT";
+        return "emailaddresses @> ARRAY[lower(?)]";
       }
 
       @Override
@@ -242,11 +261,17 @@ public class UserServicePostgreSqlImpl extends WObjectServicePostgreSqlImpl<User
     return ImmutableSet.copyOf(obtain(USER_TYPE_REFERENCE, null));
   }
 
+  @Override
+  public WObjectIterator<User> iterateAll()
+  {
+    return iterate(USER_TYPE_REFERENCE, null);
+  }
+
   @Override
   public void remove(final User user)
   {
-    // Fetch the current user from the database
-    final User dbUser = obtain(user.getId());
+    // Fetch the current user from the database, rather than the cache which could be momentarily out of date
+    final User dbUser = obtainItem(USER_TYPE_REFERENCE, user.getId());
 
     // Ensure that we are deleting what we think we are deleting
     if (!Objects.equal(User.serialize(user), User.serialize(dbUser)))
@@ -255,7 +280,7 @@ public class UserServicePostgreSqlImpl extends WObjectServicePostgreSqlImpl<User
     }
 
     // Remove it
-    remove(user.getId());
+    cache.remove(user.getId());
 
     rationaliseIdentities(user, null);
   }
@@ -285,7 +310,9 @@ public class UserServicePostgreSqlImpl extends WObjectServicePostgreSqlImpl<User
       }
     }
 
-    update(newUser);
+    // The cache calls back in to update(T, T), which this overrides, so the write cannot go through it
+    super.update(oldUser, newUser);
+    cache.invalidate(newUser.getId());
     rationaliseIdentities(oldUser, newUser);
   }
 
@@ -382,7 +409,8 @@ public class UserServicePostgreSqlImpl extends WObjectServicePostgreSqlImpl<User
       @Override
       public String getQuery()
       {
-        return "WITH emails AS (SELECT d->>'_id' AS id, jsonb_array_elements(d->'emails')->>'address' AS email FROM t_user)\n" +
+        return "WITH emails AS (SELECT d->>'_id' AS id, jsonb_array_elements(d->'emails')->>'address' AS email FROM t_user\n" +
+               "                WHERE emailaddresses && ARRAY(SELECT lower(a) FROM unnest(?::TEXT[]) AS a))\n" +
                "SELECT row_to_json(t) FROM (SELECT emails.id, emails.email FROM emails WHERE email::CITEXT = ANY(?)) t";
       }
 
@@ -390,6 +418,7 @@ public class UserServicePostgreSqlImpl extends WObjectServicePostgreSqlImpl<User
       public void setConditionValues(final PreparedStatement stmt)
       {
         int index = 1;
+        setStringArray(stmt, index++, emailAddresses);
         setCIStringArray(stmt, index++, emailAddresses);
       }
     }))
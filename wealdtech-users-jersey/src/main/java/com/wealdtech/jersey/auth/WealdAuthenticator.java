@@ -95,7 +95,7 @@ public abstract class WealdAuthenticator implements Authenticator<TwoTuple<User,
       {
         if (Objects.equal(authenticationMethod.getType(), IdentityAuthenticationMethod.IDENTITY_AUTHENTICATION))
         {
-          final IdentityAuthenticationMethod identityAuthenticationMethod = WObject.recast(authenticationMethod, IdentityAuthenticationMethod.class);
+          final IdentityAuthenticationMethod identityAuthenticationMethod = WObject.recastShared(authenticationMethod, IdentityAuthenticationMethod.class);
           if (Objects.equal(identityAuthenticationMethod.getUserId(), user.getId()))
           {
             identityAuthorisation = UserAuthorisation.builder().userId(identity.getId()).scope(identityAuthenticationMethod.getScope()).build();
@@ -124,7 +124,7 @@ public final class WealdBasicAuthenticator extends WealdAuthenticator
       if (Objects.equal(authenticationMethod.getType(), PasswordCredentials.PASSWORD_CREDENTIALS))
       {
         final PasswordAuthenticationMethod passwordAuthenticationMethod =
-            WObject.recast(authenticationMethod, PasswordAuthenticationMethod.class);
+            WObject.recastShared(authenticationMethod, PasswordAuthenticationMethod.class);
         if (Hash.matches(passwordCredentials.getPassword(), passwordAuthenticationMethod.getPassword()) &&
             !authenticationMethod.hasExpired())
         {
@@ -126,7 +126,7 @@ public final class WealdTokenAuthenticator extends WealdAuthenticator
       if (Objects.equal(authenticationMethod.getType(), TokenCredentials.TOKEN_CREDENTIALS))
       {
         final TokenAuthenticationMethod tokenAuthenticationMethod =
-            WObject.recast(authenticationMethod, TokenAuthenticationMethod.class);
+            WObject.recastShared(authenticationMethod, TokenAuthenticationMethod.class);
         if (Objects.equal(tokenAuthenticationMethod.getToken(), tokenCredentials.getToken()) && !authenticationMethod.hasExpired())
         {
           return UserAuthorisation.builder().userId(user.getId()).scope(tokenAuthenticationMethod.getScope()).build();
@@ -12,7 +12,6 @@ package com.wealdtech; // NOPMD
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnore;
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.common.base.*;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
@@ -35,10 +34,15 @@ public class User extends WObject<User> implements Comparable<User>
 {
   private static final Logger LOG = LoggerFactory.getLogger(User.class);
 
+  @WObjectKey
   private static final String NAME = "name";
+  @WObjectKey
   private static final String EMAILS = "emails";
+  @WObjectKey
   private static final String AUTHENTICATION_METHODS = "authenticationmethods";
+  @WObjectKey
   private static final String DEVICE_REGISTRATIONS = "deviceregistrations";
+  @WObjectKey
   private static final String IDENTITIES = "identities";
 
   @JsonCreator
@@ -76,39 +80,25 @@ public class User extends WObject<User> implements Comparable<User>
   public WID<User> getId(){ return super.getId(); }
 
   @JsonIgnore
-  public String getName(){ return get(NAME, String.class).get(); }
+  public String getName(){ return UserAccessors.getName(this).get(); }
 
   @JsonIgnore
-  private static final TypeReference<ImmutableSet<Email>> EMAILS_TYPEREF = new TypeReference<ImmutableSet<Email>>() {};
-
-  @JsonIgnore
-  public ImmutableSet<Email> getEmails(){ return get(EMAILS, EMAILS_TYPEREF).or(ImmutableSet.<Email>of()); }
-
-  @JsonIgnore
-  private static final TypeReference<ImmutableSet<AuthenticationMethod>> AUTHENTICATION_METHODS_TYPEREF =
-      new TypeReference<ImmutableSet<AuthenticationMethod>>() {};
+  public ImmutableSet<Email> getEmails(){ return UserAccessors.getEmails(this).or(ImmutableSet.<Email>of()); }
 
   @JsonIgnore
   public ImmutableSet<AuthenticationMethod> getAuthenticationMethods()
   {
-    return get(AUTHENTICATION_METHODS, AUTHENTICATION_METHODS_TYPEREF).or(ImmutableSet.<AuthenticationMethod>of());
+    return UserAccessors.getAuthenticationMethods(this).or(ImmutableSet.<AuthenticationMethod>of());
   }
 
-  @JsonIgnore
-  private static final TypeReference<ImmutableSet<DeviceRegistration>> DEVICE_REGISTRATIONS_TYPEREF =
-      new TypeReference<ImmutableSet<DeviceRegistration>>() {};
-
   @JsonIgnore
   public ImmutableSet<DeviceRegistration> getDeviceRegistrations()
   {
-    return get(DEVICE_REGISTRATIONS, DEVICE_REGISTRATIONS_TYPEREF).or(ImmutableSet.<DeviceRegistration>of());
+    return UserAccessors.getDeviceRegistrations(this).or(ImmutableSet.<DeviceRegistration>of());
   }
 
   @JsonIgnore
-  private static final TypeReference<ImmutableSet<Identity>> IDENTITIES_TYPEREF = new TypeReference<ImmutableSet<Identity>>() {};
-
-  @JsonIgnore
-  public ImmutableSet<Identity> getIdentities(){ return get(IDENTITIES, IDENTITIES_TYPEREF).or(ImmutableSet.<Identity>of()); }
+  public ImmutableSet<Identity> getIdentities(){ return UserAccessors.getIdentities(this).or(ImmutableSet.<Identity>of()); }
 
   @JsonIgnore
   @Nullable
@@ -10,7 +10,18 @@
 
 package com.wealdtech.datastore;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.wealdtech.ServerError;
+import com.wealdtech.datastore.config.PostgreSqlConfiguration;
+import com.wealdtech.datastore.config.PostgreSqlPoolConfiguration;
+import com.wealdtech.utils.WealdMetrics;
 import org.apache.tomcat.jdbc.pool.DataSource;
 import org.apache.tomcat.jdbc.pool.PoolProperties;
 import org.postgresql.PGConnection;
@@ -20,7 +31,10 @@ import org.slf4j.LoggerFactory;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  */
@@ -29,12 +43,45 @@ public enum DatastoreConnection
   INSTANCE;
   private static final Logger LOG = LoggerFactory.getLogger(DatastoreConnection.class);
 
+  // Operations which are waiting for a thread, per thread, before further operations are rejected
+  private static final int EXECUTOR_QUEUE_PER_THREAD = 16;
+
   private static final Map<String, DataSource> dataSources = new ConcurrentHashMap<>();
+  private static final Map<String, Timer> borrowTimers = new ConcurrentHashMap<>();
+  private static final Map<String, ListeningExecutorService> executors = new ConcurrentHashMap<>();
+  private static final Map<String, PostgreSqlReplicaSet> replicaSets = new ConcurrentHashMap<>();
+
+  /**
+   * Build the JDBC URL for a server of a datastore
+   */
+  public static String url(final String host, final int port, final PostgreSqlConfiguration configuration)
+  {
+    final StringBuilder sb = new StringBuilder(250);
+    sb.append("jdbc:postgresql://");
+    sb.append(host);
+    sb.append(':');
+    sb.append(port);
+    sb.append('/');
+    sb.append(configuration.getName());
+    if (configuration.getAdditionalParams().isPresent())
+    {
+      sb.append('?');
+      sb.append(configuration.getAdditionalParams().get());
+    }
+    return sb.toString();
+  }
+
+  public static Connection getConnection(final String url, final PostgreSqlConfiguration configuration)
+  {
+    return getConnection(url, configuration, configuration.getConnectionAttempts());
+  }
 
-  public static Connection getConnection(final String url, final String username, final String password,
-                                         final int connectionAttempts, final long connectionAttemptGap)
+  /**
+   * Obtain a connection, making at most the given number of attempts
+   */
+  public static Connection getConnection(final String url, final PostgreSqlConfiguration configuration, final int attempts)
   {
-    int retryCount = connectionAttempts;
+    int retryCount = attempts;
     while (retryCount-- > 0)
     {
       try
@@ -42,9 +89,18 @@ public enum DatastoreConnection
         DataSource datasource = dataSources.get(url);
         if (datasource == null)
         {
-          datasource = DatastoreConnection.initDataSource(url, username, password);
+          datasource = DatastoreConnection.initDataSource(url, configuration);
+        }
+        final Timer.Context borrowContext = borrowTimers.get(url).time();
+        final Connection conn;
+        try
+        {
+          conn = datasource.getConnection();
+        }
+        finally
+        {
+          borrowContext.stop();
         }
-        final Connection conn = datasource.getConnection();
         // PostgreSQL-specific connection parameters
         final PGConnection pgconn = (PGConnection)((javax.sql.PooledConnection)conn).getConnection();
 //        pgconn.addDataType("interval", com.wealdtech.utils.db.PGPeriod.class);
@@ -57,36 +113,54 @@ public enum DatastoreConnection
       catch (final SQLException se)
       {
         LOG.debug("Failed to connect to database: {}", se.getLocalizedMessage());
-        try { Thread.sleep(connectionAttemptGap); } catch (final InterruptedException e) {}
+        if (retryCount > 0)
+        {
+          try { Thread.sleep(configuration.getConnectionAttemptGap()); } catch (final InterruptedException e) {}
+        }
       }
     }
     throw new ServerError("Failed to connection to database");
   }
 
-  private static DataSource initDataSource(final String url, final String username, final String password)
+  /**
+   * Create the pool for a datastore, unless another thread has done so since we looked.  This is synchronized so that a pool and
+   * its metrics are only created once
+   */
+  private static synchronized DataSource initDataSource(final String url, final PostgreSqlConfiguration configuration)
   {
+    final DataSource existing = dataSources.get(url);
+    if (existing != null)
+    {
+      return existing;
+    }
+
     final PoolProperties props = new PoolProperties();
 
     props.setUrl(url);
     props.setDriverClassName("org.postgresql.Driver");
-    props.setUsername(username);
-    props.setPassword(password);
+    props.setUsername(configuration.getUsername());
+    props.setPassword(configuration.getPassword());
+    // Statements which are executed often enough are prepared on the server so that they are parsed and planned once
+    props.setConnectionProperties("prepareThreshold=" + configuration.getPrepareThreshold());
 
     props.setJmxEnabled(true);
-    props.setTestWhileIdle(false);
-    props.setTestOnBorrow(true);
-    props.setValidationQuery("SELECT 1");
+    // Connections are validated in the background while idle rather than every time they are borrowed, which would cost a round
+    // trip to the server for each checkout
+    final PostgreSqlPoolConfiguration poolConfiguration = configuration.getPoolConfiguration();
+    props.setValidator(new MeteredValidator());
+    props.setTestWhileIdle(true);
+    props.setTestOnBorrow(poolConfiguration.isTestOnBorrow());
     props.setTestOnReturn(false);
-    props.setValidationInterval(30000);
-    props.setTimeBetweenEvictionRunsMillis(30000);
-
-    props.setMaxActive(64);
-    props.setMaxIdle(32);
-    props.setInitialSize(16);
-    props.setMaxWait(10000);
-    props.setRemoveAbandonedTimeout(60);
-    props.setMinEvictableIdleTimeMillis(30000);
-    props.setMinIdle(16);
+    props.setValidationInterval(poolConfiguration.getValidationInterval());
+    props.setTimeBetweenEvictionRunsMillis(poolConfiguration.getIdleCheckInterval());
+
+    props.setMaxActive(poolConfiguration.getMaxActive());
+    props.setMaxIdle(poolConfiguration.getMaxIdle());
+    props.setInitialSize(poolConfiguration.getInitialSize());
+    props.setMaxWait(poolConfiguration.getMaxWait());
+    props.setRemoveAbandonedTimeout(poolConfiguration.getRemoveAbandonedTimeout());
+    props.setMinEvictableIdleTimeMillis(poolConfiguration.getMinEvictableIdleTime());
+    props.setMinIdle(poolConfiguration.getMinIdle());
     props.setDefaultAutoCommit(true);
 
     // This would be useful but has a high performance impact so we need to turn it off.  We can re-enable it if there is a specific
@@ -97,22 +171,131 @@ public enum DatastoreConnection
 
     props.setInitSQL("SET INTERVALSTYLE TO 'iso_8601'");
 
-    props.setJdbcInterceptors("org.apache.tomcat.jdbc.pool.interceptor.ConnectionState;" +
-                              "org.apache.tomcat.jdbc.pool.interceptor.StatementFinalizer");
+    // The statement finalizer must come before the statement cache, so that statements which are left open are returned to the
+    // cache rather than closed underneath it
+    final StringBuilder interceptors = new StringBuilder("org.apache.tomcat.jdbc.pool.interceptor.ConnectionState;" +
+                                                         "org.apache.tomcat.jdbc.pool.interceptor.StatementFinalizer");
+    if (configuration.getStatementCacheSize() > 0)
+    {
+      interceptors.append(";")
+                  .append(MeteredStatementCache.class.getName())
+                  .append("(prepared=true,callable=false,max=")
+                  .append(configuration.getStatementCacheSize())
+                  .append(")");
+    }
+    props.setJdbcInterceptors(interceptors.toString());
 
     final DataSource datasource = new DataSource();
     datasource.setPoolProperties(props);
+    registerMetrics(url, datasource);
     dataSources.put(url, datasource);
     return datasource;
   }
 
-  public static void closeDatasource(final String url)
+  /**
+   * Register the metrics for a pool, named {@code com.wealdtech.datastore.DatastoreConnection.<url>.<metric>}.  Gauges show the
+   * connections which are active and idle and the threads which are waiting for a connection, and a timer shows how long it takes
+   * to borrow a connection
+   */
+  private static void registerMetrics(final String url, final DataSource datasource)
   {
+    final MetricRegistry registry = WealdMetrics.getMetricRegistry();
+    registry.removeMatching(metricsFilter(url));
+    registry.register(MetricRegistry.name(DatastoreConnection.class, url, "active"), new Gauge<Integer>()
+    {
+      @Override
+      public Integer getValue()
+      {
+        return datasource.getNumActive();
+      }
+    });
+    registry.register(MetricRegistry.name(DatastoreConnection.class, url, "idle"), new Gauge<Integer>()
+    {
+      @Override
+      public Integer getValue()
+      {
+        return datasource.getNumIdle();
+      }
+    });
+    registry.register(MetricRegistry.name(DatastoreConnection.class, url, "waiting"), new Gauge<Integer>()
+    {
+      @Override
+      public Integer getValue()
+      {
+        return datasource.getWaitCount();
+      }
+    });
+    borrowTimers.put(url, registry.timer(MetricRegistry.name(DatastoreConnection.class, url, "borrow")));
+  }
+
+  private static MetricFilter metricsFilter(final String url)
+  {
+    final String prefix = MetricRegistry.name(DatastoreConnection.class, url) + ".";
+    return new MetricFilter()
+    {
+      @Override
+      public boolean matches(final String name, final Metric metric)
+      {
+        return name.startsWith(prefix);
+      }
+    };
+  }
+
+  /**
+   * Obtain the executor for asynchronous operations on a datastore.  It has a thread for each connection, as any more would only
+   * wait for a connection, and a bounded queue so that a backlog results in operations being rejected rather than held
+   * indefinitely
+   */
+  public static synchronized ListeningExecutorService getExecutor(final String url, final PostgreSqlConfiguration configuration)
+  {
+    ListeningExecutorService executor = executors.get(url);
+    if (executor == null)
+    {
+      final int maxConnections = configuration.getPoolConfiguration().getMaxActive();
+      final ThreadPoolExecutor threadPool =
+          new ThreadPoolExecutor(maxConnections, maxConnections, 60, TimeUnit.SECONDS,
+                                 new ArrayBlockingQueue<Runnable>(maxConnections * EXECUTOR_QUEUE_PER_THREAD),
+                                 new ThreadFactoryBuilder().setNameFormat("datastore-%d").setDaemon(true).build());
+      threadPool.allowCoreThreadTimeOut(true);
+      executor = MoreExecutors.listeningDecorator(threadPool);
+      executors.put(url, executor);
+    }
+    return executor;
+  }
+
+  /**
+   * Obtain the read replicas of a datastore, which are shared by all users of the datastore
+   */
+  public static synchronized PostgreSqlReplicaSet getReplicaSet(final String url, final PostgreSqlConfiguration configuration)
+  {
+    PostgreSqlReplicaSet replicaSet = replicaSets.get(url);
+    if (replicaSet == null)
+    {
+      replicaSet = new PostgreSqlReplicaSet(configuration);
+      replicaSets.put(url, replicaSet);
+    }
+    return replicaSet;
+  }
+
+  public static synchronized void closeDatasource(final String url)
+  {
+    final PostgreSqlReplicaSet replicaSet = replicaSets.remove(url);
+    if (replicaSet != null)
+    {
+      replicaSet.close();
+    }
+    final ListeningExecutorService executor = executors.remove(url);
+    if (executor != null)
+    {
+      executor.shutdown();
+    }
     final DataSource datasource = dataSources.get(url);
     if (datasource != null)
     {
       datasource.close();
       dataSources.remove(url);
+      borrowTimers.remove(url);
+      WealdMetrics.getMetricRegistry().removeMatching(metricsFilter(url));
     }
   }
 }
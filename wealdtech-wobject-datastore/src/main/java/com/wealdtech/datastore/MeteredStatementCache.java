@@ -0,0 +1,42 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.datastore;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.wealdtech.utils.WealdMetrics;
+import org.apache.tomcat.jdbc.pool.interceptor.StatementCache;
+
+/**
+ * Pool interceptor which keeps closed prepared statements with their connection, keyed by their text, so that a later request
+ * for the same statement reuses it rather than preparing it again.  Hits and misses are metered as
+ * {@code com.wealdtech.datastore.MeteredStatementCache.hits} and {@code ...misses}
+ */
+public class MeteredStatementCache extends StatementCache
+{
+  private static final Meter HITS = WealdMetrics.getMetricRegistry().meter(MetricRegistry.name(MeteredStatementCache.class, "hits"));
+  private static final Meter MISSES = WealdMetrics.getMetricRegistry().meter(MetricRegistry.name(MeteredStatementCache.class, "misses"));
+
+  @Override
+  public CachedStatement isCached(final String sql)
+  {
+    final CachedStatement statement = super.isCached(sql);
+    if (statement == null)
+    {
+      MISSES.mark();
+    }
+    else
+    {
+      HITS.mark();
+    }
+    return statement;
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.datastore;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.wealdtech.utils.WealdMetrics;
+import org.apache.tomcat.jdbc.pool.Validator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Pool validator which checks that a connection is still usable with a trivial query.  Validations are timed as
+ * {@code com.wealdtech.datastore.MeteredValidator.validations} and failures metered as {@code ...failures}
+ */
+public class MeteredValidator implements Validator
+{
+  private static final Logger LOG = LoggerFactory.getLogger(MeteredValidator.class);
+
+  private static final Timer VALIDATIONS = WealdMetrics.getMetricRegistry().timer(MetricRegistry.name(MeteredValidator.class, "validations"));
+  private static final Meter FAILURES = WealdMetrics.getMetricRegistry().meter(MetricRegistry.name(MeteredValidator.class, "failures"));
+
+  @Override
+  public boolean validate(final Connection connection, final int validateAction)
+  {
+    final Timer.Context context = VALIDATIONS.time();
+    try (Statement stmt = connection.createStatement())
+    {
+      stmt.execute("SELECT 1");
+      return true;
+    }
+    catch (final SQLException se)
+    {
+      LOG.debug("Connection failed validation: {}", se.getLocalizedMessage());
+      FAILURES.mark();
+      return false;
+    }
+    finally
+    {
+      context.stop();
+    }
+  }
+}
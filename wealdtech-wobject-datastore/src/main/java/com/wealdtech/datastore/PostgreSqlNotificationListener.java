@@ -0,0 +1,215 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.datastore;
+
+import com.google.common.collect.ImmutableList;
+import com.wealdtech.repositories.PostgreSqlRepository;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static com.wealdtech.Preconditions.checkState;
+
+/**
+ * Listens for notifications on a PostgreSQL channel, on a connection of its own which is held for the life of the listener.
+ * <p/>
+ * The driver only receives notifications when it talks to the server, so the connection is polled.  All notifications which
+ * arrived since the last poll are passed on together.  If the connection fails then it is re-established after a pause;
+ * notifications sent in the meantime are lost, which is reported through {@link #disconnected()} and {@link #connected()}
+ */
+public abstract class PostgreSqlNotificationListener implements Runnable
+{
+  private static final Logger LOG = LoggerFactory.getLogger(PostgreSqlNotificationListener.class);
+
+  private static final long RECONNECT_INTERVAL_MS = 5000;
+
+  private final PostgreSqlRepository repository;
+  private final String channel;
+  private final long pollIntervalMs;
+
+  private Thread thread;
+  private volatile boolean running = true;
+  private volatile boolean listening = false;
+
+  /**
+   * @param repository the repository on whose datastore to listen
+   * @param channel the channel on which to listen; this must be a lower-case identifier
+   * @param pollIntervalMs the time between polls for notifications, in milliseconds
+   */
+  protected PostgreSqlNotificationListener(final PostgreSqlRepository repository, final String channel, final long pollIntervalMs)
+  {
+    checkState(repository != null, "Listener requires a repository");
+    checkState(channel != null && channel.matches("[a-z][a-z0-9_]*"), "Channel must be a lower-case identifier");
+    checkState(pollIntervalMs > 0, "Poll interval must be greater than 0");
+    this.repository = repository;
+    this.channel = channel;
+    this.pollIntervalMs = pollIntervalMs;
+  }
+
+  /**
+   * Start listening in a daemon thread of the given name
+   */
+  public synchronized void start(final String name)
+  {
+    checkState(thread == null, "Listener has already been started");
+    thread = new Thread(this, name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Stop listening.  The listener cannot be restarted
+   */
+  public synchronized void stop()
+  {
+    running = false;
+    listening = false;
+    if (thread != null)
+    {
+      thread.interrupt();
+    }
+  }
+
+  /**
+   * @return {@code true} if the listener is connected and receiving notifications
+   */
+  public boolean isListening()
+  {
+    return listening;
+  }
+
+  public String getChannel()
+  {
+    return channel;
+  }
+
+  /**
+   * Called when the listener has started listening, before {@link #isListening()} becomes true.  Notifications sent before this
+   * point have not been received
+   */
+  protected abstract void connected();
+
+  /**
+   * Called when the listener has lost its connection, after {@link #isListening()} becomes false
+   */
+  protected abstract void disconnected();
+
+  /**
+   * Called with the notifications which have arrived since the last poll, in the order in which they were sent
+   *
+   * @param conn the listening connection, which can be used to read further information
+   * @param notifications the notifications
+   */
+  protected abstract void received(Connection conn, ImmutableList<PGNotification> notifications) throws SQLException;
+
+  @Override
+  public void run()
+  {
+    Connection conn = null;
+    while (running)
+    {
+      try
+      {
+        if (conn == null)
+        {
+          conn = repository.getUnpooledConnection();
+          try (Statement stmt = conn.createStatement())
+          {
+            stmt.execute("LISTEN " + channel);
+          }
+          connected();
+          listening = running;
+        }
+
+        try (Statement stmt = conn.createStatement())
+        {
+          stmt.execute("SELECT 1");
+        }
+        final PGNotification[] notifications = ((PGConnection)conn).getNotifications();
+        if (notifications != null && notifications.length > 0)
+        {
+          received(conn, ImmutableList.copyOf(notifications));
+        }
+        Thread.sleep(pollIntervalMs);
+      }
+      catch (final SQLException se)
+      {
+        LOG.warn("Lost connection listening on {}: ", channel, se);
+        final boolean resume = reset(conn);
+        conn = null;
+        if (!resume)
+        {
+          break;
+        }
+      }
+      catch (final RuntimeException re)
+      {
+        // Notifications may have been lost along with the one which failed, so this is handled as a disconnection rather than
+        // leaving the thread to die while still appearing to listen
+        LOG.error("Failed to handle notification on {}: ", channel, re);
+        final boolean resume = reset(conn);
+        conn = null;
+        if (!resume)
+        {
+          break;
+        }
+      }
+      catch (final InterruptedException ie)
+      {
+        break;
+      }
+    }
+    listening = false;
+    close(conn);
+  }
+
+  /**
+   * Drop the listening connection after a failure, and pause before it is re-established
+   *
+   * @return {@code false} if the listener was interrupted while pausing
+   */
+  private boolean reset(@Nullable final Connection conn)
+  {
+    listening = false;
+    close(conn);
+    disconnected();
+    try
+    {
+      Thread.sleep(RECONNECT_INTERVAL_MS);
+      return true;
+    }
+    catch (final InterruptedException ie)
+    {
+      return false;
+    }
+  }
+
+  private void close(@Nullable final Connection conn)
+  {
+    if (conn != null)
+    {
+      try
+      {
+        conn.close();
+      }
+      catch (final SQLException se)
+      {
+        LOG.debug("Failed to close listening connection: ", se);
+      }
+    }
+  }
+}
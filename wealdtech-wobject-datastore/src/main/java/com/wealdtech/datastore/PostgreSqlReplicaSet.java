@@ -0,0 +1,268 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.datastore;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.wealdtech.ServerError;
+import com.wealdtech.datastore.config.PostgreSqlConfiguration;
+import com.wealdtech.datastore.config.PostgreSqlReplicaConfiguration;
+import com.wealdtech.datastore.config.PostgreSqlReplicasConfiguration;
+import com.wealdtech.utils.WealdMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The read replicas of a datastore.
+ * <p/>
+ * Each replica has its own pool.  Replicas are checked periodically for their latency and how far they are behind the primary;
+ * a replica is only chosen if its last check succeeded and it was no further behind than the configured maximum lag.  Replicas
+ * are not chosen until they have been checked once
+ */
+public class PostgreSqlReplicaSet
+{
+  private static final Logger LOG = LoggerFactory.getLogger(PostgreSqlReplicaSet.class);
+
+  // Weight given to the latest latency measurement
+  private static final double LATENCY_WEIGHT = 0.2;
+
+  // Replication functions were renamed in PostgreSQL 10
+  private static final int WAL_RENAME_VERSION = 100000;
+  private static final String LAG_SQL =
+      "SELECT CASE WHEN pg_last_xlog_receive_location() = pg_last_xlog_replay_location() THEN 0\n" +
+      "            ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000, 0) END";
+  private static final String WAL_LAG_SQL =
+      "SELECT CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0\n" +
+      "            ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000, 0) END";
+
+  private final PostgreSqlConfiguration configuration;
+  private final PostgreSqlReplicasConfiguration replicasConfiguration;
+  private final ImmutableList<Replica> replicas;
+  private final AtomicInteger next = new AtomicInteger();
+  private final ScheduledExecutorService checker;
+
+  private static final Meter READS = WealdMetrics.getMetricRegistry().meter(MetricRegistry.name(PostgreSqlReplicaSet.class, "reads"));
+  private static final Meter FALLBACKS = WealdMetrics.getMetricRegistry().meter(MetricRegistry.name(PostgreSqlReplicaSet.class, "fallbacks"));
+
+  public PostgreSqlReplicaSet(final PostgreSqlConfiguration configuration)
+  {
+    this.configuration = configuration;
+    this.replicasConfiguration = configuration.getReplicasConfiguration();
+
+    final ImmutableList.Builder<Replica> replicasB = ImmutableList.builder();
+    for (final PostgreSqlReplicaConfiguration server : replicasConfiguration.getServers())
+    {
+      replicasB.add(new Replica(DatastoreConnection.url(server.getHost(), server.getPort(), configuration)));
+    }
+    this.replicas = replicasB.build();
+
+    if (this.replicas.isEmpty())
+    {
+      this.checker = null;
+    }
+    else
+    {
+      this.checker = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("replicas-%d")
+                                                                                          .setDaemon(true)
+                                                                                          .build());
+      this.checker.scheduleWithFixedDelay(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          for (final Replica replica : replicas)
+          {
+            check(replica);
+          }
+        }
+      }, 0, replicasConfiguration.getCheckInterval(), TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * @return {@code true} if there are replicas from which to read
+   */
+  public boolean isEmpty()
+  {
+    return replicas.isEmpty();
+  }
+
+  /**
+   * Obtain a connection to a replica.
+   * @return a connection, or {@code null} if no replica is currently available
+   */
+  @Nullable
+  public Connection getConnection()
+  {
+    final Replica replica = select();
+    if (replica == null)
+    {
+      FALLBACKS.mark();
+      return null;
+    }
+    try
+    {
+      final Connection conn = DatastoreConnection.getConnection(replica.url, configuration, 1);
+      READS.mark();
+      return conn;
+    }
+    catch (final ServerError se)
+    {
+      LOG.warn("Failed to connect to replica {}; not using it until it is next checked", replica.url);
+      replica.available = false;
+      FALLBACKS.mark();
+      return null;
+    }
+  }
+
+  @Nullable
+  private Replica select()
+  {
+    switch (replicasConfiguration.getSelection())
+    {
+      case LEAST_LATENCY:
+        Replica fastest = null;
+        for (final Replica replica : replicas)
+        {
+          if (replica.available && (fastest == null || replica.latency < fastest.latency))
+          {
+            fastest = replica;
+          }
+        }
+        return fastest;
+      case ROUND_ROBIN:
+      default:
+        final int start = next.getAndIncrement() & Integer.MAX_VALUE;
+        for (int i = 0; i < replicas.size(); i++)
+        {
+          final Replica replica = replicas.get((start + i) % replicas.size());
+          if (replica.available)
+          {
+            return replica;
+          }
+        }
+        return null;
+    }
+  }
+
+  private void check(final Replica replica)
+  {
+    Connection conn = null;
+    try
+    {
+      conn = DatastoreConnection.getConnection(replica.url, configuration, 1);
+      try (Statement stmt = conn.createStatement())
+      {
+        if (replica.version == 0)
+        {
+          try (ResultSet rs = stmt.executeQuery("SHOW server_version_num"))
+          {
+            rs.next();
+            replica.version = Integer.parseInt(rs.getString(1));
+          }
+        }
+        final long start = System.nanoTime();
+        try (ResultSet rs = stmt.executeQuery(replica.version >= WAL_RENAME_VERSION ? WAL_LAG_SQL : LAG_SQL))
+        {
+          rs.next();
+          replica.lag = (long)rs.getDouble(1);
+        }
+        final double latency = (System.nanoTime() - start) / 1000000.0;
+        replica.latency = replica.latency == Double.MAX_VALUE ? latency :
+                          replica.latency + LATENCY_WEIGHT * (latency - replica.latency);
+      }
+      final long maxLag = replicasConfiguration.getMaxLag();
+      final boolean available = maxLag == 0 || replica.lag <= maxLag;
+      if (available != replica.available)
+      {
+        LOG.info("Replica {} is {} ({}ms behind the primary)", replica.url, available ? "available" : "unavailable", replica.lag);
+      }
+      replica.available = available;
+    }
+    catch (final ServerError | SQLException | NumberFormatException e)
+    {
+      if (replica.available)
+      {
+        LOG.warn("Replica {} is unavailable: {}", replica.url, e.getLocalizedMessage());
+      }
+      replica.available = false;
+    }
+    finally
+    {
+      if (conn != null)
+      {
+        try
+        {
+          conn.close();
+        }
+        catch (final SQLException se)
+        {
+          LOG.debug("Failed to close replica connection: ", se);
+        }
+      }
+    }
+  }
+
+  /**
+   * Stop checking the replicas and close their pools
+   */
+  public void close()
+  {
+    if (checker != null)
+    {
+      checker.shutdownNow();
+    }
+    for (final Replica replica : replicas)
+    {
+      WealdMetrics.getMetricRegistry().remove(replica.lagMetric);
+      DatastoreConnection.closeDatasource(replica.url);
+    }
+  }
+
+  private static class Replica
+  {
+    private final String url;
+    private final String lagMetric;
+    private volatile boolean available = false;
+    // Milliseconds, smoothed over recent checks
+    private volatile double latency = Double.MAX_VALUE;
+    // Milliseconds behind the primary at the last check
+    private volatile long lag = 0;
+    private volatile int version = 0;
+
+    private Replica(final String url)
+    {
+      this.url = url;
+      this.lagMetric = MetricRegistry.name(PostgreSqlReplicaSet.class, url, "lag");
+      WealdMetrics.getMetricRegistry().register(lagMetric, new Gauge<Long>()
+      {
+        @Override
+        public Long getValue()
+        {
+          return lag;
+        }
+      });
+    }
+  }
+}
@@ -29,6 +29,14 @@ public class PostgreSqlConfiguration
 
   private int connectionAttempts = 20;
   private long connectionAttemptGap = 2000l;
+  private int batchSize = 1000;
+  private int fetchSize = 1000;
+  private int statementCacheSize = 1000;
+  private int prepareThreshold = 3;
+  private WObjectCacheConfiguration cacheConfiguration = new WObjectCacheConfiguration();
+  private PostgreSqlReplicasConfiguration replicasConfiguration = new PostgreSqlReplicasConfiguration();
+  private PostgreSqlPoolConfiguration poolConfiguration = new PostgreSqlPoolConfiguration();
+  private PostgreSqlInstrumentationConfiguration instrumentationConfiguration = new PostgreSqlInstrumentationConfiguration();
 
   /**
    * Create a default configuration.
@@ -39,6 +47,18 @@ public class PostgreSqlConfiguration
     // Defaults
   }
 
+  public PostgreSqlConfiguration(final String host,
+                                 final int port,
+                                 final String name,
+                                 final String username,
+                                 final String password,
+                                 final String additionalParams,
+                                 final Integer connectionAttempts,
+                                 final Long connectionAttemptGap)
+  {
+    this(host, port, name, username, password, additionalParams, connectionAttempts, connectionAttemptGap, null, null, null, null, null, null, null, null);
+  }
+
   public PostgreSqlConfiguration(@JsonProperty("host") final String host,
                                  @JsonProperty("port") final int port,
                                  @JsonProperty("name") final String name,
@@ -46,7 +66,15 @@ public class PostgreSqlConfiguration
                                  @JsonProperty("password") final String password,
                                  @JsonProperty("additionalparams") final String additionalParams,
                                  @JsonProperty("connectionattempts") final Integer connectionAttempts,
-                                 @JsonProperty("connectionattemptgap") final Long connectionAttemptGap)
+                                 @JsonProperty("connectionattemptgap") final Long connectionAttemptGap,
+                                 @JsonProperty("batchsize") final Integer batchSize,
+                                 @JsonProperty("fetchsize") final Integer fetchSize,
+                                 @JsonProperty("statementcachesize") final Integer statementCacheSize,
+                                 @JsonProperty("preparethreshold") final Integer prepareThreshold,
+                                 @JsonProperty("cache") final WObjectCacheConfiguration cacheConfiguration,
+                                 @JsonProperty("replicas") final PostgreSqlReplicasConfiguration replicasConfiguration,
+                                 @JsonProperty("pool") final PostgreSqlPoolConfiguration poolConfiguration,
+                                 @JsonProperty("instrumentation") final PostgreSqlInstrumentationConfiguration instrumentationConfiguration)
   {
     this.host = MoreObjects.firstNonNull(host, this.host);
     this.port = MoreObjects.firstNonNull(port, this.port);
@@ -56,6 +84,14 @@ public class PostgreSqlConfiguration
     this.additionalParams = Optional.fromNullable(additionalParams);
     this.connectionAttempts = MoreObjects.firstNonNull(connectionAttempts, this.connectionAttempts);
     this.connectionAttemptGap = MoreObjects.firstNonNull(connectionAttemptGap, this.connectionAttemptGap);
+    this.batchSize = MoreObjects.firstNonNull(batchSize, this.batchSize);
+    this.fetchSize = MoreObjects.firstNonNull(fetchSize, this.fetchSize);
+    this.statementCacheSize = MoreObjects.firstNonNull(statementCacheSize, this.statementCacheSize);
+    this.prepareThreshold = MoreObjects.firstNonNull(prepareThreshold, this.prepareThreshold);
+    this.cacheConfiguration = MoreObjects.firstNonNull(cacheConfiguration, this.cacheConfiguration);
+    this.replicasConfiguration = MoreObjects.firstNonNull(replicasConfiguration, this.replicasConfiguration);
+    this.poolConfiguration = MoreObjects.firstNonNull(poolConfiguration, this.poolConfiguration);
+    this.instrumentationConfiguration = MoreObjects.firstNonNull(instrumentationConfiguration, this.instrumentationConfiguration);
   }
 
   public String getHost()
@@ -103,4 +139,70 @@ public class PostgreSqlConfiguration
   {
     return this.connectionAttemptGap;
   }
+
+  /**
+   * Obtain the maximum number of items which should be written in a single statement by bulk operations
+   */
+  public int getBatchSize()
+  {
+    return this.batchSize;
+  }
+
+  /**
+   * Obtain the number of items which should be read at a time when iterating over results
+   */
+  public int getFetchSize()
+  {
+    return this.fetchSize;
+  }
+
+  /**
+   * Obtain the maximum number of prepared statements which are kept for reuse, across all connections to the repository.  0
+   * disables reuse
+   */
+  public int getStatementCacheSize()
+  {
+    return this.statementCacheSize;
+  }
+
+  /**
+   * Obtain the number of times a statement is executed before it is prepared on the server, after which its plan is reused.  0
+   * disables server-side preparation
+   */
+  public int getPrepareThreshold()
+  {
+    return this.prepareThreshold;
+  }
+
+  /**
+   * Obtain the configuration of the caches of objects read by their ID
+   */
+  public WObjectCacheConfiguration getCacheConfiguration()
+  {
+    return this.cacheConfiguration;
+  }
+
+  /**
+   * Obtain the configuration of the read replicas
+   */
+  public PostgreSqlReplicasConfiguration getReplicasConfiguration()
+  {
+    return this.replicasConfiguration;
+  }
+
+  /**
+   * Obtain the configuration of the pool of connections to each server
+   */
+  public PostgreSqlPoolConfiguration getPoolConfiguration()
+  {
+    return this.poolConfiguration;
+  }
+
+  /**
+   * Obtain the configuration of the instrumentation of statements
+   */
+  public PostgreSqlInstrumentationConfiguration getInstrumentationConfiguration()
+  {
+    return this.instrumentationConfiguration;
+  }
 }
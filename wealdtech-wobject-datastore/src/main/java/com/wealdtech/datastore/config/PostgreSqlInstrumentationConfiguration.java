@@ -0,0 +1,140 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.datastore.config;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.MoreObjects;
+import com.google.inject.Inject;
+import com.wealdtech.configuration.Configuration;
+
+import static com.wealdtech.Preconditions.checkState;
+
+/**
+ * Configuration for the instrumentation of the statements run against a PostgreSQL data store
+ */
+public class PostgreSqlInstrumentationConfiguration implements Configuration
+{
+  /**
+   * The number of milliseconds after which a statement is logged as slow; 0 disables the log
+   */
+  private long slowThreshold = 500L;
+
+  /**
+   * The fraction of slow reads which are explained
+   */
+  private double explainRate = 0.0;
+
+  /**
+   * The number of explained statements which are kept
+   */
+  private int explainRetained = 20;
+
+  @Inject
+  public PostgreSqlInstrumentationConfiguration()
+  {
+    // 0-configuration injection
+  }
+
+  @JsonCreator
+  private PostgreSqlInstrumentationConfiguration(@JsonProperty("slowthreshold") final Long slowThreshold,
+                                                 @JsonProperty("explainrate") final Double explainRate,
+                                                 @JsonProperty("explainretained") final Integer explainRetained)
+  {
+    this.slowThreshold = MoreObjects.firstNonNull(slowThreshold, this.slowThreshold);
+    this.explainRate = MoreObjects.firstNonNull(explainRate, this.explainRate);
+    this.explainRetained = MoreObjects.firstNonNull(explainRetained, this.explainRetained);
+    validate();
+  }
+
+  private void validate()
+  {
+    checkState(this.slowThreshold >= 0, "Slow statement threshold must not be negative");
+    checkState(this.explainRate >= 0.0 && this.explainRate <= 1.0, "Explain rate must be between 0 and 1");
+    checkState(this.explainRetained >= 0 && this.explainRetained <= 1000, "Explained statements retained must be between 0 and 1,000");
+  }
+
+  /**
+   * Obtain the time after which a statement is logged as slow, in milliseconds.
+   * @return The threshold; 0 if slow statements are not logged
+   */
+  public long getSlowThreshold()
+  {
+    return this.slowThreshold;
+  }
+
+  /**
+   * Obtain the fraction of slow reads which are run again with {@code EXPLAIN (ANALYZE, BUFFERS)}.
+   * @return The fraction, between 0 and 1
+   */
+  public double getExplainRate()
+  {
+    return this.explainRate;
+  }
+
+  /**
+   * Obtain the number of the most recently explained statements which are kept.
+   * @return The number of explained statements
+   */
+  public int getExplainRetained()
+  {
+    return this.explainRetained;
+  }
+
+  public static class Builder
+  {
+    private Long slowThreshold;
+    private Double explainRate;
+    private Integer explainRetained;
+
+    /**
+     * Start to build an instrumentation configuration.
+     */
+    public Builder()
+    {
+      // Nothing to do
+    }
+
+    /**
+     * Start to build an instrumentation configuration based on a prior configuration.
+     * @param prior the prior configuration.
+     */
+    public Builder(final PostgreSqlInstrumentationConfiguration prior)
+    {
+      this.slowThreshold = prior.slowThreshold;
+      this.explainRate = prior.explainRate;
+      this.explainRetained = prior.explainRetained;
+    }
+
+    public Builder slowThreshold(final Long slowThreshold)
+    {
+      this.slowThreshold = slowThreshold;
+      return this;
+    }
+
+    public Builder explainRate(final Double explainRate)
+    {
+      this.explainRate = explainRate;
+      return this;
+    }
+
+    public Builder explainRetained(final Integer explainRetained)
+    {
+      this.explainRetained = explainRetained;
+      return this;
+    }
+
+    public PostgreSqlInstrumentationConfiguration build()
+    {
+      return new PostgreSqlInstrumentationConfiguration(this.slowThreshold, this.explainRate, this.explainRetained);
+    }
+  }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.datastore.config;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.MoreObjects;
+import com.google.inject.Inject;
+import com.wealdtech.configuration.Configuration;
+
+import static com.wealdtech.Preconditions.checkState;
+
+/**
+ * Configuration for the pool of connections to a PostgreSQL data store
+ */
+public class PostgreSqlPoolConfiguration implements Configuration
+{
+  /**
+   * The maximum number of connections in use at any time
+   */
+  private int maxActive = 64;
+
+  /**
+   * The maximum number of idle connections kept in the pool
+   */
+  private int maxIdle = 32;
+
+  /**
+   * The minimum number of idle connections kept in the pool
+   */
+  private int minIdle = 16;
+
+  /**
+   * The number of connections opened when the pool is created
+   */
+  private int initialSize = 16;
+
+  /**
+   * The maximum number of milliseconds to wait for a connection when all are in use
+   */
+  private int maxWait = 10000;
+
+  /**
+   * The number of milliseconds between runs of the background check of idle connections
+   */
+  private int idleCheckInterval = 30000;
+
+  /**
+   * The minimum number of milliseconds between validations of a connection
+   */
+  private long validationInterval = 30000L;
+
+  /**
+   * The minimum number of milliseconds a connection is idle before it can be closed
+   */
+  private int minEvictableIdleTime = 30000;
+
+  /**
+   * The number of seconds after which a connection which has not been returned is taken back
+   */
+  private int removeAbandonedTimeout = 60;
+
+  /**
+   * If connections are validated when they are borrowed as well as in the background
+   */
+  private boolean testOnBorrow = false;
+
+  @Inject
+  public PostgreSqlPoolConfiguration()
+  {
+    // 0-configuration injection
+  }
+
+  @JsonCreator
+  private PostgreSqlPoolConfiguration(@JsonProperty("maxactive") final Integer maxActive,
+                                      @JsonProperty("maxidle") final Integer maxIdle,
+                                      @JsonProperty("minidle") final Integer minIdle,
+                                      @JsonProperty("initialsize") final Integer initialSize,
+                                      @JsonProperty("maxwait") final Integer maxWait,
+                                      @JsonProperty("idlecheckinterval") final Integer idleCheckInterval,
+                                      @JsonProperty("validationinterval") final Long validationInterval,
+                                      @JsonProperty("minevictableidletime") final Integer minEvictableIdleTime,
+                                      @JsonProperty("removeabandonedtimeout") final Integer removeAbandonedTimeout,
+                                      @JsonProperty("testonborrow") final Boolean testOnBorrow)
+  {
+    this.maxActive = MoreObjects.firstNonNull(maxActive, this.maxActive);
+    this.maxIdle = MoreObjects.firstNonNull(maxIdle, this.maxIdle);
+    this.minIdle = MoreObjects.firstNonNull(minIdle, this.minIdle);
+    this.initialSize = MoreObjects.firstNonNull(initialSize, this.initialSize);
+    this.maxWait = MoreObjects.firstNonNull(maxWait, this.maxWait);
+    this.idleCheckInterval = MoreObjects.firstNonNull(idleCheckInterval, this.idleCheckInterval);
+    this.validationInterval = MoreObjects.firstNonNull(validationInterval, this.validationInterval);
+    this.minEvictableIdleTime = MoreObjects.firstNonNull(minEvictableIdleTime, this.minEvictableIdleTime);
+    this.removeAbandonedTimeout = MoreObjects.firstNonNull(removeAbandonedTimeout, this.removeAbandonedTimeout);
+    this.testOnBorrow = MoreObjects.firstNonNull(testOnBorrow, this.testOnBorrow);
+    validate();
+  }
+
+  private void validate()
+  {
+    checkState(this.maxActive > 0, "Maximum active connections must be greater than 0");
+    checkState(this.maxIdle >= 0 && this.maxIdle <= this.maxActive, "Maximum idle connections must be between 0 and maximum active connections");
+    checkState(this.minIdle >= 0 && this.minIdle <= this.maxIdle, "Minimum idle connections must be between 0 and maximum idle connections");
+    checkState(this.initialSize >= 0 && this.initialSize <= this.maxActive, "Initial connections must be between 0 and maximum active connections");
+    checkState(this.maxWait >= 0, "Maximum wait must not be negative");
+    checkState(this.idleCheckInterval > 0, "Idle check interval must be greater than 0");
+    checkState(this.validationInterval >= 0, "Validation interval must not be negative");
+    checkState(this.minEvictableIdleTime >= 0, "Minimum evictable idle time must not be negative");
+    checkState(this.removeAbandonedTimeout > 0, "Abandoned connection timeout must be greater than 0");
+  }
+
+  public int getMaxActive()
+  {
+    return this.maxActive;
+  }
+
+  public int getMaxIdle()
+  {
+    return this.maxIdle;
+  }
+
+  public int getMinIdle()
+  {
+    return this.minIdle;
+  }
+
+  public int getInitialSize()
+  {
+    return this.initialSize;
+  }
+
+  /**
+   * Obtain the maximum time to wait for a connection when all are in use, in milliseconds
+   */
+  public int getMaxWait()
+  {
+    return this.maxWait;
+  }
+
+  /**
+   * Obtain the time between runs of the background check of idle connections, in milliseconds.  Idle connections are validated
+   * and evicted by this check
+   */
+  public int getIdleCheckInterval()
+  {
+    return this.idleCheckInterval;
+  }
+
+  /**
+   * Obtain the minimum time between validations of a connection, in milliseconds
+   */
+  public long getValidationInterval()
+  {
+    return this.validationInterval;
+  }
+
+  /**
+   * Obtain the minimum time a connection is idle before it can be closed, in milliseconds
+   */
+  public int getMinEvictableIdleTime()
+  {
+    return this.minEvictableIdleTime;
+  }
+
+  /**
+   * Obtain the time after which a connection which has not been returned is taken back, in seconds
+   */
+  public int getRemoveAbandonedTimeout()
+  {
+    return this.removeAbandonedTimeout;
+  }
+
+  /**
+   * Obtain if connections are validated when they are borrowed as well as in the background
+   */
+  public boolean isTestOnBorrow()
+  {
+    return this.testOnBorrow;
+  }
+
+  public static class Builder
+  {
+    private Integer maxActive;
+    private Integer maxIdle;
+    private Integer minIdle;
+    private Integer initialSize;
+    private Integer maxWait;
+    private Integer idleCheckInterval;
+    private Long validationInterval;
+    private Integer minEvictableIdleTime;
+    private Integer removeAbandonedTimeout;
+    private Boolean testOnBorrow;
+
+    /**
+     * Start to build a pool configuration.
+     */
+    public Builder()
+    {
+      // Nothing to do
+    }
+
+    /**
+     * Start to build a pool configuration based on a prior configuration.
+     * @param prior the prior configuration.
+     */
+    public Builder(final PostgreSqlPoolConfiguration prior)
+    {
+      this.maxActive = prior.maxActive;
+      this.maxIdle = prior.maxIdle;
+      this.minIdle = prior.minIdle;
+      this.initialSize = prior.initialSize;
+      this.maxWait = prior.maxWait;
+      this.idleCheckInterval = prior.idleCheckInterval;
+      this.validationInterval = prior.validationInterval;
+      this.minEvictableIdleTime = prior.minEvictableIdleTime;
+      this.removeAbandonedTimeout = prior.removeAbandonedTimeout;
+      this.testOnBorrow = prior.testOnBorrow;
+    }
+
+    public Builder maxActive(final Integer maxActive)
+    {
+      this.maxActive = maxActive;
+      return this;
+    }
+
+    public Builder maxIdle(final Integer maxIdle)
+    {
+      this.maxIdle = maxIdle;
+      return this;
+    }
+
+    public Builder minIdle(final Integer minIdle)
+    {
+      this.minIdle = minIdle;
+      return this;
+    }
+
+    public Builder initialSize(final Integer initialSize)
+    {
+      this.initialSize = initialSize;
+      return this;
+    }
+
+    public Builder maxWait(final Integer maxWait)
+    {
+      this.maxWait = maxWait;
+      return this;
+    }
+
+    public Builder idleCheckInterval(final Integer idleCheckInterval)
+    {
+      this.idleCheckInterval = idleCheckInterval;
+      return this;
+    }
+
+    public Builder validationInterval(final Long validationInterval)
+    {
+      this.validationInterval = validationInterval;
+      return this;
+    }
+
+    public Builder minEvictableIdleTime(final Integer minEvictableIdleTime)
+    {
+      this.minEvictableIdleTime = minEvictableIdleTime;
+      return this;
+    }
+
+    public Builder removeAbandonedTimeout(final Integer removeAbandonedTimeout)
+    {
+      this.removeAbandonedTimeout = removeAbandonedTimeout;
+      return this;
+    }
+
+    public Builder testOnBorrow(final Boolean testOnBorrow)
+    {
+      this.testOnBorrow = testOnBorrow;
+      return this;
+    }
+
+    public PostgreSqlPoolConfiguration build()
+    {
+      return new PostgreSqlPoolConfiguration(this.maxActive, this.maxIdle, this.minIdle, this.initialSize, this.maxWait,
+                                             this.idleCheckInterval, this.validationInterval, this.minEvictableIdleTime,
+                                             this.removeAbandonedTimeout, this.testOnBorrow);
+    }
+  }
+}
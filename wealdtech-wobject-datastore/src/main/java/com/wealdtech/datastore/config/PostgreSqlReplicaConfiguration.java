@@ -0,0 +1,46 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.datastore.config;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.MoreObjects;
+import com.wealdtech.configuration.Configuration;
+
+import static com.wealdtech.Preconditions.checkState;
+
+/**
+ * Configuration for a read replica of a PostgreSQL data store.  The database name and credentials are those of the primary
+ */
+public class PostgreSqlReplicaConfiguration implements Configuration
+{
+  private String host = "localhost";
+  private int port = 5432;
+
+  @JsonCreator
+  public PostgreSqlReplicaConfiguration(@JsonProperty("host") final String host,
+                                        @JsonProperty("port") final Integer port)
+  {
+    this.host = MoreObjects.firstNonNull(host, this.host);
+    this.port = MoreObjects.firstNonNull(port, this.port);
+    checkState(this.port > 0 && this.port < 65536, "Replica port must be between 1 and 65535");
+  }
+
+  public String getHost()
+  {
+    return this.host;
+  }
+
+  public int getPort()
+  {
+    return this.port;
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.datastore.config;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import com.google.inject.Inject;
+import com.wealdtech.DataError;
+import com.wealdtech.configuration.Configuration;
+
+import java.util.List;
+import java.util.Locale;
+
+import static com.wealdtech.Preconditions.checkState;
+
+/**
+ * Configuration for the read replicas of a PostgreSQL data store
+ */
+public class PostgreSqlReplicasConfiguration implements Configuration
+{
+  /**
+   * How a replica is chosen for each read
+   */
+  public enum Selection
+  {
+    /**
+     * Each replica in turn
+     */
+    ROUND_ROBIN,
+    /**
+     * The replica which has responded fastest recently
+     */
+    LEAST_LATENCY;
+
+    @JsonCreator
+    public static Selection fromString(final String val)
+    {
+      try
+      {
+        return valueOf(val.trim().toUpperCase(Locale.ENGLISH).replaceAll(" ", "_"));
+      }
+      catch (final IllegalArgumentException iae)
+      {
+        // N.B. we don't pass the iae as the cause of this exception because this happens during invocation, and in that case the
+        // enum handler will report the root cause exception rather than the one we throw.
+        throw new DataError.Bad("Replica selection supplied is invalid");
+      }
+    }
+  }
+
+  private ImmutableList<PostgreSqlReplicaConfiguration> servers = ImmutableList.of();
+  private Selection selection = Selection.ROUND_ROBIN;
+
+  /**
+   * The maximum number of milliseconds a replica can be behind the primary and still be read; 0 for no limit
+   */
+  private long maxLag = 5000L;
+
+  /**
+   * The number of milliseconds between checks of the latency and lag of each replica
+   */
+  private long checkInterval = 1000L;
+
+  @Inject
+  public PostgreSqlReplicasConfiguration()
+  {
+    // 0-configuration injection
+  }
+
+  @JsonCreator
+  private PostgreSqlReplicasConfiguration(@JsonProperty("servers") final List<PostgreSqlReplicaConfiguration> servers,
+                                          @JsonProperty("selection") final Selection selection,
+                                          @JsonProperty("maxlag") final Long maxLag,
+                                          @JsonProperty("checkinterval") final Long checkInterval)
+  {
+    this.servers = ImmutableList.copyOf(MoreObjects.firstNonNull(servers, this.servers));
+    this.selection = MoreObjects.firstNonNull(selection, this.selection);
+    this.maxLag = MoreObjects.firstNonNull(maxLag, this.maxLag);
+    this.checkInterval = MoreObjects.firstNonNull(checkInterval, this.checkInterval);
+    validate();
+  }
+
+  private void validate()
+  {
+    checkState(this.maxLag >= 0, "Maximum replica lag must not be negative");
+    checkState(this.checkInterval >= 100 && this.checkInterval <= 60000, "Replica check interval must be between 100 and 60,000");
+  }
+
+  /**
+   * Obtain the replicas from which reads can be served.
+   * @return The replicas; empty if all reads are served by the primary
+   */
+  public ImmutableList<PostgreSqlReplicaConfiguration> getServers()
+  {
+    return this.servers;
+  }
+
+  /**
+   * Obtain how a replica is chosen for each read.
+   * @return The selection method
+   */
+  public Selection getSelection()
+  {
+    return this.selection;
+  }
+
+  /**
+   * Obtain the maximum amount of time a replica can be behind the primary and still be read, in milliseconds.
+   * @return The maximum lag; 0 if there is no limit
+   */
+  public long getMaxLag()
+  {
+    return this.maxLag;
+  }
+
+  /**
+   * Obtain the time between checks of the latency and lag of each replica, in milliseconds.
+   * @return The time between checks
+   */
+  public long getCheckInterval()
+  {
+    return this.checkInterval;
+  }
+
+  public static class Builder
+  {
+    private List<PostgreSqlReplicaConfiguration> servers;
+    private Selection selection;
+    private Long maxLag;
+    private Long checkInterval;
+
+    /**
+     * Start to build a replicas configuration.
+     */
+    public Builder()
+    {
+      // Nothing to do
+    }
+
+    /**
+     * Start to build a replicas configuration based on a prior configuration.
+     * @param prior the prior configuration.
+     */
+    public Builder(final PostgreSqlReplicasConfiguration prior)
+    {
+      this.servers = prior.servers;
+      this.selection = prior.selection;
+      this.maxLag = prior.maxLag;
+      this.checkInterval = prior.checkInterval;
+    }
+
+    public Builder servers(final List<PostgreSqlReplicaConfiguration> servers)
+    {
+      this.servers = servers;
+      return this;
+    }
+
+    public Builder selection(final Selection selection)
+    {
+      this.selection = selection;
+      return this;
+    }
+
+    public Builder maxLag(final Long maxLag)
+    {
+      this.maxLag = maxLag;
+      return this;
+    }
+
+    public Builder checkInterval(final Long checkInterval)
+    {
+      this.checkInterval = checkInterval;
+      return this;
+    }
+
+    public PostgreSqlReplicasConfiguration build()
+    {
+      return new PostgreSqlReplicasConfiguration(this.servers, this.selection, this.maxLag, this.checkInterval);
+    }
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.datastore.config;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.MoreObjects;
+import com.google.inject.Inject;
+import com.wealdtech.configuration.Configuration;
+
+import static com.wealdtech.Preconditions.checkState;
+
+/**
+ * Configuration for the caches of objects read from a datastore by their ID
+ */
+public class WObjectCacheConfiguration implements Configuration
+{
+  /**
+   * The maximum number of objects in each cache; 0 disables caching
+   */
+  private int maxEntries = 10000;
+
+  /**
+   * The maximum number of seconds an object will remain in the cache after it was read
+   */
+  private int maxDuration = 60;
+
+  /**
+   * If the absence of an object is cached
+   */
+  private boolean negative = true;
+
+  @Inject
+  public WObjectCacheConfiguration()
+  {
+    // 0-configuration injection
+  }
+
+  @JsonCreator
+  private WObjectCacheConfiguration(@JsonProperty("maxentries") final Integer maxEntries,
+                                    @JsonProperty("maxduration") final Integer maxDuration,
+                                    @JsonProperty("negative") final Boolean negative)
+  {
+    this.maxEntries = MoreObjects.firstNonNull(maxEntries, this.maxEntries);
+    this.maxDuration = MoreObjects.firstNonNull(maxDuration, this.maxDuration);
+    this.negative = MoreObjects.firstNonNull(negative, this.negative);
+    validate();
+  }
+
+  private void validate()
+  {
+    checkState(this.maxEntries >= 0 && this.maxEntries <= 1000000, "Maximum size must be between 0 and 1,000,000");
+    checkState(this.maxDuration >= 0 && this.maxDuration <= 86400, "Maximum duration must be between 0 and 86,400");
+  }
+
+  /**
+   * Obtain the maximum number of objects in each cache.
+   * @return The maximum number of objects; 0 if caching is disabled
+   */
+  public int getMaxEntries()
+  {
+    return this.maxEntries;
+  }
+
+  /**
+   * Obtain the maximum amount of time an object will stay in the cache, in seconds.
+   * @return The maximum number of seconds an object will remain in the cache.
+   */
+  public int getMaxDuration()
+  {
+    return this.maxDuration;
+  }
+
+  /**
+   * Obtain if the absence of an object is cached.
+   * @return {@code true} if a lookup of an object which does not exist is cached
+   */
+  public boolean isNegative()
+  {
+    return this.negative;
+  }
+
+  public static class Builder
+  {
+    private Integer maxEntries;
+    private Integer maxDuration;
+    private Boolean negative;
+
+    /**
+     * Start to build a cache configuration.
+     */
+    public Builder()
+    {
+      // Nothing to do
+    }
+
+    /**
+     * Start to build a cache configuration based on a prior configuration.
+     * @param prior the prior configuration.
+     */
+    public Builder(final WObjectCacheConfiguration prior)
+    {
+      this.maxEntries = prior.maxEntries;
+      this.maxDuration = prior.maxDuration;
+      this.negative = prior.negative;
+    }
+
+    public Builder maxEntries(final Integer maxEntries)
+    {
+      this.maxEntries = maxEntries;
+      return this;
+    }
+
+    public Builder maxDuration(final Integer maxDuration)
+    {
+      this.maxDuration = maxDuration;
+      return this;
+    }
+
+    public Builder negative(final Boolean negative)
+    {
+      this.negative = negative;
+      return this;
+    }
+
+    public WObjectCacheConfiguration build()
+    {
+      return new WObjectCacheConfiguration(this.maxEntries, this.maxDuration, this.negative);
+    }
+  }
+}
@@ -10,11 +10,18 @@
 
 package com.wealdtech.repositories;
 
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.inject.Inject;
 import com.wealdtech.datastore.config.PostgreSqlConfiguration;
+import com.wealdtech.datastore.config.PostgreSqlInstrumentationConfiguration;
+import com.wealdtech.datastore.config.WObjectCacheConfiguration;
 import com.wealdtech.datastore.DatastoreConnection;
+import com.wealdtech.datastore.PostgreSqlReplicaSet;
 
+import java.io.Closeable;
 import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
 
 /**
  */
@@ -22,31 +29,153 @@ public class PostgreSqlRepository implements Repository<Connection>
 {
   private final PostgreSqlConfiguration configuration;
   private final String url;
+  private final PostgreSqlReplicaSet replicaSet;
+
+  private static final ThreadLocal<Integer> PRIMARY_READS = new ThreadLocal<Integer>()
+  {
+    @Override
+    protected Integer initialValue()
+    {
+      return 0;
+    }
+  };
+
+  private static final ThreadLocal<Integer> REPLICA_READS = new ThreadLocal<Integer>()
+  {
+    @Override
+    protected Integer initialValue()
+    {
+      return 0;
+    }
+  };
 
   @Inject
   public PostgreSqlRepository(final PostgreSqlConfiguration configuration)
   {
     this.configuration = configuration;
-    final StringBuilder sb = new StringBuilder(250);
-    sb.append("jdbc:postgresql://");
-    sb.append(this.configuration.getHost());
-    sb.append(':');
-    sb.append(this.configuration.getPort());
-    sb.append('/');
-    sb.append(this.configuration.getName());
-    if (this.configuration.getAdditionalParams().isPresent())
-    {
-      sb.append('?');
-      sb.append(this.configuration.getAdditionalParams());
-    }
-    this.url = sb.toString();
+    this.url = DatastoreConnection.url(this.configuration.getHost(), this.configuration.getPort(), this.configuration);
+    this.replicaSet = DatastoreConnection.getReplicaSet(this.url, this.configuration);
   }
 
+  /**
+   * Obtain a connection to the primary, for operations which write or which must see earlier writes
+   */
   @Override
   public Connection getConnection()
   {
-    return DatastoreConnection.getConnection(this.url, this.configuration.getUsername(), this.configuration.getPassword(),
-                                             this.configuration.getConnectionAttempts(),
-                                             this.configuration.getConnectionAttemptGap());
+    return DatastoreConnection.getConnection(this.url, this.configuration);
+  }
+
+  /**
+   * Obtain a connection for read-only operations.  This is to a replica if this thread is within {@link #replicaReads()} but not
+   * within {@link #primaryReads()} and a replica is available, otherwise it is to the primary.  Reads from a replica might not
+   * see recent writes
+   */
+  public Connection getReadConnection()
+  {
+    if (!this.replicaSet.isEmpty() && REPLICA_READS.get() > 0 && PRIMARY_READS.get() == 0)
+    {
+      final Connection conn = this.replicaSet.getConnection();
+      if (conn != null)
+      {
+        return conn;
+      }
+    }
+    return getConnection();
+  }
+
+  /**
+   * Allow reads made by this thread to go to a replica until the returned scope is closed, for callers which can tolerate
+   * results which are behind the primary by up to the configured maximum lag.  Reads go to the primary unless they are made
+   * within such a scope.  Scopes can be nested.  The scope does not extend to operations which are handed to other threads, such
+   * as those of asynchronous services
+   */
+  public static ReadScope replicaReads()
+  {
+    return new ReadScope(REPLICA_READS);
+  }
+
+  /**
+   * Send reads made by this thread to the primary until the returned scope is closed, even if they are also within
+   * {@link #replicaReads()}, for code which needs to read its own writes whatever its caller allows.  Scopes can be nested.  The
+   * scope does not extend to operations which are handed to other threads, such as those of asynchronous services
+   */
+  public static ReadScope primaryReads()
+  {
+    return new ReadScope(PRIMARY_READS);
+  }
+
+  /**
+   * A scope which routes reads; see {@link #replicaReads()} and {@link #primaryReads()}
+   */
+  public static class ReadScope implements Closeable
+  {
+    private final ThreadLocal<Integer> depth;
+    private boolean closed = false;
+
+    private ReadScope(final ThreadLocal<Integer> depth)
+    {
+      this.depth = depth;
+      this.depth.set(this.depth.get() + 1);
+    }
+
+    @Override
+    public void close()
+    {
+      if (!closed)
+      {
+        closed = true;
+        depth.set(depth.get() - 1);
+      }
+    }
+  }
+
+  /**
+   * @return the executor for asynchronous operations on the repository, shared by all users of the repository's datastore
+   */
+  public ListeningExecutorService getExecutor()
+  {
+    return DatastoreConnection.getExecutor(this.url, this.configuration);
+  }
+
+  /**
+   * @return the maximum number of items which should be written in a single statement by bulk operations
+   */
+  public int getBatchSize()
+  {
+    return this.configuration.getBatchSize();
+  }
+
+  /**
+   * @return the number of items which should be read at a time when iterating over results
+   */
+  public int getFetchSize()
+  {
+    return this.configuration.getFetchSize();
+  }
+
+  /**
+   * @return the configuration of the caches of objects read from the repository by their ID
+   */
+  public WObjectCacheConfiguration getCacheConfiguration()
+  {
+    return this.configuration.getCacheConfiguration();
+  }
+
+  /**
+   * @return the configuration of the instrumentation of statements run against the repository
+   */
+  public PostgreSqlInstrumentationConfiguration getInstrumentationConfiguration()
+  {
+    return this.configuration.getInstrumentationConfiguration();
+  }
+
+  /**
+   * Obtain a connection which is not part of the pool, for long-lived uses such as listening for notifications.  The caller is
+   * responsible for closing the connection
+   */
+  public Connection getUnpooledConnection() throws SQLException
+  {
+    return DriverManager.getConnection(this.url, this.configuration.getUsername(), this.configuration.getPassword());
   }
 }
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.services;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.wealdtech.ServerError;
+import com.wealdtech.repositories.PostgreSqlRepository;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.PooledConnection;
+import java.io.*;
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static com.wealdtech.Preconditions.checkState;
+
+/**
+ * Bulk export and import of WObject tables, using PostgreSQL's COPY to stream data to and from gzipped files with one JSON
+ * object per line.
+ * <p/>
+ * Exports are split in to partitions by ranges of the ID, and each partition is written to its own file by its own connection so
+ * that large tables can be transferred in parallel.  Imports load each file in a single transaction, calculating the key of each
+ * item from its ID and firing any triggers which maintain promoted fields; they are intended for empty tables, and a file which
+ * contains an item that is already present fails as a whole.
+ */
+public class PostgreSqlBulkTransfer
+{
+  private static final Logger LOG = LoggerFactory.getLogger(PostgreSqlBulkTransfer.class);
+
+  private static final String FILE_SUFFIX = ".ndjson.gz";
+
+  // JSONB is output on a single line, with control characters escaped, so using control characters as the quote and delimiter
+  // passes the JSON through unchanged
+  private static final String COPY_OPTIONS = "(FORMAT csv, QUOTE e'\\x01', DELIMITER e'\\x02')";
+
+  private static final String KEY_RANGE_SQL = "SELECT min(i), max(i) FROM t_TABLENAME";
+
+  private static final String EXPORT_SQL = "COPY (SELECT d FROM t_TABLENAME WHERE i >= MINKEY AND i <= MAXKEY)\n" +
+                                           "TO STDOUT " + COPY_OPTIONS;
+
+  private static final String IMPORT_STAGE_SQL = "CREATE TEMPORARY TABLE t_TABLENAME_import(d JSONB NOT NULL) ON COMMIT DROP";
+
+  private static final String IMPORT_COPY_SQL = "COPY t_TABLENAME_import FROM STDIN " + COPY_OPTIONS;
+
+  private static final String IMPORT_INSERT_SQL =
+      "INSERT INTO t_TABLENAME(i, s, d)\n" +
+      "SELECT ('x' || lpad(split_part(d->>'_id', '.', 1), 16, '0'))::BIT(64)::BIGINT,\n" +
+      "       COALESCE(('x' || lpad(NULLIF(split_part(d->>'_id', '.', 2), ''), 16, '0'))::BIT(64)::BIGINT, 0),\n" +
+      "       d\n" +
+      "FROM t_TABLENAME_import";
+
+  private final PostgreSqlRepository repository;
+  private final String tableName;
+  private final String keyRangeSql;
+  private final String exportSql;
+  private final String importStageSql;
+  private final String importCopySql;
+  private final String importInsertSql;
+
+  /**
+   * @param repository the repository holding the table
+   * @param tableName the name of the table, as supplied to the service which manages it
+   */
+  public PostgreSqlBulkTransfer(final PostgreSqlRepository repository, final String tableName)
+  {
+    checkState(repository != null, "Bulk transfer requires a repository");
+    checkState(tableName != null, "Bulk transfer requires a table name");
+    this.repository = repository;
+    this.tableName = tableName;
+    keyRangeSql = KEY_RANGE_SQL.replaceAll("TABLENAME", tableName);
+    exportSql = EXPORT_SQL.replaceAll("TABLENAME", tableName);
+    importStageSql = IMPORT_STAGE_SQL.replaceAll("TABLENAME", tableName);
+    importCopySql = IMPORT_COPY_SQL.replaceAll("TABLENAME", tableName);
+    importInsertSql = IMPORT_INSERT_SQL.replaceAll("TABLENAME", tableName);
+  }
+
+  /**
+   * Export the table to files in a directory, one file per partition.  Partitions cover equal ranges of the ID, which for
+   * generated IDs are equal periods of time, so they may not hold equal numbers of items
+   *
+   * @param dir the directory in which to write the files; it must exist
+   * @param partitions the number of partitions, each of which is exported in parallel by its own connection
+   *
+   * @return the number of items exported
+   */
+  public long exportTo(final File dir, final int partitions)
+  {
+    checkState(dir != null && dir.isDirectory(), "Export requires an existing directory");
+    checkState(partitions > 0, "Export requires at least one partition");
+
+    final ImmutableList<long[]> ranges = partition(partitions);
+    final List<Callable<Long>> tasks = Lists.newArrayList();
+    for (int i = 0; i < ranges.size(); i++)
+    {
+      final long[] range = ranges.get(i);
+      final File file = new File(dir, String.format("t_%s.%04d%s", tableName, i, FILE_SUFFIX));
+      tasks.add(new Callable<Long>()
+      {
+        @Override
+        public Long call() throws Exception
+        {
+          try (OutputStream out = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(file))))
+          {
+            return exportRange(out, range[0], range[1]);
+          }
+        }
+      });
+    }
+    final long exported = runAll(tasks, "export");
+    LOG.info("Exported {} items from t_{} in {} partitions", exported, tableName, ranges.size());
+    return exported;
+  }
+
+  /**
+   * Export items with IDs within a range
+   *
+   * @param out the stream to which to write the items, one JSON object per line.  The stream is not closed
+   * @param fromKey the lowest key to export
+   * @param toKey the highest key to export
+   *
+   * @return the number of items exported
+   */
+  public long exportRange(final OutputStream out, final long fromKey, final long toKey)
+  {
+    Connection conn = null;
+    try
+    {
+      conn = repository.getConnection();
+      final String sql = exportSql.replace("MINKEY", Long.toString(fromKey)).replace("MAXKEY", Long.toString(toKey));
+      return copyManager(conn).copyOut(sql, out);
+    }
+    catch (final SQLException se)
+    {
+      throw WObjectServicePostgreSqlImpl.createSqlException(conn, se, "Failed to export items");
+    }
+    catch (final IOException ioe)
+    {
+      throw new ServerError("Failed to write exported items", ioe);
+    }
+    finally
+    {
+      WObjectServicePostgreSqlImpl.closeConnection(conn);
+    }
+  }
+
+  /**
+   * Import the files written by {@link #exportTo(File, int)}
+   *
+   * @param dir the directory containing the files
+   * @param workers the number of files to import in parallel
+   *
+   * @return the number of items imported
+   */
+  public long importFrom(final File dir, final int workers)
+  {
+    checkState(dir != null && dir.isDirectory(), "Import requires an existing directory");
+    checkState(workers > 0, "Import requires at least one worker");
+
+    final String prefix = "t_" + tableName + ".";
+    final File[] files = dir.listFiles(new FilenameFilter()
+    {
+      @Override
+      public boolean accept(final File parent, final String name)
+      {
+        return name.startsWith(prefix) && name.endsWith(FILE_SUFFIX);
+      }
+    });
+    checkState(files != null, "Failed to list import directory");
+    Arrays.sort(files);
+
+    final List<Callable<Long>> tasks = Lists.newArrayList();
+    for (final File file : files)
+    {
+      tasks.add(new Callable<Long>()
+      {
+        @Override
+        public Long call() throws Exception
+        {
+          try (InputStream in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(file))))
+          {
+            return importItems(in);
+          }
+        }
+      });
+    }
+    final long imported = runAll(tasks, "import", workers);
+    LOG.info("Imported {} items in to t_{} from {} files", imported, tableName, files.length);
+    return imported;
+  }
+
+  /**
+   * Import items in a single transaction
+   *
+   * @param in the stream from which to read the items, one JSON object per line.  The stream is not closed
+   *
+   * @return the number of items imported
+   */
+  public long importItems(final InputStream in)
+  {
+    Connection conn = null;
+    try
+    {
+      conn = repository.getConnection();
+      conn.setAutoCommit(false);
+
+      final long imported;
+      try (Statement stmt = conn.createStatement())
+      {
+        stmt.execute(importStageSql);
+        copyManager(conn).copyIn(importCopySql, in);
+        imported = stmt.executeUpdate(importInsertSql);
+      }
+      conn.commit();
+      return imported;
+    }
+    catch (final SQLException se)
+    {
+      throw WObjectServicePostgreSqlImpl.createSqlException(conn, se, "Failed to import items");
+    }
+    catch (final IOException ioe)
+    {
+      throw new ServerError("Failed to read items for import", ioe);
+    }
+    finally
+    {
+      WObjectServicePostgreSqlImpl.closeTransaction(conn);
+    }
+  }
+
+  // Split the keys present in the table in to contiguous, inclusive ranges
+  private ImmutableList<long[]> partition(final int partitions)
+  {
+    final long minKey;
+    final long maxKey;
+    Connection conn = null;
+    try
+    {
+      conn = repository.getConnection();
+      try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(keyRangeSql))
+      {
+        rs.next();
+        minKey = rs.getLong(1);
+        if (rs.wasNull())
+        {
+          // Empty table
+          return ImmutableList.of();
+        }
+        maxKey = rs.getLong(2);
+      }
+    }
+    catch (final SQLException se)
+    {
+      throw WObjectServicePostgreSqlImpl.createSqlException(conn, se, "Failed to obtain key range");
+    }
+    finally
+    {
+      WObjectServicePostgreSqlImpl.closeConnection(conn);
+    }
+
+    // The span of keys can exceed the range of a long
+    final BigInteger min = BigInteger.valueOf(minKey);
+    final BigInteger span = BigInteger.valueOf(maxKey).subtract(min).add(BigInteger.ONE);
+    final BigInteger count = BigInteger.valueOf(partitions).min(span);
+    final ImmutableList.Builder<long[]> rangesB = ImmutableList.builder();
+    for (int i = 0; i < count.intValue(); i++)
+    {
+      final BigInteger from = min.add(span.multiply(BigInteger.valueOf(i)).divide(count));
+      final BigInteger to = min.add(span.multiply(BigInteger.valueOf(i + 1)).divide(count)).subtract(BigInteger.ONE);
+      rangesB.add(new long[]{from.longValue(), to.longValue()});
+    }
+    return rangesB.build();
+  }
+
+  private static long runAll(final List<Callable<Long>> tasks, final String operation)
+  {
+    return runAll(tasks, operation, tasks.size());
+  }
+
+  private static long runAll(final List<Callable<Long>> tasks, final String operation, final int threads)
+  {
+    if (tasks.isEmpty())
+    {
+      return 0;
+    }
+    final ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, tasks.size()));
+    try
+    {
+      long total = 0;
+      for (final Future<Long> result : executor.invokeAll(tasks))
+      {
+        total += result.get();
+      }
+      return total;
+    }
+    catch (final InterruptedException ie)
+    {
+      Thread.currentThread().interrupt();
+      throw new ServerError("Interrupted during bulk " + operation, ie);
+    }
+    catch (final ExecutionException ee)
+    {
+      if (ee.getCause() instanceof RuntimeException)
+      {
+        throw (RuntimeException)ee.getCause();
+      }
+      throw new ServerError("Failed to carry out bulk " + operation, ee.getCause());
+    }
+    finally
+    {
+      executor.shutdownNow();
+    }
+  }
+
+  private static CopyManager copyManager(final Connection conn) throws SQLException
+  {
+    // Connections from the pool are proxies; COPY requires the underlying PostgreSQL connection
+    return ((PGConnection)((PooledConnection)conn).getConnection()).getCopyAPI();
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.services;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.MoreObjects;
+
+import static com.wealdtech.Preconditions.checkState;
+
+/**
+ * An index on a WObject table, over promoted fields or expressions on the data column {@code d}
+ */
+public final class PostgreSqlIndex
+{
+  private static final Joiner COLUMN_JOINER = Joiner.on(", ");
+
+  private final String name;
+  private final String method;
+  private final String definition;
+
+  private PostgreSqlIndex(final String name, final String method, final String definition)
+  {
+    checkState(name != null && name.matches("[a-z][a-z0-9_]*"), "Index name must be a lower-case identifier");
+    this.name = name;
+    this.method = method;
+    this.definition = definition;
+  }
+
+  /**
+   * A B-tree index over columns or expressions.  Expressions must be wrapped in parentheses
+   *
+   * @param name the name of the index, unique within the table
+   * @param columns the columns or parenthesised expressions to index, in order
+   *
+   * @return the index
+   */
+  public static PostgreSqlIndex btree(final String name, final String... columns)
+  {
+    checkState(columns.length > 0, "B-tree index requires at least one column");
+    return new PostgreSqlIndex(name, "BTREE", COLUMN_JOINER.join(columns));
+  }
+
+  /**
+   * A GIN index over an array column or expression, which supports the array containment and overlap operators
+   *
+   * @param name the name of the index, unique within the table
+   * @param column the column or parenthesised expression to index
+   *
+   * @return the index
+   */
+  public static PostgreSqlIndex gin(final String name, final String column)
+  {
+    return new PostgreSqlIndex(name, "GIN", column);
+  }
+
+  /**
+   * A GIN index over JSON, which supports the containment operator {@code @>}.  This uses the {@code jsonb_path_ops} operator
+   * class, which is considerably smaller and faster than the default but does not support the key existence operators
+   *
+   * @param name the name of the index, unique within the table
+   * @param expression the JSON expression to index, for example {@code d->'to'}; a query must use the same expression to use the
+   *                   index
+   *
+   * @return the index
+   */
+  public static PostgreSqlIndex jsonPath(final String name, final String expression)
+  {
+    return new PostgreSqlIndex(name, "GIN", "(" + expression + ") jsonb_path_ops");
+  }
+
+  public String getName(){ return name; }
+
+  public String getMethod(){ return method; }
+
+  public String getDefinition(){ return definition; }
+
+  @Override
+  public String toString()
+  {
+    return MoreObjects.toStringHelper(this)
+                  .add("name", name)
+                  .add("method", method)
+                  .add("definition", definition)
+                  .toString();
+  }
+}
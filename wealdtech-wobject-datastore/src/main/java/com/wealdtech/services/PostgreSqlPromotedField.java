@@ -0,0 +1,82 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.services;
+
+import com.google.common.base.MoreObjects;
+
+import static com.wealdtech.Preconditions.checkState;
+
+/**
+ * A value within the data of a WObject which is copied to its own column, so that it can be indexed and queried directly.
+ * <p/>
+ * The column is maintained by a trigger whenever the data is written, so services do not need to set it themselves.  The value is
+ * defined by an SQL expression over the data column {@code d}; if the expression for a field changes then the field should be
+ * given a new name so that existing rows are refilled.
+ */
+public final class PostgreSqlPromotedField
+{
+  private final String name;
+  private final String type;
+  private final String expression;
+
+  private PostgreSqlPromotedField(final String name, final String type, final String expression)
+  {
+    checkState(name != null && name.matches("[a-z][a-z0-9_]*"), "Promoted field name must be a lower-case identifier");
+    checkState(type != null, "Promoted field requires a type");
+    checkState(expression != null, "Promoted field requires an expression");
+    this.name = name;
+    this.type = type;
+    this.expression = expression;
+  }
+
+  /**
+   * Promote a field defined by an arbitrary expression
+   *
+   * @param name the name of the column
+   * @param type the SQL type of the column
+   * @param expression an SQL expression over the data column {@code d} which provides the value of the column
+   *
+   * @return the promoted field
+   */
+  public static PostgreSqlPromotedField of(final String name, final String type, final String expression)
+  {
+    return new PostgreSqlPromotedField(name, type, expression);
+  }
+
+  /**
+   * Promote a top-level value of the data as text, for example an ID
+   *
+   * @param name the name of the column
+   * @param key the key of the value in the data
+   *
+   * @return the promoted field
+   */
+  public static PostgreSqlPromotedField text(final String name, final String key)
+  {
+    return new PostgreSqlPromotedField(name, "TEXT", "d->>'" + key.replace("'", "''") + "'");
+  }
+
+  public String getName(){ return name; }
+
+  public String getType(){ return type; }
+
+  public String getExpression(){ return expression; }
+
+  @Override
+  public String toString()
+  {
+    return MoreObjects.toStringHelper(this)
+                  .add("name", name)
+                  .add("type", type)
+                  .add("expression", expression)
+                  .toString();
+  }
+}
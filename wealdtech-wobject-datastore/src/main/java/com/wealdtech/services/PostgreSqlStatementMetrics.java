@@ -0,0 +1,436 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.services;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.wealdtech.datastore.config.PostgreSqlInstrumentationConfiguration;
+import com.wealdtech.repositories.PostgreSqlRepository;
+import com.wealdtech.utils.WealdMetrics;
+import org.postgresql.util.PGobject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metrics for the statements which a WObject service runs against its table.
+ * <p/>
+ * Each successful operation is timed, and the rows and bytes it reads or writes are metered, as
+ * {@code com.wealdtech.services.WObjectServicePostgreSqlImpl.<table>.<operation>.<callback>.time}, {@code ...rows} and
+ * {@code ...bytes}.  The callback is the class of the callback which supplied the operation's conditions, so that a slow
+ * condition can be traced to the code which uses it.
+ * <p/>
+ * Statements which take longer than the configured threshold are logged along with the types, but not the values, of their
+ * parameters.  A fraction of slow reads are run again in the background with {@code EXPLAIN (ANALYZE, BUFFERS)}, in a
+ * transaction which is rolled back.  The most recent plans are published as the gauge
+ * {@code com.wealdtech.services.PostgreSqlStatementMetrics.plans}, so they are shown by the admin servlet's metrics
+ */
+public class PostgreSqlStatementMetrics
+{
+  private static final Logger LOG = LoggerFactory.getLogger(PostgreSqlStatementMetrics.class);
+
+  /**
+   * The operations which are instrumented
+   */
+  public enum Operation
+  {
+    ADD(false),
+    ADD_ALL(false),
+    UPDATE(false),
+    UPDATE_ALL(false),
+    PATCH(false),
+    REMOVE(false),
+    REMOVE_ALL(false),
+    OBTAIN(true),
+    PAGE(true),
+    QUERY(true);
+
+    private final boolean read;
+    private final String metricName;
+
+    Operation(final boolean read)
+    {
+      this.read = read;
+      this.metricName = name().toLowerCase(Locale.ENGLISH).replace("_", "");
+    }
+  }
+
+  private static final Class<?> NO_CALLBACK = Void.class;
+
+  // Plans are kept for all services together.  Statements are explained one at a time, and any which arrive while the queue is
+  // full are not explained, so that sampling cannot add much to the load on a datastore which is already slow
+  private static final Deque<PostgreSqlStatementPlan> PLANS = new ArrayDeque<>();
+  private static final ThreadPoolExecutor EXPLAINER =
+      new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(4),
+                             new ThreadFactoryBuilder().setNameFormat("explainer-%d").setDaemon(true).build(),
+                             new ThreadPoolExecutor.DiscardPolicy());
+  static
+  {
+    EXPLAINER.allowCoreThreadTimeOut(true);
+    WealdMetrics.getMetricRegistry().register(MetricRegistry.name(PostgreSqlStatementMetrics.class, "plans"),
+                                              new Gauge<ImmutableList<PostgreSqlStatementPlan>>()
+                                              {
+                                                @Override
+                                                public ImmutableList<PostgreSqlStatementPlan> getValue()
+                                                {
+                                                  synchronized (PLANS)
+                                                  {
+                                                    return ImmutableList.copyOf(PLANS);
+                                                  }
+                                                }
+                                              });
+  }
+
+  private final PostgreSqlRepository repository;
+  private final String table;
+  private final long slowThreshold;
+  private final double explainRate;
+  private final int explainRetained;
+  private final Map<Operation, ConcurrentMap<Class<?>, Instruments>> instruments = Maps.newEnumMap(Operation.class);
+
+  public PostgreSqlStatementMetrics(final PostgreSqlRepository repository, final String table)
+  {
+    this.repository = repository;
+    this.table = table;
+    final PostgreSqlInstrumentationConfiguration configuration = repository.getInstrumentationConfiguration();
+    this.slowThreshold = TimeUnit.MILLISECONDS.toNanos(configuration.getSlowThreshold());
+    this.explainRate = configuration.getExplainRate();
+    this.explainRetained = configuration.getExplainRetained();
+    for (final Operation operation : Operation.values())
+    {
+      this.instruments.put(operation, Maps.<Class<?>, Instruments>newConcurrentMap());
+    }
+  }
+
+  /**
+   * Start to time a statement
+   * @param operation the operation which the statement carries out
+   * @param cb the callback which supplied the statement's conditions, if any
+   * @param sql the statement
+   */
+  public Context start(final Operation operation, @Nullable final Object cb, final String sql)
+  {
+    final Class<?> callbackClass = cb == null ? NO_CALLBACK : cb.getClass();
+    final ConcurrentMap<Class<?>, Instruments> operationInstruments = instruments.get(operation);
+    Instruments callbackInstruments = operationInstruments.get(callbackClass);
+    if (callbackInstruments == null)
+    {
+      callbackInstruments = new Instruments(operation, callbackClass);
+      final Instruments existing = operationInstruments.putIfAbsent(callbackClass, callbackInstruments);
+      if (existing != null)
+      {
+        callbackInstruments = existing;
+      }
+    }
+    return new Context(operation, callbackInstruments, sql);
+  }
+
+  private final class Instruments
+  {
+    private final String callbackName;
+    private final Timer time;
+    private final Meter rows;
+    private final Meter bytes;
+
+    private Instruments(final Operation operation, final Class<?> callbackClass)
+    {
+      // The callback name is part of the metric name, so its dots are replaced
+      this.callbackName = callbackClass == NO_CALLBACK ? "none" : callbackClass.getName().replace('.', '_');
+      final MetricRegistry registry = WealdMetrics.getMetricRegistry();
+      this.time = registry.timer(MetricRegistry.name(WObjectServicePostgreSqlImpl.class, table, operation.metricName, callbackName, "time"));
+      this.rows = registry.meter(MetricRegistry.name(WObjectServicePostgreSqlImpl.class, table, operation.metricName, callbackName, "rows"));
+      this.bytes = registry.meter(MetricRegistry.name(WObjectServicePostgreSqlImpl.class, table, operation.metricName, callbackName, "bytes"));
+    }
+  }
+
+  /**
+   * The timing of a single statement
+   */
+  public final class Context
+  {
+    private final Operation operation;
+    private final Instruments instruments;
+    private final String sql;
+    private final long start;
+    private long rows = 0;
+    private long bytes = 0;
+    private ParameterRecorder recorder;
+
+    private Context(final Operation operation, final Instruments instruments, final String sql)
+    {
+      this.operation = operation;
+      this.instruments = instruments;
+      this.sql = sql;
+      this.start = System.nanoTime();
+    }
+
+    /**
+     * Record the parameters which are set on a statement, so that they can be described if the statement is slow.  The statement
+     * which is returned must be used in place of the original
+     */
+    public PreparedStatement record(final PreparedStatement stmt)
+    {
+      if (slowThreshold == 0)
+      {
+        return stmt;
+      }
+      recorder = new ParameterRecorder(stmt);
+      return (PreparedStatement)Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                                                       new Class<?>[]{PreparedStatement.class},
+                                                       recorder);
+    }
+
+    /**
+     * Count a row read or written by the statement
+     * @param bytes the size of the row's data
+     */
+    public void row(final long bytes)
+    {
+      this.rows++;
+      this.bytes += bytes;
+    }
+
+    /**
+     * Count rows read or written by the statement
+     */
+    public void rows(final long rows, final long bytes)
+    {
+      this.rows += rows;
+      this.bytes += bytes;
+    }
+
+    /**
+     * Finish timing the statement
+     */
+    public void stop()
+    {
+      final long elapsed = System.nanoTime() - start;
+      instruments.time.update(elapsed, TimeUnit.NANOSECONDS);
+      instruments.rows.mark(rows);
+      instruments.bytes.mark(bytes);
+
+      if (slowThreshold > 0 && elapsed >= slowThreshold)
+      {
+        final long duration = TimeUnit.NANOSECONDS.toMillis(elapsed);
+        final String flatSql = sql.replace('\n', ' ');
+        LOG.warn("Slow {} on {} by {}: {}ms for {} rows; {} with parameters {}", operation.metricName, table,
+                 instruments.callbackName, duration, rows, flatSql, recorder == null ? "[]" : recorder.describe());
+
+        if (operation.read && recorder != null && explainRate > 0 && ThreadLocalRandom.current().nextDouble() < explainRate)
+        {
+          EXPLAINER.execute(new Explanation(operation, instruments.callbackName, flatSql, duration, recorder.calls));
+        }
+      }
+    }
+  }
+
+  /**
+   * A call which set a parameter on a statement
+   */
+  private static final class ParameterCall
+  {
+    private final Method method;
+    private final Object[] args;
+
+    private ParameterCall(final Method method, final Object[] args)
+    {
+      this.method = method;
+      this.args = args.clone();
+    }
+
+    private String describe()
+    {
+      final Object value = args[1];
+      if (value == null || "setNull".equals(method.getName()))
+      {
+        return "null";
+      }
+      if (value instanceof PGobject)
+      {
+        return ((PGobject)value).getType();
+      }
+      if (value instanceof Array)
+      {
+        try
+        {
+          return ((Array)value).getBaseTypeName() + "[]";
+        }
+        catch (final SQLException se)
+        {
+          return "array";
+        }
+      }
+      if (value instanceof String)
+      {
+        return "text";
+      }
+      return value.getClass().getSimpleName().toLowerCase(Locale.ENGLISH);
+    }
+  }
+
+  /**
+   * Records the parameters set on a statement, by index, before passing the calls on
+   */
+  private static final class ParameterRecorder implements InvocationHandler
+  {
+    private final PreparedStatement stmt;
+    private final SortedMap<Integer, ParameterCall> calls = Maps.newTreeMap();
+
+    private ParameterRecorder(final PreparedStatement stmt)
+    {
+      this.stmt = stmt;
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable
+    {
+      // Parameter setters take the index followed by the value
+      if (method.getName().startsWith("set") && args != null && args.length > 1 && method.getParameterTypes()[0] == int.class)
+      {
+        calls.put((Integer)args[0], new ParameterCall(method, args));
+      }
+      else if ("clearParameters".equals(method.getName()))
+      {
+        calls.clear();
+      }
+      try
+      {
+        return method.invoke(stmt, args);
+      }
+      catch (final InvocationTargetException ite)
+      {
+        throw ite.getCause();
+      }
+    }
+
+    private String describe()
+    {
+      final StringBuilder sb = new StringBuilder("[");
+      for (final Map.Entry<Integer, ParameterCall> entry : calls.entrySet())
+      {
+        if (sb.length() > 1)
+        {
+          sb.append(", ");
+        }
+        sb.append(entry.getKey()).append(':').append(entry.getValue().describe());
+      }
+      return sb.append(']').toString();
+    }
+  }
+
+  /**
+   * Runs a slow read again with {@code EXPLAIN (ANALYZE, BUFFERS)} and keeps its plan
+   */
+  private final class Explanation implements Runnable
+  {
+    private final Operation operation;
+    private final String callbackName;
+    private final String sql;
+    private final long duration;
+    private final ImmutableList<ParameterCall> calls;
+
+    private Explanation(final Operation operation,
+                        final String callbackName,
+                        final String sql,
+                        final long duration,
+                        final SortedMap<Integer, ParameterCall> calls)
+    {
+      this.operation = operation;
+      this.callbackName = callbackName;
+      this.sql = sql;
+      this.duration = duration;
+      this.calls = ImmutableList.copyOf(calls.values());
+    }
+
+    @Override
+    public void run()
+    {
+      Connection conn = null;
+      try
+      {
+        // The plan need not reflect the latest writes, so can come from a replica
+        final PostgreSqlRepository.ReadScope scope = PostgreSqlRepository.replicaReads();
+        try
+        {
+          conn = repository.getReadConnection();
+        }
+        finally
+        {
+          scope.close();
+        }
+        // Nothing which the statement does is kept
+        conn.setAutoCommit(false);
+        try (PreparedStatement stmt = conn.prepareStatement("EXPLAIN (ANALYZE, BUFFERS) " + sql))
+        {
+          for (final ParameterCall call : calls)
+          {
+            call.method.invoke(stmt, call.args);
+          }
+          final ImmutableList.Builder<String> planB = ImmutableList.builder();
+          try (ResultSet rs = stmt.executeQuery())
+          {
+            while (rs.next())
+            {
+              planB.add(rs.getString(1));
+            }
+          }
+          addPlan(new PostgreSqlStatementPlan(System.currentTimeMillis(), table, operation.metricName, callbackName, sql, duration,
+                                              planB.build()));
+        }
+      }
+      catch (final SQLException | IllegalAccessException | InvocationTargetException | RuntimeException e)
+      {
+        LOG.debug("Failed to explain statement {}: ", sql, e);
+      }
+      finally
+      {
+        WObjectServicePostgreSqlImpl.closeTransaction(conn);
+      }
+    }
+  }
+
+  private void addPlan(final PostgreSqlStatementPlan plan)
+  {
+    synchronized (PLANS)
+    {
+      PLANS.addFirst(plan);
+      while (PLANS.size() > explainRetained)
+      {
+        PLANS.removeLast();
+      }
+    }
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.services;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * The plan of a slow statement, as found by running it again with {@code EXPLAIN (ANALYZE, BUFFERS)}
+ */
+public class PostgreSqlStatementPlan
+{
+  private final long timestamp;
+  private final String table;
+  private final String operation;
+  private final String callback;
+  private final String sql;
+  private final long duration;
+  private final ImmutableList<String> plan;
+
+  public PostgreSqlStatementPlan(final long timestamp,
+                                 final String table,
+                                 final String operation,
+                                 final String callback,
+                                 final String sql,
+                                 final long duration,
+                                 final ImmutableList<String> plan)
+  {
+    this.timestamp = timestamp;
+    this.table = table;
+    this.operation = operation;
+    this.callback = callback;
+    this.sql = sql;
+    this.duration = duration;
+    this.plan = plan;
+  }
+
+  /**
+   * @return the time at which the statement was explained, in milliseconds since the epoch
+   */
+  public long getTimestamp()
+  {
+    return timestamp;
+  }
+
+  public String getTable()
+  {
+    return table;
+  }
+
+  public String getOperation()
+  {
+    return operation;
+  }
+
+  /**
+   * @return the class of the callback which supplied the statement's conditions
+   */
+  public String getCallback()
+  {
+    return callback;
+  }
+
+  public String getSql()
+  {
+    return sql;
+  }
+
+  /**
+   * @return the time the statement took when it was found to be slow, in milliseconds
+   */
+  public long getDuration()
+  {
+    return duration;
+  }
+
+  /**
+   * @return the lines of the plan
+   */
+  public ImmutableList<String> getPlan()
+  {
+    return plan;
+  }
+}
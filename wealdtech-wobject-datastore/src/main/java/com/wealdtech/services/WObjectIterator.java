@@ -0,0 +1,27 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.services;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * An iterator over results which are read from the datastore as they are required rather than all at once.  The iterator holds
+ * datastore resources until it is exhausted or closed, so it should be used in a try-with-resources block
+ */
+public interface WObjectIterator<T> extends Iterator<T>, Closeable
+{
+  /**
+   * Release the datastore resources held by the iterator.  This can be called more than once
+   */
+  @Override
+  public void close();
+}
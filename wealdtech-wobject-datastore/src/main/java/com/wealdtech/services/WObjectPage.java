@@ -0,0 +1,63 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.services;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.wealdtech.WID;
+
+/**
+ * A page of objects obtained with a {@link WObjectPageRequest}
+ */
+public final class WObjectPage<T>
+{
+  private final ImmutableList<T> items;
+  private final Optional<WObjectPageRequest<T>> next;
+
+  /**
+   * @param items the objects in the page, in the order requested
+   * @param next the request for the following page; absent if this is the last page
+   */
+  public WObjectPage(final ImmutableList<T> items, final Optional<WObjectPageRequest<T>> next)
+  {
+    this.items = items;
+    this.next = next;
+  }
+
+  /**
+   * @return the objects in the page, in the order requested
+   */
+  public ImmutableList<T> getItems(){ return items; }
+
+  /**
+   * @return the request for the following page; absent if this is the last page
+   */
+  public Optional<WObjectPageRequest<T>> getNext(){ return next; }
+
+  /**
+   * @return the cursor for the following page, which is the ID of the last object in this page; absent if this is the last page
+   */
+  public Optional<WID<T>> getNextCursor()
+  {
+    return next.isPresent() ? next.get().getCursor() : Optional.<WID<T>>absent();
+  }
+
+  @Override
+  public String toString()
+  {
+    return MoreObjects.toStringHelper(this)
+                  .add("items", items.size())
+                  .add("next", next.orNull())
+                  .omitNullValues()
+                  .toString();
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.services;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Optional;
+import com.wealdtech.WID;
+
+import static com.wealdtech.Preconditions.checkState;
+
+/**
+ * A request for a page of objects in order of their IDs.  Generated IDs increase with time, so ascending order is oldest first and
+ * descending order is newest first.
+ * <p/>
+ * A page starts immediately after its cursor, in the direction of the request, so the first page of a descending request is the
+ * newest objects and a descending request with a cursor returns the objects created before the cursor
+ */
+public final class WObjectPageRequest<T>
+{
+  public enum Direction
+  {
+    ASCENDING,
+    DESCENDING
+  }
+
+  private final int size;
+  private final Direction direction;
+  private final Optional<WID<T>> cursor;
+
+  private WObjectPageRequest(final int size, final Direction direction, final Optional<WID<T>> cursor)
+  {
+    checkState(size > 0, "Page size must be positive");
+    checkState(direction != null, "Page requires a direction");
+    this.size = size;
+    this.direction = direction;
+    this.cursor = cursor;
+  }
+
+  /**
+   * The first page of objects, oldest first
+   *
+   * @param size the maximum number of objects in the page
+   *
+   * @return the request
+   */
+  public static <T> WObjectPageRequest<T> ascending(final int size)
+  {
+    return new WObjectPageRequest<>(size, Direction.ASCENDING, Optional.<WID<T>>absent());
+  }
+
+  /**
+   * The first page of objects, newest first
+   *
+   * @param size the maximum number of objects in the page
+   *
+   * @return the request
+   */
+  public static <T> WObjectPageRequest<T> descending(final int size)
+  {
+    return new WObjectPageRequest<>(size, Direction.DESCENDING, Optional.<WID<T>>absent());
+  }
+
+  /**
+   * The page which follows an object in the direction of this request
+   *
+   * @param cursor the ID of the object; it does not need to be present in the datastore
+   *
+   * @return the request
+   */
+  public WObjectPageRequest<T> from(final WID<T> cursor)
+  {
+    checkState(cursor != null, "Page cursor must be supplied");
+    return new WObjectPageRequest<>(size, direction, Optional.of(cursor));
+  }
+
+  public int getSize(){ return size; }
+
+  public Direction getDirection(){ return direction; }
+
+  public Optional<WID<T>> getCursor(){ return cursor; }
+
+  @Override
+  public String toString()
+  {
+    return MoreObjects.toStringHelper(this)
+                  .add("size", size)
+                  .add("direction", direction)
+                  .add("cursor", cursor.orNull())
+                  .omitNullValues()
+                  .toString();
+  }
+}
@@ -15,6 +15,9 @@ import com.google.common.collect.ImmutableList;
 import com.wealdtech.WID;
 import com.wealdtech.WObject;
 
+import javax.annotation.Nullable;
+import java.util.Collection;
+
 /**
  * Interface defining WObject service methods
  */
@@ -39,11 +42,29 @@ public interface WObjectService<T extends WObject, U>
    */
   public void add(T item);
 
+  /**
+   * Add multiple objects.  The objects are added together; if any of them cannot be added then none of them are
+   */
+  public void addAll(Collection<T> items);
+
   /**
    * Update an object.  The item to be updated is defined by the ID of the item provided
    */
   public void update(T item);
 
+  /**
+   * Update an object, writing only the parts of it which have changed.  The item to be updated is defined by the ID of the items
+   * provided.  The original item should be as it was obtained from the datastore; if the stored item has since been altered then
+   * any changes which are not part of the difference between the two items are retained
+   */
+  public void update(T oldItem, T newItem);
+
+  /**
+   * Update multiple objects.  The items to be updated are defined by the IDs of the items provided.  The objects are updated
+   * together; if any of them cannot be updated then none of them are
+   */
+  public void updateAll(Collection<T> items);
+
   /**
    * Update an object.  The object to be updated is defined by the callback provided
    */
@@ -54,6 +75,11 @@ public interface WObjectService<T extends WObject, U>
    */
   public void remove(WID<T> itemId);
 
+  /**
+   * Remove multiple objects.  The objects are removed together; if any of them cannot be removed then none of them are
+   */
+  public void removeAll(Collection<WID<T>> itemIds);
+
   /**
    * Remove multiple objects based on callback conditions
    */
@@ -64,8 +90,33 @@ public interface WObjectService<T extends WObject, U>
    */
   public ImmutableList<T> obtain(TypeReference<T> typeRef, WObjectServiceCallback<U> cb);
 
+  /**
+   * Obtain an object by its ID
+   * @return the object; can be {@code null} if there is no object with the ID
+   */
+  @Nullable
+  public T obtainItem(TypeReference<T> typeRef, WID<T> itemId);
+
+  /**
+   * Obtain a page of objects in order of their IDs.  Each page is found directly from its cursor, so obtaining a page is as quick
+   * however far through the objects it is.  The callback provides conditions only; it cannot provide an order
+   */
+  public WObjectPage<T> obtain(TypeReference<T> typeRef, WObjectServiceCallback<U> cb, WObjectPageRequest<T> page);
+
+  /**
+   * Obtain objects, reading them from the datastore as they are iterated over rather than all at once.  The iterator must be
+   * closed if it is not exhausted
+   */
+  public WObjectIterator<T> iterate(TypeReference<T> typeRef, WObjectServiceCallback<U> cb);
+
   /**
    * Run a generic query
    */
   public <V> ImmutableList<V> query(TypeReference<V> typeRef, WObjectServiceCallback<U> cb);
+
+  /**
+   * Run a generic query, reading its results from the datastore as they are iterated over rather than all at once.  The iterator
+   * must be closed if it is not exhausted
+   */
+  public <V> WObjectIterator<V> iterateQuery(TypeReference<V> typeRef, WObjectServiceCallback<U> cb);
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.services;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.wealdtech.WID;
+import com.wealdtech.WObject;
+
+import java.util.Collection;
+
+/**
+ * Asynchronous access to the operations of a {@link WObjectService}.  Each operation is carried out on the datastore's executor
+ * and returns immediately with a future for its result, so independent operations can run concurrently and the calling thread
+ * is not held while they do.  Failures, including the datastore being too busy to accept the operation, are reported through the
+ * future
+ */
+public interface WObjectServiceAsync<T extends WObject, U>
+{
+  /**
+   * Add a object
+   */
+  public ListenableFuture<Void> add(T item);
+
+  /**
+   * Add multiple objects.  The objects are added together; if any of them cannot be added then none of them are
+   */
+  public ListenableFuture<Void> addAll(Collection<T> items);
+
+  /**
+   * Update an object.  The item to be updated is defined by the ID of the item provided
+   */
+  public ListenableFuture<Void> update(T item);
+
+  /**
+   * Update an object, writing only the parts of it which have changed
+   */
+  public ListenableFuture<Void> update(T oldItem, T newItem);
+
+  /**
+   * Update multiple objects.  The objects are updated together; if any of them cannot be updated then none of them are
+   */
+  public ListenableFuture<Void> updateAll(Collection<T> items);
+
+  /**
+   * Update an object.  The object to be updated is defined by the callback provided
+   */
+  public ListenableFuture<Void> update(T item, WObjectServiceCallback<U> cb);
+
+  /**
+   * Remove an object
+   */
+  public ListenableFuture<Void> remove(WID<T> itemId);
+
+  /**
+   * Remove multiple objects.  The objects are removed together; if any of them cannot be removed then none of them are
+   */
+  public ListenableFuture<Void> removeAll(Collection<WID<T>> itemIds);
+
+  /**
+   * Remove multiple objects based on callback conditions
+   */
+  public ListenableFuture<Void> remove(WObjectServiceCallback<U> cb);
+
+  /**
+   * Obtain objects
+   */
+  public ListenableFuture<ImmutableList<T>> obtain(TypeReference<T> typeRef, WObjectServiceCallback<U> cb);
+
+  /**
+   * Obtain a page of objects in order of their IDs
+   */
+  public ListenableFuture<WObjectPage<T>> obtain(TypeReference<T> typeRef, WObjectServiceCallback<U> cb, WObjectPageRequest<T> page);
+
+  /**
+   * Run a generic query
+   */
+  public <V> ListenableFuture<ImmutableList<V>> query(TypeReference<V> typeRef, WObjectServiceCallback<U> cb);
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.services;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.wealdtech.ServerError;
+import com.wealdtech.WID;
+import com.wealdtech.WObject;
+
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.wealdtech.Preconditions.checkState;
+
+/**
+ * Asynchronous access to a {@link WObjectService}, carrying out its operations on an executor
+ */
+public class WObjectServiceAsyncImpl<T extends WObject, U> implements WObjectServiceAsync<T, U>
+{
+  private final WObjectService<T, U> service;
+  private final ListeningExecutorService executor;
+
+  /**
+   * @param service the service which carries out the operations
+   * @param executor the executor on which to carry out the operations.  This should have no more threads than the datastore has
+   *                 connections, as any more would only wait for a connection
+   */
+  public WObjectServiceAsyncImpl(final WObjectService<T, U> service, final ListeningExecutorService executor)
+  {
+    checkState(service != null, "Asynchronous service requires a service");
+    checkState(executor != null, "Asynchronous service requires an executor");
+    this.service = service;
+    this.executor = executor;
+  }
+
+  @Override
+  public ListenableFuture<Void> add(final T item)
+  {
+    return submit(new Callable<Void>()
+    {
+      @Override
+      public Void call()
+      {
+        service.add(item);
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<Void> addAll(final Collection<T> items)
+  {
+    return submit(new Callable<Void>()
+    {
+      @Override
+      public Void call()
+      {
+        service.addAll(items);
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<Void> update(final T item)
+  {
+    return submit(new Callable<Void>()
+    {
+      @Override
+      public Void call()
+      {
+        service.update(item);
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<Void> update(final T oldItem, final T newItem)
+  {
+    return submit(new Callable<Void>()
+    {
+      @Override
+      public Void call()
+      {
+        service.update(oldItem, newItem);
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<Void> updateAll(final Collection<T> items)
+  {
+    return submit(new Callable<Void>()
+    {
+      @Override
+      public Void call()
+      {
+        service.updateAll(items);
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<Void> update(final T item, final WObjectServiceCallback<U> cb)
+  {
+    return submit(new Callable<Void>()
+    {
+      @Override
+      public Void call()
+      {
+        service.update(item, cb);
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<Void> remove(final WID<T> itemId)
+  {
+    return submit(new Callable<Void>()
+    {
+      @Override
+      public Void call()
+      {
+        service.remove(itemId);
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<Void> removeAll(final Collection<WID<T>> itemIds)
+  {
+    return submit(new Callable<Void>()
+    {
+      @Override
+      public Void call()
+      {
+        service.removeAll(itemIds);
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<Void> remove(final WObjectServiceCallback<U> cb)
+  {
+    return submit(new Callable<Void>()
+    {
+      @Override
+      public Void call()
+      {
+        service.remove(cb);
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<ImmutableList<T>> obtain(final TypeReference<T> typeRef, final WObjectServiceCallback<U> cb)
+  {
+    return submit(new Callable<ImmutableList<T>>()
+    {
+      @Override
+      public ImmutableList<T> call()
+      {
+        return service.obtain(typeRef, cb);
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<WObjectPage<T>> obtain(final TypeReference<T> typeRef,
+                                                  final WObjectServiceCallback<U> cb,
+                                                  final WObjectPageRequest<T> page)
+  {
+    return submit(new Callable<WObjectPage<T>>()
+    {
+      @Override
+      public WObjectPage<T> call()
+      {
+        return service.obtain(typeRef, cb, page);
+      }
+    });
+  }
+
+  @Override
+  public <V> ListenableFuture<ImmutableList<V>> query(final TypeReference<V> typeRef, final WObjectServiceCallback<U> cb)
+  {
+    return submit(new Callable<ImmutableList<V>>()
+    {
+      @Override
+      public ImmutableList<V> call()
+      {
+        return service.query(typeRef, cb);
+      }
+    });
+  }
+
+  private <V> ListenableFuture<V> submit(final Callable<V> task)
+  {
+    try
+    {
+      return executor.submit(task);
+    }
+    catch (final RejectedExecutionException ree)
+    {
+      return Futures.immediateFailedFuture(new ServerError("Datastore is too busy to accept the operation", ree));
+    }
+  }
+}
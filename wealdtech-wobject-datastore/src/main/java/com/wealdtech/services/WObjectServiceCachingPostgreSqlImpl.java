@@ -0,0 +1,439 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.services;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.wealdtech.DataError;
+import com.wealdtech.WID;
+import com.wealdtech.WObject;
+import com.wealdtech.datastore.PostgreSqlNotificationListener;
+import com.wealdtech.datastore.config.WObjectCacheConfiguration;
+import com.wealdtech.repositories.PostgreSqlRepository;
+import com.wealdtech.utils.WealdMetrics;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.wealdtech.Preconditions.checkState;
+
+/**
+ * WObject service which caches objects obtained by their ID in front of another service.
+ * <p/>
+ * Writes through this service invalidate the objects they touch in the local cache, and announce them on a PostgreSQL
+ * notification channel so that the caches of other processes are invalidated as well.  Writes which are defined by conditions
+ * rather than IDs invalidate everything.  Writes which bypass this service are only seen once their objects expire, unless the
+writer calls {@link #invalidate(WID)} itself.
+ * <p/>
+ * Notifications are picked up by polling, so other processes can see the prior version of an object for up to
+ * {@value #POLL_INTERVAL_MS}ms after it is written.  If the listening connection fails then the cache is cleared when it
+ * reconnects, as notifications may have been missed, and it is bypassed until then
+ */
+public class WObjectServiceCachingPostgreSqlImpl<T extends WObject<T>> implements WObjectService<T, PreparedStatement>
+{
+  private static final Logger LOG = LoggerFactory.getLogger(WObjectServiceCachingPostgreSqlImpl.class);
+
+  static final long POLL_INTERVAL_MS = 500;
+
+  // Notifications are limited to 8000 bytes so IDs are announced in groups
+  private static final int MAX_PAYLOAD = 7900;
+  private static final String ALL = "*";
+  private static final String SEPARATOR = ",";
+
+  private static final String NOTIFY_SQL = "SELECT pg_notify(?, ?)";
+
+  private final WObjectService<T, PreparedStatement> service;
+  private final PostgreSqlRepository repository;
+  private final String channel;
+  private final boolean negative;
+  private final Cache<WID<T>, Optional<T>> cache;
+  // Incremented on every invalidation, so that a read which overlaps an invalidation does not cache what it read
+  private final AtomicLong generation = new AtomicLong();
+
+  private final Meter hits;
+  private final Meter misses;
+  private final Meter invalidations;
+
+  // The cache is only used while invalidations from other processes are being received
+  private final Listener listener;
+
+  /**
+   * @param service the service which carries out the operations
+   * @param repository the repository used by the service, through which invalidations are announced
+   * @param name the name of the cache; this must be the same for all processes which share the objects
+   */
+  public WObjectServiceCachingPostgreSqlImpl(final WObjectService<T, PreparedStatement> service,
+                                             final PostgreSqlRepository repository,
+                                             final String name)
+  {
+    checkState(service != null, "Caching service requires a service");
+    checkState(repository != null, "Caching service requires a repository");
+    checkState(name != null && name.matches("[a-z][a-z0-9_]*"), "Cache name must be a lower-case identifier");
+    this.service = service;
+    this.repository = repository;
+    this.channel = "wobject_" + name;
+
+    final WObjectCacheConfiguration configuration = repository.getCacheConfiguration();
+    this.negative = configuration.isNegative();
+    this.cache = CacheBuilder.newBuilder()
+                             .maximumSize(configuration.getMaxEntries())
+                             .expireAfterWrite(configuration.getMaxDuration(), TimeUnit.SECONDS)
+                             .build();
+
+    final MetricRegistry registry = WealdMetrics.getMetricRegistry();
+    this.hits = registry.meter(MetricRegistry.name(WObjectServiceCachingPostgreSqlImpl.class, name, "hits"));
+    this.misses = registry.meter(MetricRegistry.name(WObjectServiceCachingPostgreSqlImpl.class, name, "misses"));
+    this.invalidations = registry.meter(MetricRegistry.name(WObjectServiceCachingPostgreSqlImpl.class, name, "invalidations"));
+
+    if (configuration.getMaxEntries() > 0)
+    {
+      this.listener = new Listener();
+      this.listener.start("cache-" + name);
+    }
+    else
+    {
+      this.listener = null;
+    }
+  }
+
+  /**
+   * @return {@code true} if invalidations from other processes are being received, and hence the cache is in use
+   */
+  public boolean isListening()
+  {
+    return listener != null && listener.isListening();
+  }
+
+  /**
+   * Stop listening for invalidations from other processes.  The cache is not used once this has been called
+   */
+  public void close()
+  {
+    if (listener != null)
+    {
+      listener.stop();
+    }
+    invalidateAll();
+  }
+
+  @Override
+  @Nullable
+  public T obtainItem(final TypeReference<T> typeRef, final WID<T> itemId)
+  {
+    checkState(itemId != null, "Passed NULL item ID to obtain from the datastore");
+    if (!isListening())
+    {
+      return service.obtainItem(typeRef, itemId);
+    }
+
+    final Optional<T> cached = cache.getIfPresent(itemId);
+    if (cached != null)
+    {
+      hits.mark();
+      return cached.orNull();
+    }
+    misses.mark();
+
+    final long priorGeneration = generation.get();
+    final T item;
+    // A lagging replica would put an object in the cache which is already out of date, and nothing would invalidate it, so the
+    // miss is filled from the primary even if the caller allows replica reads
+    final PostgreSqlRepository.ReadScope scope = PostgreSqlRepository.primaryReads();
+    try
+    {
+      item = service.obtainItem(typeRef, itemId);
+    }
+    finally
+    {
+      scope.close();
+    }
+    if ((item != null || negative) && generation.get() == priorGeneration)
+    {
+      cache.put(itemId, Optional.fromNullable(item));
+    }
+    return item;
+  }
+
+  @Override
+  public void createDatastore()
+  {
+    service.createDatastore();
+  }
+
+  @Override
+  public void destroyDatastore()
+  {
+    service.destroyDatastore();
+    invalidateAll();
+    announce(ImmutableList.of(ALL));
+  }
+
+  @Override
+  public void add(final T item)
+  {
+    service.add(item);
+    invalidate(ImmutableList.of(item.getId()));
+  }
+
+  @Override
+  public void addAll(final Collection<T> items)
+  {
+    service.addAll(items);
+    invalidate(ids(items));
+  }
+
+  @Override
+  public void update(final T item)
+  {
+    service.update(item);
+    invalidate(ImmutableList.of(item.getId()));
+  }
+
+  @Override
+  public void update(final T oldItem, final T newItem)
+  {
+    service.update(oldItem, newItem);
+    invalidate(ImmutableList.of(newItem.getId()));
+  }
+
+  @Override
+  public void updateAll(final Collection<T> items)
+  {
+    service.updateAll(items);
+    invalidate(ids(items));
+  }
+
+  @Override
+  public void update(final T item, final WObjectServiceCallback<PreparedStatement> cb)
+  {
+    service.update(item, cb);
+    invalidateAll();
+    announce(ImmutableList.of(ALL));
+  }
+
+  @Override
+  public void remove(final WID<T> itemId)
+  {
+    service.remove(itemId);
+    invalidate(ImmutableList.of(itemId));
+  }
+
+  @Override
+  public void removeAll(final Collection<WID<T>> itemIds)
+  {
+    service.removeAll(itemIds);
+    invalidate(itemIds);
+  }
+
+  @Override
+  public void remove(final WObjectServiceCallback<PreparedStatement> cb)
+  {
+    service.remove(cb);
+    invalidateAll();
+    announce(ImmutableList.of(ALL));
+  }
+
+  @Override
+  public ImmutableList<T> obtain(final TypeReference<T> typeRef, final WObjectServiceCallback<PreparedStatement> cb)
+  {
+    return service.obtain(typeRef, cb);
+  }
+
+  @Override
+  public WObjectPage<T> obtain(final TypeReference<T> typeRef,
+                               final WObjectServiceCallback<PreparedStatement> cb,
+                               final WObjectPageRequest<T> page)
+  {
+    return service.obtain(typeRef, cb, page);
+  }
+
+  @Override
+  public WObjectIterator<T> iterate(final TypeReference<T> typeRef, final WObjectServiceCallback<PreparedStatement> cb)
+  {
+    return service.iterate(typeRef, cb);
+  }
+
+  @Override
+  public <V> ImmutableList<V> query(final TypeReference<V> typeRef, final WObjectServiceCallback<PreparedStatement> cb)
+  {
+    return service.query(typeRef, cb);
+  }
+
+  @Override
+  public <V> WObjectIterator<V> iterateQuery(final TypeReference<V> typeRef, final WObjectServiceCallback<PreparedStatement> cb)
+  {
+    return service.iterateQuery(typeRef, cb);
+  }
+
+  /**
+   * Invalidate an object which has been written without going through this service, here and in other processes.  This is
+   * for services which hold a cache in front of themselves, and so cannot write through it from methods which the cache calls
+   * @param itemId the ID of the object which has been written
+   */
+  public void invalidate(final WID<T> itemId)
+  {
+    checkState(itemId != null, "Passed NULL item ID to invalidate");
+    invalidate(ImmutableList.of(itemId));
+  }
+
+  private ImmutableList<WID<T>> ids(final Collection<T> items)
+  {
+    final ImmutableList.Builder<WID<T>> idsB = ImmutableList.builder();
+    for (final T item : items)
+    {
+      idsB.add(item.getId());
+    }
+    return idsB.build();
+  }
+
+  private void invalidate(final Collection<WID<T>> itemIds)
+  {
+    generation.incrementAndGet();
+    cache.invalidateAll(itemIds);
+    invalidations.mark(itemIds.size());
+
+    final List<String> ids = Lists.newArrayListWithCapacity(itemIds.size());
+    for (final WID<T> itemId : itemIds)
+    {
+      ids.add(itemId.toString());
+    }
+    announce(ids);
+  }
+
+  private void invalidateAll()
+  {
+    generation.incrementAndGet();
+    cache.invalidateAll();
+    invalidations.mark();
+  }
+
+  /**
+   * Announce invalidations to other processes.  The write has already happened so a failure to announce it is logged rather than
+   * thrown; other processes will see the change when their copies expire
+   */
+  private void announce(final List<String> ids)
+  {
+    if (listener == null || ids.isEmpty())
+    {
+      return;
+    }
+    Connection conn = null;
+    try
+    {
+      conn = repository.getConnection();
+      try (PreparedStatement stmt = conn.prepareStatement(NOTIFY_SQL))
+      {
+        final StringBuilder payload = new StringBuilder();
+        for (final String id : ids)
+        {
+          if (payload.length() > 0 && payload.length() + id.length() >= MAX_PAYLOAD)
+          {
+            notify(stmt, payload.toString());
+            payload.setLength(0);
+          }
+          if (payload.length() > 0)
+          {
+            payload.append(SEPARATOR);
+          }
+          payload.append(id);
+        }
+        notify(stmt, payload.toString());
+      }
+    }
+    catch (final SQLException se)
+    {
+      LOG.warn("Failed to announce cache invalidation on {}: ", channel, se);
+    }
+    finally
+    {
+      WObjectServicePostgreSqlImpl.closeConnection(conn);
+    }
+  }
+
+  private void notify(final PreparedStatement stmt, final String payload) throws SQLException
+  {
+    stmt.setString(1, channel);
+    stmt.setString(2, payload);
+    stmt.execute();
+  }
+
+  private void received(final String payload)
+  {
+    if (ALL.equals(payload))
+    {
+      invalidateAll();
+      return;
+    }
+    generation.incrementAndGet();
+    int count = 0;
+    for (final String id : payload.split(SEPARATOR))
+    {
+      try
+      {
+        cache.invalidate(WID.<T>fromString(id));
+        count++;
+      }
+      catch (final DataError.Bad dbe)
+      {
+        LOG.warn("Ignoring invalid ID \"{}\" in cache invalidation on {}", id, channel);
+      }
+    }
+    invalidations.mark(count);
+  }
+
+  /**
+   * Listens for invalidations from other processes
+   */
+  private class Listener extends PostgreSqlNotificationListener
+  {
+    private Listener()
+    {
+      super(repository, channel, POLL_INTERVAL_MS);
+    }
+
+    @Override
+    protected void connected()
+    {
+      // Anything could have changed while we were not listening
+      invalidateAll();
+    }
+
+    @Override
+    protected void disconnected()
+    {
+      invalidateAll();
+    }
+
+    @Override
+    protected void received(final Connection conn, final ImmutableList<PGNotification> notifications)
+    {
+      for (final PGNotification notification : notifications)
+      {
+        WObjectServiceCachingPostgreSqlImpl.this.received(notification.getParameter());
+      }
+    }
+  }
+}
@@ -106,6 +106,50 @@ public class WObjectServiceCallbackPostgreSqlImpl implements WObjectServiceCallb
                           val == null ? null : ImmutableSet.copyOf(Collections2.transform(val, WID_ARRAY_TO_STRING_ARRAY)));
   }
 
+  /**
+   * Set the values for {@link WObjectServicePostgreSqlImpl#KEY_CONDITION}.  This sets two parameters, starting at the index given
+   */
+  public WObjectServiceCallbackPostgreSqlImpl setKey(final PreparedStatement stmt, final int index, final WID<?> val)
+  {
+    try
+    {
+      stmt.setLong(index, WObjectServicePostgreSqlImpl.key(val));
+      stmt.setLong(index + 1, WObjectServicePostgreSqlImpl.subKey(val));
+    }
+    catch (final SQLException se)
+    {
+      throw WObjectServicePostgreSqlImpl.createSqlException(stmt, se, "Failed to set key");
+    }
+    return this;
+  }
+
+  /**
+   * Set the values for {@link WObjectServicePostgreSqlImpl#KEYS_CONDITION}.  This sets two parameters, starting at the index given
+   */
+  public WObjectServiceCallbackPostgreSqlImpl setKeys(final PreparedStatement stmt,
+                                                      final int index,
+                                                      final ImmutableCollection<? extends WID<?>> val)
+  {
+    final Long[] keys = new Long[val.size()];
+    final Long[] subKeys = new Long[val.size()];
+    int i = 0;
+    for (final WID<?> id : val)
+    {
+      keys[i] = WObjectServicePostgreSqlImpl.key(id);
+      subKeys[i++] = WObjectServicePostgreSqlImpl.subKey(id);
+    }
+    try
+    {
+      stmt.setArray(index, stmt.getConnection().createArrayOf("bigint", keys));
+      stmt.setArray(index + 1, stmt.getConnection().createArrayOf("bigint", subKeys));
+    }
+    catch (final SQLException se)
+    {
+      throw WObjectServicePostgreSqlImpl.createSqlException(stmt, se, "Failed to set keys");
+    }
+    return this;
+  }
+
   public WObjectServiceCallbackPostgreSqlImpl setLong(final PreparedStatement stmt,
                                                       final int index,
                                                       @Nullable final Long val)
@@ -13,65 +13,208 @@ package com.wealdtech.services;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 import com.wealdtech.*;
 import com.wealdtech.repositories.PostgreSqlRepository;
+import com.wealdtech.services.PostgreSqlStatementMetrics.Operation;
 import org.postgresql.util.PGobject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 
 import static com.wealdtech.Preconditions.checkState;
 
 /**
- * WObject service using PostgreSQL as a backend
+ * WObject service using PostgreSQL as a backend.
+ * <p/>
+ * Reads, including generic queries, go to the primary.  Callers which can tolerate missing recent writes can send them to a read
+ * replica, if the repository has any, with {@link PostgreSqlRepository#replicaReads()}
  */
 public class WObjectServicePostgreSqlImpl<T extends WObject<T>> implements WObjectService<T, PreparedStatement>
 {
   private static final Logger LOG = LoggerFactory.getLogger(WObjectServicePostgreSqlImpl.class);
 
+  private static final Joiner COMMA_JOINER = Joiner.on(", ");
+
   private final PostgreSqlRepository repository;
 
-  private static final String CREATE_TABLE_SQL = "CREATE TABLE IF NOT EXISTS t_TABLENAME(d JSONB NOT NULL)";
+  /**
+   * Condition to select a single item by its ID; set its values with
+   * {@link WObjectServiceCallbackPostgreSqlImpl#setKey(PreparedStatement, int, WID)}
+   */
+  public static final String KEY_CONDITION = "i = ? AND s = ?";
+
+  /**
+   * Condition to select multiple items by their IDs; set its values with
+   * {@link WObjectServiceCallbackPostgreSqlImpl#setKeys(PreparedStatement, int, ImmutableCollection)}
+   */
+  public static final String KEYS_CONDITION = "(i, s) IN (SELECT * FROM unnest(?::BIGINT[], ?::BIGINT[]))";
+
+  // Items are keyed by the numeric value of their ID in column i and its sub-ID, or 0 if it has none, in column s
+  private static final String CREATE_TABLE_SQL = "CREATE TABLE IF NOT EXISTS t_TABLENAME(i BIGINT NOT NULL,\n" +
+                                                 "                                       s BIGINT NOT NULL DEFAULT 0,\n" +
+                                                 "                                       d JSONB NOT NULL,\n" +
+                                                 "                                       PRIMARY KEY(i, s))";
+
+  // Migration of tables created prior to the key columns.  The columns are added without defaults so that adding them does not
+  // rewrite the table, then filled in batches from the IDs in the data so that no long-running lock is held.  The primary key is
+  // built concurrently as a unique index before being attached to the table.  Rows without an ID cannot be keyed, so are left
+  // for the primary key to reject
+  private static final int MIGRATION_BATCH_SIZE = 1000;
+
+  private static final String MIGRATE_ADD_COLUMNS_SQL = "ALTER TABLE t_TABLENAME ADD COLUMN i BIGINT, ADD COLUMN s BIGINT";
+
+  private static final String MIGRATE_FILL_COLUMNS_SQL =
+      "UPDATE t_TABLENAME\n" +
+      "SET i = ('x' || lpad(split_part(d->>'_id', '.', 1), 16, '0'))::BIT(64)::BIGINT,\n" +
+      "    s = COALESCE(('x' || lpad(NULLIF(split_part(d->>'_id', '.', 2), ''), 16, '0'))::BIT(64)::BIGINT, 0)\n" +
+      "WHERE ctid = ANY(ARRAY(SELECT ctid FROM t_TABLENAME WHERE i IS NULL AND d->>'_id' IS NOT NULL LIMIT " + MIGRATION_BATCH_SIZE + "))";
+
+  private static final String MIGRATE_COUNT_UNKEYED_SQL = "SELECT COUNT(*) FROM t_TABLENAME WHERE i IS NULL";
+
+  private static final String MIGRATE_DROP_INDEX_SQL = "DROP INDEX CONCURRENTLY IF EXISTS t_TABLENAME_key";
+
+  private static final String MIGRATE_CREATE_INDEX_SQL = "CREATE UNIQUE INDEX CONCURRENTLY t_TABLENAME_key ON t_TABLENAME(i, s)";
+
+  private static final String MIGRATE_ADD_PRIMARY_KEY_SQL = "ALTER TABLE t_TABLENAME\n" +
+                                                            "ALTER COLUMN s SET DEFAULT 0,\n" +
+                                                            "ADD CONSTRAINT t_TABLENAME_pkey PRIMARY KEY USING INDEX t_TABLENAME_key";
+
+  // Promoted fields are maintained by a trigger which evaluates their expressions over the data as it is written
+  private static final String PROMOTE_ADD_COLUMN_SQL = "ALTER TABLE t_TABLENAME ADD COLUMN NAME TYPE";
+
+  private static final String PROMOTE_FUNCTION_SQL = "CREATE OR REPLACE FUNCTION t_TABLENAME_promote() RETURNS TRIGGER AS $$\n" +
+                                                     "BEGIN\n" +
+                                                     "  SELECT EXPRESSIONS INTO COLUMNS FROM (SELECT NEW.d AS d) AS t;\n" +
+                                                     "  RETURN NEW;\n" +
+                                                     "END;\n" +
+                                                     "$$ LANGUAGE plpgsql";
+
+  private static final String PROMOTE_TRIGGER_EXISTS_SQL = "SELECT 1 FROM pg_trigger WHERE tgrelid = 't_TABLENAME'::regclass AND tgname = 't_TABLENAME_promote'";
+
+  private static final String PROMOTE_TRIGGER_SQL = "CREATE TRIGGER t_TABLENAME_promote BEFORE INSERT OR UPDATE OF d ON t_TABLENAME\n" +
+                                                    "FOR EACH ROW EXECUTE PROCEDURE t_TABLENAME_promote()";
+
+  // Existing rows are refilled in key order, a batch at a time, by rewriting their data so that the trigger fires
+  private static final String PROMOTE_FILL_SQL = "UPDATE t_TABLENAME SET d = d\n" +
+                                                 "WHERE (i, s) IN (SELECT i, s FROM t_TABLENAME CONDITION ORDER BY i, s LIMIT " +
+                                                 MIGRATION_BATCH_SIZE + ")\n" +
+                                                 "RETURNING i, s";
+
+  // to_regclass() only takes a cstring prior to PostgreSQL 9.6, so the index is found by name in the catalog
+  private static final String INDEX_VALID_SQL =
+      "SELECT i.indisvalid FROM pg_index i JOIN pg_class c ON c.oid = i.indexrelid WHERE c.relname = ?";
+
+  private static final String DROP_INDEX_SQL = "DROP INDEX CONCURRENTLY IF EXISTS NAME";
+
+  private static final String CREATE_INDEX_SQL = "CREATE INDEX CONCURRENTLY NAME ON t_TABLENAME USING METHOD (DEFINITION)";
 
   private static final String DESTROY_TABLE_SQL = "DROP TABLE IF EXISTS t_TABLENAME";
 
-  private static final String ADD_SQL = "INSERT INTO t_TABLENAME VALUES(?)";
+  private static final String DESTROY_PROMOTE_FUNCTION_SQL = "DROP FUNCTION IF EXISTS t_TABLENAME_promote()";
+
+  private static final String ADD_SQL = "INSERT INTO t_TABLENAME(i, s, d) VALUES(?, ?, ?)";
+
+  // Bulk operations pass the keys and data of their items as parallel arrays, so that each batch is a single statement
+  private static final String ADD_ALL_SQL = "INSERT INTO t_TABLENAME(i, s, d)\n" +
+                                            "SELECT ui, us, ud::JSONB FROM unnest(?::BIGINT[], ?::BIGINT[], ?::TEXT[]) AS u(ui, us, ud)";
+
+  private static final String UPDATE_ALL_SQL = "UPDATE t_TABLENAME AS t\n" +
+                                               "SET d = ud::JSONB\n" +
+                                               "FROM unnest(?::BIGINT[], ?::BIGINT[], ?::TEXT[]) AS u(ui, us, ud)\n" +
+                                               "WHERE t.i = ui AND t.s = us";
 
   private static final String REMOVE_SQL = "DELETE FROM t_TABLENAME";
 
   private static final String REMOVE_ITEM_SQL = "DELETE FROM t_TABLENAME\n" +
-                                                "WHERE d->>'_id' = ?";
+                                                "WHERE " + KEY_CONDITION;
 
   private static final String OBTAIN_SQL = "SELECT d\n" +
                                            "FROM t_TABLENAME";
 
   private static final String UPDATE_SQL = "UPDATE t_TABLENAME\n" +
                                            "SET d = ?\n" +
-                                           "WHERE d->>'_id' = ?";
+                                           "WHERE " + KEY_CONDITION;
+
+  private static final String PATCH_SQL = "UPDATE t_TABLENAME\n" +
+                                          "SET d = PATCH\n" +
+                                          "WHERE " + KEY_CONDITION;
+
+  // Partial updates require the JSONB modification functions and operators introduced in PostgreSQL 9.5
+  private static final int PATCH_MIN_MAJOR_VERSION = 9;
+  private static final int PATCH_MIN_MINOR_VERSION = 5;
+
+  // Patches which are larger than this are written as full rewrites.  The text of a patch statement depends on the number of
+  // each kind of operation, so limiting the operations also limits the number of distinct statements which are prepared
+  private static final int MAX_PATCH_OPERATIONS = 8;
+  private static final int MAX_PATCH_SIZE = 4096;
 
   private static final String UPDATE_WITH_CONDITIONS_SQL = "UPDATE t_TABLENAME\n" +
                                                            "SET d = ?\n" +
                                                            "WHERE ";
   private final String createTableSql;
   private final String destroyTableSql;
+  private final String destroyPromoteFunctionSql;
   private final String addSql;
+  private final String addAllSql;
+  private final String updateAllSql;
+  private final String removeAllSql;
   private final String removeItemSql;
   private final String removeSql;
   private final String obtainSql;
+  private final ConcurrentMap<Class<?>, CallbackStatement> obtainStatements = Maps.newConcurrentMap();
   private final String updateSql;
+  private final String patchSql;
   private final String updateWithConditionsSql;
 
+  private final String tableName;
+  private final String promoteAddColumnSql;
+  private final String promoteFunctionSql;
+  private final String promoteTriggerExistsSql;
+  private final String promoteTriggerSql;
+  private final String promoteFillFirstSql;
+  private final String promoteFillNextSql;
+  private final String createIndexSql;
+  private final String migrateAddColumnsSql;
+  private final String migrateFillColumnsSql;
+  private final String migrateCountUnkeyedSql;
+  private final String migrateDropIndexSql;
+  private final String migrateCreateIndexSql;
+  private final String migrateAddPrimaryKeySql;
+
+  private volatile Boolean patchSupported;
+
   private final ObjectMapper mapper;
 
+  private final PostgreSqlStatementMetrics statements;
+
   @Inject
   public WObjectServicePostgreSqlImpl(final PostgreSqlRepository repository,
                                       final ObjectMapper mapper,
@@ -81,12 +224,76 @@ public class WObjectServicePostgreSqlImpl<T extends WObject<T>> implements WObje
     this.mapper = mapper;
     createTableSql = CREATE_TABLE_SQL.replaceAll("TABLENAME", tableName);
     destroyTableSql = DESTROY_TABLE_SQL.replaceAll("TABLENAME", tableName);
+    destroyPromoteFunctionSql = DESTROY_PROMOTE_FUNCTION_SQL.replaceAll("TABLENAME", tableName);
     addSql = ADD_SQL.replaceAll("TABLENAME", tableName);
+    addAllSql = ADD_ALL_SQL.replaceAll("TABLENAME", tableName);
+    updateAllSql = UPDATE_ALL_SQL.replaceAll("TABLENAME", tableName);
+    removeAllSql = REMOVE_SQL.replaceAll("TABLENAME", tableName) + "\nWHERE " + KEYS_CONDITION;
     removeItemSql = REMOVE_ITEM_SQL.replaceAll("TABLENAME", tableName);
     removeSql = REMOVE_SQL.replaceAll("TABLENAME", tableName);
     obtainSql = OBTAIN_SQL.replaceAll("TABLENAME", tableName);
     updateSql = UPDATE_SQL.replaceAll("TABLENAME", tableName);
+    patchSql = PATCH_SQL.replaceAll("TABLENAME", tableName);
     updateWithConditionsSql = UPDATE_WITH_CONDITIONS_SQL.replaceAll("TABLENAME", tableName);
+    // Unquoted names are folded to lower case, which is how they are presented in the database metadata
+    this.tableName = ("t_" + tableName).toLowerCase(Locale.ENGLISH);
+    migrateAddColumnsSql = MIGRATE_ADD_COLUMNS_SQL.replaceAll("TABLENAME", tableName);
+    migrateFillColumnsSql = MIGRATE_FILL_COLUMNS_SQL.replaceAll("TABLENAME", tableName);
+    migrateCountUnkeyedSql = MIGRATE_COUNT_UNKEYED_SQL.replaceAll("TABLENAME", tableName);
+    migrateDropIndexSql = MIGRATE_DROP_INDEX_SQL.replaceAll("TABLENAME", tableName);
+    migrateCreateIndexSql = MIGRATE_CREATE_INDEX_SQL.replaceAll("TABLENAME", tableName);
+    migrateAddPrimaryKeySql = MIGRATE_ADD_PRIMARY_KEY_SQL.replaceAll("TABLENAME", tableName);
+    promoteAddColumnSql = PROMOTE_ADD_COLUMN_SQL.replaceAll("TABLENAME", tableName);
+    promoteFunctionSql = PROMOTE_FUNCTION_SQL.replaceAll("TABLENAME", tableName);
+    promoteTriggerExistsSql = PROMOTE_TRIGGER_EXISTS_SQL.replaceAll("TABLENAME", tableName);
+    promoteTriggerSql = PROMOTE_TRIGGER_SQL.replaceAll("TABLENAME", tableName);
+    promoteFillFirstSql = PROMOTE_FILL_SQL.replaceAll("TABLENAME", tableName).replace("CONDITION", "");
+    promoteFillNextSql = PROMOTE_FILL_SQL.replaceAll("TABLENAME", tableName).replace("CONDITION", "WHERE (i, s) > (?, ?)");
+    createIndexSql = CREATE_INDEX_SQL.replaceAll("TABLENAME", tableName);
+    statements = new PostgreSqlStatementMetrics(repository, this.tableName);
+  }
+
+  /**
+   * Fields to copy from the data in to their own columns.  Subclasses override this to promote the values on which they filter
+   * most often, and can then use the columns directly in the conditions of their callbacks.  The columns are kept up to date by
+   * the datastore
+   */
+  protected ImmutableList<PostgreSqlPromotedField> getPromotedFields()
+  {
+    return ImmutableList.of();
+  }
+
+  /**
+   * Indexes over promoted fields or the data.  Subclasses override this to index the fields and expressions used in the conditions
+   * of their callbacks
+   */
+  protected ImmutableList<PostgreSqlIndex> getIndexes()
+  {
+    return ImmutableList.of();
+  }
+
+  /**
+   * @return the value of the key column for an ID
+   */
+  public static long key(final WID<?> id)
+  {
+    return id.getId();
+  }
+
+  /**
+   * @return the value of the sub-key column for an ID
+   */
+  public static long subKey(final WID<?> id)
+  {
+    return id.getSubId().or(0L);
+  }
+
+  /**
+   * @return asynchronous access to this service, using the repository's executor
+   */
+  public WObjectServiceAsync<T, PreparedStatement> async()
+  {
+    return new WObjectServiceAsyncImpl<>(this, repository.getExecutor());
   }
 
   @Override
@@ -97,64 +304,931 @@ public class WObjectServicePostgreSqlImpl<T extends WObject<T>> implements WObje
     {
       conn = repository.getConnection();
 
-      final PreparedStatement stmt = conn.prepareStatement(createTableSql);
-      stmt.execute();
+      execute(conn, createTableSql);
+
+      migrateKey(conn);
+      promoteFields(conn);
+      createIndexes(conn);
+    }
+    catch (final SQLException se)
+    {
+      throw createSqlException(conn, se, "Failed to create datastore");
+    }
+    finally
+    {
+      closeConnection(conn);
+    }
+  }
+
+  /**
+   * Bring a table created prior to the key columns up to date.  Each step checks if it is required so an interrupted migration
+   * picks up where it left off.  The table remains available throughout, except for the final step which checks that the key
+   * columns are not null while attaching the primary key.  Any writers which do not set the key columns must be stopped before
+   * this step, otherwise their rows will be caught by the final fill but their later writes will fail
+   */
+  private void migrateKey(final Connection conn) throws SQLException
+  {
+    final DatabaseMetaData metaData = conn.getMetaData();
+    try (ResultSet rs = metaData.getPrimaryKeys(null, null, tableName))
+    {
+      if (rs.next())
+      {
+        // Already keyed
+        return;
+      }
+    }
+
+    LOG.info("Migrating {} to keyed storage", tableName);
+    final boolean hasColumns;
+    try (ResultSet rs = metaData.getColumns(null, null, tableName, "i"))
+    {
+      hasColumns = rs.next();
+    }
+    if (!hasColumns)
+    {
+      execute(conn, migrateAddColumnsSql);
+    }
+    fillKey(conn);
+
+    // A failed concurrent build leaves an invalid index behind, so start afresh
+    execute(conn, migrateDropIndexSql);
+    execute(conn, migrateCreateIndexSql);
+    // Catch any rows added by writers which do not set the key columns while the index was built
+    fillKey(conn);
+    execute(conn, migrateAddPrimaryKeySql);
+    LOG.info("Migrated {} to keyed storage", tableName);
+  }
+
+  /**
+   * Add any new promoted fields, and bring the trigger which maintains them up to date.  New fields are filled for existing rows
+   */
+  private void promoteFields(final Connection conn) throws SQLException
+  {
+    final ImmutableList<PostgreSqlPromotedField> fields = getPromotedFields();
+    if (fields.isEmpty())
+    {
+      return;
+    }
+
+    final DatabaseMetaData metaData = conn.getMetaData();
+    final List<String> columns = Lists.newArrayList();
+    final List<String> expressions = Lists.newArrayList();
+    boolean added = false;
+    for (final PostgreSqlPromotedField field : fields)
+    {
+      columns.add("NEW." + field.getName());
+      expressions.add("(" + field.getExpression() + ")");
+      try (ResultSet rs = metaData.getColumns(null, null, tableName, field.getName()))
+      {
+        if (rs.next())
+        {
+          continue;
+        }
+      }
+      LOG.info("Promoting field {} of {}", field.getName(), tableName);
+      execute(conn, promoteAddColumnSql.replace("NAME", field.getName()).replace("TYPE", field.getType()));
+      added = true;
+    }
+
+    execute(conn, promoteFunctionSql.replace("COLUMNS", COMMA_JOINER.join(columns))
+                                    .replace("EXPRESSIONS", COMMA_JOINER.join(expressions)));
+    final boolean hasTrigger;
+    try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(promoteTriggerExistsSql))
+    {
+      hasTrigger = rs.next();
+    }
+    if (!hasTrigger)
+    {
+      execute(conn, promoteTriggerSql);
+    }
+
+    if (added)
+    {
+      fillPromotedFields(conn);
+    }
+  }
+
+  private void fillPromotedFields(final Connection conn) throws SQLException
+  {
+    int filled = 0;
+    boolean first = true;
+    long lastKey = 0;
+    long lastSubKey = 0;
+    while (true)
+    {
+      boolean more = false;
+      try (PreparedStatement stmt = conn.prepareStatement(first ? promoteFillFirstSql : promoteFillNextSql))
+      {
+        if (!first)
+        {
+          stmt.setLong(1, lastKey);
+          stmt.setLong(2, lastSubKey);
+        }
+        try (ResultSet rs = stmt.executeQuery())
+        {
+          while (rs.next())
+          {
+            // Rows are not returned in any particular order so track the highest key seen
+            final long key = rs.getLong(1);
+            final long subKey = rs.getLong(2);
+            if (!more || key > lastKey || (key == lastKey && subKey > lastSubKey))
+            {
+              lastKey = key;
+              lastSubKey = subKey;
+            }
+            more = true;
+            filled++;
+          }
+        }
+      }
+      if (!more)
+      {
+        break;
+      }
+      first = false;
+    }
+    LOG.info("Filled promoted fields for {} items in {}", filled, tableName);
+  }
+
+  /**
+   * Create any indexes which do not already exist.  Indexes are built concurrently so that the table remains available
+   */
+  private void createIndexes(final Connection conn) throws SQLException
+  {
+    for (final PostgreSqlIndex index : getIndexes())
+    {
+      final String indexName = tableName + "_" + index.getName();
+      final Boolean valid;
+      try (PreparedStatement validStmt = conn.prepareStatement(INDEX_VALID_SQL))
+      {
+        validStmt.setString(1, indexName);
+        try (ResultSet rs = validStmt.executeQuery())
+        {
+          valid = rs.next() ? rs.getBoolean(1) : null;
+        }
+      }
+      if (Boolean.TRUE.equals(valid))
+      {
+        continue;
+      }
+      if (valid != null)
+      {
+        // A failed concurrent build leaves an invalid index behind, so start afresh
+        execute(conn, DROP_INDEX_SQL.replace("NAME", indexName));
+      }
+      LOG.info("Creating index {}", indexName);
+      execute(conn, createIndexSql.replace("NAME", indexName)
+                                  .replace("METHOD", index.getMethod())
+                                  .replace("DEFINITION", index.getDefinition()));
+    }
+  }
+
+  private void fillKey(final Connection conn) throws SQLException
+  {
+    try (Statement stmt = conn.createStatement())
+    {
+      int filled;
+      do
+      {
+        filled = stmt.executeUpdate(migrateFillColumnsSql);
+        LOG.debug("Filled key columns for {} items in {}", filled, tableName);
+      }
+      while (filled > 0);
+
+      try (ResultSet rs = stmt.executeQuery(migrateCountUnkeyedSql))
+      {
+        rs.next();
+        final long unkeyed = rs.getLong(1);
+        if (unkeyed > 0)
+        {
+          LOG.error("{} items in {} have no ID so cannot be keyed; they must be fixed or removed before migration can complete",
+                    unkeyed, tableName);
+        }
+      }
+    }
+  }
+
+  /**
+   * Run a one-off statement.  This does not go through the statement cache, which is kept for the statements of regular
+   * operations
+   */
+  private static void execute(final Connection conn, final String sql) throws SQLException
+  {
+    try (Statement stmt = conn.createStatement())
+    {
+      stmt.execute(sql);
+    }
+  }
+
+  @Override
+  public void destroyDatastore()
+  {
+    Connection conn = null;
+    try
+    {
+      conn = repository.getConnection();
+
+      execute(conn, destroyTableSql);
+      execute(conn, destroyPromoteFunctionSql);
+    }
+    catch (final SQLException se)
+    {
+      throw createSqlException(conn, se, "Failed to destroy datastore");
+    }
+    finally
+    {
+      closeConnection(conn);
+    }
+  }
+
+  @Override
+  public void add(final T item)
+  {
+    checkState(item != null, "Passed NULL item for creation in datastore");
+    checkState(item.getId() != null, "Passed item with NULL ID for creation in datastore");
+
+    // Allow the item to carry out its own internal processing prior to storage
+    item.onPriorToStore();
+
+    Connection conn = null;
+    try
+    {
+      conn = repository.getConnection();
+
+      final PostgreSqlStatementMetrics.Context timing = statements.start(Operation.ADD, null, addSql);
+      try (PreparedStatement stmt = timing.record(conn.prepareStatement(addSql)))
+      {
+        stmt.setLong(1, key(item.getId()));
+        stmt.setLong(2, subKey(item.getId()));
+        final PGobject obj = new PGobject();
+        obj.setType("jsonb");
+        try
+        {
+          obj.setValue(mapper.writeValueAsString(item));
+        }
+        catch (final JsonProcessingException jpe)
+        {
+          throw new ServerError("Failed to create json for addition in to datastore", jpe);
+        }
+        stmt.setObject(3, obj);
+
+        stmt.execute();
+        timing.row(obj.getValue().length());
+      }
+      timing.stop();
+    }
+    catch (final SQLException se)
+    {
+      throw createSqlException(conn, se, "Failed to add item to datastore");
+    }
+    finally
+    {
+      closeConnection(conn);
+    }
+  }
+
+  @Override
+  public void addAll(final Collection<T> items)
+  {
+    checkState(items != null, "Passed NULL items for creation in datastore");
+    writeAll(Operation.ADD_ALL, addAllSql, items, "Failed to add items to datastore");
+  }
+
+  @Override
+  public void updateAll(final Collection<T> items)
+  {
+    checkState(items != null, "Passed NULL items for update in datastore");
+    writeAll(Operation.UPDATE_ALL, updateAllSql, items, "Failed to update items in datastore");
+  }
+
+  /**
+   * Write items in batches, in a single transaction
+   */
+  private void writeAll(final Operation operation, final String sql, final Collection<T> items, final String failureMessage)
+  {
+    if (items.isEmpty())
+    {
+      return;
+    }
+    for (final T item : items)
+    {
+      checkState(item != null, "Passed NULL item for storage in datastore");
+      checkState(item.getId() != null, "Passed item with NULL ID for storage in datastore");
+      // Allow the item to carry out its own internal processing prior to storage
+      item.onPriorToStore();
+    }
+
+    Connection conn = null;
+    try
+    {
+      conn = repository.getConnection();
+      conn.setAutoCommit(false);
+
+      final PostgreSqlStatementMetrics.Context timing = statements.start(operation, null, sql);
+      try (PreparedStatement stmt = timing.record(conn.prepareStatement(sql)))
+      {
+        for (final List<T> batch : Iterables.partition(items, repository.getBatchSize()))
+        {
+          final Long[] keys = new Long[batch.size()];
+          final Long[] subKeys = new Long[batch.size()];
+          final String[] data = new String[batch.size()];
+          long bytes = 0;
+          for (int i = 0; i < batch.size(); i++)
+          {
+            final T item = batch.get(i);
+            keys[i] = key(item.getId());
+            subKeys[i] = subKey(item.getId());
+            data[i] = writeJson(item);
+            bytes += data[i].length();
+          }
+          stmt.setArray(1, conn.createArrayOf("bigint", keys));
+          stmt.setArray(2, conn.createArrayOf("bigint", subKeys));
+          stmt.setArray(3, conn.createArrayOf("text", data));
+          stmt.execute();
+          timing.rows(batch.size(), bytes);
+        }
+      }
+      conn.commit();
+      timing.stop();
+    }
+    catch (final SQLException se)
+    {
+      throw createSqlException(conn, se, failureMessage);
+    }
+    finally
+    {
+      closeTransaction(conn);
+    }
+  }
+
+  @Override
+  public void removeAll(final Collection<WID<T>> itemIds)
+  {
+    checkState(itemIds != null, "Passed NULL item IDs for removal from the datastore");
+    if (itemIds.isEmpty())
+    {
+      return;
+    }
+
+    Connection conn = null;
+    try
+    {
+      conn = repository.getConnection();
+      conn.setAutoCommit(false);
+
+      final PostgreSqlStatementMetrics.Context timing = statements.start(Operation.REMOVE_ALL, null, removeAllSql);
+      try (PreparedStatement stmt = timing.record(conn.prepareStatement(removeAllSql)))
+      {
+        for (final List<WID<T>> batch : Iterables.partition(itemIds, repository.getBatchSize()))
+        {
+          final Long[] keys = new Long[batch.size()];
+          final Long[] subKeys = new Long[batch.size()];
+          for (int i = 0; i < batch.size(); i++)
+          {
+            checkState(batch.get(i) != null, "Passed NULL item ID for removal from the datastore");
+            keys[i] = key(batch.get(i));
+            subKeys[i] = subKey(batch.get(i));
+          }
+          stmt.setArray(1, conn.createArrayOf("bigint", keys));
+          stmt.setArray(2, conn.createArrayOf("bigint", subKeys));
+          timing.rows(stmt.executeUpdate(), 0);
+        }
+      }
+      conn.commit();
+      timing.stop();
+    }
+    catch (final SQLException se)
+    {
+      throw createSqlException(conn, se, "Failed to remove items from the datastore");
+    }
+    finally
+    {
+      closeTransaction(conn);
+    }
+  }
+
+  @Override
+  public void remove(final WID<T> itemId)
+  {
+    checkState(itemId != null, "Passed NULL item ID for removal from the datastore");
+
+    Connection conn = null;
+    try
+    {
+      conn = repository.getConnection();
+
+      final PostgreSqlStatementMetrics.Context timing = statements.start(Operation.REMOVE, null, removeItemSql);
+      try (PreparedStatement stmt = timing.record(conn.prepareStatement(removeItemSql)))
+      {
+        stmt.setLong(1, key(itemId));
+        stmt.setLong(2, subKey(itemId));
+        timing.rows(stmt.executeUpdate(), 0);
+      }
+      timing.stop();
+    }
+    catch (final SQLException se)
+    {
+      throw createSqlException(conn, se, "Failed to remove item from the datastore");
+    }
+    finally
+    {
+      closeConnection(conn);
+    }
+  }
+
+  @Override
+  public void remove(final WObjectServiceCallback<PreparedStatement> cb)
+  {
+    checkState(cb != null, "Passed NULL callback for removal from the datastore");
+    checkState(cb.getConditions() != null, "Passed NULL callback conditions for removal from the datastore");
+
+    Connection conn = null;
+    try
+    {
+      conn = repository.getConnection();
+
+      final String sql = removeSql + "\nWHERE " + cb.getConditions();
+      final PostgreSqlStatementMetrics.Context timing = statements.start(Operation.REMOVE, cb, sql);
+      try (PreparedStatement stmt = timing.record(conn.prepareStatement(sql)))
+      {
+        cb.setConditionValues(stmt);
+
+        timing.rows(stmt.executeUpdate(), 0);
+      }
+      timing.stop();
+    }
+    catch (final SQLException se)
+    {
+      throw createSqlException(conn, se, "Failed to remove items from the datastore");
+    }
+    finally
+    {
+      closeConnection(conn);
+    }
+  }
+
+  @Override
+  public void update(final T item)
+  {
+    checkState(item != null, "Passed NULL item for update in datastore");
+    checkState(item.getId() != null, "Passed item with NULL ID for update in datastore");
+
+    // Allow the item to carry out its own internal processing prior to storage
+    item.onPriorToStore();
+
+    Connection conn = null;
+    try
+    {
+      conn = repository.getConnection();
+      rewrite(conn, item);
+    }
+    catch (final SQLException se)
+    {
+      throw createSqlException(conn, se, "Failed to update item in datastore");
+    }
+    finally
+    {
+      closeConnection(conn);
+    }
+  }
+
+  /**
+   * Write the whole of an item which has already been prepared for storage
+   */
+  private void rewrite(final Connection conn, final T item) throws SQLException
+  {
+    final PostgreSqlStatementMetrics.Context timing = statements.start(Operation.UPDATE, null, updateSql);
+    try (PreparedStatement stmt = timing.record(conn.prepareStatement(updateSql)))
+    {
+      final PGobject obj = jsonb(writeJson(item));
+      stmt.setObject(1, obj);
+      stmt.setLong(2, key(item.getId()));
+      stmt.setLong(3, subKey(item.getId()));
+      timing.rows(stmt.executeUpdate(), obj.getValue().length());
+    }
+    timing.stop();
+  }
+
+  @Override
+  public void update(final T oldItem, final T newItem)
+  {
+    checkState(oldItem != null, "Passed NULL original item for update in datastore");
+    checkState(newItem != null, "Passed NULL item for update in datastore");
+    checkState(newItem.getId() != null, "Passed item with NULL ID for update in datastore");
+    checkState(Objects.equal(oldItem.getId(), newItem.getId()), "Passed items with different IDs for update in datastore");
+
+    // Allow the item to carry out its own internal processing prior to storage
+    newItem.onPriorToStore();
+
+    final WObjectPatch patch = WObjectPatch.diff(oldItem, newItem);
+    if (patch.isEmpty())
+    {
+      return;
+    }
+
+    Connection conn = null;
+    try
+    {
+      conn = repository.getConnection();
+
+      if (!isPatchSupported(conn) || patch.getOperations().size() > MAX_PATCH_OPERATIONS)
+      {
+        rewrite(conn, newItem);
+        return;
+      }
+
+      // The operations of a patch touch separate paths so can be applied in any order.  They are grouped by kind so that patches
+      // with the same number of each kind of operation share a statement
+      final List<WObjectPatch.Operation> topLevelRemovals = Lists.newArrayList();
+      final List<WObjectPatch.Operation> nestedRemovals = Lists.newArrayList();
+      final List<WObjectPatch.Operation> nestedValues = Lists.newArrayList();
+      final Map<String, Object> topLevelValues = Maps.newTreeMap();
+      int patchSize = 0;
+      for (final WObjectPatch.Operation operation : patch.getOperations())
+      {
+        if (operation.getOp() == WObjectPatch.Op.REMOVE)
+        {
+          (operation.getPath().size() == 1 ? topLevelRemovals : nestedRemovals).add(operation);
+        }
+        else if (operation.getPath().size() == 1)
+        {
+          topLevelValues.put(operation.getPath().get(0), operation.getValue());
+        }
+        else
+        {
+          nestedValues.add(operation);
+        }
+        for (final String key : operation.getPath())
+        {
+          patchSize += key.length();
+        }
+      }
+
+      // Build up an expression which applies the patch to the stored data, along with the parameters for the expression.  Removals
+      // are carried out first, then nested values are set, then top-level values are merged in
+      final StringBuilder expression = new StringBuilder("d");
+      final List<Object> params = Lists.newArrayList();
+      for (final WObjectPatch.Operation operation : topLevelRemovals)
+      {
+        expression.insert(0, '(').append(" - ?::text)");
+        params.add(operation.getPath().get(0));
+      }
+      for (final WObjectPatch.Operation operation : nestedRemovals)
+      {
+        expression.insert(0, '(').append(" #- ?::text[])");
+        params.add(operation.getPath().toArray(new String[operation.getPath().size()]));
+      }
+      for (final WObjectPatch.Operation operation : nestedValues)
+      {
+        final String value = writeJson(operation.getValue());
+        expression.insert(0, "jsonb_set(").append(", ?::text[], ?)");
+        params.add(operation.getPath().toArray(new String[operation.getPath().size()]));
+        params.add(jsonb(value));
+        patchSize += value.length();
+      }
+      if (!topLevelValues.isEmpty())
+      {
+        final String values = writeJson(topLevelValues);
+        expression.insert(0, '(').append(" || ?)");
+        params.add(jsonb(values));
+        patchSize += values.length();
+      }
+
+      // A large patch gains little over writing the item, and is likely to be close to the size of the item itself
+      if (patchSize > MAX_PATCH_SIZE)
+      {
+        rewrite(conn, newItem);
+        return;
+      }
+
+      final String sql = patchSql.replace("PATCH", expression);
+      final PostgreSqlStatementMetrics.Context timing = statements.start(Operation.PATCH, null, sql);
+      try (PreparedStatement stmt = timing.record(conn.prepareStatement(sql)))
+      {
+        int index = 1;
+        for (final Object param : params)
+        {
+          if (param instanceof String[])
+          {
+            stmt.setArray(index++, conn.createArrayOf("text", (String[])param));
+          }
+          else
+          {
+            stmt.setObject(index++, param);
+          }
+        }
+        stmt.setLong(index++, key(newItem.getId()));
+        stmt.setLong(index, subKey(newItem.getId()));
+        timing.rows(stmt.executeUpdate(), patchSize);
+      }
+      timing.stop();
+    }
+    catch (final SQLException se)
+    {
+      throw createSqlException(conn, se, "Failed to update item in datastore");
+    }
+    finally
+    {
+      closeConnection(conn);
+    }
+  }
+
+  private String writeJson(final Object value)
+  {
+    try
+    {
+      return mapper.writeValueAsString(value);
+    }
+    catch (final JsonProcessingException jpe)
+    {
+      throw new ServerError("Failed to create json for update in datastore", jpe);
+    }
+  }
+
+  private static PGobject jsonb(final String value) throws SQLException
+  {
+    final PGobject obj = new PGobject();
+    obj.setType("jsonb");
+    obj.setValue(value);
+    return obj;
+  }
+
+  // Find out if the datastore is able to carry out partial updates
+  private boolean isPatchSupported(final Connection conn) throws SQLException
+  {
+    if (patchSupported == null)
+    {
+      final DatabaseMetaData metaData = conn.getMetaData();
+      patchSupported = metaData.getDatabaseMajorVersion() > PATCH_MIN_MAJOR_VERSION ||
+                       (metaData.getDatabaseMajorVersion() == PATCH_MIN_MAJOR_VERSION &&
+                        metaData.getDatabaseMinorVersion() >= PATCH_MIN_MINOR_VERSION);
+      if (!patchSupported)
+      {
+        LOG.warn("Datastore does not support partial updates; items will be written in full");
+      }
+    }
+    return patchSupported;
+  }
+
+  @Override
+  public void update(final T item, final WObjectServiceCallback<PreparedStatement> cb)
+  {
+    checkState(item != null, "Passed NULL item for update in datastore");
+    checkState(cb != null, "Passed NULL callback for update in datastore");
+    checkState(cb.getConditions() != null, "Passed empty callback conditions for update in datastore");
+
+    // Allow the item to carry out its own internal processing prior to storage
+    item.onPriorToStore();
+
+    Connection conn = null;
+    try
+    {
+      conn = repository.getConnection();
+
+      final String sql = updateWithConditionsSql + cb.getConditions();
+      final PostgreSqlStatementMetrics.Context timing = statements.start(Operation.UPDATE, cb, sql);
+      try (PreparedStatement stmt = timing.record(conn.prepareStatement(sql)))
+      {
+        final PGobject obj = new PGobject();
+        obj.setType("jsonb");
+        try
+        {
+          obj.setValue(mapper.writeValueAsString(item));
+        }
+        catch (final JsonProcessingException jpe)
+        {
+          throw new ServerError("Failed to create json for update in datastore", jpe);
+        }
+        stmt.setObject(1, obj);
+        cb.setConditionValues(stmt);
+        final int updated = stmt.executeUpdate();
+        timing.rows(updated, (long)updated * obj.getValue().length());
+      }
+      timing.stop();
+    }
+    catch (final SQLException se)
+    {
+      throw createSqlException(conn, se, "Failed to update item in datastore");
+    }
+    finally
+    {
+      closeConnection(conn);
+    }
+  }
+
+  @Override
+  public ImmutableList<T> obtain(final TypeReference<T>typeRef, @Nullable final WObjectServiceCallback<PreparedStatement> cb)
+  {
+    Connection conn = null;
+    try
+    {
+      conn = repository.getReadConnection();
+
+      final String sql = obtainStatement(cb);
+      final PostgreSqlStatementMetrics.Context timing = statements.start(Operation.OBTAIN, cb, sql);
+      try (PreparedStatement stmt = timing.record(conn.prepareStatement(sql)))
+      {
+        if (cb != null)
+        {
+          cb.setConditionValues(stmt);
+        }
+
+        try (ResultSet rs = stmt.executeQuery())
+        {
+          final ImmutableList.Builder<T> objsB = ImmutableList.builder();
+          while (rs.next())
+          {
+            final String data = rs.getString(1);
+            timing.row(data.length());
+            objsB.add(readObject(data, typeRef));
+          }
+          timing.stop();
+          return objsB.build();
+        }
+      }
+    }
+    catch (final SQLException se)
+    {
+     throw createSqlException(conn, se, "Failed to obtain object from the datastore");
+    }
+    finally
+    {
+      closeConnection(conn);
+    }
+  }
+
+  @Override
+  @Nullable
+  public T obtainItem(final TypeReference<T> typeRef, final WID<T> itemId)
+  {
+    checkState(itemId != null, "Passed NULL item ID to obtain from the datastore");
+    return Iterables.getFirst(obtain(typeRef, new WObjectServiceCallbackPostgreSqlImpl()
+    {
+      @Override
+      public String getConditions()
+      {
+        return KEY_CONDITION;
+      }
+
+      @Override
+      public void setConditionValues(final PreparedStatement stmt)
+      {
+        setKey(stmt, 1, itemId);
+      }
+    }), null);
+  }
+
+  @Override
+  public WObjectPage<T> obtain(final TypeReference<T> typeRef,
+                               @Nullable final WObjectServiceCallback<PreparedStatement> cb,
+                               final WObjectPageRequest<T> page)
+  {
+    checkState(page != null, "Paged obtain requires a page request");
+    if (cb != null && cb.getOrder() != null)
+    {
+      throw new DataError.Bad("Paged obtain orders by ID so cannot take an order");
+    }
+
+    // The cursor comes first so that the text of the statement is the same for every page, with the callback's parameters
+    // offset to follow it
+    final boolean ascending = page.getDirection() == WObjectPageRequest.Direction.ASCENDING;
+    final boolean hasCursor = page.getCursor().isPresent();
+    final StringBuilder sb = new StringBuilder(obtainSql);
+    String join = "\nWHERE ";
+    if (hasCursor)
+    {
+      sb.append(join).append(ascending ? "(i, s) > (?, ?)" : "(i, s) < (?, ?)");
+      join = " AND ";
+    }
+    if (cb != null && cb.getConditions() != null)
+    {
+      sb.append(join).append('(').append(cb.getConditions()).append(')');
+    }
+    // Fetch one more than the page to find out if there is a following page
+    sb.append(ascending ? "\nORDER BY i, s" : "\nORDER BY i DESC, s DESC").append("\nLIMIT ").append(page.getSize() + 1);
+
+    Connection conn = null;
+    try
+    {
+      conn = repository.getReadConnection();
+
+      final String sql = sb.toString();
+      final PostgreSqlStatementMetrics.Context timing = statements.start(Operation.PAGE, cb, sql);
+      try (PreparedStatement stmt = timing.record(conn.prepareStatement(sql)))
+      {
+        if (hasCursor)
+        {
+          stmt.setLong(1, key(page.getCursor().get()));
+          stmt.setLong(2, subKey(page.getCursor().get()));
+        }
+        if (cb != null)
+        {
+          cb.setConditionValues(hasCursor ? offsetParameters(stmt, 2) : stmt);
+        }
+
+        try (ResultSet rs = stmt.executeQuery())
+        {
+          final List<T> objs = Lists.newArrayListWithCapacity(page.getSize() + 1);
+          while (rs.next())
+          {
+            final String data = rs.getString(1);
+            timing.row(data.length());
+            objs.add(readObject(data, typeRef));
+          }
+          timing.stop();
+          if (objs.size() > page.getSize())
+          {
+            final ImmutableList<T> items = ImmutableList.copyOf(objs.subList(0, page.getSize()));
+            return new WObjectPage<>(items, Optional.of(page.from(items.get(items.size() - 1).getId())));
+          }
+          return new WObjectPage<>(ImmutableList.copyOf(objs), Optional.<WObjectPageRequest<T>>absent());
+        }
+      }
     }
     catch (final SQLException se)
     {
-      throw createSqlException(conn, se, "Failed to create datastore");
+      throw createSqlException(conn, se, "Failed to obtain objects from the datastore");
+    }
+    finally
+    {
+      closeConnection(conn);
     }
   }
 
   @Override
-  public void destroyDatastore()
+  public WObjectIterator<T> iterate(final TypeReference<T> typeRef, @Nullable final WObjectServiceCallback<PreparedStatement> cb)
   {
     Connection conn = null;
     try
     {
-      conn = repository.getConnection();
+      conn = repository.getReadConnection();
+      final PreparedStatement stmt = openCursor(conn, obtainStatement(cb));
+      if (cb != null)
+      {
+        cb.setConditionValues(stmt);
+      }
 
-      final PreparedStatement stmt = conn.prepareStatement(destroyTableSql);
-      stmt.execute();
+      return new CursorIterator<T>(conn, stmt.executeQuery())
+      {
+        @Override
+        protected T read(final ResultSet rs) throws SQLException
+        {
+          return readObject(rs, typeRef);
+        }
+      };
     }
     catch (final SQLException se)
     {
-      throw createSqlException(conn, se, "Failed to destroy datastore");
+      final WealdError error = createSqlException(conn, se, "Failed to obtain object from the datastore");
+      closeTransaction(conn);
+      throw error;
+    }
+    catch (final RuntimeException re)
+    {
+      closeTransaction(conn);
+      throw re;
     }
   }
 
   @Override
-  public void add(final T item)
+  public <V> ImmutableList<V> query(final TypeReference<V>typeRef, @Nullable final WObjectServiceCallback<PreparedStatement> cb)
   {
-    checkState(item != null, "Passed NULL item for creation in datastore");
-    checkState(item.getId() != null, "Passed item with NULL ID for creation in datastore");
-
-    // Allow the item to carry out its own internal processing prior to storage
-    item.onPriorToStore();
-
     Connection conn = null;
     try
     {
-      conn = repository.getConnection();
+      conn = repository.getReadConnection();
 
-      final PreparedStatement stmt = conn.prepareStatement(addSql);
-      final PGobject obj = new PGobject();
-      obj.setType("jsonb");
-      try
+      if (cb == null || cb.getQuery() == null)
       {
-        obj.setValue(mapper.writeValueAsString(item));
+        throw new DataError.Bad("query() requires a callback with a query to operate");
       }
-      catch (final JsonProcessingException jpe)
+
+      final PostgreSqlStatementMetrics.Context timing = statements.start(Operation.QUERY, cb, cb.getQuery());
+      try (PreparedStatement stmt = timing.record(conn.prepareStatement(cb.getQuery())))
       {
-        throw new ServerError("Failed to create json for addition in to datastore", jpe);
-      }
-      stmt.setObject(1, obj);
+        cb.setConditionValues(stmt);
+
+        final Class<?> requiredClass = rawClass(typeRef);
 
-      stmt.execute();
+        try (ResultSet rs = stmt.executeQuery())
+        {
+          final ImmutableList.Builder<V> objsB = ImmutableList.builder();
+          int rows = 0;
+          while (rs.next())
+          {
+            objsB.add(readValue(rs, requiredClass, typeRef));
+            rows++;
+          }
+          // Query results are not all text so only rows are counted
+          timing.rows(rows, 0);
+          timing.stop();
+          return objsB.build();
+        }
+      }
     }
     catch (final SQLException se)
     {
-      throw createSqlException(conn, se, "Failed to add item to datastore");
+      throw createSqlException(conn, se, "Failed to query information from the datastore");
     }
     finally
     {
@@ -163,272 +1237,279 @@ public class WObjectServicePostgreSqlImpl<T extends WObject<T>> implements WObje
   }
 
   @Override
-  public void remove(final WID<T> itemId)
+  public <V> WObjectIterator<V> iterateQuery(final TypeReference<V> typeRef,
+                                             @Nullable final WObjectServiceCallback<PreparedStatement> cb)
   {
-    checkState(itemId != null, "Passed NULL item ID for removal from the datastore");
+    if (cb == null || cb.getQuery() == null)
+    {
+      throw new DataError.Bad("iterateQuery() requires a callback with a query to operate");
+    }
 
     Connection conn = null;
     try
     {
-      conn = repository.getConnection();
+      conn = repository.getReadConnection();
+      final PreparedStatement stmt = openCursor(conn, cb.getQuery());
+      cb.setConditionValues(stmt);
 
-      final PreparedStatement stmt = conn.prepareStatement(removeItemSql);
-      stmt.setString(1, itemId.toString());
-      stmt.execute();
+      final Class<?> requiredClass = rawClass(typeRef);
+      return new CursorIterator<V>(conn, stmt.executeQuery())
+      {
+        @Override
+        protected V read(final ResultSet rs) throws SQLException
+        {
+          return readValue(rs, requiredClass, typeRef);
+        }
+      };
     }
     catch (final SQLException se)
     {
-      throw createSqlException(conn, se, "Failed to remove item from the datastore");
+      final WealdError error = createSqlException(conn, se, "Failed to query information from the datastore");
+      closeTransaction(conn);
+      throw error;
     }
-    finally
+    catch (final RuntimeException re)
     {
-      closeConnection(conn);
+      closeTransaction(conn);
+      throw re;
     }
   }
 
-  @Override
-  public void remove(final WObjectServiceCallback<PreparedStatement> cb)
+  private String obtainStatement(@Nullable final WObjectServiceCallback<PreparedStatement> cb)
   {
-    checkState(cb != null, "Passed NULL callback for removal from the datastore");
-    checkState(cb.getConditions() != null, "Passed NULL callback conditions for removal from the datastore");
-
-    Connection conn = null;
-    try
+    if (cb == null || (cb.getConditions() == null && cb.getOrder() == null))
     {
-      conn = repository.getConnection();
+      return obtainSql;
+    }
 
-      final PreparedStatement stmt;
-      stmt = conn.prepareStatement(removeSql + "\nWHERE " + cb.getConditions());
-      cb.setConditionValues(stmt);
+    // Callbacks of a class almost always have the same conditions and order, so the statement is built once and the statement
+    // cache is handed the same text each time
+    final CallbackStatement cached = obtainStatements.get(cb.getClass());
+    if (cached != null && cached.matches(cb))
+    {
+      return cached.sql;
+    }
 
-      stmt.execute();
+    final String sql;
+    if (cb.getConditions() == null)
+    {
+      sql = obtainSql + "\nORDER BY " + cb.getOrder();
     }
-    catch (final SQLException se)
+    else if (cb.getOrder() == null)
     {
-      throw createSqlException(conn, se, "Failed to remove items from the datastore");
+      sql = obtainSql + "\nWHERE " + cb.getConditions();
     }
-    finally
+    else
     {
-      closeConnection(conn);
+      sql = obtainSql + "\nWHERE " + cb.getConditions() + "\nORDER BY " + cb.getOrder();
     }
+    obtainStatements.put(cb.getClass(), new CallbackStatement(cb, sql));
+    return sql;
   }
 
-  @Override
-  public void update(final T item)
+  private static final class CallbackStatement
   {
-    checkState(item != null, "Passed NULL item for update in datastore");
-    checkState(item.getId() != null, "Passed item with NULL ID for update in datastore");
+    private final String conditions;
+    private final String order;
+    private final String sql;
 
-    // Allow the item to carry out its own internal processing prior to storage
-    item.onPriorToStore();
+    private CallbackStatement(final WObjectServiceCallback<?> cb, final String sql)
+    {
+      this.conditions = cb.getConditions();
+      this.order = cb.getOrder();
+      this.sql = sql;
+    }
 
-    Connection conn = null;
-    try
+    private boolean matches(final WObjectServiceCallback<?> cb)
     {
-      conn = repository.getConnection();
+      return Objects.equal(conditions, cb.getConditions()) && Objects.equal(order, cb.getOrder());
+    }
+  }
+
+  /**
+   * Wrap a statement so that parameters set through the wrapper are set at a later position.  This allows callbacks, which number
+   * their parameters from 1, to follow parameters which are set by the service
+   */
+  private static PreparedStatement offsetParameters(final PreparedStatement stmt, final int offset)
+  {
+    return (PreparedStatement)Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                                                     new Class<?>[]{PreparedStatement.class},
+                                                     new OffsetParametersHandler(stmt, offset));
+  }
+
+  private static final class OffsetParametersHandler implements InvocationHandler
+  {
+    private final PreparedStatement stmt;
+    private final int offset;
+
+    private OffsetParametersHandler(final PreparedStatement stmt, final int offset)
+    {
+      this.stmt = stmt;
+      this.offset = offset;
+    }
 
-      final PreparedStatement stmt = conn.prepareStatement(updateSql);
-      final PGobject obj = new PGobject();
-      obj.setType("jsonb");
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable
+    {
+      // Parameter setters take the index followed by the value
+      if (method.getName().startsWith("set") && args != null && args.length > 1 && method.getParameterTypes()[0] == int.class)
+      {
+        args[0] = (Integer)args[0] + offset;
+      }
       try
       {
-        obj.setValue(mapper.writeValueAsString(item));
+        return method.invoke(stmt, args);
       }
-      catch (final JsonProcessingException jpe)
+      catch (final InvocationTargetException ite)
       {
-        throw new ServerError("Failed to create json for update in datastore", jpe);
+        throw ite.getCause();
       }
-      stmt.setObject(1, obj);
-      stmt.setString(2, item.getId().toString());
-      stmt.execute();
     }
-    catch (final SQLException se)
+  }
+
+  /**
+   * PostgreSQL only reads results through a cursor, a fetch at a time, when the statement is forward-only, has a fetch size and
+   * runs within a transaction; otherwise it reads all of the results when the query is executed
+   */
+  private PreparedStatement openCursor(final Connection conn, final String sql) throws SQLException
+  {
+    conn.setAutoCommit(false);
+    final PreparedStatement stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+    stmt.setFetchSize(repository.getFetchSize());
+    return stmt;
+  }
+
+  private T readObject(final ResultSet rs, final TypeReference<T> typeRef) throws SQLException
+  {
+    return readObject(rs.getString(1), typeRef);
+  }
+
+  @SuppressWarnings("unchecked")
+  private T readObject(final String data, final TypeReference<T> typeRef)
+  {
+    try
     {
-      throw createSqlException(conn, se, "Failed to update item in datastore");
+      return (T)mapper.readValue(data, typeRef);
     }
-    finally
+    catch (final IOException ioe)
     {
-      closeConnection(conn);
+      LOG.error("Failed to parse object {}: ", data, ioe);
+      throw new ServerError("Failed to obtain information", ioe);
     }
   }
 
-  @Override
-  public void update(final T item, final WObjectServiceCallback<PreparedStatement> cb)
+  private static Class<?> rawClass(final TypeReference<?> typeRef)
   {
-    checkState(item != null, "Passed NULL item for update in datastore");
-    checkState(cb != null, "Passed NULL callback for update in datastore");
-    checkState(cb.getConditions() != null, "Passed empty callback conditions for update in datastore");
-
-    // Allow the item to carry out its own internal processing prior to storage
-    item.onPriorToStore();
+    return (Class<?>)(typeRef.getType() instanceof ParameterizedType ? ((ParameterizedType)typeRef.getType()).getRawType() : typeRef.getType());
+  }
 
-    Connection conn = null;
-    try
+  @SuppressWarnings("unchecked")
+  private <V> V readValue(final ResultSet rs, final Class<?> requiredClass, final TypeReference<V> typeRef) throws SQLException
+  {
+    // Pull primitives directly without deserializing
+    if (String.class.isAssignableFrom(requiredClass))
+    {
+      return (V)rs.getString(1);
+    }
+    else if (Boolean.class.isAssignableFrom(requiredClass))
+    {
+      return (V)(Boolean)rs.getBoolean(1);
+    }
+    else if (Integer.class.isAssignableFrom(requiredClass))
+    {
+      return (V)(Integer)rs.getInt(1);
+    }
+    else if (Long.class.isAssignableFrom(requiredClass))
+    {
+      return (V)(Long)rs.getLong(1);
+    }
+    else if (Float.class.isAssignableFrom(requiredClass))
+    {
+      return (V)(Float)rs.getFloat(1);
+    }
+    else if (Double.class.isAssignableFrom(requiredClass))
+    {
+      return (V)(Double)rs.getDouble(1);
+    }
+    else
     {
-      conn = repository.getConnection();
-
-      final PreparedStatement stmt = conn.prepareStatement(updateWithConditionsSql + cb.getConditions());
-      final PGobject obj = new PGobject();
-      obj.setType("jsonb");
       try
       {
-        obj.setValue(mapper.writeValueAsString(item));
+        return (V)mapper.readValue(rs.getString(1), typeRef);
       }
-      catch (final JsonProcessingException jpe)
+      catch (final IOException ioe)
       {
-        throw new ServerError("Failed to create json for update in datastore", jpe);
+        LOG.error("Failed to parse object: ", ioe);
+        throw new ServerError("Failed to obtain information", ioe);
       }
-      stmt.setObject(1, obj);
-      cb.setConditionValues(stmt);
-      stmt.execute();
-    }
-    catch (final SQLException se)
-    {
-      throw createSqlException(conn, se, "Failed to update item in datastore");
-    }
-    finally
-    {
-      closeConnection(conn);
     }
   }
 
-  @SuppressWarnings("unchecked")
-  @Override
-  public ImmutableList<T> obtain(final TypeReference<T>typeRef, @Nullable final WObjectServiceCallback<PreparedStatement> cb)
+  /**
+   * Iterator over the results of a cursor.  The connection is owned by the iterator and returned to the pool when the results are
+   * exhausted, when reading them fails or when the iterator is closed
+   */
+  private abstract static class CursorIterator<V> extends AbstractIterator<V> implements WObjectIterator<V>
   {
-    Connection conn = null;
-    try
+    private Connection conn;
+    private final ResultSet rs;
+
+    CursorIterator(final Connection conn, final ResultSet rs)
     {
-      conn = repository.getConnection();
+      this.conn = conn;
+      this.rs = rs;
+    }
+
+    protected abstract V read(ResultSet rs) throws SQLException;
 
-      final String statement;
-      if (cb == null || (cb.getConditions() == null && cb.getOrder() == null))
+    @Override
+    protected V computeNext()
+    {
+      if (conn == null)
       {
-        statement = obtainSql;
+        return endOfData();
       }
-      else
+      try
       {
-        if (cb.getConditions() == null)
+        if (!rs.next())
         {
-          statement = obtainSql + "\nORDER BY " + cb.getOrder();
-        }
-        else if (cb.getOrder() == null)
-        {
-          statement = obtainSql + "\nWHERE " + cb.getConditions();
-        }
-        else
-        {
-          statement = obtainSql + "\nWHERE " + cb.getConditions() + "\nORDER BY " + cb.getOrder();
+          close();
+          return endOfData();
         }
+        return read(rs);
       }
-
-      final PreparedStatement stmt = conn.prepareStatement(statement);
-      if (cb != null)
+      catch (final SQLException se)
       {
-        cb.setConditionValues(stmt);
+        final WealdError error = createSqlException(conn, se, "Failed to obtain information from the datastore");
+        close();
+        throw error;
       }
-
-      try (ResultSet rs = stmt.executeQuery())
+      catch (final RuntimeException re)
       {
-        final ImmutableList.Builder<T> objsB = ImmutableList.builder();
-        while (rs.next())
-        {
-          try
-          {
-            objsB.add((T)mapper.readValue(rs.getString(1), typeRef));
-          }
-          catch (final IOException ioe)
-          {
-            LOG.error("Failed to parse object {}: ", rs.getString(1), ioe);
-            throw new ServerError("Failed to obtain information", ioe);
-          }
-        }
-        return objsB.build();
+        close();
+        throw re;
       }
     }
-    catch (final SQLException se)
-    {
-     throw createSqlException(conn, se, "Failed to obtain object from the datastore");
-    }
-    finally
-    {
-      closeConnection(conn);
-    }
-  }
 
-  @SuppressWarnings("unchecked")
-  @Override
-  public <V> ImmutableList<V> query(final TypeReference<V>typeRef, @Nullable final WObjectServiceCallback<PreparedStatement> cb)
-  {
-    Connection conn = null;
-    try
+    @Override
+    public void close()
     {
-      conn = repository.getConnection();
-
-      if (cb == null || cb.getQuery() == null)
-      {
-        throw new DataError.Bad("query() requires a callback with a query to operate");
-      }
-
-      final PreparedStatement stmt = conn.prepareStatement(cb.getQuery());
-      cb.setConditionValues(stmt);
-
-      final Class requiredClass = (Class)(typeRef.getType() instanceof ParameterizedType ? ((ParameterizedType)typeRef.getType()).getRawType() : typeRef.getType());
-
-      try (ResultSet rs = stmt.executeQuery())
+      if (conn != null)
       {
-        final ImmutableList.Builder<V> objsB = ImmutableList.builder();
-        while (rs.next())
+        try
         {
-          // Pull primitives directly without deserializing
-          if (String.class.isAssignableFrom(requiredClass))
-          {
-            objsB.add((V)rs.getString(1));
-          }
-          else if (Boolean.class.isAssignableFrom(requiredClass))
-          {
-            objsB.add((V)(Boolean)rs.getBoolean(1));
-          }
-          else if (Integer.class.isAssignableFrom(requiredClass))
-          {
-            objsB.add((V)(Integer)rs.getInt(1));
-          }
-          else if (Long.class.isAssignableFrom(requiredClass))
-          {
-            objsB.add((V)(Long)rs.getLong(1));
-          }
-          else if (Float.class.isAssignableFrom(requiredClass))
-          {
-            objsB.add((V)(Float)rs.getFloat(1));
-          }
-          else if (Double.class.isAssignableFrom(requiredClass))
-          {
-            objsB.add((V)(Double)rs.getDouble(1));
-          }
-          else
-          {
-            try
-            {
-              objsB.add((V)mapper.readValue(rs.getString(1), typeRef));
-            }
-            catch (final IOException ioe)
-            {
-              LOG.error("Failed to parse object: ", ioe);
-              throw new ServerError("Failed to obtain information", ioe);
-            }
-          }
+          final Statement stmt = rs.getStatement();
+          rs.close();
+          stmt.close();
         }
-        return objsB.build();
+        catch (final SQLException se)
+        {
+          LOG.warn("Failed to close cursor", se);
+        }
+        closeTransaction(conn);
+        conn = null;
       }
     }
-    catch (final SQLException se)
-    {
-      throw createSqlException(conn, se, "Failed to query information from the datastore");
-    }
-    finally
-    {
-      closeConnection(conn);
-    }
   }
 
   /**
@@ -509,6 +1590,30 @@ public class WObjectServicePostgreSqlImpl<T extends WObject<T>> implements WObje
     return new ServerError(throwMessage, se);
   }
 
+  /**
+   * Close a connection on which a transaction was started, returning it to auto-commit mode first so that it can be reused.
+   * Any part of the transaction which has not been committed is rolled back
+   */
+  public static void closeTransaction(final Connection conn)
+  {
+    if (conn != null)
+    {
+      try
+      {
+        if (!conn.getAutoCommit())
+        {
+          conn.rollback();
+          conn.setAutoCommit(true);
+        }
+      }
+      catch (final SQLException se)
+      {
+        LOG.warn("Error ending transaction", se);
+      }
+    }
+    closeConnection(conn);
+  }
+
   public static void closeConnection(final Connection conn)
   {
     if (conn != null)
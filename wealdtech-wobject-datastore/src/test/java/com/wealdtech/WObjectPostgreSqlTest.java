@@ -10,26 +10,60 @@
 
 package com.wealdtech;
 
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.base.Function;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.UnmodifiableIterator;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.inject.Inject;
+import com.wealdtech.datastore.DatastoreConnection;
+import com.wealdtech.datastore.MeteredStatementCache;
+import com.wealdtech.datastore.PostgreSqlReplicaSet;
 import com.wealdtech.datastore.config.PostgreSqlConfiguration;
+import com.wealdtech.datastore.config.PostgreSqlReplicaConfiguration;
+import com.wealdtech.datastore.config.PostgreSqlReplicasConfiguration;
 import com.wealdtech.repositories.PostgreSqlRepository;
 import com.wealdtech.jackson.WealdMapper;
+import com.wealdtech.services.PostgreSqlBulkTransfer;
+import com.wealdtech.services.PostgreSqlIndex;
+import com.wealdtech.services.PostgreSqlPromotedField;
+import com.wealdtech.services.PostgreSqlStatementMetrics;
+import com.wealdtech.services.WObjectIterator;
+import com.wealdtech.services.WObjectPage;
+import com.wealdtech.services.WObjectPageRequest;
 import com.wealdtech.services.WObjectService;
+import com.wealdtech.services.WObjectServiceAsync;
+import com.wealdtech.services.WObjectServiceAsyncImpl;
+import com.wealdtech.services.WObjectServiceCachingPostgreSqlImpl;
 import com.wealdtech.services.WObjectServiceCallbackPostgreSqlImpl;
 import com.wealdtech.services.WObjectServicePostgreSqlImpl;
+import com.wealdtech.utils.WealdMetrics;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static org.testng.Assert.*;
 
@@ -37,6 +71,7 @@ import static org.testng.Assert.*;
  */
 public class WObjectPostgreSqlTest
 {
+  PostgreSqlRepository repository;
   WObjectService<TestWObject, PreparedStatement> service;
 
   public static class TestWObject extends WObject<TestWObject>
@@ -69,7 +104,7 @@ public class WObjectPostgreSqlTest
   @BeforeClass
   public void setUp()
   {
-    PostgreSqlRepository repository = new PostgreSqlRepository(new PostgreSqlConfiguration("localhost", 5432, "test", "test", "test", null, null, null));
+    repository = new PostgreSqlRepository(new PostgreSqlConfiguration("localhost", 5432, "test", "test", "test", null, null, null));
     service = new TestObjectServicePostgreSqlImpl(repository);
     service.createDatastore();
   }
@@ -237,4 +272,751 @@ public class WObjectPostgreSqlTest
     assertEquals(testObjs2Iterator.next().get("num", Integer.class).orNull(), (Integer)2);
     assertEquals(testObjs2Iterator.next().get("num", Integer.class).orNull(), (Integer)1);
   }
+
+  @Test
+  public void testPartialUpdate()
+  {
+    final String methodName = new Object() {}.getClass().getEnclosingMethod().getName();
+    final WID<TestWObject> testObjId = WID.generate();
+    final TestWObject testObj1 = TestWObject.builder()
+                                            .id(testObjId)
+                                            .data("val", methodName)
+                                            .data("num", 1)
+                                            .data("drop", "x")
+                                            .data("nested", ImmutableMap.of("a", 1, "b", 2))
+                                            .build();
+    service.add(testObj1);
+
+    final TestWObject testObj2 = TestWObject.builder()
+                                            .id(testObjId)
+                                            .data("val", methodName)
+                                            .data("num", 2)
+                                            .data("nested", ImmutableMap.of("a", 1, "b", 3))
+                                            .build();
+    service.update(testObj1, testObj2);
+
+    final ImmutableList<TestWObject> testObjs = service.obtain(new TypeReference<TestWObject>() {}, new WObjectServiceCallbackPostgreSqlImpl() {
+      @Override
+      public String getConditions()
+      {
+        return "d->>'val' = ?";
+      }
+
+      @Override
+      public void setConditionValues(final PreparedStatement stmt)
+      {
+        setString(stmt, 1, methodName);
+      }
+    });
+    assertEquals(testObjs.size(), 1);
+    assertEquals(testObjs.get(0), testObj2);
+    assertFalse(testObjs.get(0).exists("drop"));
+
+    // A large patch is written as a full rewrite
+    final TestWObject testObj3 = TestWObject.builder()
+                                            .id(testObjId)
+                                            .data("val", methodName)
+                                            .data("num", 3)
+                                            .data("big", Strings.repeat("x", 5000))
+                                            .build();
+    service.update(testObj2, testObj3);
+    assertEquals(service.obtainItem(new TypeReference<TestWObject>() {}, testObjId), testObj3);
+  }
+
+  @Test
+  public void testKeyedObtain()
+  {
+    final WID<TestWObject> testObjId = WID.generate();
+    final TestWObject testObj1 = TestWObject.builder().id(testObjId).data("val", "main").build();
+    service.add(testObj1);
+    final TestWObject testObj2 = TestWObject.builder().id(testObjId.withSubId(1L)).data("val", "sub").build();
+    service.add(testObj2);
+
+    final ImmutableList<TestWObject> testObjs = service.obtain(new TypeReference<TestWObject>() {}, new WObjectServiceCallbackPostgreSqlImpl() {
+      @Override
+      public String getConditions()
+      {
+        return WObjectServicePostgreSqlImpl.KEY_CONDITION;
+      }
+
+      @Override
+      public void setConditionValues(final PreparedStatement stmt)
+      {
+        setKey(stmt, 1, testObj2.getId());
+      }
+    });
+    assertEquals(testObjs.size(), 1);
+    assertEquals(testObjs.get(0), testObj2);
+
+    service.remove(testObj2.getId());
+    final ImmutableList<TestWObject> testObjs2 = service.obtain(new TypeReference<TestWObject>() {}, new WObjectServiceCallbackPostgreSqlImpl() {
+      @Override
+      public String getConditions()
+      {
+        return WObjectServicePostgreSqlImpl.KEYS_CONDITION;
+      }
+
+      @Override
+      public void setConditionValues(final PreparedStatement stmt)
+      {
+        setKeys(stmt, 1, ImmutableList.of(testObj1.getId(), testObj2.getId()));
+      }
+    });
+    assertEquals(testObjs2.size(), 1);
+    assertEquals(testObjs2.get(0), testObj1);
+  }
+
+  @Test
+  public void testKeyMigration() throws SQLException
+  {
+    // Create a table as it was prior to the key columns
+    final TestWObject testObj1 = TestWObject.builder().id(WID.<TestWObject>generate()).data("val", 1).build();
+    final TestWObject testObj2 = TestWObject.builder().id(WID.<TestWObject>generate().withSubId(2L)).data("val", 2).build();
+    try (Connection conn = repository.getConnection())
+    {
+      conn.prepareStatement("DROP TABLE IF EXISTS t_testlegacy").execute();
+      conn.prepareStatement("CREATE TABLE t_testlegacy(d JSONB NOT NULL)").execute();
+      conn.prepareStatement("INSERT INTO t_testlegacy VALUES('" + WObject.serialize(testObj1) + "'::JSONB)").execute();
+      conn.prepareStatement("INSERT INTO t_testlegacy VALUES('" + WObject.serialize(testObj2) + "'::JSONB)").execute();
+    }
+
+    final WObjectServicePostgreSqlImpl<TestWObject> legacyService =
+        new WObjectServicePostgreSqlImpl<>(repository, WealdMapper.getServerMapper(), "testlegacy");
+    try
+    {
+      legacyService.createDatastore();
+      // Running again should be harmless
+      legacyService.createDatastore();
+
+      final ImmutableList<TestWObject> testObjs = legacyService.obtain(new TypeReference<TestWObject>() {}, new WObjectServiceCallbackPostgreSqlImpl() {
+        @Override
+        public String getConditions()
+        {
+          return WObjectServicePostgreSqlImpl.KEY_CONDITION;
+        }
+
+        @Override
+        public void setConditionValues(final PreparedStatement stmt)
+        {
+          setKey(stmt, 1, testObj2.getId());
+        }
+      });
+      assertEquals(testObjs.size(), 1);
+      assertEquals(testObjs.get(0), testObj2);
+
+      // The primary key should now be in place
+      try
+      {
+        legacyService.add(testObj1);
+        fail("Added duplicate item");
+      }
+      catch (final DataError.Bad dbe)
+      {
+        // Good
+      }
+    }
+    finally
+    {
+      legacyService.destroyDatastore();
+    }
+  }
+
+  @Test
+  public void testKeyMigrationUnkeyed() throws SQLException
+  {
+    // Rows without an ID cannot be keyed, and must stop the migration rather than leave it looping
+    final TestWObject testObj1 = TestWObject.builder().id(WID.<TestWObject>generate()).data("val", 1).build();
+    try (Connection conn = repository.getConnection())
+    {
+      conn.prepareStatement("DROP TABLE IF EXISTS t_testunkeyed").execute();
+      conn.prepareStatement("CREATE TABLE t_testunkeyed(d JSONB NOT NULL)").execute();
+      conn.prepareStatement("INSERT INTO t_testunkeyed VALUES('" + WObject.serialize(testObj1) + "'::JSONB)").execute();
+      conn.prepareStatement("INSERT INTO t_testunkeyed VALUES('{\"val\":2}'::JSONB)").execute();
+      conn.prepareStatement("INSERT INTO t_testunkeyed VALUES('{\"_id\":null,\"val\":3}'::JSONB)").execute();
+    }
+
+    final WObjectServicePostgreSqlImpl<TestWObject> unkeyedService =
+        new WObjectServicePostgreSqlImpl<>(repository, WealdMapper.getServerMapper(), "testunkeyed");
+    try
+    {
+      try
+      {
+        unkeyedService.createDatastore();
+        fail("Migrated table with unkeyed items");
+      }
+      catch (final DataError.Bad dbe)
+      {
+        // Good
+      }
+
+      // Once the unkeyed rows are removed the migration completes
+      try (Connection conn = repository.getConnection())
+      {
+        conn.prepareStatement("DELETE FROM t_testunkeyed WHERE i IS NULL").execute();
+      }
+      unkeyedService.createDatastore();
+      assertEquals(unkeyedService.obtainItem(new TypeReference<TestWObject>() {}, testObj1.getId()), testObj1);
+    }
+    finally
+    {
+      unkeyedService.destroyDatastore();
+    }
+  }
+
+  @Test
+  public void testPromotedFields()
+  {
+    final WObjectServicePostgreSqlImpl<TestWObject> plainService =
+        new WObjectServicePostgreSqlImpl<>(repository, WealdMapper.getServerMapper(), "testpromoted");
+    final WObjectServicePostgreSqlImpl<TestWObject> promotedService =
+        new WObjectServicePostgreSqlImpl<TestWObject>(repository, WealdMapper.getServerMapper(), "testpromoted")
+        {
+          @Override
+          protected ImmutableList<PostgreSqlPromotedField> getPromotedFields()
+          {
+            return ImmutableList.of(PostgreSqlPromotedField.text("val", "val"));
+          }
+
+          @Override
+          protected ImmutableList<PostgreSqlIndex> getIndexes()
+          {
+            return ImmutableList.of(PostgreSqlIndex.btree("val", "val"), PostgreSqlIndex.jsonPath("tags", "d->'tags'"));
+          }
+        };
+    final WObjectServiceCallbackPostgreSqlImpl fooCallback = new WObjectServiceCallbackPostgreSqlImpl()
+    {
+      @Override
+      public String getConditions()
+      {
+        return "val = ?";
+      }
+
+      @Override
+      public void setConditionValues(final PreparedStatement stmt)
+      {
+        setString(stmt, 1, "foo");
+      }
+    };
+
+    try
+    {
+      // Items added before the field is promoted should be filled when it is
+      plainService.createDatastore();
+      plainService.add(TestWObject.builder().id(WID.<TestWObject>generate()).data("val", "foo").build());
+      plainService.add(TestWObject.builder().id(WID.<TestWObject>generate()).data("val", "bar").build());
+      promotedService.createDatastore();
+      assertEquals(promotedService.obtain(new TypeReference<TestWObject>() {}, fooCallback).size(), 1);
+
+      // Items added and updated after the field is promoted should be maintained
+      final TestWObject testObj = TestWObject.builder().id(WID.<TestWObject>generate()).data("val", "bar").build();
+      promotedService.add(testObj);
+      promotedService.update(TestWObject.builder().id(testObj.getId()).data("val", "foo").build());
+      assertEquals(promotedService.obtain(new TypeReference<TestWObject>() {}, fooCallback).size(), 2);
+
+      // Running again should be harmless
+      promotedService.createDatastore();
+    }
+    finally
+    {
+      plainService.destroyDatastore();
+    }
+  }
+
+  @Test
+  public void testBulk()
+  {
+    final String methodName = new Object() {}.getClass().getEnclosingMethod().getName();
+    final WObjectServiceCallbackPostgreSqlImpl cb = new WObjectServiceCallbackPostgreSqlImpl()
+    {
+      @Override
+      public String getConditions()
+      {
+        return "d->>'val' = ?";
+      }
+
+      @Override
+      public void setConditionValues(final PreparedStatement stmt)
+      {
+        setString(stmt, 1, methodName);
+      }
+    };
+
+    final ImmutableList.Builder<TestWObject> testObjsB = ImmutableList.builder();
+    for (int i = 0; i < 25; i++)
+    {
+      testObjsB.add(TestWObject.builder().id(WID.<TestWObject>generate()).data("val", methodName).data("num", i).build());
+    }
+    final ImmutableList<TestWObject> testObjs = testObjsB.build();
+    service.addAll(testObjs);
+    assertEquals(service.obtain(new TypeReference<TestWObject>() {}, cb).size(), 25);
+
+    final ImmutableList.Builder<TestWObject> updatedObjsB = ImmutableList.builder();
+    for (final TestWObject testObj : testObjs)
+    {
+      updatedObjsB.add(TestWObject.builder().id(testObj.getId()).data("val", methodName).data("num", 100).build());
+    }
+    service.updateAll(updatedObjsB.build());
+    for (final TestWObject testObj : service.obtain(new TypeReference<TestWObject>() {}, cb))
+    {
+      assertEquals(testObj.get("num", Integer.class).get(), Integer.valueOf(100));
+    }
+
+    final ImmutableList.Builder<WID<TestWObject>> idsB = ImmutableList.builder();
+    for (final TestWObject testObj : testObjs.subList(0, 10))
+    {
+      idsB.add(testObj.getId());
+    }
+    service.removeAll(idsB.build());
+    assertEquals(service.obtain(new TypeReference<TestWObject>() {}, cb).size(), 15);
+
+    // Adding a duplicate should fail, and leave none of the batch in place
+    final TestWObject newObj = TestWObject.builder().id(WID.<TestWObject>generate()).data("val", methodName).build();
+    try
+    {
+      service.addAll(ImmutableList.of(newObj, testObjs.get(20)));
+      fail("Added duplicate item");
+    }
+    catch (final DataError.Bad dbe)
+    {
+      // Good
+    }
+    assertEquals(service.obtain(new TypeReference<TestWObject>() {}, cb).size(), 15);
+  }
+
+  @Test
+  public void testIterate()
+  {
+    final String methodName = new Object() {}.getClass().getEnclosingMethod().getName();
+    final WObjectServiceCallbackPostgreSqlImpl cb = new WObjectServiceCallbackPostgreSqlImpl()
+    {
+      @Override
+      public String getConditions()
+      {
+        return "d->>'val' = ?";
+      }
+
+      @Override
+      public String getOrder()
+      {
+        return "i";
+      }
+
+      @Override
+      public void setConditionValues(final PreparedStatement stmt)
+      {
+        setString(stmt, 1, methodName);
+      }
+    };
+
+    final ImmutableList.Builder<TestWObject> testObjsB = ImmutableList.builder();
+    for (int i = 0; i < 25; i++)
+    {
+      testObjsB.add(TestWObject.builder().id(WID.<TestWObject>generate()).data("val", methodName).data("num", i).build());
+    }
+    service.addAll(testObjsB.build());
+
+    final ImmutableList<TestWObject> obtained = service.obtain(new TypeReference<TestWObject>() {}, cb);
+    final ImmutableList.Builder<TestWObject> iteratedB = ImmutableList.builder();
+    try (WObjectIterator<TestWObject> iterator = service.iterate(new TypeReference<TestWObject>() {}, cb))
+    {
+      while (iterator.hasNext())
+      {
+        iteratedB.add(iterator.next());
+      }
+    }
+    assertEquals(iteratedB.build(), obtained);
+
+    // Closing an iterator before it is exhausted must leave the service usable
+    try (WObjectIterator<TestWObject> iterator = service.iterate(new TypeReference<TestWObject>() {}, cb))
+    {
+      assertEquals(iterator.next(), obtained.get(0));
+    }
+    assertEquals(service.obtain(new TypeReference<TestWObject>() {}, cb).size(), 25);
+
+    final WObjectServiceCallbackPostgreSqlImpl queryCb = new WObjectServiceCallbackPostgreSqlImpl()
+    {
+      @Override
+      public String getQuery()
+      {
+        return "SELECT (d->>'num')::INTEGER FROM t_test WHERE d->>'val' = ? ORDER BY 1";
+      }
+
+      @Override
+      public void setConditionValues(final PreparedStatement stmt)
+      {
+        setString(stmt, 1, methodName);
+      }
+    };
+    int expected = 0;
+    try (WObjectIterator<Integer> iterator = service.iterateQuery(new TypeReference<Integer>() {}, queryCb))
+    {
+      while (iterator.hasNext())
+      {
+        assertEquals(iterator.next(), Integer.valueOf(expected++));
+      }
+    }
+    assertEquals(expected, 25);
+  }
+
+  @Test
+  public void testPage()
+  {
+    final String methodName = new Object() {}.getClass().getEnclosingMethod().getName();
+    final WObjectServiceCallbackPostgreSqlImpl cb = new WObjectServiceCallbackPostgreSqlImpl()
+    {
+      @Override
+      public String getConditions()
+      {
+        return "d->>'val' = ?";
+      }
+
+      @Override
+      public void setConditionValues(final PreparedStatement stmt)
+      {
+        setString(stmt, 1, methodName);
+      }
+    };
+
+    // IDs generated within the same millisecond are not in order, so order them to match the datastore
+    final List<WID<TestWObject>> ids = Lists.newArrayList();
+    for (int i = 0; i < 25; i++)
+    {
+      ids.add(WID.<TestWObject>generate());
+    }
+    Collections.sort(ids);
+    final ImmutableList.Builder<TestWObject> testObjsB = ImmutableList.builder();
+    for (int i = 0; i < 25; i++)
+    {
+      testObjsB.add(TestWObject.builder().id(ids.get(i)).data("val", methodName).data("num", i).build());
+    }
+    final ImmutableList<TestWObject> testObjs = testObjsB.build();
+    service.addAll(testObjs);
+
+    final ImmutableList.Builder<TestWObject> ascendingB = ImmutableList.builder();
+    WObjectPage<TestWObject> page = service.obtain(new TypeReference<TestWObject>() {}, cb, WObjectPageRequest.<TestWObject>ascending(10));
+    int pages = 1;
+    ascendingB.addAll(page.getItems());
+    while (page.getNext().isPresent())
+    {
+      page = service.obtain(new TypeReference<TestWObject>() {}, cb, page.getNext().get());
+      pages++;
+      ascendingB.addAll(page.getItems());
+    }
+    assertEquals(pages, 3);
+    assertEquals(page.getItems().size(), 5);
+    assertEquals(ascendingB.build(), testObjs);
+
+    // Newest first, starting before the last object
+    page = service.obtain(new TypeReference<TestWObject>() {}, cb,
+                          WObjectPageRequest.<TestWObject>descending(10).from(testObjs.get(24).getId()));
+    assertEquals(page.getItems(), testObjs.subList(14, 24).reverse());
+    assertEquals(page.getNextCursor().get(), testObjs.get(14).getId());
+  }
+
+  @Test
+  public void testStatementCache()
+  {
+    final String methodName = new Object() {}.getClass().getEnclosingMethod().getName();
+    final WObjectServiceCallbackPostgreSqlImpl cb = new WObjectServiceCallbackPostgreSqlImpl()
+    {
+      @Override
+      public String getConditions()
+      {
+        return "d->>'val' = ?";
+      }
+
+      @Override
+      public void setConditionValues(final PreparedStatement stmt)
+      {
+        setString(stmt, 1, methodName);
+      }
+    };
+
+    service.add(TestWObject.builder().id(WID.<TestWObject>generate()).data("val", methodName).build());
+    service.obtain(new TypeReference<TestWObject>() {}, cb);
+
+    // Repeated statements are reused from the cache rather than prepared again
+    final Meter hits = WealdMetrics.getMetricRegistry().meter(MetricRegistry.name(MeteredStatementCache.class, "hits"));
+    final long priorHits = hits.getCount();
+    for (int i = 0; i < 10; i++)
+    {
+      assertEquals(service.obtain(new TypeReference<TestWObject>() {}, cb).size(), 1);
+    }
+    assertTrue(hits.getCount() >= priorHits + 10);
+  }
+
+  @Test
+  public void testAsync() throws Exception
+  {
+    final String methodName = new Object() {}.getClass().getEnclosingMethod().getName();
+    final WObjectServiceCallbackPostgreSqlImpl cb = new WObjectServiceCallbackPostgreSqlImpl()
+    {
+      @Override
+      public String getConditions()
+      {
+        return "d->>'val' = ?";
+      }
+
+      @Override
+      public void setConditionValues(final PreparedStatement stmt)
+      {
+        setString(stmt, 1, methodName);
+      }
+    };
+
+    final WObjectServiceAsync<TestWObject, PreparedStatement> async =
+        new WObjectServiceAsyncImpl<>(service, repository.getExecutor());
+    final TestWObject testObj1 = TestWObject.builder().id(WID.<TestWObject>generate()).data("val", methodName).build();
+    final TestWObject testObj2 = TestWObject.builder().id(WID.<TestWObject>generate()).data("val", methodName).build();
+    Futures.allAsList(async.add(testObj1), async.add(testObj2)).get(10, TimeUnit.SECONDS);
+
+    // Independent reads run concurrently
+    final ListenableFuture<ImmutableList<TestWObject>> all = async.obtain(new TypeReference<TestWObject>() {}, cb);
+    final ListenableFuture<List<Integer>> counts =
+        Futures.transform(Futures.allAsList(async.obtain(new TypeReference<TestWObject>() {}, new WObjectServiceCallbackPostgreSqlImpl()
+        {
+          @Override
+          public String getConditions()
+          {
+            return WObjectServicePostgreSqlImpl.KEY_CONDITION;
+          }
+
+          @Override
+          public void setConditionValues(final PreparedStatement stmt)
+          {
+            setKey(stmt, 1, testObj1.getId());
+          }
+        }), all), new Function<List<ImmutableList<TestWObject>>, List<Integer>>()
+        {
+          @Override
+          public List<Integer> apply(final List<ImmutableList<TestWObject>> input)
+          {
+            return ImmutableList.of(input.get(0).size(), input.get(1).size());
+          }
+        });
+    assertEquals(counts.get(10, TimeUnit.SECONDS), ImmutableList.of(1, 2));
+
+    // Failures are reported through the future
+    try
+    {
+      async.add(testObj1).get(10, TimeUnit.SECONDS);
+      fail("Added duplicate item");
+    }
+    catch (final ExecutionException ee)
+    {
+      assertTrue(ee.getCause() instanceof DataError.Bad);
+    }
+  }
+
+  @Test
+  public void testCache() throws InterruptedException
+  {
+    final String methodName = new Object() {}.getClass().getEnclosingMethod().getName();
+    final TypeReference<TestWObject> typeRef = new TypeReference<TestWObject>() {};
+    // Two caches on the same channel stand in for two processes
+    final WObjectServiceCachingPostgreSqlImpl<TestWObject> cache1 =
+        new WObjectServiceCachingPostgreSqlImpl<>(service, repository, "testcache");
+    final WObjectServiceCachingPostgreSqlImpl<TestWObject> cache2 =
+        new WObjectServiceCachingPostgreSqlImpl<>(service, repository, "testcache");
+    try
+    {
+      for (int i = 0; i < 100 && !(cache1.isListening() && cache2.isListening()); i++)
+      {
+        Thread.sleep(100);
+      }
+      assertTrue(cache1.isListening());
+      assertTrue(cache2.isListening());
+
+      final Meter hits = WealdMetrics.getMetricRegistry()
+                                     .meter(MetricRegistry.name(WObjectServiceCachingPostgreSqlImpl.class, "testcache", "hits"));
+
+      final TestWObject testObj = TestWObject.builder().id(WID.<TestWObject>generate()).data("val", methodName).build();
+      cache1.add(testObj);
+
+      // Second read comes from the cache
+      assertEquals(cache1.obtainItem(typeRef, testObj.getId()), testObj);
+      final long priorHits = hits.getCount();
+      assertEquals(cache1.obtainItem(typeRef, testObj.getId()), testObj);
+      assertEquals(hits.getCount(), priorHits + 1);
+      assertEquals(cache2.obtainItem(typeRef, testObj.getId()), testObj);
+
+      // Update through one cache is seen by the other once the notification arrives
+      final TestWObject updatedObj =
+          TestWObject.builder().id(testObj.getId()).data("val", methodName).data("updated", true).build();
+      cache1.update(testObj, updatedObj);
+      assertEquals(cache1.obtainItem(typeRef, testObj.getId()), updatedObj);
+      TestWObject seen = cache2.obtainItem(typeRef, testObj.getId());
+      for (int i = 0; i < 50 && !updatedObj.equals(seen); i++)
+      {
+        Thread.sleep(100);
+        seen = cache2.obtainItem(typeRef, testObj.getId());
+      }
+      assertEquals(seen, updatedObj);
+
+      // Removal is cached as absence
+      cache2.remove(testObj.getId());
+      assertNull(cache2.obtainItem(typeRef, testObj.getId()));
+      TestWObject removed = cache1.obtainItem(typeRef, testObj.getId());
+      for (int i = 0; i < 50 && removed != null; i++)
+      {
+        Thread.sleep(100);
+        removed = cache1.obtainItem(typeRef, testObj.getId());
+      }
+      assertNull(removed);
+    }
+    finally
+    {
+      cache1.close();
+      cache2.close();
+    }
+  }
+
+  @Test
+  public void testReplicaReads() throws InterruptedException
+  {
+    final String methodName = new Object() {}.getClass().getEnclosingMethod().getName();
+    final TypeReference<TestWObject> typeRef = new TypeReference<TestWObject>() {};
+    // The primary stands in for its own replica, under a different name so that it has a separate pool
+    final PostgreSqlReplicasConfiguration replicasConfiguration =
+        new PostgreSqlReplicasConfiguration.Builder().servers(ImmutableList.of(new PostgreSqlReplicaConfiguration("localhost", 5432)))
+                                                     .selection(PostgreSqlReplicasConfiguration.Selection.LEAST_LATENCY)
+                                                     .checkInterval(100L)
+                                                     .build();
+    final PostgreSqlRepository replicatedRepository =
+        new PostgreSqlRepository(new PostgreSqlConfiguration("127.0.0.1", 5432, "test", "test", "test", null, null, null, null, null,
+                                                             null, null, null, replicasConfiguration, null, null));
+    final WObjectService<TestWObject, PreparedStatement> replicatedService = new TestObjectServicePostgreSqlImpl(replicatedRepository);
+
+    final TestWObject testObj = TestWObject.builder().id(WID.<TestWObject>generate()).data("val", methodName).build();
+    replicatedService.add(testObj);
+
+    // Reads go to the primary unless the caller allows replica reads
+    final Meter reads = WealdMetrics.getMetricRegistry().meter(MetricRegistry.name(PostgreSqlReplicaSet.class, "reads"));
+    long priorReads = reads.getCount();
+    Thread.sleep(500);
+    assertEquals(replicatedService.obtainItem(typeRef, testObj.getId()), testObj);
+    assertEquals(reads.getCount(), priorReads);
+
+    // Allowed reads go to the primary until the replica has been checked
+    try (PostgreSqlRepository.ReadScope ignored = PostgreSqlRepository.replicaReads())
+    {
+      for (int i = 0; i < 50 && reads.getCount() == priorReads; i++)
+      {
+        assertEquals(replicatedService.obtainItem(typeRef, testObj.getId()), testObj);
+        Thread.sleep(100);
+      }
+      assertTrue(reads.getCount() > priorReads);
+
+      // Reads within a primary scope do not go to the replica
+      priorReads = reads.getCount();
+      try (PostgreSqlRepository.ReadScope ignored2 = PostgreSqlRepository.primaryReads())
+      {
+        assertEquals(replicatedService.obtainItem(typeRef, testObj.getId()), testObj);
+      }
+      assertEquals(reads.getCount(), priorReads);
+    }
+
+    replicatedService.remove(testObj.getId());
+  }
+
+  @Test
+  public void testPoolMetrics()
+  {
+    final String prefix = MetricRegistry.name(DatastoreConnection.class, "jdbc:postgresql://localhost:5432/test");
+    final MetricRegistry registry = WealdMetrics.getMetricRegistry();
+    final Timer borrow = registry.timer(MetricRegistry.name(prefix, "borrow"));
+    final long priorBorrows = borrow.getCount();
+
+    service.obtain(new TypeReference<TestWObject>() {}, null);
+    assertTrue(borrow.getCount() > priorBorrows);
+    assertTrue(registry.getGauges().containsKey(MetricRegistry.name(prefix, "active")));
+    assertTrue((Integer)registry.getGauges().get(MetricRegistry.name(prefix, "idle")).getValue() > 0);
+    assertEquals(registry.getGauges().get(MetricRegistry.name(prefix, "waiting")).getValue(), 0);
+  }
+
+  @Test
+  public void testStatementMetrics()
+  {
+    final String methodName = new Object() {}.getClass().getEnclosingMethod().getName();
+    final TestWObject testObj = TestWObject.builder()
+                                           .id(WID.<TestWObject>generate())
+                                           .data("val", methodName)
+                                           .build();
+    service.add(testObj);
+
+    final WObjectServiceCallbackPostgreSqlImpl cb = new WObjectServiceCallbackPostgreSqlImpl()
+    {
+      @Override
+      public String getConditions()
+      {
+        return "d->>'val'=?";
+      }
+
+      @Override
+      public void setConditionValues(final PreparedStatement stmt)
+      {
+        setString(stmt, 1, methodName);
+      }
+    };
+    final String prefix =
+        MetricRegistry.name(WObjectServicePostgreSqlImpl.class, "t_test", "obtain", cb.getClass().getName().replace('.', '_'));
+    final MetricRegistry registry = WealdMetrics.getMetricRegistry();
+    final long priorObtains = registry.timer(MetricRegistry.name(prefix, "time")).getCount();
+    final long priorRows = registry.meter(MetricRegistry.name(prefix, "rows")).getCount();
+
+    assertEquals(service.obtain(new TypeReference<TestWObject>() {}, cb).size(), 1);
+    assertEquals(registry.timer(MetricRegistry.name(prefix, "time")).getCount(), priorObtains + 1);
+    assertEquals(registry.meter(MetricRegistry.name(prefix, "rows")).getCount(), priorRows + 1);
+    assertTrue(registry.meter(MetricRegistry.name(prefix, "bytes")).getCount() > 0);
+    assertTrue(registry.getGauges().containsKey(MetricRegistry.name(PostgreSqlStatementMetrics.class, "plans")));
+
+    service.remove(testObj.getId());
+  }
+
+  @Test
+  public void testBulkTransfer() throws IOException
+  {
+    final String methodName = new Object() {}.getClass().getEnclosingMethod().getName();
+    final ImmutableList.Builder<TestWObject> testObjsB = ImmutableList.builder();
+    for (int i = 0; i < 50; i++)
+    {
+      testObjsB.add(TestWObject.builder()
+                               .id(WID.<TestWObject>generate())
+                               .data("val", methodName)
+                               .data("text", "Line " + i + "\nwith \"quotes\", \\backslashes\\ and \u0001controls")
+                               .build());
+    }
+    final WObjectServicePostgreSqlImpl<TestWObject> sourceService =
+        new WObjectServicePostgreSqlImpl<>(repository, WealdMapper.getServerMapper(), "testexport");
+    final WObjectServicePostgreSqlImpl<TestWObject> targetService =
+        new WObjectServicePostgreSqlImpl<>(repository, WealdMapper.getServerMapper(), "testimport");
+    final File dir = Files.createTempDirectory("bulk").toFile();
+    try
+    {
+      sourceService.createDatastore();
+      sourceService.addAll(testObjsB.build());
+      targetService.createDatastore();
+
+      assertEquals(new PostgreSqlBulkTransfer(repository, "testexport").exportTo(dir, 4), 50L);
+      // Files are named for their source table so rename them for the target
+      for (final File file : dir.listFiles())
+      {
+        assertTrue(file.renameTo(new File(dir, file.getName().replace("testexport", "testimport"))));
+      }
+      assertEquals(new PostgreSqlBulkTransfer(repository, "testimport").importFrom(dir, 2), 50L);
+
+      final ImmutableList<TestWObject> imported = targetService.obtain(new TypeReference<TestWObject>() {}, null);
+      assertEquals(ImmutableSet.copyOf(imported), ImmutableSet.copyOf(sourceService.obtain(new TypeReference<TestWObject>() {}, null)));
+    }
+    finally
+    {
+      sourceService.destroyDatastore();
+      targetService.destroyDatastore();
+      for (final File file : dir.listFiles())
+      {
+        file.delete();
+      }
+      dir.delete();
+    }
+  }
 }
@@ -0,0 +1,378 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.*;
+
+/**
+ * Generate typed accessors for the key constants of WObject subclasses which are marked with {@code com.wealdtech.WObjectKey}.
+ * <p/>
+ * The type of each key is taken from its getter.  All decisions about the type are made here rather than at runtime: values
+ * which are already of the required type are returned after a plain class check, with collections also checking their first
+ * element, and only other values are passed to the object for conversion.
+ * <p/>
+ * The processor works with names rather than classes so that it does not need the WObject module on its own classpath.
+ */
+@SupportedAnnotationTypes(WObjectKeyProcessor.KEY_ANNOTATION)
+public class WObjectKeyProcessor extends AbstractProcessor
+{
+  static final String KEY_ANNOTATION = "com.wealdtech.WObjectKey";
+
+  private static final String WOBJECT = "com.wealdtech.WObject";
+  private static final String OPTIONAL = "com.google.common.base.Optional";
+  private static final String ACCESSORS_SUFFIX = "Accessors";
+
+  @Override
+  public SourceVersion getSupportedSourceVersion()
+  {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv)
+  {
+    final Elements elements = processingEnv.getElementUtils();
+    final TypeElement keyAnnotation = elements.getTypeElement(KEY_ANNOTATION);
+    if (keyAnnotation == null || annotations.isEmpty())
+    {
+      return false;
+    }
+
+    // Gather the accessors by the class which holds them, in the order in which they are declared
+    final Map<TypeElement, List<Accessor>> accessors = new LinkedHashMap<>();
+    for (final Element element : roundEnv.getElementsAnnotatedWith(keyAnnotation))
+    {
+      final Accessor accessor = accessor((VariableElement)element, keyAnnotation);
+      if (accessor != null)
+      {
+        final TypeElement holder = (TypeElement)element.getEnclosingElement();
+        if (!accessors.containsKey(holder))
+        {
+          accessors.put(holder, new ArrayList<Accessor>());
+        }
+        accessors.get(holder).add(accessor);
+      }
+    }
+
+    for (final Map.Entry<TypeElement, List<Accessor>> entry : accessors.entrySet())
+    {
+      write(entry.getKey(), entry.getValue());
+    }
+    return true;
+  }
+
+  // Resolve the information required to generate an accessor, reporting an error and returning null if it cannot be generated
+  private Accessor accessor(final VariableElement field, final TypeElement keyAnnotation)
+  {
+    final Types types = processingEnv.getTypeUtils();
+    final Elements elements = processingEnv.getElementUtils();
+
+    if (!field.getModifiers().contains(Modifier.STATIC) || !field.getModifiers().contains(Modifier.FINAL) ||
+        !(field.getConstantValue() instanceof String))
+    {
+      error(field, "Key must be a static final String constant");
+      return null;
+    }
+    final TypeElement holder = (TypeElement)field.getEnclosingElement();
+    final TypeElement wobject = elements.getTypeElement(WOBJECT);
+    if (wobject == null || !types.isSubtype(types.erasure(holder.asType()), types.erasure(wobject.asType())))
+    {
+      error(field, "Key must be declared in a subclass of " + WOBJECT);
+      return null;
+    }
+
+    String getterName = getterAttribute(field, keyAnnotation);
+    final List<String> candidates = new ArrayList<>();
+    if (getterName == null)
+    {
+      final String property = camelCase(field.getSimpleName().toString());
+      candidates.add("get" + property);
+      candidates.add("is" + property);
+    }
+    else
+    {
+      candidates.add(getterName);
+    }
+    ExecutableElement getter = null;
+    for (final ExecutableElement method : ElementFilter.methodsIn(holder.getEnclosedElements()))
+    {
+      if (method.getParameters().isEmpty() && candidates.contains(method.getSimpleName().toString()))
+      {
+        getter = method;
+        break;
+      }
+    }
+    if (getter == null)
+    {
+      error(field, "Cannot find getter " + candidates.get(0) + "() for key");
+      return null;
+    }
+
+    // The accessor returns an Optional of the value type; if the getter already returns an Optional then its contents are the value
+    TypeMirror valueType = getter.getReturnType();
+    if (valueType.getKind().isPrimitive())
+    {
+      valueType = types.boxedClass(types.getPrimitiveType(valueType.getKind())).asType();
+    }
+    final TypeElement optional = elements.getTypeElement(OPTIONAL);
+    if (optional != null && valueType.getKind() == TypeKind.DECLARED &&
+        types.isSameType(types.erasure(valueType), types.erasure(optional.asType())) &&
+        !((DeclaredType)valueType).getTypeArguments().isEmpty())
+    {
+      valueType = ((DeclaredType)valueType).getTypeArguments().get(0);
+    }
+    if (valueType.getKind() != TypeKind.DECLARED || hasTypeVariables(valueType))
+    {
+      error(getter, "Cannot generate accessor for type " + valueType + "; it must be a class without type variables");
+      return null;
+    }
+
+    final TypeMirror collection = types.erasure(elements.getTypeElement("java.util.Collection").asType());
+    TypeMirror elementType = null;
+    if (types.isAssignable(types.erasure(valueType), collection) && !((DeclaredType)valueType).getTypeArguments().isEmpty())
+    {
+      final TypeMirror argument = ((DeclaredType)valueType).getTypeArguments().get(0);
+      if (argument.getKind() == TypeKind.DECLARED)
+      {
+        elementType = types.erasure(argument);
+      }
+    }
+
+    getterName = getter.getSimpleName().toString();
+    return new Accessor(field.getSimpleName().toString(),
+                        elements.getConstantExpression(field.getConstantValue()),
+                        getterName,
+                        valueType,
+                        types.erasure(valueType),
+                        elementType,
+                        !((DeclaredType)valueType).getTypeArguments().isEmpty(),
+                        types.isSameType(valueType, elements.getTypeElement("java.lang.Long").asType()));
+  }
+
+  // Obtain the explicit getter name from the annotation, if present
+  private String getterAttribute(final VariableElement field, final TypeElement keyAnnotation)
+  {
+    for (final AnnotationMirror mirror : field.getAnnotationMirrors())
+    {
+      if (mirror.getAnnotationType().asElement().equals(keyAnnotation))
+      {
+        for (final Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value : mirror.getElementValues().entrySet())
+        {
+          if (value.getKey().getSimpleName().contentEquals("getter") && !"".equals(value.getValue().getValue()))
+          {
+            return (String)value.getValue().getValue();
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  private static boolean hasTypeVariables(final TypeMirror type)
+  {
+    if (type.getKind() == TypeKind.TYPEVAR)
+    {
+      return true;
+    }
+    if (type.getKind() == TypeKind.DECLARED)
+    {
+      for (final TypeMirror argument : ((DeclaredType)type).getTypeArguments())
+      {
+        if (hasTypeVariables(argument))
+        {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  // PARTICIPANT_IDS to ParticipantIds
+  private static String camelCase(final String constant)
+  {
+    final StringBuilder sb = new StringBuilder();
+    for (final String part : constant.toLowerCase(Locale.ENGLISH).split("_"))
+    {
+      if (!part.isEmpty())
+      {
+        sb.append(Character.toUpperCase(part.charAt(0))).append(part.substring(1));
+      }
+    }
+    return sb.toString();
+  }
+
+  private void write(final TypeElement holder, final List<Accessor> accessors)
+  {
+    final Elements elements = processingEnv.getElementUtils();
+    final String packageName = elements.getPackageOf(holder).getQualifiedName().toString();
+    final String holderType = processingEnv.getTypeUtils().erasure(holder.asType()).toString();
+    final String className = flatName(holder) + ACCESSORS_SUFFIX;
+
+    try
+    {
+      final JavaFileObject file =
+          processingEnv.getFiler().createSourceFile(packageName.isEmpty() ? className : packageName + "." + className, holder);
+      try (PrintWriter out = new PrintWriter(file.openWriter()))
+      {
+        if (!packageName.isEmpty())
+        {
+          out.println("package " + packageName + ";");
+          out.println();
+        }
+        out.println("import com.google.common.base.Optional;");
+        out.println();
+        out.println("import javax.annotation.Generated;");
+        out.println("import java.lang.reflect.Type;");
+        out.println();
+        out.println("/**");
+        out.println(" * Typed accessors for {@link " + holderType + "}");
+        out.println(" */");
+        out.println("@Generated(\"" + WObjectKeyProcessor.class.getName() + "\")");
+        out.println("final class " + className);
+        out.println("{");
+        for (final Accessor accessor : accessors)
+        {
+          out.println("  private static final Type " + accessor.constant + "_TYPE = " + accessor.typeExpression() + ";");
+        }
+        out.println();
+        out.println("  private " + className + "(){}");
+        for (final Accessor accessor : accessors)
+        {
+          out.println();
+          accessor.write(out, holderType);
+        }
+        out.println("}");
+      }
+    }
+    catch (final IOException ioe)
+    {
+      error(holder, "Failed to write accessors: " + ioe.getMessage());
+    }
+  }
+
+  // The name of the class, including the names of any classes in which it is nested
+  private static String flatName(final TypeElement type)
+  {
+    final Element enclosing = type.getEnclosingElement();
+    if (enclosing instanceof TypeElement)
+    {
+      return flatName((TypeElement)enclosing) + "_" + type.getSimpleName();
+    }
+    return type.getSimpleName().toString();
+  }
+
+  private void error(final Element element, final String message)
+  {
+    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+  }
+
+  /**
+   * The resolved information for a single accessor
+   */
+  private static final class Accessor
+  {
+    private final String constant;
+    private final String key;
+    private final String name;
+    private final TypeMirror valueType;
+    private final TypeMirror rawType;
+    private final TypeMirror elementType;
+    private final boolean isParameterized;
+    private final boolean isLong;
+
+    private Accessor(final String constant,
+                     final String key,
+                     final String name,
+                     final TypeMirror valueType,
+                     final TypeMirror rawType,
+                     final TypeMirror elementType,
+                     final boolean isParameterized,
+                     final boolean isLong)
+    {
+      this.constant = constant;
+      this.key = key;
+      this.name = name;
+      this.valueType = valueType;
+      this.rawType = rawType;
+      this.elementType = elementType;
+      this.isParameterized = isParameterized;
+      this.isLong = isLong;
+    }
+
+    private String typeExpression()
+    {
+      if (isParameterized)
+      {
+        return "new com.fasterxml.jackson.core.type.TypeReference<" + valueType + ">() {}.getType()";
+      }
+      return rawType + ".class";
+    }
+
+    private void write(final PrintWriter out, final String holderType)
+    {
+      if (isParameterized)
+      {
+        out.println("  @SuppressWarnings(\"unchecked\")");
+      }
+      out.println("  static Optional<" + valueType + "> " + name + "(final " + holderType + " obj)");
+      out.println("  {");
+      out.println("    final Object val = obj.getRawData().get(" + key + ");");
+      out.println("    if (val == null)");
+      out.println("    {");
+      out.println("      return Optional.absent();");
+      out.println("    }");
+      // These checks match those of WObject.get(): plain classes must match exactly, parameterized types need only be assignable,
+      // and the elements of collections must match exactly
+      if (!isParameterized)
+      {
+        out.println("    if (val.getClass() == " + rawType + ".class)");
+      }
+      else if (elementType == null)
+      {
+        out.println("    if (val instanceof " + rawType + ")");
+      }
+      else
+      {
+        out.println("    if (val instanceof " + rawType + " &&");
+        out.println("        (((java.util.Collection<?>)val).isEmpty() ||");
+        out.println("         ((java.util.Collection<?>)val).iterator().next().getClass() == " + elementType + ".class))");
+      }
+      out.println("    {");
+      out.println("      return Optional.of((" + valueType + ")val);");
+      out.println("    }");
+      if (isLong)
+      {
+        // Small numbers are read as integers
+        out.println("    if (val instanceof Integer)");
+        out.println("    {");
+        out.println("      return Optional.of(Long.valueOf((Integer)val));");
+        out.println("    }");
+      }
+      out.println("    return obj.convert(" + key + ", val, " + constant + "_TYPE);");
+      out.println("  }");
+    }
+  }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech;
+
+import java.util.*;
+
+/**
+ * Immutable sorted map made up of a shared {@link WObjectShape} and a flat array of values.  This is the storage used for the data
+ * in a WObject; it avoids the per-entry overhead of a tree map, and the keys are shared between all objects of the same shape.
+ */
+final class CompactSortedMap extends AbstractMap<String, Object> implements SortedMap<String, Object>
+{
+  static final CompactSortedMap EMPTY = new CompactSortedMap(WObjectShape.of(Object.class, new String[0]), new Object[0]);
+
+  final WObjectShape shape;
+  final Object[] values;
+
+  private CompactSortedMap(final WObjectShape shape, final Object[] values)
+  {
+    this.shape = shape;
+    this.values = values;
+  }
+
+  /**
+   * Create a compact map.  The arrays are taken over by the map and must not be altered afterwards
+   *
+   * @param klazz the class of the object which holds the data, used to share shapes
+   * @param keys the keys, in natural order
+   * @param values the values, none of which can be null
+   * @param size the number of entries in the arrays that are in use
+   *
+   * @return a compact map of the data
+   */
+  static CompactSortedMap of(final Class<?> klazz, final String[] keys, final Object[] values, final int size)
+  {
+    if (size == keys.length)
+    {
+      return new CompactSortedMap(WObjectShape.of(klazz, keys), values);
+    }
+    return new CompactSortedMap(WObjectShape.of(klazz, Arrays.copyOf(keys, size)), Arrays.copyOf(values, size));
+  }
+
+  /**
+   * Create a compact map with an existing shape.  The array is taken over by the map and must not be altered afterwards
+   *
+   * @param shape the shape of the map
+   * @param values the values, none of which can be null
+   *
+   * @return a compact map of the data
+   */
+  static CompactSortedMap of(final WObjectShape shape, final Object[] values)
+  {
+    return new CompactSortedMap(shape, values);
+  }
+
+  @Override
+  public int size()
+  {
+    return values.length;
+  }
+
+  @Override
+  public boolean isEmpty()
+  {
+    return values.length == 0;
+  }
+
+  @Override
+  public boolean containsKey(final Object key)
+  {
+    return shape.indexOf(key) >= 0;
+  }
+
+  @Override
+  public Object get(final Object key)
+  {
+    final int index = shape.indexOf(key);
+    return index < 0 ? null : values[index];
+  }
+
+  @Override
+  public Comparator<? super String> comparator()
+  {
+    return null;
+  }
+
+  @Override
+  public String firstKey()
+  {
+    if (values.length == 0)
+    {
+      throw new NoSuchElementException();
+    }
+    return shape.keys[0];
+  }
+
+  @Override
+  public String lastKey()
+  {
+    if (values.length == 0)
+    {
+      throw new NoSuchElementException();
+    }
+    return shape.keys[values.length - 1];
+  }
+
+  // Range views are not used by WObject itself so are served from a copy
+  @Override
+  public SortedMap<String, Object> subMap(final String fromKey, final String toKey)
+  {
+    return Collections.unmodifiableSortedMap(new TreeMap<>(this).subMap(fromKey, toKey));
+  }
+
+  @Override
+  public SortedMap<String, Object> headMap(final String toKey)
+  {
+    return Collections.unmodifiableSortedMap(new TreeMap<>(this).headMap(toKey));
+  }
+
+  @Override
+  public SortedMap<String, Object> tailMap(final String fromKey)
+  {
+    return Collections.unmodifiableSortedMap(new TreeMap<>(this).tailMap(fromKey));
+  }
+
+  @Override
+  public Set<String> keySet()
+  {
+    return new AbstractSet<String>()
+    {
+      @Override
+      public Iterator<String> iterator()
+      {
+        return new CompactIterator<String>()
+        {
+          @Override
+          protected String element(final int index)
+          {
+            return shape.keys[index];
+          }
+        };
+      }
+
+      @Override
+      public boolean contains(final Object o)
+      {
+        return containsKey(o);
+      }
+
+      @Override
+      public int size()
+      {
+        return values.length;
+      }
+    };
+  }
+
+  @Override
+  public Collection<Object> values()
+  {
+    return Collections.unmodifiableList(Arrays.asList(values));
+  }
+
+  @Override
+  public Set<Map.Entry<String, Object>> entrySet()
+  {
+    return new AbstractSet<Map.Entry<String, Object>>()
+    {
+      @Override
+      public Iterator<Map.Entry<String, Object>> iterator()
+      {
+        return new CompactIterator<Map.Entry<String, Object>>()
+        {
+          @Override
+          protected Map.Entry<String, Object> element(final int index)
+          {
+            return new AbstractMap.SimpleImmutableEntry<>(shape.keys[index], values[index]);
+          }
+        };
+      }
+
+      @Override
+      public int size()
+      {
+        return values.length;
+      }
+    };
+  }
+
+  private abstract class CompactIterator<E> implements Iterator<E>
+  {
+    private int index = 0;
+
+    protected abstract E element(int index);
+
+    @Override
+    public boolean hasNext()
+    {
+      return index < values.length;
+    }
+
+    @Override
+    public E next()
+    {
+      if (index >= values.length)
+      {
+        throw new NoSuchElementException();
+      }
+      return element(index++);
+    }
+
+    @Override
+    public void remove()
+    {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
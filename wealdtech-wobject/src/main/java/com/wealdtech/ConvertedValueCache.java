@@ -0,0 +1,100 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Cache of values converted from the raw data of a WObject.  There is one slot for each key in the object's shape, at the same
+ * position as the key.  Each slot holds a chain of conversions for that key, one for each type to which it has been converted.
+ * Slots are filled with compare-and-set so readers on different threads never lock, and never see a partially built entry.
+ */
+final class ConvertedValueCache
+{
+  private final WObjectShape shape;
+  private final AtomicReferenceArray<Conversion> slots;
+
+  ConvertedValueCache(final WObjectShape shape)
+  {
+    this.shape = shape;
+    this.slots = new AtomicReferenceArray<>(shape.size());
+  }
+
+  /**
+   * Obtain a previously converted value
+   *
+   * @param key the key of the value
+   * @param target the type to which the value was converted
+   *
+   * @return the converted value, or {@code null} if the value has not been converted to this type
+   */
+  @Nullable
+  Object get(final String key, final WObjectConverter.Target target)
+  {
+    final int index = shape.indexOf(key);
+    if (index < 0)
+    {
+      return null;
+    }
+    for (Conversion conversion = slots.get(index); conversion != null; conversion = conversion.next)
+    {
+      if (conversion.matches(target))
+      {
+        return conversion.value;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Store a converted value.  If another thread stores a value for the same key at the same time both are kept; they are
+   * equivalent so it does not matter which is found by later readers.
+   *
+   * @param key the key of the value
+   * @param target the type to which the value was converted
+   * @param value the converted value
+   */
+  void put(final String key, final WObjectConverter.Target target, final Object value)
+  {
+    final int index = shape.indexOf(key);
+    if (index < 0)
+    {
+      return;
+    }
+    Conversion head;
+    do
+    {
+      head = slots.get(index);
+    }
+    while (!slots.compareAndSet(index, head, new Conversion(target, value, head)));
+  }
+
+  private static final class Conversion
+  {
+    private final WObjectConverter.Target target;
+    private final Object value;
+    private final Conversion next;
+
+    private Conversion(final WObjectConverter.Target target, final Object value, @Nullable final Conversion next)
+    {
+      this.target = target;
+      this.value = value;
+      this.next = next;
+    }
+
+    private boolean matches(final WObjectConverter.Target that)
+    {
+      // Targets are normally shared, but after a converter reset there can be more than one for the same type
+      return target == that || target.type.equals(that.type);
+    }
+  }
+}
@@ -10,7 +10,6 @@
 
 package com.wealdtech;
 
-import com.fasterxml.jackson.annotation.JsonAnyGetter;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
@@ -20,23 +19,31 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.Module;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.google.common.base.Objects;
 import com.google.common.base.Optional;
-import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
 import com.google.common.collect.*;
+import com.wealdtech.jackson.Codec;
 import com.wealdtech.jackson.WealdMapper;
+import com.wealdtech.jackson.modules.WObjectDeserializer;
+import com.wealdtech.jackson.modules.WObjectSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.ParameterizedType;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Type;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import static com.wealdtech.Preconditions.checkState;
 
@@ -49,6 +56,8 @@ import static com.wealdtech.Preconditions.checkState;
  * for comparison purposes, and is used to augment existing objects with additional information rather than use secondary data
  * structures
  */
+@JsonSerialize(using = WObjectSerializer.class)
+@JsonDeserialize(using = WObjectDeserializer.class)
 public class WObject<T extends WObject> implements Comparable<T>
 {
   private static final Logger LOG = LoggerFactory.getLogger(WObject.class);
@@ -61,44 +70,42 @@ public class WObject<T extends WObject> implements Comparable<T>
       new SimpleModule("orderedmaps", Version.unknownVersion()).addAbstractTypeMapping(Map.class, TreeMap.class);
   private static final ObjectMapper MAPPER;
 
+  // Mapper used to read and write data in binary form; configured identically to the main mapper
+  private static final ObjectMapper SMILE_MAPPER;
+
+  // Converter used to turn raw data in to typed values
+  private static final WObjectConverter CONVERTER;
+
+  // Equivalence used for hashing and comparing objects
+  private static final WObjectEquivalence EQUIVALENCE;
+
   protected static void registerModule(final Module module)
   {
     MAPPER.registerModule(module);
+    SMILE_MAPPER.registerModule(module);
+    // Readers cached by the converter were built with the old configuration
+    CONVERTER.reset();
   }
 
   static
   {
-    MAPPER = WealdMapper.getMapper()
-                        .copy()
-                        .registerModule(module)
-                        .setSerializationInclusion(JsonInclude.Include.NON_EMPTY)
-                        .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true)
-                        .configure(SerializationFeature.WRITE_NULL_MAP_VALUES, false)
-                        .configure(SerializationFeature.WRITE_EMPTY_JSON_ARRAYS, false)
-                        .configure(SerializationFeature.WRITE_ENUMS_USING_TO_STRING, true)
-                        .configure(SerializationFeature.WRITE_DATE_KEYS_AS_TIMESTAMPS, true)
-                        .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, true);
+    MAPPER = configure(WealdMapper.getMapper().copy());
+    SMILE_MAPPER = configure(WealdMapper.getMapper(Codec.SMILE).copy());
+    CONVERTER = new WObjectConverter(MAPPER);
+    EQUIVALENCE = new WObjectEquivalence(MAPPER);
   }
 
-  /** A simple predicate to find scratch entries */
-  private static final Predicate<String> SCRATCH_PREDICATE = new Predicate<String>()
+  private static ObjectMapper configure(final ObjectMapper mapper)
   {
-    @Override
-    public boolean apply(@Nullable final String input)
-    {
-      return input != null && input.startsWith("__");
-    }
-  };
-
-  /** A simple predicate to find not scratch entries */
-  private static final Predicate<String> NOT_SCRATCH_PREDICATE = new Predicate<String>()
-  {
-    @Override
-    public boolean apply(@Nullable final String input)
-    {
-      return input != null && !input.startsWith("__");
-    }
-  };
+    return mapper.registerModule(module)
+                 .setSerializationInclusion(JsonInclude.Include.NON_EMPTY)
+                 .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true)
+                 .configure(SerializationFeature.WRITE_NULL_MAP_VALUES, false)
+                 .configure(SerializationFeature.WRITE_EMPTY_JSON_ARRAYS, false)
+                 .configure(SerializationFeature.WRITE_ENUMS_USING_TO_STRING, true)
+                 .configure(SerializationFeature.WRITE_DATE_KEYS_AS_TIMESTAMPS, true)
+                 .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, true);
+  }
 
   /**
    * Obtain the Object Mapper used in WObject Jackson operations. This is actually a copy of the object mapper, so changes made it
@@ -114,257 +121,319 @@ public class WObject<T extends WObject> implements Comparable<T>
   @JsonIgnore
   private static final TypeReference<WID<?>> ID_TYPE_REF = new TypeReference<WID<?>>() {};
 
-  // We store data as a sorted map to aid legibility
+  // We store data as a sorted map to aid legibility.  The map is compact, holding its keys in a shape shared with other objects of
+  // the same class and its values in a flat array
   @JsonIgnore
   protected final SortedMap<String, Object> data;
 
-  // Scratch data is transient so held separately
+  // Scratch data is transient so held separately.  Most objects never have scratch data so it is only allocated when required
   @JsonIgnore
-  protected final Map<String, Object> scratchData;
+  private Map<String, Object> scratchData;
 
-  @JsonAnyGetter
-  private Map<String, Object> any()
-  {
-    return data;
-  }
+  // Values converted from the raw data are held separately, so that the raw data is never altered after creation and objects can
+  // be shared between threads
+  @JsonIgnore
+  private volatile ConvertedValueCache convertedValues;
+  private static final AtomicReferenceFieldUpdater<WObject, ConvertedValueCache> CONVERTED_VALUES_UPDATER =
+      AtomicReferenceFieldUpdater.newUpdater(WObject.class, ConvertedValueCache.class, "convertedValues");
 
   @JsonCreator
   public WObject(final Map<String, Object> data)
   {
-    final Map<String, Object> preCreatedData = preCreate(Maps.filterValues(data, Predicates.notNull()));
-    this.scratchData = Maps.newHashMap(Maps.filterKeys(preCreatedData, SCRATCH_PREDICATE));
-    this.data = order(Maps.filterKeys(preCreatedData, NOT_SCRATCH_PREDICATE));
-    validate();
-  }
+    if (data instanceof SharedData)
+    {
+      // Recasting: the other object's data is already filtered, ordered and immutable so it is shared rather than rebuilt
+      final WObject<?> source = ((SharedData)data).source;
+      this.data = source.data;
+      this.hashCode = source.hashCode;
+      this.convertedValues = source.convertedValues;
+      this.externalData = source.externalData;
+      validate();
+      return;
+    }
 
-  // Recursively order data
-  private SortedMap<String, Object> order(final Map<String, Object> map)
-  {
-    final TreeMap<String, Object> result = Maps.newTreeMap();
-    for (final Map.Entry<String, Object> entry : map.entrySet())
+    // Data from a builder already hides null values, and is passed through as-is so that it can be recognised afterwards
+    final Map<String, Object> preCreatedData =
+        preCreate(data instanceof WObjectBuilderData ? data : Maps.filterValues(data, Predicates.notNull()));
+    if (preCreatedData instanceof WObjectBuilderData)
     {
-      // Don't need to handle WObjects here as they will already be ordered
-      if (entry.getValue() instanceof Map)
-      {
-        result.put(entry.getKey(), order((Map<String, Object>)entry.getValue()));
-      }
-      else if (entry.getValue() instanceof List)
-      {
-        result.put(entry.getKey(), order((List)entry.getValue()));
-      }
-      else
-      {
-        result.put(entry.getKey(), entry.getValue());
-      }
+      final WObjectBuilderData builderData = (WObjectBuilderData)preCreatedData;
+      final CompactSortedMap mergedData = merge(builderData);
+      this.data = mergedData;
+      this.hashCode = rehash(builderData, mergedData);
+      validate();
+      return;
     }
-    return result;
-  }
 
-  // We aren't re-ordering the list but if it has objects inside it we need to order them
-  private ImmutableList<Object> order(final List<Object> list)
-  {
-    final ImmutableList.Builder<Object> resultB = ImmutableList.builder();
-    for (final Object value : list)
+    // Data which is already in natural order, as it is when it comes from the deserializer, is split and stored in a single pass
+    final Map<String, Object> sortedData =
+        preCreatedData instanceof SortedMap && ((SortedMap<String, Object>)preCreatedData).comparator() == null ?
+        preCreatedData : sort(preCreatedData);
+    final String[] keys = new String[sortedData.size()];
+    final Object[] values = new Object[keys.length];
+    int count = 0;
+    for (final Map.Entry<String, Object> entry : sortedData.entrySet())
     {
-      // Don't need to handle WObjects here as they will already be ordered
-      if (value instanceof Map)
-      {
-        resultB.add(order((Map<String, Object>)value));
-      }
-      else if (value instanceof List)
+      if (entry.getKey().startsWith("__"))
       {
-        resultB.add(order((List)value));
+        if (this.scratchData == null)
+        {
+          this.scratchData = Maps.newHashMap();
+        }
+        this.scratchData.put(entry.getKey(), entry.getValue());
       }
       else
       {
-        resultB.add(value);
+        keys[count] = entry.getKey();
+        values[count] = order(entry.getValue());
+        count++;
       }
     }
-    return resultB.build();
+    this.data = CompactSortedMap.of(getClass(), keys, values, count);
+    this.hashCode = EQUIVALENCE.hash(this.data);
+    validate();
   }
 
-  // Recursively strip internal data
-  private ImmutableSortedMap<String, Object> strip(final Map<String, Object> map)
+  // Merge the changes made by a builder with the data of the prior object.  Unchanged values are already ordered so are used as-is,
+  // and if the keys have not changed then neither has the shape
+  private CompactSortedMap merge(final WObjectBuilderData builderData)
   {
-    final ImmutableSortedMap.Builder<String, Object> resultB = ImmutableSortedMap.naturalOrder();
-    for (final Map.Entry<String, Object> entry : map.entrySet())
+    final String[] baseKeys = builderData.base.shape.keys;
+    final Object[] baseValues = builderData.base.values;
+    final SortedMap<String, Object> changes = sort(builderData.changes);
+    final String[] keys = new String[baseValues.length + changes.size()];
+    final Object[] values = new Object[keys.length];
+    boolean sameKeys = true;
+    int count = 0;
+    int baseIndex = 0;
+    for (final Map.Entry<String, Object> change : changes.entrySet())
     {
-      // The check for the key being a string is not redundant.  A map inside a WObject could have anything as its key, even though
-      // our contract says it should be a string.  This is because someone could pass a value which is a map with a different class
-      // for the key, for example WObject.builder().data("bad", ImmutableMap.<Integer, Integer>of(1, 1).build()
-      // This is allowable so we need to handle it here
-      if (!(entry.getKey() instanceof String) || !entry.getKey().startsWith("_"))
+      final String key = change.getKey();
+      while (baseIndex < baseValues.length && baseKeys[baseIndex].compareTo(key) < 0)
       {
-        if (entry.getValue() instanceof WObject<?>)
-        {
-          resultB.put(entry.getKey(), new WObject(((WObject<?>)entry.getValue()).getData()));
-        }
-        else if (entry.getValue() instanceof Map)
-        {
-          resultB.put(entry.getKey(), strip((Map<String, Object>)entry.getValue()));
-        }
-        else if (entry.getValue() instanceof List)
+        keys[count] = baseKeys[baseIndex];
+        values[count++] = baseValues[baseIndex++];
+      }
+      final boolean inBase = baseIndex < baseValues.length && baseKeys[baseIndex].equals(key);
+      final Object value = change.getValue();
+      if (value == null)
+      {
+        if (inBase)
         {
-          resultB.put(entry.getKey(), strip((List)entry.getValue()));
+          sameKeys = false;
+          baseIndex++;
         }
-        else if (entry.getValue() instanceof Set)
+      }
+      else if (key.startsWith("__"))
+      {
+        if (this.scratchData == null)
         {
-          resultB.put(entry.getKey(), strip((Set)entry.getValue()));
+          this.scratchData = Maps.newHashMap();
         }
-        else if (entry.getValue() instanceof Collection)
+        this.scratchData.put(key, value);
+      }
+      else
+      {
+        keys[count] = key;
+        values[count++] = inBase && value == baseValues[baseIndex] ? value : order(value);
+        if (inBase)
         {
-          resultB.put(entry.getKey(), strip((Collection)entry.getValue()));
+          baseIndex++;
         }
         else
         {
-          resultB.put(entry.getKey(), entry.getValue());
+          sameKeys = false;
         }
       }
     }
-    return resultB.build();
+    while (baseIndex < baseValues.length)
+    {
+      keys[count] = baseKeys[baseIndex];
+      values[count++] = baseValues[baseIndex++];
+    }
+
+    if (sameKeys)
+    {
+      return CompactSortedMap.of(builderData.base.shape, count == values.length ? values : Arrays.copyOf(values, count));
+    }
+    return CompactSortedMap.of(getClass(), keys, values, count);
   }
 
-  private ImmutableList<Object> strip(final Collection<Object> collection)
+  // The hash of the data is the sum of the contributions of its entries, so only the changed entries need to be hashed
+  private static int rehash(final WObjectBuilderData builderData, final CompactSortedMap data)
   {
-    final ImmutableList.Builder<Object> resultB = ImmutableList.builder();
-    for (final Object value : collection)
+    int result = builderData.baseHash;
+    for (final String key : builderData.changes.keySet())
     {
-      if (value instanceof WObject<?>)
+      if (key != null)
       {
-        resultB.add(new WObject(((WObject<?>)value).getData()));
-      }
-      else if (value instanceof Map)
-      {
-        resultB.add(strip((Map<String, Object>)value));
-      }
-      else if (value instanceof List)
-      {
-        resultB.add(strip((List)value));
+        final Object oldValue = builderData.base.get(key);
+        final Object newValue = data.get(key);
+        if (oldValue != newValue)
+        {
+          if (oldValue != null)
+          {
+            result -= EQUIVALENCE.hashEntry(key, oldValue);
+          }
+          if (newValue != null)
+          {
+            result += EQUIVALENCE.hashEntry(key, newValue);
+          }
+        }
       }
-      else if (value instanceof Set)
+    }
+    return result;
+  }
+
+  // Order top-level data.  Null keys cannot be stored so are dropped
+  private static SortedMap<String, Object> sort(final Map<String, Object> map)
+  {
+    final TreeMap<String, Object> result = Maps.newTreeMap();
+    for (final Map.Entry<String, Object> entry : map.entrySet())
+    {
+      if (entry.getKey() != null)
       {
-        resultB.add(strip((Set)value));
+        result.put(entry.getKey(), entry.getValue());
       }
-      else if (value instanceof Collection)
+    }
+    return result;
+  }
+
+  // Recursively order data.  Don't need to handle WObjects here as they will already be ordered
+  @SuppressWarnings("unchecked")
+  private Object order(final Object value)
+  {
+    if (value instanceof Map)
+    {
+      return orderNested((Map<Object, Object>)value);
+    }
+    else if (value instanceof List)
+    {
+      return order((List<Object>)value);
+    }
+    return value;
+  }
+
+  // Nested maps are held immutably so that they can be shared, both with other objects built from this one and with the external
+  // view of the data.  Null values would not be serialized so they are dropped.  If the map is already immutable and ordered then
+  // it is returned as-is
+  @SuppressWarnings("unchecked")
+  private ImmutableSortedMap<Object, Object> orderNested(final Map<Object, Object> map)
+  {
+    boolean changed = !isNaturallySorted(map);
+    final TreeMap<Object, Object> result = new TreeMap<>();
+    for (final Map.Entry<Object, Object> entry : map.entrySet())
+    {
+      if (entry.getValue() == null)
       {
-        resultB.add(strip((Collection)value));
+        changed = true;
       }
       else
       {
-        resultB.add(value);
+        final Object value = order(entry.getValue());
+        changed |= value != entry.getValue();
+        result.put(entry.getKey(), value);
       }
     }
-    return resultB.build();
+    return changed ? ImmutableSortedMap.copyOfSorted(result) : (ImmutableSortedMap<Object, Object>)map;
   }
 
-  private ImmutableList<Object> strip(final List<Object> list)
+  // We aren't re-ordering the list but if it has objects inside it we need to order them
+  private ImmutableList<Object> order(final List<Object> list)
   {
+    boolean changed = !(list instanceof ImmutableList);
     final ImmutableList.Builder<Object> resultB = ImmutableList.builder();
     for (final Object value : list)
     {
-      if (value instanceof WObject<?>)
-      {
-        resultB.add(new WObject(((WObject<?>)value).getData()));
-      }
-      else if (value instanceof Map)
-      {
-        resultB.add(strip((Map<String, Object>)value));
-      }
-      else if (value instanceof List)
-      {
-        resultB.add(strip((List)value));
-      }
-      else if (value instanceof Set)
-      {
-        resultB.add(strip((Set)value));
-      }
-      else if (value instanceof Collection)
+      final Object orderedValue = order(value);
+      changed |= orderedValue != value;
+      resultB.add(orderedValue);
+    }
+    return changed ? resultB.build() : (ImmutableList<Object>)list;
+  }
+
+  private static boolean isNaturallySorted(final Map<?, ?> map)
+  {
+    return map instanceof ImmutableSortedMap && Objects.equal(((ImmutableSortedMap<?, ?>)map).comparator(), Ordering.natural());
+  }
+
+  /**
+   * Obtain the external form of a value.  Internal keys are removed from maps, embedded WObjects are replaced by their external
+   * form and collections are made immutable.  Where none of this changes anything the value itself is returned, so unchanged
+   * subtrees are shared rather than copied.
+   */
+  @SuppressWarnings("unchecked")
+  private static Object external(final Object value)
+  {
+    if (value instanceof WObject<?>)
+    {
+      return ((WObject<?>)value).externalObject();
+    }
+    else if (value instanceof Map)
+    {
+      return external((Map<Object, Object>)value);
+    }
+    else if (value instanceof Set)
+    {
+      return external((Set<Object>)value);
+    }
+    else if (value instanceof Collection)
+    {
+      return external((Collection<Object>)value);
+    }
+    return value;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static ImmutableSortedMap<Object, Object> external(final Map<Object, Object> map)
+  {
+    boolean changed = !isNaturallySorted(map);
+    final TreeMap<Object, Object> result = new TreeMap<>();
+    for (final Map.Entry<Object, Object> entry : map.entrySet())
+    {
+      // The check for the key being a string is not redundant.  A map inside a WObject could have anything as its key, even though
+      // our contract says it should be a string.  This is because someone could pass a value which is a map with a different class
+      // for the key, for example WObject.builder().data("bad", ImmutableMap.<Integer, Integer>of(1, 1).build()
+      // This is allowable so we need to handle it here
+      if ((entry.getKey() instanceof String && ((String)entry.getKey()).startsWith("_")) || entry.getValue() == null)
       {
-        resultB.add(strip((Collection)value));
+        changed = true;
       }
       else
       {
-        resultB.add(value);
+        final Object value = external(entry.getValue());
+        changed |= value != entry.getValue();
+        result.put(entry.getKey(), value);
       }
     }
-    return resultB.build();
+    return changed ? ImmutableSortedMap.copyOfSorted(result) : (ImmutableSortedMap<Object, Object>)map;
+  }
+
+  private static ImmutableList<Object> external(final Collection<Object> collection)
+  {
+    boolean changed = !(collection instanceof ImmutableList);
+    final ImmutableList.Builder<Object> resultB = ImmutableList.builder();
+    for (final Object value : collection)
+    {
+      final Object externalValue = external(value);
+      changed |= externalValue != value;
+      resultB.add(externalValue);
+    }
+    return changed ? resultB.build() : (ImmutableList<Object>)collection;
   }
 
-  private ImmutableSet<Object> strip(final Set<Object> set)
+  private static ImmutableSet<Object> external(final Set<Object> set)
   {
+    boolean changed = !(set instanceof ImmutableSet);
     final ImmutableSet.Builder<Object> resultB = ImmutableSet.builder();
     for (final Object value : set)
     {
-      if (value instanceof WObject<?>)
-      {
-        resultB.add(new WObject(((WObject<?>)value).getData()));
-      }
-      else if (value instanceof Map)
-      {
-        resultB.add(strip((Map<String, Object>)value));
-      }
-      else if (value instanceof List)
-      {
-        resultB.add(strip((List)value));
-      }
-      else if (value instanceof Set)
-      {
-        resultB.add(strip((Set)value));
-      }
-      else if (value instanceof Collection)
-      {
-        resultB.add(strip((Collection)value));
-      }
-      else
-      {
-        resultB.add(value);
-      }
+      final Object externalValue = external(value);
+      changed |= externalValue != value;
+      resultB.add(externalValue);
     }
-    return resultB.build();
-  }
-
-  //  // Recursively deep-immutify data
-  //  private ImmutableSortedMap<String, Object> immutify(final Map<String, Object> map)
-  //  {
-  //    final ImmutableSortedMap.Builder<String, Object> result = ImmutableSortedMap.naturalOrder();
-  //    for (final Map.Entry<String, Object> entry : map.entrySet())
-  //    {
-  //      if (entry.getValue() instanceof Map)
-  //      {
-  //        result.put(entry.getKey(), immutify((Map<String, Object>)entry.getValue()));
-  //      }
-  //      else if (entry.getValue() instanceof List)
-  //      {
-  //        result.put(entry.getKey(), immutify((List)entry.getValue()));
-  //      }
-  //      else
-  //      {
-  //        result.put(entry);
-  //      }
-  //    }
-  //    return result.build();
-  //  }
-  //
-  //  private ImmutableList<Object> immutify(final List<Object> list)
-  //  {
-  //    final ImmutableList.Builder<Object> result = ImmutableList.builder();
-  //    for (final Object value : list)
-  //    {
-  //      if (value instanceof Map)
-  //      {
-  //        result.add(immutify((Map<String, Object>)value));
-  //      }
-  //      else if (value instanceof List)
-  //      {
-  //        result.add(immutify((List)value));
-  //      }
-  //      else
-  //      {
-  //        result.add(value);
-  //      }
-  //    }
-  //    return result.build();
-  //  }
+    return changed ? resultB.build() : (ImmutableSet<Object>)set;
+  }
 
   /**
    * Carry out any operations required to manage the object prior to creation.  For example, this could add a timestamp or a version
@@ -405,6 +474,15 @@ public class WObject<T extends WObject> implements Comparable<T>
   @JsonIgnore
   public ImmutableMap<String, Object> getAllData(){ return ImmutableMap.copyOf(data); }
 
+  /**
+   * Obtain the stored data for this object, including the internal data.  Unlike {@link #getAllData} this does not copy the data,
+   * so is suitable for walking it without allocation.  The map is immutable.
+   *
+   * @return a sorted map of keyed data objects
+   */
+  @JsonIgnore
+  public SortedMap<String, Object> getRawData(){ return data; }
+
   @SuppressWarnings("unchecked")
   @JsonIgnore
   @Nullable
@@ -434,111 +512,50 @@ public class WObject<T extends WObject> implements Comparable<T>
 
   protected <U> Optional<U> getValue(final String key, final Object val, final TypeReference<U> typeRef)
   {
-    // Obtain the type we are after through reflection to find out if it is a collection.
-    final Type requiredType;
-    final Class<?> requiredClass;
-    final Type wrappedType;
-    final Class<?> wrappedClass;
-    if (typeRef.getType() instanceof ParameterizedType)
-    {
-      // This is a parameterized type, it might be wrapped in an Optional or TriVal in which case we need the inner class for
-      // determining if it is a collection
-      requiredType = typeRef.getType();
-      requiredClass = (Class)((ParameterizedType)requiredType).getRawType();
-      if (Objects.equal(requiredClass, Optional.class) || (Objects.equal(requiredClass, TriVal.class)))
-      {
-        wrappedType = ((ParameterizedType)requiredType).getActualTypeArguments()[0];
-        wrappedClass =
-            (Class)(wrappedType instanceof ParameterizedType ? ((ParameterizedType)wrappedType).getRawType() : wrappedType);
-      }
-      else
-      {
-        wrappedType = requiredType;
-        wrappedClass = requiredClass;
-      }
-    }
-    else
-    {
-      // This is a simple class
-      requiredType = typeRef.getType();
-      requiredClass = (Class)typeRef.getType();
-      wrappedType = requiredType;
-      wrappedClass = requiredClass;
-    }
-    final boolean isCollection = Collection.class.isAssignableFrom(wrappedClass);
     if (val == null)
     {
       return Optional.absent();
     }
 
-    if (requiredClass.isAssignableFrom(val.getClass()))
+    // Obtain the type we are after to find out if it is a collection.  This is resolved once per type and cached
+    final WObjectConverter.Target target = CONVERTER.target(typeRef.getType());
+    if (target.requiredClass.isAssignableFrom(val.getClass()))
     {
-      if (isCollection)
-      {
-        // Check that the element objects' class is correct as well
-        final Type elementType = ((ParameterizedType)wrappedType).getActualTypeArguments()[0];
-        final Class<?> elementClass =
-            (Class)(elementType instanceof ParameterizedType ? ((ParameterizedType)elementType).getRawType() : elementType);
-        // FIXME does not handle Optional<Collection<?>> or TriVal<Collection<?>> style
-        if (Objects.equal(requiredClass, wrappedClass) &&
-            (((Collection)val).isEmpty() || Objects.equal(((Collection)val).iterator().next().getClass(), elementClass)))
-        {
-          return Optional.of((U)val);
-        }
-        else
-        {
-          final String valStr = stringify(val, isCollection);
-          try
-          {
-            final U result = MAPPER.readValue(valStr, typeRef);
-            // It is possible that data has not been initialised yet.  This is because we can call this method from preCreate()
-            if (data != null)
-            {
-              data.put(key, result);
-            }
-            return Optional.of(result);
-          }
-          catch (final IOException ioe)
-          {
-            LOG.error("Failed to parse value: ", ioe);
-            return Optional.absent();
-          }
-        }
-      }
-      else
+      if (!target.isCollection)
       {
         return Optional.of((U)val);
       }
-    }
-    final String valStr = stringify(val, isCollection);
-    try
-    {
-      final U result = MAPPER.readValue(valStr, typeRef);
-      // It is possible that data has not been initialised yet.  This is because we can call this method from preCreate()
-      if (data != null)
+      // Check that the element objects' class is correct as well
+      // FIXME does not handle Optional<Collection<?>> or TriVal<Collection<?>> style
+      if (Objects.equal(target.requiredClass, target.wrappedClass) &&
+          (target.elementClass == null || ((Collection)val).isEmpty() ||
+           Objects.equal(((Collection)val).iterator().next().getClass(), target.elementClass)))
       {
-        data.put(key, result);
+        return Optional.of((U)val);
       }
-      return Optional.of(result);
-    }
-    catch (final IOException ioe)
-    {
-      LOG.error("Failed to parse value: ", ioe);
-      return Optional.absent();
     }
+    return convertValue(key, val, target);
   }
 
   @JsonIgnore
   public T setScratch(final Map<String, Object> scratch)
   {
-    scratchData.clear();
-    scratchData.putAll(scratch);
+    if (scratch.isEmpty() && scratchData == null)
+    {
+      return (T)this;
+    }
+    getScratch().clear();
+    getScratch().putAll(scratch);
     return (T)this;
   }
 
   @JsonIgnore
   public Map<String, Object> getScratch()
   {
+    if (scratchData == null)
+    {
+      scratchData = Maps.newHashMap();
+    }
     return scratchData;
   }
 
@@ -547,7 +564,7 @@ public class WObject<T extends WObject> implements Comparable<T>
   {
     checkState(key != null, "Cannot get scratch data with NULL key");
 
-    return Optional.fromNullable((U)scratchData.get(key));
+    return scratchData == null ? Optional.<U>absent() : Optional.fromNullable((U)scratchData.get(key));
   }
 
   @JsonIgnore
@@ -555,7 +572,7 @@ public class WObject<T extends WObject> implements Comparable<T>
   {
     checkState(key != null, "Cannot set scratch data with NULL key");
 
-    scratchData.put(key, obj);
+    getScratch().put(key, obj);
 
     return (T)this;
   }
@@ -585,59 +602,56 @@ public class WObject<T extends WObject> implements Comparable<T>
       return Optional.of((U)val);
     }
 
-    final String valStr = stringify(val, Collection.class.isAssignableFrom(klazz));
-    try
-    {
-      final U result = MAPPER.readValue(valStr, klazz);
-      // It is possible that data has not been initialised yet.  This is because we can call this method from preCreate()
-      if (data != null)
-      {
-        data.put(key, result);
-      }
-      return Optional.of(result);
-    }
-    catch (final IOException ioe)
-    {
-      LOG.error("Failed to parse value: ", ioe);
-      return Optional.absent();
-    }
+    return convertValue(key, val, CONVERTER.target(klazz));
   }
 
-  private String stringify(final Object val, final boolean isCollection)
+  /**
+   * Obtain a value of this object converted to the given type.  This is used by generated accessors when the value held is not
+   * already of the required type; see {@link WObjectKey}
+   *
+   * @param key the key of the value
+   * @param val the value as held by this object
+   * @param type the required type
+   *
+   * @return the converted value
+   */
+  public <U> Optional<U> convert(final String key, final Object val, final Type type)
   {
-    String valStr;
-    if (val instanceof String)
-    {
-      valStr = (String)val;
-    }
-    else
+    return convertValue(key, val, CONVERTER.target(type));
+  }
+
+  // Convert a value to the target type, using a previous conversion if available
+  @SuppressWarnings("unchecked")
+  private <U> Optional<U> convertValue(final String key, final Object val, final WObjectConverter.Target target)
+  {
+    // It is possible that data has not been initialised yet.  This is because we can call this method from preCreate()
+    final ConvertedValueCache cache = data == null ? null : convertedValues();
+    if (cache != null)
     {
-      try
-      {
-        valStr = MAPPER.writeValueAsString(val);
-      }
-      catch (final IOException ioe)
+      final Object converted = cache.get(key, target);
+      if (converted != null)
       {
-        LOG.error("Failed to encode value: ", ioe);
-        return null;
+        return Optional.of((U)converted);
       }
     }
-
-    // Check for a type which should be passed through without quoting.  Valid JSON would be a boolean or a number, and we add
-    // enums to the list
-    if (val instanceof Enum<?> ||
-        val instanceof Boolean ||
-        val instanceof Number)
+    final Optional<U> result = CONVERTER.tryConvert(val, target);
+    if (result.isPresent() && cache != null)
     {
-      return valStr;
+      cache.put(key, target, result.get());
     }
+    return result;
+  }
 
-    // TODO need to escape " in the string (but only if in the string - already done?)
-    if ((isCollection && !valStr.startsWith("[")) || (!isCollection && !valStr.startsWith("{") && !valStr.startsWith("\"")))
+  // Obtain the cache of converted values, creating it if required
+  private ConvertedValueCache convertedValues()
+  {
+    ConvertedValueCache cache = convertedValues;
+    if (cache == null)
     {
-      valStr = "\"" + valStr + "\"";
+      CONVERTED_VALUES_UPDATER.compareAndSet(this, null, new ConvertedValueCache(((CompactSortedMap)data).shape));
+      cache = convertedValues;
     }
-    return valStr;
+    return cache;
   }
 
   public boolean exists(final String key)
@@ -653,7 +667,14 @@ public class WObject<T extends WObject> implements Comparable<T>
   @JsonIgnore
   public boolean isEmpty()
   {
-    return externalData().isEmpty();
+    for (final String key : data.keySet())
+    {
+      if (!key.startsWith("_"))
+      {
+        return false;
+      }
+    }
+    return true;
   }
 
   @JsonIgnore
@@ -694,6 +715,63 @@ public class WObject<T extends WObject> implements Comparable<T>
 
   }
 
+  /**
+   * Serialize an object in a given encoding.  Binary encodings are intended for internal use, for example cache entries or event
+   * payloads, and should not be used for data that leaves our own systems
+   *
+   * @param obj the object to serialize
+   * @param codec the encoding
+   *
+   * @return the serialized object
+   */
+  @Nullable
+  public static byte[] serialize(@Nullable final WObject<?> obj, final Codec codec)
+  {
+    if (obj == null)
+    {
+      return null;
+    }
+    try
+    {
+      return mapper(codec).writeValueAsBytes(obj);
+    }
+    catch (JsonProcessingException e)
+    {
+      throw new ServerError("Failed to serialize object: ", e);
+    }
+  }
+
+  /**
+   * Deserialize an object from a given encoding
+   *
+   * @param val the serialized object
+   * @param klazz the class of the object
+   * @param codec the encoding
+   *
+   * @return the object, or {@code null} if the value could not be deserialized
+   */
+  @Nullable
+  public static <T> T deserialize(@Nullable final byte[] val, final Class<T> klazz, final Codec codec)
+  {
+    if (val == null)
+    {
+      return null;
+    }
+    try
+    {
+      return mapper(codec).readValue(val, klazz);
+    }
+    catch (IOException e)
+    {
+      return null;
+    }
+  }
+
+  private static ObjectMapper mapper(final Codec codec)
+  {
+    return codec == Codec.SMILE ? SMILE_MAPPER : MAPPER;
+  }
+
   /**
    * <em>N.B.</em>The string representation of the data does not show internal fields.  As such it should not be used as a way of
    * transmitting or storing the object
@@ -725,36 +803,55 @@ public class WObject<T extends WObject> implements Comparable<T>
     return that instanceof WObject && this.hashCode() == that.hashCode() && this.compareTo((T)that) == 0;
   }
 
+  // The external view of the data is built when first required and cached.  It is immutable so it is safe to publish through a
+  // volatile without locking; at worst two threads build equivalent views
+  @JsonIgnore
+  private volatile ImmutableSortedMap<String, Object> externalData;
+
+  @SuppressWarnings("unchecked")
   private ImmutableMap<String, Object> externalData()
   {
-    return strip(this.data);
+    ImmutableSortedMap<String, Object> result = externalData;
+    if (result == null)
+    {
+      result = (ImmutableSortedMap<String, Object>)external((Map)this.data);
+      externalData = result;
+    }
+    return result;
   }
 
+  // The external form of this object when embedded in another, built when first required and cached
   @JsonIgnore
-  private volatile int hashCode;
+  private volatile WObject<?> externalObject;
 
-  // Lazy evaluation of the hash code
-  @Override
-  public int hashCode()
+  private WObject<?> externalObject()
   {
-    int result = hashCode;
-    if (result == 0)
+    WObject<?> result = externalObject;
+    if (result == null)
     {
-      result = Objects.hashCode(toString());
-      hashCode = result;
+      result = new WObject(getData());
+      externalObject = result;
     }
-
     return result;
   }
 
+  // The hash code is structural and calculated on creation; embedded WObjects contribute their own hash codes so this is cheap
+  @JsonIgnore
+  private final int hashCode;
+
+  @Override
+  public int hashCode()
+  {
+    return hashCode;
+  }
+
   public int compareTo(@Nonnull T that)
   {
-    // We cannot compare the objects directly because a native object might contain, for example,
-    // a datetime whereas the deserialized object will contain a serialized String of that datetime.
-    // The safest way to compare is to turn them both in to simple strings and compare them, although
-    // this might not be cheap.  We use toString(), which caches the data so we only do it once
-    // We also want to remove any internal fields, as they don't count when carrying out comparisons
-    return ComparisonChain.start().compare(this.toString(), that.toString()).result();
+    // We cannot compare the objects' data directly because a native object might contain, for example, a datetime whereas the
+    // deserialized object will contain a serialized map of that datetime.  The equivalence engine walks the data of both objects
+    // and normalises values to their serialized form where required.  Internal fields are ignored, as they don't count when
+    // carrying out comparisons
+    return EQUIVALENCE.compare(this.data, that.data);
   }
 
   public static class Builder<T extends WObject<?>, P extends Builder<T, P>>
@@ -763,16 +860,15 @@ public class WObject<T extends WObject> implements Comparable<T>
 
     public Builder(@Nullable final T prior)
     {
-      data = Maps.newHashMap();
-      if (prior != null)
-      {
-        data.putAll(prior.data);
-      }
+      // The prior object's data is shared rather than copied; only the changes made by the builder are held separately
+      data = prior == null ?
+             new WObjectBuilderData() :
+             new WObjectBuilderData((CompactSortedMap)prior.data, ((WObject<?>)prior).hashCode);
     }
 
     public Builder()
     {
-      data = Maps.newHashMap();
+      data = new WObjectBuilderData();
     }
 
     public P id(final WID<? extends T> id)
@@ -802,7 +898,10 @@ public class WObject<T extends WObject> implements Comparable<T>
 
   /**
    * Recast a WObject.  This is useful when we have abstract classes or interfaces defined in a WObject and need to recast to a
-   * concrete class
+   * concrete class.
+   * <p/>
+   * The recast object is created afresh from the data of the original, so the target class carries out all of its creation
+   * steps.  If the target class does not alter its data on creation then {@link #recastShared(WObject, Class)} is cheaper
    *
    * @param obj the object to recast
    * @param klazz the class to which to recast
@@ -810,49 +909,130 @@ public class WObject<T extends WObject> implements Comparable<T>
    * @return the recasted object
    */
   @Nullable
-  public static <P extends WObject<?>> P recast(@Nullable WObject<?> obj, final Class<P> klazz)
+  public static <P extends WObject<?>> P recast(@Nullable final WObject<?> obj, final Class<P> klazz)
   {
     if (obj == null)
     {
       return null;
     }
+    if (klazz.isInstance(obj))
+    {
+      return klazz.cast(obj);
+    }
+    // When recasting an object we keep all data, including scratch data
+    return construct(obj, klazz, obj.getAllData());
+  }
 
-    // Try a simple recasting first
-    try
+  /**
+   * Recast a WObject, sharing its data.  The recast object uses the same immutable data as the original, so none of the target
+   * class's {@link #preCreate(Map)} or ordering work is carried out; only {@link #validate()} is run.  This is the preferred way to
+   * recast objects which are obtained from the datastore and recast repeatedly, for example authentication methods
+   *
+   * @param obj the object to recast
+   * @param klazz the class to which to recast
+   *
+   * @return the recasted object
+   */
+  @Nullable
+  public static <P extends WObject<?>> P recastShared(@Nullable final WObject<?> obj, final Class<P> klazz)
+  {
+    if (obj == null)
+    {
+      return null;
+    }
+    if (klazz.isInstance(obj))
     {
       return klazz.cast(obj);
     }
-    catch (final ClassCastException cce)
+    return construct(obj, klazz, new SharedData(obj));
+  }
+
+  // Create an object from the given data, keeping the scratch data of the object from which it derives
+  static <P extends WObject<?>> P construct(final WObject<?> obj, final Class<P> klazz, final Map<String, Object> data)
+  {
+    final P recastObj;
+    try
+    {
+      recastObj = klazz.cast((WObject<?>)constructor(klazz).invokeExact(data));
+    }
+    catch (final Error e)
+    {
+      throw e;
+    }
+    catch (final Throwable t)
+    {
+      LOG.error("Failed to invoke class: ", t);
+      throw new ServerError(t);
+    }
+    if (obj.scratchData != null)
+    {
+      recastObj.setScratch(obj.scratchData);
+    }
+    return recastObj;
+  }
+
+  // Constructors for recasting, resolved once per class
+  private static final ConcurrentMap<Class<?>, MethodHandle> CONSTRUCTORS = new ConcurrentHashMap<>();
+  private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(void.class, Map.class);
+  private static final MethodType CONSTRUCTOR_CALL_TYPE = MethodType.methodType(WObject.class, Map.class);
+
+  private static MethodHandle constructor(final Class<?> klazz)
+  {
+    MethodHandle handle = CONSTRUCTORS.get(klazz);
+    if (handle == null)
     {
-      // Object is not  a direct cast: recast by recreating the object
-      final P recastObj;
       try
       {
-        // When recasting an object we keep all data, including scratch data
-        recastObj = klazz.getConstructor(Map.class).newInstance(obj.getAllData());
-        recastObj.setScratch(obj.getScratch());
-        return recastObj;
-      }
-      catch (final InstantiationException e)
-      {
-        LOG.error("Failed to instantiate class: ", e);
-        throw new ServerError(e);
+        handle = MethodHandles.publicLookup().findConstructor(klazz, CONSTRUCTOR_TYPE).asType(CONSTRUCTOR_CALL_TYPE);
       }
       catch (final IllegalAccessException e)
       {
         LOG.error("Failed to access class: ", e);
         throw new ServerError(e);
       }
-      catch (final InvocationTargetException e)
-      {
-        LOG.error("Failed to invoke class: ", e);
-        throw new ServerError(e);
-      }
       catch (final NoSuchMethodException e)
       {
         LOG.error("Failed to find suitable method: ", e);
         throw new ServerError(e);
       }
+      final MethodHandle existing = CONSTRUCTORS.putIfAbsent(klazz, handle);
+      if (existing != null)
+      {
+        handle = existing;
+      }
+    }
+    return handle;
+  }
+
+  /**
+   * Marker for the data of an object which is being recast with shared data.  It presents the data of the original object, so
+   * subclass constructors which read the map they are given continue to work
+   */
+  private static final class SharedData extends AbstractMap<String, Object>
+  {
+    private final WObject<?> source;
+
+    private SharedData(final WObject<?> source)
+    {
+      this.source = source;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet()
+    {
+      return source.data.entrySet();
+    }
+
+    @Override
+    public Object get(final Object key)
+    {
+      return source.data.get(key);
+    }
+
+    @Override
+    public boolean containsKey(final Object key)
+    {
+      return source.data.containsKey(key);
     }
   }
 
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Maps;
+
+import java.util.*;
+
+/**
+ * The data held by a WObject builder.  Rather than copying the data of the prior object this holds the prior object's data, which
+ * is immutable, along with the changes made to it.  When the object is built the untouched values, and the shape if the keys have
+ * not changed, are shared with the prior object so only the changed values need to be processed.
+ * <p/>
+ * Null values are removals; they are not visible through the map, in the same way as null values are not visible to
+ * {@link WObject#preCreate(Map)}.
+ */
+final class WObjectBuilderData extends AbstractMap<String, Object>
+{
+  final CompactSortedMap base;
+  final int baseHash;
+  final Map<String, Object> changes = Maps.newHashMap();
+
+  WObjectBuilderData()
+  {
+    this(CompactSortedMap.EMPTY, 0);
+  }
+
+  /**
+   * @param base the data of the prior object
+   * @param baseHash the structural hash of the data of the prior object
+   */
+  WObjectBuilderData(final CompactSortedMap base, final int baseHash)
+  {
+    this.base = base;
+    this.baseHash = baseHash;
+  }
+
+  @Override
+  public Object get(final Object key)
+  {
+    if (changes.containsKey(key))
+    {
+      return changes.get(key);
+    }
+    return base.get(key);
+  }
+
+  @Override
+  public boolean containsKey(final Object key)
+  {
+    return get(key) != null;
+  }
+
+  @Override
+  public Object put(final String key, final Object value)
+  {
+    final Object previous = get(key);
+    changes.put(key, value);
+    return previous;
+  }
+
+  @Override
+  public Object remove(final Object key)
+  {
+    if (!(key instanceof String))
+    {
+      return null;
+    }
+    return put((String)key, null);
+  }
+
+  @Override
+  public void clear()
+  {
+    for (final String key : base.keySet())
+    {
+      changes.put(key, null);
+    }
+    for (final Map.Entry<String, Object> entry : changes.entrySet())
+    {
+      entry.setValue(null);
+    }
+  }
+
+  @Override
+  public Set<Map.Entry<String, Object>> entrySet()
+  {
+    return new AbstractSet<Map.Entry<String, Object>>()
+    {
+      @Override
+      public Iterator<Map.Entry<String, Object>> iterator()
+      {
+        final Iterator<Map.Entry<String, Object>> unchanged =
+            Iterators.filter(base.entrySet().iterator(), new Predicate<Map.Entry<String, Object>>()
+            {
+              @Override
+              public boolean apply(final Map.Entry<String, Object> input)
+              {
+                return !changes.containsKey(input.getKey());
+              }
+            });
+        final Iterator<Map.Entry<String, Object>> changed =
+            Iterators.filter(changes.entrySet().iterator(), new Predicate<Map.Entry<String, Object>>()
+            {
+              @Override
+              public boolean apply(final Map.Entry<String, Object> input)
+              {
+                return input.getKey() != null && input.getValue() != null;
+              }
+            });
+        return Iterators.unmodifiableIterator(Iterators.concat(unchanged, changed));
+      }
+
+      @Override
+      public int size()
+      {
+        return Iterators.size(iterator());
+      }
+    };
+  }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech;
+
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Conversion engine for the values held in a WObject.  Values are converted to the required type by streaming them through a
+ * token buffer rather than writing them out to a JSON string and parsing that string back in.  Information about each target
+ * type, including the reader used to create it, is resolved once and cached.
+ */
+public class WObjectConverter
+{
+  private static final Logger LOG = LoggerFactory.getLogger(WObjectConverter.class);
+
+  private final ObjectMapper mapper;
+
+  private final ConcurrentMap<Type, Target> targets = new ConcurrentHashMap<>();
+
+  public WObjectConverter(final ObjectMapper mapper)
+  {
+    this.mapper = mapper;
+  }
+
+  /**
+   * Obtain the cached information for a target type, resolving it if this is the first time that it has been seen
+   *
+   * @param type the target type
+   *
+   * @return information about the target type
+   */
+  public Target target(final Type type)
+  {
+    Target target = targets.get(type);
+    if (target == null)
+    {
+      target = new Target(mapper, type);
+      final Target existing = targets.putIfAbsent(type, target);
+      if (existing != null)
+      {
+        target = existing;
+      }
+    }
+    return target;
+  }
+
+  /**
+   * Forget all cached target information.  This must be called whenever the configuration of the underlying mapper changes, for
+   * example when a new module is registered
+   */
+  public void reset()
+  {
+    targets.clear();
+  }
+
+  /**
+   * Convert a value to the given target type
+   *
+   * @param val the value to convert
+   * @param target the target type
+   *
+   * @return the converted value
+   *
+   * @throws IOException if the value cannot be converted to the target type
+   */
+  @SuppressWarnings("unchecked")
+  public <U> U convert(final Object val, final Target target) throws IOException
+  {
+    if (val instanceof String)
+    {
+      final String str = (String)val;
+      if (target.isCollection ? str.startsWith("[") : (str.startsWith("{") || str.startsWith("\"")))
+      {
+        // The value is JSON text so it needs to be parsed
+        return (U)target.reader.readValue(str);
+      }
+      final TokenBuffer buffer = new TokenBuffer(mapper, false);
+      buffer.writeString(str);
+      return (U)target.reader.readValue(buffer.asParser());
+    }
+
+    final TokenBuffer buffer = new TokenBuffer(mapper, false);
+    mapper.writeValue(buffer, val);
+    if (!(val instanceof Enum<?> || val instanceof Boolean || val instanceof Number))
+    {
+      final JsonToken first = buffer.firstToken();
+      if (target.isCollection ? first != JsonToken.START_ARRAY : (first != JsonToken.START_OBJECT && first != JsonToken.VALUE_STRING))
+      {
+        // The value does not serialize to the shape of the target, in which case it is quoted and treated as a string.  This is
+        // rare enough that we just take the slow path
+        return (U)target.reader.readValue(stringify(val, target.isCollection));
+      }
+    }
+    return (U)target.reader.readValue(buffer.asParser());
+  }
+
+  /**
+   * Convert a value to the given target type, logging and returning an absent value on failure
+   *
+   * @param val the value to convert
+   * @param target the target type
+   *
+   * @return the converted value
+   */
+  public <U> Optional<U> tryConvert(@Nullable final Object val, final Target target)
+  {
+    if (val == null)
+    {
+      return Optional.absent();
+    }
+    try
+    {
+      return Optional.of(this.<U>convert(val, target));
+    }
+    catch (final IOException ioe)
+    {
+      LOG.error("Failed to parse value: ", ioe);
+      return Optional.absent();
+    }
+  }
+
+  private String stringify(final Object val, final boolean isCollection) throws IOException
+  {
+    String valStr = mapper.writeValueAsString(val);
+    if ((isCollection && !valStr.startsWith("[")) || (!isCollection && !valStr.startsWith("{") && !valStr.startsWith("\"")))
+    {
+      valStr = "\"" + valStr + "\"";
+    }
+    return valStr;
+  }
+
+  /**
+   * Information about a type to which WObject values can be converted
+   */
+  public static class Target
+  {
+    /** The full type */
+    public final Type type;
+
+    /** The raw class of the type */
+    public final Class<?> requiredClass;
+
+    /** The type inside an {@link Optional} or {@link TriVal} wrapper, or the full type if not wrapped */
+    public final Type wrappedType;
+
+    /** The raw class of the wrapped type */
+    public final Class<?> wrappedClass;
+
+    /** {@code true} if the wrapped class is a collection */
+    public final boolean isCollection;
+
+    /** The raw class of the collection elements if the wrapped class is a parameterized collection; otherwise {@code null} */
+    @Nullable
+    public final Class<?> elementClass;
+
+    private final ObjectReader reader;
+
+    Target(final ObjectMapper mapper, final Type type)
+    {
+      this.type = type;
+      this.requiredClass = rawClass(type);
+      if (type instanceof ParameterizedType &&
+          (Objects.equal(requiredClass, Optional.class) || Objects.equal(requiredClass, TriVal.class)))
+      {
+        // Wrapped in an Optional or TriVal, in which case we need the inner class for determining if it is a collection
+        this.wrappedType = ((ParameterizedType)type).getActualTypeArguments()[0];
+      }
+      else
+      {
+        this.wrappedType = type;
+      }
+      this.wrappedClass = rawClass(wrappedType);
+      this.isCollection = Collection.class.isAssignableFrom(wrappedClass);
+      if (isCollection && wrappedType instanceof ParameterizedType)
+      {
+        this.elementClass = rawClass(((ParameterizedType)wrappedType).getActualTypeArguments()[0]);
+      }
+      else
+      {
+        this.elementClass = null;
+      }
+      final JavaType javaType = mapper.getTypeFactory().constructType(type);
+      this.reader = mapper.reader(javaType);
+    }
+
+    private static Class<?> rawClass(final Type type)
+    {
+      if (type instanceof ParameterizedType)
+      {
+        return (Class<?>)((ParameterizedType)type).getRawType();
+      }
+      if (type instanceof Class)
+      {
+        return (Class<?>)type;
+      }
+      // Wildcards, type variables and the like can be anything
+      return Object.class;
+    }
+  }
+}
@@ -0,0 +1,466 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.google.common.base.Objects;
+import com.google.common.collect.Ordering;
+import com.google.common.primitives.Booleans;
+import com.google.common.primitives.Longs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * Structural hashing and comparison of WObject data.  Two pieces of data are equivalent if they would serialize to the same JSON,
+ * so for example a DateTime is equivalent to the map it serializes to.  Rather than serialize the data to compare it this walks
+ * the data directly: maps, collections, strings, numbers, booleans and WObjects are handled natively, and any other value is
+ * streamed through a token buffer to obtain its serialized form.  Keys starting with an underscore are internal and ignored, as
+ * are keys in maps nested within the data.
+ */
+public class WObjectEquivalence
+{
+  private static final Logger LOG = LoggerFactory.getLogger(WObjectEquivalence.class);
+
+  // Ranks of the different kinds of canonical value, used to order values of different kinds
+  private static final int NULL = 0;
+  private static final int BOOLEAN = 1;
+  private static final int INTEGER = 2;
+  private static final int DECIMAL = 3;
+  private static final int STRING = 4;
+  private static final int ARRAY = 5;
+  private static final int OBJECT = 6;
+
+  private final ObjectMapper mapper;
+
+  public WObjectEquivalence(final ObjectMapper mapper)
+  {
+    this.mapper = mapper;
+  }
+
+  /**
+   * Calculate the structural hash of the external data in a map.  Nested WObjects contribute their own hash, which is calculated
+   * when they are created, so this does not need to descend in to them.
+   *
+   * @param data the data
+   *
+   * @return the hash of the data
+   */
+  public int hash(final Map<?, ?> data)
+  {
+    return hashObject(data);
+  }
+
+  /**
+   * Compare the external data in two maps.
+   *
+   * @param data1 the first set of data
+   * @param data2 the second set of data
+   *
+   * @return a negative number, zero or a positive number as the first set of data is less than, equivalent to or greater than the
+   * second set of data
+   */
+  public int compare(final Map<?, ?> data1, final Map<?, ?> data2)
+  {
+    return compareObjects(data1, data2);
+  }
+
+  /**
+   * Calculate the contribution of a single entry to the structural hash of the map which holds it.  The hash of a map is the sum of
+   * the contributions of its entries, so this allows a hash to be updated when only some of the entries change.
+   *
+   * @param key the key of the entry
+   * @param value the value of the entry
+   *
+   * @return the contribution of the entry to the hash
+   */
+  int hashEntry(final String key, @Nullable final Object value)
+  {
+    return isInternal(key) ? 0 : key.hashCode() ^ hash(value);
+  }
+
+  private int hash(@Nullable final Object value)
+  {
+    final Object canonical = canonical(value);
+    switch (rank(canonical))
+    {
+      case NULL:
+        return 0;
+      case BOOLEAN:
+        return Booleans.hashCode((Boolean)canonical);
+      case INTEGER:
+        return canonical instanceof Long ? Longs.hashCode((Long)canonical) : canonical.hashCode();
+      case DECIMAL:
+        return 31 * canonical.hashCode();
+      case STRING:
+        return canonical.hashCode();
+      case ARRAY:
+        int result = 1;
+        for (final Object element : (Collection<?>)canonical)
+        {
+          result = 31 * result + hash(element);
+        }
+        return result;
+      default:
+        return canonical instanceof WObject ? canonical.hashCode() : hashObject((Map<?, ?>)canonical);
+    }
+  }
+
+  // Maps are unordered so their hash must not depend on the order of their entries
+  private int hashObject(final Map<?, ?> map)
+  {
+    final boolean strip = !(map instanceof CanonicalObject);
+    int result = 0;
+    for (final Map.Entry<?, ?> entry : map.entrySet())
+    {
+      if (!(strip && isInternal(entry.getKey())))
+      {
+        result += String.valueOf(entry.getKey()).hashCode() ^ hash(entry.getValue());
+      }
+    }
+    return result;
+  }
+
+  @SuppressWarnings("unchecked")
+  private int compare(@Nullable final Object value1, @Nullable final Object value2)
+  {
+    if (value1 == value2)
+    {
+      return 0;
+    }
+    final Object canonical1 = canonical(value1);
+    final Object canonical2 = canonical(value2);
+    final int rank1 = rank(canonical1);
+    final int rank2 = rank(canonical2);
+    if (rank1 != rank2)
+    {
+      return rank1 < rank2 ? -1 : 1;
+    }
+    switch (rank1)
+    {
+      case NULL:
+        return 0;
+      case BOOLEAN:
+        return Booleans.compare((Boolean)canonical1, (Boolean)canonical2);
+      case INTEGER:
+        if (canonical1 instanceof Long && canonical2 instanceof Long)
+        {
+          return Longs.compare((Long)canonical1, (Long)canonical2);
+        }
+        return toBigInteger(canonical1).compareTo(toBigInteger(canonical2));
+      case DECIMAL:
+      case STRING:
+        return ((Comparable<Object>)canonical1).compareTo(canonical2);
+      case ARRAY:
+        final Iterator<?> iterator1 = ((Collection<?>)canonical1).iterator();
+        final Iterator<?> iterator2 = ((Collection<?>)canonical2).iterator();
+        while (iterator1.hasNext() && iterator2.hasNext())
+        {
+          final int result = compare(iterator1.next(), iterator2.next());
+          if (result != 0)
+          {
+            return result;
+          }
+        }
+        return Booleans.compare(iterator1.hasNext(), iterator2.hasNext());
+      default:
+        return compareObjects(objectData(canonical1), objectData(canonical2));
+    }
+  }
+
+  private int compareObjects(final Map<?, ?> map1, final Map<?, ?> map2)
+  {
+    final Iterator<? extends Map.Entry<String, ?>> iterator1 = sortedEntries(map1);
+    final Iterator<? extends Map.Entry<String, ?>> iterator2 = sortedEntries(map2);
+    while (iterator1.hasNext() && iterator2.hasNext())
+    {
+      final Map.Entry<String, ?> entry1 = iterator1.next();
+      final Map.Entry<String, ?> entry2 = iterator2.next();
+      int result = entry1.getKey().compareTo(entry2.getKey());
+      if (result == 0)
+      {
+        result = compare(entry1.getValue(), entry2.getValue());
+      }
+      if (result != 0)
+      {
+        return result;
+      }
+    }
+    return Booleans.compare(iterator1.hasNext(), iterator2.hasNext());
+  }
+
+  // Obtain the entries of a map in key order with internal keys removed
+  @SuppressWarnings("unchecked")
+  private Iterator<? extends Map.Entry<String, ?>> sortedEntries(final Map<?, ?> map)
+  {
+    if (map instanceof CanonicalObject)
+    {
+      return ((CanonicalObject)map).entrySet().iterator();
+    }
+    if (map instanceof SortedMap && isNaturalOrder(((SortedMap<?, ?>)map).comparator()) &&
+        (map.isEmpty() || ((SortedMap<?, ?>)map).firstKey() instanceof String))
+    {
+      // Already in the correct order; just need to skip internal keys
+      final Iterator<? extends Map.Entry<String, ?>> iterator = ((Map<String, ?>)map).entrySet().iterator();
+      return new Iterator<Map.Entry<String, ?>>()
+      {
+        private Map.Entry<String, ?> next = advance();
+
+        private Map.Entry<String, ?> advance()
+        {
+          while (iterator.hasNext())
+          {
+            final Map.Entry<String, ?> entry = iterator.next();
+            if (!isInternal(entry.getKey()))
+            {
+              return entry;
+            }
+          }
+          return null;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+          return next != null;
+        }
+
+        @Override
+        public Map.Entry<String, ?> next()
+        {
+          if (next == null)
+          {
+            throw new NoSuchElementException();
+          }
+          final Map.Entry<String, ?> result = next;
+          next = advance();
+          return result;
+        }
+
+        @Override
+        public void remove()
+        {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+    final TreeMap<String, Object> sorted = new TreeMap<>();
+    for (final Map.Entry<?, ?> entry : map.entrySet())
+    {
+      if (!isInternal(entry.getKey()))
+      {
+        sorted.put(String.valueOf(entry.getKey()), entry.getValue());
+      }
+    }
+    return sorted.entrySet().iterator();
+  }
+
+  private static boolean isNaturalOrder(@Nullable final Comparator<?> comparator)
+  {
+    return comparator == null || Objects.equal(comparator, Ordering.natural());
+  }
+
+  // Keys which are strings starting with an underscore are internal; anything else is external
+  private static boolean isInternal(final Object key)
+  {
+    return key instanceof String && ((String)key).startsWith("_");
+  }
+
+  private static Map<?, ?> objectData(final Object canonical)
+  {
+    return canonical instanceof WObject ? ((WObject<?>)canonical).data : (Map<?, ?>)canonical;
+  }
+
+  private static BigInteger toBigInteger(final Object integer)
+  {
+    return integer instanceof BigInteger ? (BigInteger)integer : BigInteger.valueOf((Long)integer);
+  }
+
+  private static int rank(@Nullable final Object canonical)
+  {
+    if (canonical == null)
+    {
+      return NULL;
+    }
+    if (canonical instanceof String)
+    {
+      return STRING;
+    }
+    if (canonical instanceof Map || canonical instanceof WObject)
+    {
+      return OBJECT;
+    }
+    if (canonical instanceof Collection)
+    {
+      return ARRAY;
+    }
+    if (canonical instanceof Boolean)
+    {
+      return BOOLEAN;
+    }
+    if (canonical instanceof Decimal)
+    {
+      return DECIMAL;
+    }
+    return INTEGER;
+  }
+
+  /**
+   * Turn a value in to its canonical form.  Structures and strings are returned as-is, numbers are normalised so that those which
+   * serialize the same are the same, and anything else is replaced by its serialized form
+   */
+  @Nullable
+  private Object canonical(@Nullable final Object value)
+  {
+    if (value == null ||
+        value instanceof String ||
+        value instanceof Boolean ||
+        value instanceof Map ||
+        value instanceof Collection ||
+        value instanceof WObject ||
+        value instanceof Decimal)
+    {
+      return value;
+    }
+    if (value instanceof Long)
+    {
+      return value;
+    }
+    if (value instanceof Integer || value instanceof Short || value instanceof Byte)
+    {
+      return ((Number)value).longValue();
+    }
+    if (value instanceof BigInteger)
+    {
+      return ((BigInteger)value).bitLength() < 64 ? (Object)((BigInteger)value).longValue() : value;
+    }
+    if (value instanceof Double || value instanceof Float || value instanceof BigDecimal)
+    {
+      return new Decimal((Number)value);
+    }
+    return tokenise(value);
+  }
+
+  // Obtain the canonical form of a value by streaming its serialized form through a token buffer
+  @Nullable
+  private Object tokenise(final Object value)
+  {
+    try
+    {
+      final TokenBuffer buffer = new TokenBuffer(mapper, false);
+      mapper.writeValue(buffer, value);
+      final JsonParser parser = buffer.asParser();
+      parser.nextToken();
+      return read(parser);
+    }
+    catch (final IOException ioe)
+    {
+      LOG.error("Failed to obtain canonical form of value: ", ioe);
+      return String.valueOf(value);
+    }
+  }
+
+  @Nullable
+  private Object read(final JsonParser parser) throws IOException
+  {
+    switch (parser.getCurrentToken())
+    {
+      case START_OBJECT:
+        final CanonicalObject object = new CanonicalObject();
+        while (parser.nextToken() == JsonToken.FIELD_NAME)
+        {
+          final String name = parser.getCurrentName();
+          parser.nextToken();
+          object.put(name, read(parser));
+        }
+        return object;
+      case START_ARRAY:
+        final List<Object> array = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY)
+        {
+          array.add(read(parser));
+        }
+        return array;
+      case VALUE_STRING:
+        return parser.getText();
+      case VALUE_NUMBER_INT:
+      case VALUE_NUMBER_FLOAT:
+        return canonical(parser.getNumberValue());
+      case VALUE_TRUE:
+        return Boolean.TRUE;
+      case VALUE_FALSE:
+        return Boolean.FALSE;
+      case VALUE_EMBEDDED_OBJECT:
+        final Object embedded = parser.getEmbeddedObject();
+        return embedded == null ? null : String.valueOf(embedded);
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * A map obtained from the serialized form of a value.  Unlike maps in WObject data this is already in canonical form, so has
+   * nothing stripped from it
+   */
+  private static final class CanonicalObject extends TreeMap<String, Object>
+  {
+    private static final long serialVersionUID = 0;
+  }
+
+  /**
+   * A non-integral number.  These are equivalent if their serialized forms are the same, so that is what we keep.  Ordering is by
+   * the number which that form represents, rather than by the binary value which it came from, so that it agrees with equality
+   */
+  private static final class Decimal implements Comparable<Decimal>
+  {
+    private final String text;
+    // Null for NaN and infinities, which are ordered by their binary value instead
+    @Nullable
+    private final BigDecimal decimal;
+    private final double value;
+
+    private Decimal(final Number number)
+    {
+      this.text = number.toString();
+      this.value = number.doubleValue();
+      this.decimal = Double.isNaN(value) || Double.isInfinite(value) ? null : new BigDecimal(text);
+    }
+
+    @Override
+    public int compareTo(final Decimal that)
+    {
+      final int result = this.decimal != null && that.decimal != null ?
+                         this.decimal.compareTo(that.decimal) :
+                         Double.compare(this.value, that.value);
+      return result != 0 ? result : this.text.compareTo(that.text);
+    }
+
+    @Override
+    public boolean equals(final Object that)
+    {
+      return that instanceof Decimal && this.text.equals(((Decimal)that).text);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return text.hashCode();
+    }
+  }
+}
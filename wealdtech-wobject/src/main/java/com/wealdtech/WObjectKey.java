@@ -0,0 +1,45 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.RetentionPolicy.SOURCE;
+
+/**
+ * Mark a key constant of a WObject subclass for which a typed accessor should be generated.
+ * <p/>
+ * The WObject processor generates a class named after the subclass with the suffix {@code Accessors}, in the same package.  For
+ * each key it holds a static method with the same name as the key's getter, which takes the object and returns the value of the
+ * key as an {@link com.google.common.base.Optional} of the getter's type (or of the type inside the getter's {@code Optional}).
+ * The getter is found from the name of the constant, so {@code PARTICIPANT_IDS} has the getter {@code getParticipantIds()}, unless
+ * it is named explicitly.  For example:
+ * <pre>
+ *   &#64;WObjectKey
+ *   private static final String PARTICIPANT_IDS = "participantids";
+ *
+ *   public ImmutableSet&lt;WID&lt;User&gt;&gt; getParticipantIds()
+ *   {
+ *     return TopicAccessors.getParticipantIds(this).get();
+ *   }
+ * </pre>
+ */
+@Target(FIELD)
+@Retention(SOURCE)
+public @interface WObjectKey
+{
+  /**
+   * The name of the getter for the key, if it does not follow from the name of the constant
+   */
+  String getter() default "";
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
+
+import javax.annotation.Nullable;
+import java.util.*;
+
+import static com.wealdtech.Preconditions.checkState;
+
+/**
+ * The structural differences between two WObjects, as a list of operations in the style of JSON patch.
+ * <p/>
+ * Objects, whether nested maps or nested WObjects, are compared key by key so that a change deep within an object results in a
+ * single operation on that path.  Any other value, including lists, is compared as a whole and replaced if it has changed.  Values
+ * are compared by equality of their raw data, so a value which has been altered to something with the same serialized form, for
+ * example a date which was read as a string and set as a datetime, shows up as a replacement.
+ */
+public final class WObjectPatch
+{
+  private static final Joiner PATH_JOINER = Joiner.on('/');
+
+  public enum Op
+  {
+    ADD,
+    REPLACE,
+    REMOVE
+  }
+
+  /**
+   * A single change to a value
+   */
+  public static final class Operation
+  {
+    private final Op op;
+    private final ImmutableList<String> path;
+    private final Object value;
+
+    private Operation(final Op op, final ImmutableList<String> path, @Nullable final Object value)
+    {
+      this.op = op;
+      this.path = path;
+      this.value = value;
+    }
+
+    public Op getOp(){ return op; }
+
+    /**
+     * @return the keys leading to the value, starting with a top-level key
+     */
+    public ImmutableList<String> getPath(){ return path; }
+
+    /**
+     * @return the new value; this is {@code null} for removals
+     */
+    @Nullable
+    public Object getValue(){ return value; }
+
+    @Override
+    public String toString()
+    {
+      return MoreObjects.toStringHelper(this)
+                    .omitNullValues()
+                    .add("op", op)
+                    .add("path", "/" + PATH_JOINER.join(path))
+                    .add("value", value)
+                    .toString();
+    }
+  }
+
+  private static final WObjectPatch EMPTY = new WObjectPatch(ImmutableList.<Operation>of());
+
+  private final ImmutableList<Operation> operations;
+
+  private WObjectPatch(final ImmutableList<Operation> operations)
+  {
+    this.operations = operations;
+  }
+
+  /**
+   * Find the differences between two objects
+   *
+   * @param from the original object
+   * @param to the updated object
+   *
+   * @return a patch which changes the data of {@code from} to that of {@code to}
+   */
+  public static WObjectPatch diff(final WObject<?> from, final WObject<?> to)
+  {
+    checkState(from != null, "Missing original object for diff");
+    checkState(to != null, "Missing updated object for diff");
+
+    if (from.getRawData() == to.getRawData())
+    {
+      return EMPTY;
+    }
+    final ImmutableList.Builder<Operation> operationsB = ImmutableList.builder();
+    diff(operationsB, ImmutableList.<String>of(), from.getRawData(), to.getRawData());
+    final ImmutableList<Operation> operations = operationsB.build();
+    return operations.isEmpty() ? EMPTY : new WObjectPatch(operations);
+  }
+
+  private static void diff(final ImmutableList.Builder<Operation> operationsB,
+                           final ImmutableList<String> path,
+                           final Map<?, ?> from,
+                           final Map<?, ?> to)
+  {
+    for (final Map.Entry<?, ?> entry : from.entrySet())
+    {
+      if (!to.containsKey(entry.getKey()))
+      {
+        operationsB.add(new Operation(Op.REMOVE, append(path, entry.getKey()), null));
+      }
+    }
+    for (final Map.Entry<?, ?> entry : to.entrySet())
+    {
+      final Object fromValue = from.get(entry.getKey());
+      final Object toValue = entry.getValue();
+      if (fromValue == null)
+      {
+        operationsB.add(new Operation(Op.ADD, append(path, entry.getKey()), toValue));
+      }
+      else if (!rawEquals(fromValue, toValue))
+      {
+        final Map<?, ?> fromMap = asMap(fromValue);
+        final Map<?, ?> toMap = asMap(toValue);
+        if (fromMap != null && toMap != null)
+        {
+          diff(operationsB, append(path, entry.getKey()), fromMap, toMap);
+        }
+        else
+        {
+          operationsB.add(new Operation(Op.REPLACE, append(path, entry.getKey()), toValue));
+        }
+      }
+    }
+  }
+
+  // Compare values by their raw data.  WObject equality ignores internal keys, which are still stored, so nested WObjects are
+  // compared through their data rather than through equals(), as are the maps and collections which might contain them
+  private static boolean rawEquals(@Nullable final Object from, @Nullable final Object to)
+  {
+    if (from == to)
+    {
+      return true;
+    }
+    if (from == null || to == null)
+    {
+      return false;
+    }
+    final Map<?, ?> fromMap = asMap(from);
+    final Map<?, ?> toMap = asMap(to);
+    if (fromMap != null || toMap != null)
+    {
+      if (fromMap == null || toMap == null || fromMap.size() != toMap.size())
+      {
+        return false;
+      }
+      for (final Map.Entry<?, ?> entry : fromMap.entrySet())
+      {
+        if (!toMap.containsKey(entry.getKey()) || !rawEquals(entry.getValue(), toMap.get(entry.getKey())))
+        {
+          return false;
+        }
+      }
+      return true;
+    }
+    if (from instanceof List && to instanceof List)
+    {
+      final List<?> fromList = (List<?>)from;
+      final List<?> toList = (List<?>)to;
+      if (fromList.size() != toList.size())
+      {
+        return false;
+      }
+      for (int i = 0; i < fromList.size(); i++)
+      {
+        if (!rawEquals(fromList.get(i), toList.get(i)))
+        {
+          return false;
+        }
+      }
+      return true;
+    }
+    if (from instanceof Collection && to instanceof Collection)
+    {
+      // Unordered collections match if every element has a counterpart
+      final Collection<?> fromCollection = (Collection<?>)from;
+      final Collection<?> toCollection = (Collection<?>)to;
+      if (fromCollection.size() != toCollection.size())
+      {
+        return false;
+      }
+      for (final Object fromElement : fromCollection)
+      {
+        boolean found = false;
+        for (final Object toElement : toCollection)
+        {
+          if (rawEquals(fromElement, toElement))
+          {
+            found = true;
+            break;
+          }
+        }
+        if (!found)
+        {
+          return false;
+        }
+      }
+      return true;
+    }
+    return Objects.equal(from, to);
+  }
+
+  // The value as a map, if it is one
+  @Nullable
+  private static Map<?, ?> asMap(final Object value)
+  {
+    if (value instanceof WObject)
+    {
+      return ((WObject<?>)value).getRawData();
+    }
+    if (value instanceof Map)
+    {
+      return (Map<?, ?>)value;
+    }
+    return null;
+  }
+
+  private static ImmutableList<String> append(final ImmutableList<String> path, final Object key)
+  {
+    return ImmutableList.<String>builder().addAll(path).add(String.valueOf(key)).build();
+  }
+
+  /**
+   * @return the operations which make up this patch
+   */
+  public ImmutableList<Operation> getOperations(){ return operations; }
+
+  /**
+   * @return {@code true} if there are no differences
+   */
+  public boolean isEmpty(){ return operations.isEmpty(); }
+
+  /**
+   * Apply this patch to an object
+   *
+   * @param obj the object to patch
+   *
+   * @return a new object of the same class with the patch applied
+   */
+  @SuppressWarnings("unchecked")
+  public <T extends WObject<?>> T apply(final T obj)
+  {
+    if (isEmpty())
+    {
+      return obj;
+    }
+    return WObject.construct(obj, (Class<T>)obj.getClass(), apply(obj.getRawData()));
+  }
+
+  /**
+   * Apply this patch to data
+   *
+   * @param data the data to patch
+   *
+   * @return the patched data
+   */
+  public ImmutableSortedMap<String, Object> apply(final Map<String, Object> data)
+  {
+    final TreeMap<String, Object> result = Maps.newTreeMap();
+    result.putAll(data);
+    for (final Operation operation : operations)
+    {
+      apply(result, operation, 0);
+    }
+    return ImmutableSortedMap.copyOfSorted(result);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void apply(final Map<String, Object> data, final Operation operation, final int depth)
+  {
+    final String key = operation.path.get(depth);
+    if (depth == operation.path.size() - 1)
+    {
+      if (operation.op == Op.REMOVE)
+      {
+        data.remove(key);
+      }
+      else
+      {
+        data.put(key, operation.value);
+      }
+      return;
+    }
+
+    final Map<?, ?> child = asMap(data.get(key));
+    if (child == null)
+    {
+      throw new DataError.Bad("Cannot apply patch: no object at /" + PATH_JOINER.join(operation.path.subList(0, depth + 1)));
+    }
+    final TreeMap<String, Object> patchedChild = new TreeMap<>((Map<String, Object>)child);
+    apply(patchedChild, operation, depth + 1);
+    data.put(key, ImmutableSortedMap.copyOfSorted(patchedChild));
+  }
+
+  @Override
+  public String toString()
+  {
+    return MoreObjects.toStringHelper(this).add("operations", operations).toString();
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The set of keys held by a WObject.  Objects of the same class generally hold the same keys, so shapes are interned per class and
+ * each object only needs to hold a flat array of values alongside its shape.  Keys are held in natural order so that the position
+ * of a value can be found by binary search.
+ */
+final class WObjectShape
+{
+  // The number of distinct shapes that will be interned for a single class.  Classes used as free-form maps can have an unbounded
+  // number of shapes, in which case later shapes are not shared
+  private static final int MAX_SHAPES_PER_CLASS = 256;
+
+  private static final ConcurrentMap<Class<?>, ConcurrentMap<List<String>, WObjectShape>> SHAPES = new ConcurrentHashMap<>();
+
+  private static final WObjectShape EMPTY = new WObjectShape(new String[0]);
+
+  final String[] keys;
+
+  private WObjectShape(final String[] keys)
+  {
+    this.keys = keys;
+  }
+
+  /**
+   * Obtain the shape for a set of keys
+   *
+   * @param klazz the class of the object which holds the keys
+   * @param keys the keys, which must be in natural order
+   *
+   * @return the shape
+   */
+  static WObjectShape of(final Class<?> klazz, final String[] keys)
+  {
+    if (keys.length == 0)
+    {
+      return EMPTY;
+    }
+
+    ConcurrentMap<List<String>, WObjectShape> shapes = SHAPES.get(klazz);
+    if (shapes == null)
+    {
+      shapes = new ConcurrentHashMap<>();
+      final ConcurrentMap<List<String>, WObjectShape> existing = SHAPES.putIfAbsent(klazz, shapes);
+      if (existing != null)
+      {
+        shapes = existing;
+      }
+    }
+
+    final List<String> keyList = Arrays.asList(keys);
+    WObjectShape shape = shapes.get(keyList);
+    if (shape == null)
+    {
+      shape = new WObjectShape(keys);
+      if (shapes.size() < MAX_SHAPES_PER_CLASS)
+      {
+        final WObjectShape existing = shapes.putIfAbsent(keyList, shape);
+        if (existing != null)
+        {
+          shape = existing;
+        }
+      }
+    }
+    return shape;
+  }
+
+  /**
+   * Find the position of a key
+   *
+   * @param key the key
+   *
+   * @return the position of the key, or a negative number if the key is not present
+   */
+  int indexOf(final Object key)
+  {
+    if (!(key instanceof String))
+    {
+      return -1;
+    }
+    return Arrays.binarySearch(keys, key);
+  }
+
+  int size()
+  {
+    return keys.length;
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2012 - 2015 Weald Technology Trading Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.wealdtech.jackson.modules;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.*;
+import com.fasterxml.jackson.databind.deser.BasicDeserializerFactory;
+import com.fasterxml.jackson.databind.deser.ContextualDeserializer;
+import com.fasterxml.jackson.databind.deser.ValueInstantiator;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.jsontype.TypeDeserializer;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
+import com.wealdtech.WObject;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.TreeMap;
+
+/**
+ * Specialised deserializer for WObject.
+ * Builds the object's data in a single pass over the token stream.  Top-level values are gathered in to a sorted map, with null
+ * values dropped; nested objects and arrays are built directly in the immutable, ordered form in which WObject holds them so that
+ * they do not need to be copied again when the object is created.  The object itself is created through its delegating creator.
+ */
+public class WObjectDeserializer extends StdDeserializer<WObject<?>> implements ContextualDeserializer
+{
+  private final ValueInstantiator instantiator;
+
+  public WObjectDeserializer()
+  {
+    super(WObject.class);
+    this.instantiator = null;
+  }
+
+  private WObjectDeserializer(final JavaType type, final ValueInstantiator instantiator)
+  {
+    super(type);
+    this.instantiator = instantiator;
+  }
+
+  @Override
+  public JsonDeserializer<?> createContextual(final DeserializationContext ctxt, @Nullable final BeanProperty property)
+      throws JsonMappingException
+  {
+    JavaType type = ctxt.getContextualType();
+    if (type == null && property != null)
+    {
+      type = property.getType();
+    }
+    if (type == null || !WObject.class.isAssignableFrom(type.getRawClass()))
+    {
+      type = ctxt.constructType(WObject.class);
+    }
+    if (instantiator != null && type.getRawClass() == handledType())
+    {
+      return this;
+    }
+
+    if (!(ctxt.getFactory() instanceof BasicDeserializerFactory))
+    {
+      throw ctxt.mappingException("Cannot find creator for " + type + " with deserializer factory " + ctxt.getFactory());
+    }
+    final BeanDescription beanDesc = ctxt.getConfig().introspect(type);
+    final ValueInstantiator instantiator =
+        ((BasicDeserializerFactory)ctxt.getFactory()).findValueInstantiator(ctxt, beanDesc);
+    if (!instantiator.canCreateUsingDelegate())
+    {
+      throw ctxt.mappingException(type.getRawClass().getName() + " does not have a delegating creator");
+    }
+    return new WObjectDeserializer(type, instantiator);
+  }
+
+  @Override
+  public WObject<?> deserialize(final JsonParser jp, final DeserializationContext ctxt) throws IOException
+  {
+    JsonToken token = jp.getCurrentToken();
+    if (token == JsonToken.START_OBJECT)
+    {
+      token = jp.nextToken();
+    }
+    else if (token != JsonToken.FIELD_NAME && token != JsonToken.END_OBJECT)
+    {
+      throw ctxt.mappingException(handledType(), token);
+    }
+
+    final TreeMap<String, Object> data = Maps.newTreeMap();
+    for (; token == JsonToken.FIELD_NAME; token = jp.nextToken())
+    {
+      final String key = jp.getCurrentName();
+      final Object value = readValue(jp, ctxt, jp.nextToken());
+      if (value != null)
+      {
+        data.put(key, value);
+      }
+    }
+    return (WObject<?>)instantiator.createUsingDelegate(ctxt, data);
+  }
+
+  @Override
+  public Object deserializeWithType(final JsonParser jp, final DeserializationContext ctxt, final TypeDeserializer typeDeserializer)
+      throws IOException
+  {
+    return typeDeserializer.deserializeTypedFromObject(jp, ctxt);
+  }
+
+  // Read a nested value, mirroring the types created by Jackson's untyped deserializer
+  @Nullable
+  private Object readValue(final JsonParser jp, final DeserializationContext ctxt, final JsonToken token) throws IOException
+  {
+    switch (token)
+    {
+      case START_OBJECT:
+        return readObject(jp, ctxt);
+      case START_ARRAY:
+        return readArray(jp, ctxt);
+      case VALUE_STRING:
+        return jp.getText();
+      case VALUE_NUMBER_INT:
+        if (ctxt.isEnabled(DeserializationFeature.USE_BIG_INTEGER_FOR_INTS))
+        {
+          return jp.getBigIntegerValue();
+        }
+        return jp.getNumberValue();
+      case VALUE_NUMBER_FLOAT:
+        if (ctxt.isEnabled(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS))
+        {
+          return jp.getDecimalValue();
+        }
+        return jp.getDoubleValue();
+      case VALUE_TRUE:
+        return Boolean.TRUE;
+      case VALUE_FALSE:
+        return Boolean.FALSE;
+      case VALUE_NULL:
+        return null;
+      case VALUE_EMBEDDED_OBJECT:
+        return jp.getEmbeddedObject();
+      default:
+        throw ctxt.mappingException(Object.class, token);
+    }
+  }
+
+  private ImmutableSortedMap<String, Object> readObject(final JsonParser jp, final DeserializationContext ctxt) throws IOException
+  {
+    final TreeMap<String, Object> result = Maps.newTreeMap();
+    for (JsonToken token = jp.nextToken(); token == JsonToken.FIELD_NAME; token = jp.nextToken())
+    {
+      final String key = jp.getCurrentName();
+      final Object value = readValue(jp, ctxt, jp.nextToken());
+      if (value != null)
+      {
+        result.put(key, value);
+      }
+    }
+    return ImmutableSortedMap.copyOfSorted(result);
+  }
+
+  private ImmutableList<Object> readArray(final JsonParser jp, final DeserializationContext ctxt) throws IOException
+  {
+    final ImmutableList.Builder<Object> resultB = ImmutableList.builder();
+    for (JsonToken token = jp.nextToken(); token != JsonToken.END_ARRAY; token = jp.nextToken())
+    {
+      final Object value = readValue(jp, ctxt, token);
+      if (value == null)
+      {
+        throw ctxt.mappingException("Arrays in " + handledType().getSimpleName() + " cannot contain null values");
+      }
+      resultB.add(value);
+    }
+    return resultB.build();
+  }
+}
@@ -10,10 +10,73 @@
 
 package com.wealdtech.jackson.modules;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.wealdtech.WObject;
+
+import java.io.IOException;
+import java.util.Map;
+
 /**
  * Specialised serializer for WObject.
- * Provides a feature to toggle serializing internal values
+ * Writes the object's data, including internal values, straight from its sorted storage.  Simple values are written directly;
+ * anything else is handed to the serializer that the provider has for its class
  */
-public class WObjectSerializer
+public class WObjectSerializer extends StdSerializer<WObject<?>>
 {
+  public WObjectSerializer()
+  {
+    super(WObject.class, true);
+  }
+
+  @Override
+  public void serialize(final WObject<?> value, final JsonGenerator gen, final SerializerProvider provider) throws IOException
+  {
+    gen.writeStartObject();
+    serializeFields(value, gen, provider);
+    gen.writeEndObject();
+  }
+
+  @Override
+  public void serializeWithType(final WObject<?> value,
+                                final JsonGenerator gen,
+                                final SerializerProvider provider,
+                                final TypeSerializer typeSer) throws IOException
+  {
+    typeSer.writeTypePrefixForObject(value, gen);
+    serializeFields(value, gen, provider);
+    typeSer.writeTypeSuffixForObject(value, gen);
+  }
+
+  private void serializeFields(final WObject<?> value, final JsonGenerator gen, final SerializerProvider provider)
+      throws IOException
+  {
+    for (final Map.Entry<String, Object> entry : value.getRawData().entrySet())
+    {
+      gen.writeFieldName(entry.getKey());
+      final Object val = entry.getValue();
+      if (val instanceof String)
+      {
+        gen.writeString((String)val);
+      }
+      else if (val instanceof Boolean)
+      {
+        gen.writeBoolean((Boolean)val);
+      }
+      else if (val instanceof Integer)
+      {
+        gen.writeNumber((Integer)val);
+      }
+      else if (val instanceof Long)
+      {
+        gen.writeNumber((Long)val);
+      }
+      else
+      {
+        provider.defaultSerializeValue(val, gen);
+      }
+    }
+  }
 }
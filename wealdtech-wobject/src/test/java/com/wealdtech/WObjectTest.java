@@ -11,12 +11,14 @@
 package com.wealdtech;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.google.common.base.Objects;
 import com.google.common.base.Optional;
 import com.google.common.collect.*;
+import com.wealdtech.jackson.Codec;
 import com.wealdtech.jackson.WealdMapper;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
@@ -27,6 +29,7 @@ import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.*;
 
 import static org.testng.Assert.*;
 
@@ -85,6 +88,51 @@ public class WObjectTest
     public static Builder<?> builder(final TestWObject2 prior){ return new Builder(prior); }
   }
 
+  public static class KeyedWObject extends WObject<KeyedWObject>
+  {
+    @WObjectKey
+    private static final String NAME = "name";
+    @WObjectKey
+    private static final String COUNT = "count";
+    @WObjectKey
+    private static final String TAGS = "tags";
+    @WObjectKey
+    private static final String MEMBER_IDS = "memberids";
+    @WObjectKey
+    private static final String START = "start";
+
+    @JsonCreator
+    public KeyedWObject(final Map<String, Object> data)
+    {
+      super(data);
+    }
+
+    @JsonIgnore
+    public String getName(){ return WObjectTest_KeyedWObjectAccessors.getName(this).orNull(); }
+
+    @JsonIgnore
+    public Long getCount(){ return WObjectTest_KeyedWObjectAccessors.getCount(this).orNull(); }
+
+    @JsonIgnore
+    public ImmutableSet<String> getTags(){ return WObjectTest_KeyedWObjectAccessors.getTags(this).orNull(); }
+
+    @JsonIgnore
+    public ImmutableList<WID<TestWObject>> getMemberIds(){ return WObjectTest_KeyedWObjectAccessors.getMemberIds(this).orNull(); }
+
+    @JsonIgnore
+    public DateTime getStart(){ return WObjectTest_KeyedWObjectAccessors.getStart(this).orNull(); }
+
+    public static class Builder<P extends Builder<P>> extends WObject.Builder<KeyedWObject, P>
+    {
+      public KeyedWObject build()
+      {
+        return new KeyedWObject(data);
+      }
+    }
+
+    public static Builder<?> builder(){ return new Builder(); }
+  }
+
   @Test
   public void testSer() throws JsonProcessingException
   {
@@ -534,4 +582,353 @@ public class WObjectTest
     assertEquals(testObj2.get("list", new TypeReference<ImmutableList<DateTime>>() {}).get().get(0),
                  new DateTime(3456789000000L, DateTimeZone.UTC));
   }
+
+  @Test
+  public void testConversions()
+  {
+    final TestWObject testObj1 = TestWObject.builder()
+                                            .data("quoted", "a \"quoted\" value")
+                                            .data("number", 12)
+                                            .data("obj", ImmutableMap.of("a", "1", "b", 2))
+                                            .data("ids", ImmutableList.of("1", "2"))
+                                            .build();
+    assertEquals(testObj1.get("quoted", String.class).get(), "a \"quoted\" value");
+    assertEquals(testObj1.get("number", Long.class).get(), (Long)12L);
+    final TestWObject2 obj = testObj1.get("obj", TestWObject2.class).get();
+    assertEquals(obj.get("b", Integer.class).get(), (Integer)2);
+    final ImmutableSet<WID<TestWObject>> ids = testObj1.get("ids", new TypeReference<ImmutableSet<WID<TestWObject>>>() {}).get();
+    assertEquals(ids, ImmutableSet.of(WID.<TestWObject>fromString("1"), WID.<TestWObject>fromString("2")));
+  }
+
+  // Ensure that converted values are memoised without altering the raw data, and are safe to obtain from multiple threads
+  @Test
+  public void testConcurrentGets() throws Exception
+  {
+    final TestWObject testObj1 = TestWObject.builder().data("number", 12).data("ids", ImmutableList.of("1", "2", "3")).build();
+    final TypeReference<ImmutableSet<WID<TestWObject>>> idsTypeRef = new TypeReference<ImmutableSet<WID<TestWObject>>>() {};
+
+    final ExecutorService executor = Executors.newFixedThreadPool(8);
+    final List<Future<ImmutableSet<WID<TestWObject>>>> futures = Lists.newArrayList();
+    for (int i = 0; i < 64; i++)
+    {
+      futures.add(executor.submit(new Callable<ImmutableSet<WID<TestWObject>>>()
+      {
+        @Override
+        public ImmutableSet<WID<TestWObject>> call()
+        {
+          assertEquals(testObj1.get("number", Long.class).get(), (Long)12L);
+          return testObj1.get("ids", idsTypeRef).get();
+        }
+      }));
+    }
+    for (final Future<ImmutableSet<WID<TestWObject>>> future : futures)
+    {
+      assertEquals(future.get().size(), 3);
+    }
+    executor.shutdown();
+
+    // Repeated gets return the memoised value
+    assertSame(testObj1.get("ids", idsTypeRef).get(), testObj1.get("ids", idsTypeRef).get());
+    // Raw data is untouched
+    assertEquals(testObj1.getAllData().get("number").getClass(), Integer.class);
+    assertEquals(testObj1.getAllData().get("ids"), ImmutableList.of("1", "2", "3"));
+  }
+
+  // Ensure that structural equality matches equality of the serialized form
+  @Test
+  public void testStructuralEquality()
+  {
+    final TestWObject2 subObj1 = TestWObject2.builder().id(WID.<TestWObject2>generate()).data("a", 1).data("b", "2").build();
+    final TestWObject testObj1 = TestWObject.builder()
+                                            .data("dt", new DateTime(123456789000L, DateTimeZone.UTC))
+                                            .data("int", 1)
+                                            .data("set", ImmutableSet.of("x", "y"))
+                                            .data("sub", subObj1)
+                                            .data("float", 1.5f)
+                                            .build();
+    final TestWObject testObj2 = TestWObject.builder()
+                                            .data("dt", ImmutableMap.of("timestamp", 123456789000L))
+                                            .data("int", 1L)
+                                            .data("set", ImmutableList.of("x", "y"))
+                                            .data("sub", ImmutableMap.of("_id", "1", "a", 1L, "b", "2"))
+                                            .data("float", 1.5d)
+                                            .build();
+    assertEquals(testObj1.hashCode(), testObj2.hashCode());
+    assertEquals(testObj1.compareTo(testObj2), 0);
+    assertEquals(testObj1, testObj2);
+    assertEquals(testObj1.toString(), testObj2.toString());
+
+    final TestWObject testObj3 = TestWObject.builder(testObj2).data("int", 1.0).build();
+    assertNotEquals(testObj1, testObj3);
+    assertNotEquals(testObj1.toString(), testObj3.toString());
+    assertEquals(Integer.signum(testObj1.compareTo(testObj3)), -Integer.signum(testObj3.compareTo(testObj1)));
+
+    final TestWObject testObj4 = TestWObject.builder(testObj2).data("set", ImmutableList.of("y", "x")).build();
+    assertNotEquals(testObj1, testObj4);
+  }
+
+  // Ensure that numbers which serialize the same are equal however they are held
+  @Test
+  public void testDecimalEquality() throws Exception
+  {
+    final TestWObject testObj1 = TestWObject.builder().id(WID.<TestWObject>generate()).data("float", 1.1f).build();
+    final TestWObject testObj2 = TestWObject.builder(testObj1).data("float", 1.1d).build();
+    assertEquals(testObj1.hashCode(), testObj2.hashCode());
+    assertEquals(testObj1.compareTo(testObj2), 0);
+    assertEquals(testObj1, testObj2);
+
+    final TestWObject testObj3 =
+        WealdMapper.getServerMapper().readValue(WealdMapper.getServerMapper().writeValueAsString(testObj1), TestWObject.class);
+    assertEquals(testObj3.compareTo(testObj1), 0);
+    assertEquals(testObj3, testObj1);
+
+    final TestWObject testObj4 = TestWObject.builder(testObj1).data("float", 1.2f).build();
+    assertNotEquals(testObj1, testObj4);
+    assertTrue(testObj1.compareTo(testObj4) < 0);
+    assertTrue(testObj4.compareTo(testObj1) > 0);
+  }
+
+  @Test
+  public void testExternalDataShared()
+  {
+    final ImmutableMap<String, Object> sub = ImmutableSortedMap.<String, Object>of("a", 1, "b", ImmutableList.of("x", "y"));
+    final TestWObject testObj1 = TestWObject.builder()
+                                            .id(WID.<TestWObject>generate())
+                                            .data("sub", sub)
+                                            .data("other", ImmutableMap.of("_hidden", 1, "shown", 2))
+                                            .build();
+    assertSame(testObj1.getData(), testObj1.getData());
+    assertFalse(testObj1.getData().containsKey("_id"));
+    // Unchanged subtrees are shared rather than copied
+    assertSame(testObj1.getData().get("sub"), testObj1.getAllData().get("sub"));
+    assertEquals(testObj1.getData().get("other"), ImmutableMap.of("shown", 2));
+    assertFalse(testObj1.isEmpty());
+    assertTrue(TestWObject.builder().id(WID.<TestWObject>generate()).build().isEmpty());
+  }
+
+  @Test
+  public void testCompactStorage()
+  {
+    final TestWObject testObj1 = TestWObject.builder().id(WID.<TestWObject>generate()).data("b", "1").data("a", 2).build();
+    final TestWObject testObj2 = TestWObject.builder().id(WID.<TestWObject>generate()).data("a", 3).data("b", "4").build();
+    // Objects with the same keys share their shape
+    assertSame(((CompactSortedMap)testObj1.data).shape, ((CompactSortedMap)testObj2.data).shape);
+    assertEquals(ImmutableList.copyOf(testObj1.data.keySet()), ImmutableList.of("_id", "a", "b"));
+    assertEquals(testObj1.get("a", Integer.class).get(), Integer.valueOf(2));
+    assertEquals(testObj2.get("b", String.class).get(), "4");
+    assertFalse(testObj1.exists("c"));
+    assertEquals(testObj1.data.firstKey(), "_id");
+    assertEquals(testObj1.data.lastKey(), "b");
+    assertEquals(testObj1.data.tailMap("a").size(), 2);
+
+    assertFalse(testObj1.getScratch("x").isPresent());
+    testObj1.setScratch("x", 1);
+    assertEquals(testObj1.getScratch("x").get(), 1);
+  }
+
+  @Test
+  public void testStreamingDeserialization() throws IOException
+  {
+    final String ser = "{\"b\":[1,2.5,{\"z\":null,\"y\":true}],\"a\":{\"d\":\"x\",\"c\":1},\"e\":null,\"__scratch\":1}";
+    final TestWObject testObj1 = WealdMapper.getServerMapper().readValue(ser, TestWObject.class);
+    assertEquals(ImmutableList.copyOf(testObj1.getRawData().keySet()), ImmutableList.of("a", "b"));
+    assertTrue(testObj1.getRawData().get("a") instanceof ImmutableSortedMap);
+    assertEquals(testObj1.getRawData().get("b"), ImmutableList.of(1, 2.5, ImmutableMap.of("y", true)));
+    assertEquals(testObj1.getScratch("__scratch").get(), 1);
+    assertEquals(WealdMapper.getServerMapper().writeValueAsString(testObj1), "{\"a\":{\"c\":1,\"d\":\"x\"},\"b\":[1,2.5,{\"y\":true}]}");
+  }
+
+  @Test
+  public void testBinaryCodec()
+  {
+    final TestWObject2 subObj1 = TestWObject2.builder().id(WID.<TestWObject2>generate()).data("a", 1).build();
+    final TestWObject testObj1 = TestWObject.builder()
+                                            .id(WID.<TestWObject>generate())
+                                            .data("test date", new DateTime(123456789000L, DateTimeZone.UTC))
+                                            .data("test list", ImmutableList.of("x", "y", "x"))
+                                            .data("test sub", subObj1)
+                                            .build();
+    final byte[] testObj1Ser = WObject.serialize(testObj1, Codec.SMILE);
+    final TestWObject testObj1Deser = WObject.deserialize(testObj1Ser, TestWObject.class, Codec.SMILE);
+    assertEquals(testObj1Deser, testObj1);
+    assertEquals(testObj1Deser.getId(), testObj1.getId());
+    assertEquals(testObj1Deser.get("test date", DateTime.class).get(), new DateTime(123456789000L, DateTimeZone.UTC));
+    assertEquals(WObject.serialize(testObj1Deser), WObject.serialize(testObj1));
+  }
+
+  @Test
+  public void testRecast()
+  {
+    final TestWObject testObj1 = TestWObject.builder().id(WID.<TestWObject>generate()).data("a", ImmutableMap.of("b", 1)).build();
+    testObj1.setScratch("x", 1);
+
+    final TestWObject2 testObj2 = WObject.recast(testObj1, TestWObject2.class);
+    assertEquals(testObj2.getRawData(), testObj1.getRawData());
+    assertEquals(testObj2.getScratch("x").get(), 1);
+    assertSame(WObject.recast(testObj1, TestWObject.class), testObj1);
+
+    // Shared recasting reuses the data of the original object
+    final TestWObject2 testObj3 = WObject.recastShared(testObj1, TestWObject2.class);
+    assertSame(testObj3.getRawData(), testObj1.getRawData());
+    assertEquals(testObj3.hashCode(), testObj1.hashCode());
+    assertEquals(testObj3.getScratch("x").get(), 1);
+    assertEquals(testObj3, testObj2);
+    assertEquals(WObject.serialize(testObj3), WObject.serialize(testObj1));
+    assertNull(WObject.recastShared(null, TestWObject2.class));
+  }
+
+  @Test
+  public void testGeneratedAccessors()
+  {
+    final ImmutableList<WID<TestWObject>> memberIds = ImmutableList.of(WID.<TestWObject>generate(), WID.<TestWObject>generate());
+    final DateTime start = new DateTime(1234567890000L, DateTimeZone.UTC);
+    final KeyedWObject builtObj = KeyedWObject.builder()
+                                              .id(WID.<KeyedWObject>generate())
+                                              .data(KeyedWObject.NAME, "test")
+                                              .data(KeyedWObject.COUNT, 3)
+                                              .data(KeyedWObject.TAGS, ImmutableSet.of("a", "b"))
+                                              .data(KeyedWObject.MEMBER_IDS, memberIds)
+                                              .data(KeyedWObject.START, start)
+                                              .build();
+    // Once deserialised collections are stored as lists, and identifiers and dates as strings
+    final KeyedWObject deserObj = WObject.deserialize(WObject.serialize(builtObj), KeyedWObject.class);
+    assertTrue(deserObj.getRawData().get(KeyedWObject.TAGS) instanceof ImmutableList);
+
+    for (final KeyedWObject obj : ImmutableList.of(builtObj, deserObj))
+    {
+      assertEquals(obj.getName(), "test");
+      assertEquals(Optional.fromNullable(obj.getName()), obj.get(KeyedWObject.NAME, new TypeReference<String>(){}));
+
+      assertEquals(obj.getCount(), Long.valueOf(3));
+      assertEquals(Optional.fromNullable(obj.getCount()), obj.get(KeyedWObject.COUNT, new TypeReference<Long>(){}));
+
+      assertEquals(obj.getTags(), ImmutableSet.of("a", "b"));
+      assertTrue(obj.getTags() instanceof ImmutableSet);
+      assertEquals(Optional.fromNullable(obj.getTags()), obj.get(KeyedWObject.TAGS, new TypeReference<ImmutableSet<String>>(){}));
+
+      assertEquals(obj.getMemberIds(), memberIds);
+      assertTrue(obj.getMemberIds().get(0) instanceof WID);
+      assertEquals(Optional.fromNullable(obj.getMemberIds()),
+                   obj.get(KeyedWObject.MEMBER_IDS, new TypeReference<ImmutableList<WID<TestWObject>>>(){}));
+
+      assertEquals(obj.getStart(), start);
+      assertEquals(Optional.fromNullable(obj.getStart()), obj.get(KeyedWObject.START, new TypeReference<DateTime>(){}));
+    }
+
+    // Missing values are absent through both routes
+    final KeyedWObject emptyObj = KeyedWObject.builder().id(WID.<KeyedWObject>generate()).build();
+    assertNull(emptyObj.getTags());
+    assertFalse(emptyObj.get(KeyedWObject.TAGS, new TypeReference<ImmutableSet<String>>(){}).isPresent());
+  }
+
+  @Test
+  public void testPatch()
+  {
+    final TestWObject2 subObj1 = TestWObject2.builder().data("a", 1).data("b", 2).build();
+    final TestWObject testObj1 = TestWObject.builder()
+                                            .id(WID.<TestWObject>generate())
+                                            .data("keep", "x")
+                                            .data("drop", "y")
+                                            .data("change", 1)
+                                            .data("nested", ImmutableMap.of("a", 1, "b", ImmutableMap.of("c", 2)))
+                                            .data("sub", subObj1)
+                                            .data("list", ImmutableList.of(1, 2))
+                                            .build();
+    final TestWObject testObj2 = TestWObject.builder(testObj1)
+                                            .data("drop", null)
+                                            .data("change", 2)
+                                            .data("new", true)
+                                            .data("nested", ImmutableMap.of("a", 1, "b", ImmutableMap.of("c", 3)))
+                                            .data("sub", TestWObject2.builder(subObj1).data("b", null).build())
+                                            .data("list", ImmutableList.of(1, 2, 3))
+                                            .build();
+
+    assertTrue(WObjectPatch.diff(testObj1, testObj1).isEmpty());
+
+    final WObjectPatch patch = WObjectPatch.diff(testObj1, testObj2);
+    final Map<ImmutableList<String>, WObjectPatch.Op> ops = Maps.newHashMap();
+    for (final WObjectPatch.Operation operation : patch.getOperations())
+    {
+      ops.put(operation.getPath(), operation.getOp());
+    }
+    assertEquals(ops, ImmutableMap.<ImmutableList<String>, WObjectPatch.Op>builder()
+                                  .put(ImmutableList.of("drop"), WObjectPatch.Op.REMOVE)
+                                  .put(ImmutableList.of("change"), WObjectPatch.Op.REPLACE)
+                                  .put(ImmutableList.of("new"), WObjectPatch.Op.ADD)
+                                  .put(ImmutableList.of("nested", "b", "c"), WObjectPatch.Op.REPLACE)
+                                  .put(ImmutableList.of("sub", "b"), WObjectPatch.Op.REMOVE)
+                                  .put(ImmutableList.of("list"), WObjectPatch.Op.REPLACE)
+                                  .build());
+
+    final TestWObject testObj3 = patch.apply(testObj1);
+    assertEquals(testObj3, testObj2);
+    assertEquals(WObject.serialize(testObj3), WObject.serialize(testObj2));
+  }
+
+  @Test
+  public void testPatchInternalKeys()
+  {
+    // Internal keys are ignored by equality but are still stored, so changes to them must show up in the patch
+    final TestWObject2 innerObj1 = TestWObject2.builder().data("a", 1).data("_note", "a").build();
+    final TestWObject2 innerObj2 = TestWObject2.builder(innerObj1).data("_note", "b").build();
+    assertEquals(innerObj1, innerObj2);
+    final TestWObject testObj1 = TestWObject.builder()
+                                            .id(WID.<TestWObject>generate())
+                                            .data("inner", innerObj1)
+                                            .data("list", ImmutableList.of(innerObj1))
+                                            .data("map", ImmutableMap.of("x", innerObj1))
+                                            .build();
+    final TestWObject testObj2 = TestWObject.builder(testObj1)
+                                            .data("inner", innerObj2)
+                                            .data("list", ImmutableList.of(innerObj2))
+                                            .data("map", ImmutableMap.of("x", innerObj2))
+                                            .build();
+
+    final WObjectPatch patch = WObjectPatch.diff(testObj1, testObj2);
+    final Map<ImmutableList<String>, WObjectPatch.Op> ops = Maps.newHashMap();
+    for (final WObjectPatch.Operation operation : patch.getOperations())
+    {
+      ops.put(operation.getPath(), operation.getOp());
+    }
+    assertEquals(ops, ImmutableMap.<ImmutableList<String>, WObjectPatch.Op>builder()
+                                  .put(ImmutableList.of("inner", "_note"), WObjectPatch.Op.REPLACE)
+                                  .put(ImmutableList.of("list"), WObjectPatch.Op.REPLACE)
+                                  .put(ImmutableList.of("map", "x", "_note"), WObjectPatch.Op.REPLACE)
+                                  .build());
+    assertEquals(WObject.serialize(patch.apply(testObj1)), WObject.serialize(testObj2));
+
+    // Unchanged internal keys still give an empty patch
+    assertTrue(WObjectPatch.diff(testObj1, TestWObject.builder(testObj1).data("inner", innerObj1).build()).isEmpty());
+  }
+
+  @Test
+  public void testBuilderSharing()
+  {
+    final TestWObject testObj1 = TestWObject.builder()
+                                            .id(WID.<TestWObject>generate())
+                                            .data("a", 1)
+                                            .data("nested", ImmutableMap.of("b", ImmutableList.of(1, 2)))
+                                            .data("c", "x")
+                                            .build();
+
+    // Changing a value shares the shape and the untouched values
+    final TestWObject testObj2 = TestWObject.builder(testObj1).data("a", 2).build();
+    assertSame(((CompactSortedMap)testObj2.data).shape, ((CompactSortedMap)testObj1.data).shape);
+    assertSame(testObj2.getRawData().get("nested"), testObj1.getRawData().get("nested"));
+    assertEquals(testObj2.get("a", Integer.class).get(), Integer.valueOf(2));
+    assertEquals(testObj2.hashCode(), new TestWObject(Maps.newHashMap(testObj2.getRawData())).hashCode());
+
+    // Adding and removing values
+    final TestWObject testObj3 =
+        TestWObject.builder(testObj2).data("c", null).data("d", ImmutableMap.of("e", true)).data("__scratch", 1).build();
+    assertEquals(ImmutableList.copyOf(testObj3.getRawData().keySet()), ImmutableList.of("_id", "a", "d", "nested"));
+    assertEquals(testObj3.getScratch("__scratch").get(), 1);
+    assertEquals(testObj3.hashCode(), new TestWObject(Maps.newHashMap(testObj3.getRawData())).hashCode());
+    assertEquals(testObj3, new TestWObject(Maps.newHashMap(testObj3.getRawData())));
+
+    // Putting back the original values gives an equal object
+    final TestWObject testObj4 = TestWObject.builder(testObj3).data("a", 1).data("c", "x").data("d", null).build();
+    assertEquals(testObj4, testObj1);
+    assertEquals(testObj4.hashCode(), testObj1.hashCode());
+  }
 }